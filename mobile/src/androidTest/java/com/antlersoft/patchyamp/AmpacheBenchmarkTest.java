@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.media.MediaBrowserCompat;
+import android.util.Log;
+
+import com.antlersoft.patchyamp.db.CatalogState;
+import com.antlersoft.patchyamp.db.ConnectionBean;
+import com.antlersoft.patchyamp.db.LocalCatalog;
+import com.antlersoft.patchyamp.db.PatchyDatabase;
+import com.example.android.uamp.model.MusicProvider;
+import com.example.android.uamp.model.MusicProviderSource;
+import com.example.android.uamp.model.ResultWrapper;
+import com.example.android.uamp.utils.QueueHelper;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_ALBUMS;
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_ARTISTS;
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_ARTIST_SONGS;
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE;
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_PLAYLISTS;
+import static com.example.android.uamp.utils.MediaIDHelper.createMediaID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * End to end timings of AmpacheSource and MusicProvider against FakeAmpacheServer.
+ *
+ * For each browse category, for shuffling all songs and for starting a random queue, reports the time until the first
+ * items arrive, the time until all have arrived, and the allocations made meanwhile. Results
+ * go to logcat under the tag AmpacheBenchmark, and to the instrumentation status, so they
+ * show up with am instrument -r. Allocation counts are for the whole process, so they
+ * include the fake server's.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AmpacheBenchmarkTest {
+    private static final String TAG = "AmpacheBenchmark";
+    private static final int SONGS = 20000;
+    private static final int SONGS_PER_ALBUM = 10;
+    private static final int ALBUMS_PER_ARTIST = 4;
+    private static final int TAGS = 50;
+    private static final int PLAYLISTS = 20;
+    private static final int PLAYLIST_SIZE = 200;
+    private static final long LATENCY_MS = 30;
+    private static final int RUNS = 5;
+    private static final long TIMEOUT_S = 300;
+
+    private static FakeAmpacheServer sServer;
+    private static LocalCatalog sCatalog;
+    private static AmpacheSource sSource;
+    private static MusicProvider sProvider;
+
+    /**
+     * Starts an operation that reports to a Measurement
+     */
+    private interface Operation {
+        void start(Measurement m);
+    }
+
+    private static class Measurement {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private long mStart;
+        private long mFirst = -1;
+        private long mEnd;
+        private long mAllocCount;
+        private long mAllocBytes;
+        private int mItems;
+
+        void items(int count) {
+            if (mFirst < 0) {
+                mFirst = SystemClock.elapsedRealtimeNanos();
+            }
+            mItems += count;
+        }
+
+        void items(Iterator<?> it) {
+            int count = 0;
+            for (; it.hasNext(); it.next()) {
+                count++;
+            }
+            items(count);
+        }
+
+        void finish() {
+            mEnd = SystemClock.elapsedRealtimeNanos();
+            mDone.countDown();
+        }
+
+        long firstMs() {
+            return (mFirst - mStart) / 1000000;
+        }
+
+        long totalMs() {
+            return (mEnd - mStart) / 1000000;
+        }
+    }
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        sServer = new FakeAmpacheServer(SONGS, SONGS_PER_ALBUM, ALBUMS_PER_ARTIST, TAGS, PLAYLISTS, PLAYLIST_SIZE);
+        sServer.start();
+        sServer.setDefaultLatency(LATENCY_MS);
+        PatchyDatabase db = PatchyDatabase.createInMemory(context);
+        sCatalog = new LocalCatalog(db);
+        sSource = new AmpacheSource(context, sCatalog);
+        MusicProviderSource.ErrorCallback errorCallback = (message, throwable) -> Log.e(TAG, message, throwable);
+        sProvider = MusicProvider.getInstance(db, sSource, errorCallback);
+
+        ConnectionBean bean = new ConnectionBean();
+        bean.setUrl(sServer.getUrl());
+        bean.setLogin(FakeAmpacheServer.LOGIN);
+        bean.setPassword(FakeAmpacheServer.PASSWORD);
+        Bundle extras = new Bundle();
+        extras.putParcelable(ConnectionBean.GEN_TABLE_NAME, bean.Gen_getValues());
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> sProvider.requestLogin(extras));
+        long deadline = SystemClock.elapsedRealtime() + TIMEOUT_S * 1000;
+        while (sSource.getState() != MusicProviderSource.State.INITIALIZED ||
+                ! sCatalog.isCompleteFor(sServer.getUrl(), FakeAmpacheServer.LOGIN)) {
+            assertTrue("Login and catalog sync did not finish", SystemClock.elapsedRealtime() < deadline);
+            Thread.sleep(100);
+        }
+    }
+
+    @AfterClass
+    public static void stopServer() {
+        sServer.stop();
+    }
+
+    /**
+     * Browse lists read from the server, as before the catalog has been synced
+     */
+    @Test
+    public void browseFromServer() throws Exception {
+        useCatalog(false);
+        try {
+            browseSource("server");
+        } finally {
+            useCatalog(true);
+        }
+    }
+
+    /**
+     * Browse lists read from the synced catalog
+     */
+    @Test
+    public void browseFromCatalog() throws Exception {
+        useCatalog(true);
+        browseSource("catalog");
+    }
+
+    /**
+     * Browse lists through MusicProvider, as a media browser sees them; runs after the first
+     * come from its cache of recent lists
+     */
+    @Test
+    public void browseThroughProvider() throws Exception {
+        useCatalog(true);
+        for (String mediaId : Arrays.asList(MEDIA_ID_PLAYLISTS, MEDIA_ID_MUSICS_BY_GENRE, MEDIA_ID_ARTISTS, MEDIA_ID_ALBUMS,
+                createMediaID(null, MEDIA_ID_PLAYLISTS, "0"), createMediaID(null, MEDIA_ID_MUSICS_BY_GENRE, "0"),
+                createMediaID(null, MEDIA_ID_ARTISTS, "0"), createMediaID(null, MEDIA_ID_ARTIST_SONGS, "0"),
+                createMediaID(null, MEDIA_ID_ALBUMS, "0"))) {
+            report("provider cold " + mediaId, new Measurement[] { measure(browse(mediaId)) });
+            Measurement[] runs = new Measurement[RUNS];
+            for (int i = 0; i < RUNS; i++) {
+                runs[i] = measure(browse(mediaId));
+            }
+            report("provider " + mediaId, runs);
+        }
+    }
+
+    /**
+     * Shuffle all songs into a queue, a page at a time
+     */
+    @Test
+    public void shuffleAll() throws Exception {
+        Measurement[] runs = new Measurement[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            runs[i] = measure(m -> QueueHelper.getShuffledQueue(sProvider, queue -> m.items(queue.size()), (queue, lastPage) -> {
+                m.items(queue.size());
+                if (lastPage) {
+                    m.finish();
+                }
+                return true;
+            }));
+            assertEquals(SONGS, runs[i].mItems);
+        }
+        report("shuffle all", runs);
+    }
+
+    /**
+     * Start a random queue, which reads only a few songs whatever the size of the library;
+     * from the local catalog, from the server, and from a server before API 4
+     */
+    @Test
+    public void randomQueue() throws Exception {
+        Measurement[] runs = new Measurement[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            runs[i] = measure(m -> QueueHelper.getRandomQueue(sProvider, queue -> {
+                m.items(queue.size());
+                m.finish();
+            }));
+            assertEquals(QueueHelper.RANDOM_QUEUE_SIZE, runs[i].mItems);
+        }
+        report("random queue", runs);
+        useCatalog(false);
+        try {
+            sServer.resetCounts();
+            for (int i = 0; i < RUNS; i++) {
+                runs[i] = measure(m -> QueueHelper.getRandomQueue(sProvider, queue -> {
+                    m.items(queue.size());
+                    m.finish();
+                }));
+                assertEquals(QueueHelper.RANDOM_QUEUE_SIZE, runs[i].mItems);
+            }
+            report("random queue from server", runs);
+            assertEquals(RUNS, sServer.getRequestCount("playlist_generate"));
+            assertEquals(0, sServer.getRequestCount("songs"));
+            // A server before API 4 has no playlist_generate, so one song is read from each of
+            // a few random offsets, using the song count from the handshake
+            sServer.failNext("playlist_generate", 1, 405);
+            sServer.resetCounts();
+            for (int i = 0; i < RUNS; i++) {
+                runs[i] = measure(m -> QueueHelper.getRandomQueue(sProvider, queue -> {
+                    m.items(queue.size());
+                    m.finish();
+                }));
+                assertEquals(QueueHelper.RANDOM_QUEUE_SIZE, runs[i].mItems);
+            }
+            report("random queue from server before API 4", runs);
+            assertEquals(1, sServer.getRequestCount("playlist_generate"));
+            assertEquals(RUNS * QueueHelper.RANDOM_QUEUE_SIZE, sServer.getRequestCount("songs"));
+        } finally {
+            useCatalog(true);
+        }
+    }
+
+    /**
+     * A browse request made after the session expired is answered after one new handshake
+     */
+    @Test
+    public void replaysAfterSessionExpires() throws Exception {
+        useCatalog(false);
+        try {
+            sServer.resetCounts();
+            sServer.expireSessions();
+            Measurement m = measure(r -> sSource.GetAlbumSongs("1", (title, songs) -> {
+                r.items(songs);
+                r.finish();
+            }));
+            report("album songs after expiry", new Measurement[] { m });
+            assertEquals(SONGS_PER_ALBUM, m.mItems);
+            assertEquals(1, sServer.getRequestCount("handshake"));
+            assertEquals(MusicProviderSource.State.INITIALIZED, sSource.getState());
+        } finally {
+            useCatalog(true);
+        }
+    }
+
+    private static Operation browse(String mediaId) {
+        return m -> sProvider.getChildren(mediaId, InstrumentationRegistry.getTargetContext().getResources(), null,
+                new ResultWrapper<List<MediaBrowserCompat.MediaItem>>(null) {
+                    @Override
+                    public void onSendResult(List<MediaBrowserCompat.MediaItem> result) {
+                        m.items(result.size());
+                        m.finish();
+                    }
+                });
+    }
+
+    private void browseSource(String from) throws Exception {
+        benchmark(from + " playlists", m -> sSource.GetPlaylists((title, items) -> {
+            m.items(items);
+            m.finish();
+        }));
+        benchmark(from + " genres", m -> sSource.GetGenres((title, items) -> {
+            m.items(items);
+            m.finish();
+        }));
+        benchmark(from + " artists", m -> sSource.GetArtists((title, items) -> {
+            m.items(items);
+            m.finish();
+        }));
+        benchmark(from + " albums", m -> sSource.GetAlbums((title, items) -> {
+            m.items(items);
+            m.finish();
+        }));
+        benchmark(from + " playlist songs", m -> sSource.GetPlaylistSongs("0", (title, songs) -> {
+            m.items(songs);
+            m.finish();
+        }));
+        benchmark(from + " genre songs", m -> sSource.GetGenreSongs("0", (title, songs) -> {
+            m.items(songs);
+            m.finish();
+        }));
+        benchmark(from + " artist albums", m -> sSource.GetArtistAlbums("0", (title, items) -> {
+            m.items(items);
+            m.finish();
+        }));
+        benchmark(from + " artist songs", m -> sSource.GetArtistSongs("0", (title, songs) -> {
+            m.items(songs);
+            m.finish();
+        }));
+        benchmark(from + " album songs", m -> sSource.GetAlbumSongs("0", (title, songs) -> {
+            m.items(songs);
+            m.finish();
+        }));
+        benchmark(from + " song", m -> sSource.GetSong("0", song -> {
+            m.items(song == null ? 0 : 1);
+            m.finish();
+        }));
+    }
+
+    private void benchmark(String name, Operation operation) throws Exception {
+        // Warm up
+        measure(operation);
+        Measurement[] runs = new Measurement[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            runs[i] = measure(operation);
+            assertTrue(name + " returned nothing", runs[i].mItems > 0);
+        }
+        report(name, runs);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Measurement measure(Operation operation) throws Exception {
+        Measurement m = new Measurement();
+        Debug.resetGlobalAllocCount();
+        Debug.resetGlobalAllocSize();
+        Debug.startAllocCounting();
+        m.mStart = SystemClock.elapsedRealtimeNanos();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> operation.start(m));
+        assertTrue("Timed out", m.mDone.await(TIMEOUT_S, TimeUnit.SECONDS));
+        Debug.stopAllocCounting();
+        m.mAllocCount = Debug.getGlobalAllocCount();
+        m.mAllocBytes = Debug.getGlobalAllocSize();
+        return m;
+    }
+
+    private static void report(String name, Measurement[] runs) {
+        long[] first = new long[runs.length];
+        long[] total = new long[runs.length];
+        long allocCount = 0;
+        long allocBytes = 0;
+        for (int i = 0; i < runs.length; i++) {
+            first[i] = runs[i].firstMs();
+            total[i] = runs[i].totalMs();
+            allocCount += runs[i].mAllocCount;
+            allocBytes += runs[i].mAllocBytes;
+        }
+        String line = String.format("%-40s items %6d first %6d ms total %6d ms allocs %9d %8d KB", name,
+                runs[0].mItems, median(first), median(total), allocCount / runs.length, allocBytes / runs.length / 1024);
+        Log.i(TAG, line);
+        Bundle status = new Bundle();
+        status.putString(TAG, line);
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, status);
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static void useCatalog(boolean use) {
+        CatalogState state = sCatalog.getState();
+        state.setComplete(use);
+        sCatalog.saveState(state);
+    }
+}
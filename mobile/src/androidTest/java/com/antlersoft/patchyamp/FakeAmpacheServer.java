@@ -0,0 +1,592 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stands in for an Ampache server on localhost, serving the XML API from a synthetic library,
+ * so AmpacheSource and MusicProvider can be measured without a real server.
+ *
+ * The library is generated from its size: songs are grouped into albums, albums into artists,
+ * and each song has one tag. Responses can be slowed down and requests made to fail, per API
+ * action. Stream urls return silence of a fixed size.
+ */
+public class FakeAmpacheServer {
+    public static final String LOGIN = "bench";
+    public static final String PASSWORD = "bench";
+    // Reported in handshake; unchanged, so a second login finds the catalog up to date
+    private static final String LIBRARY_DATE = "2017-01-01T00:00:00+00:00";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int mSongs;
+    private final int mSongsPerAlbum;
+    private final int mAlbumsPerArtist;
+    private final int mTags;
+    private final int mPlaylists;
+    private final int mPlaylistSize;
+
+    private volatile long mDefaultLatencyMs;
+    private volatile long mSessionLengthMs = 3600000;
+    private volatile int mStreamBytes = 256 * 1024;
+    private final HashMap<String, Long> mLatencyMs = new HashMap<>();
+    private final HashMap<String, int[]> mFailures = new HashMap<>();
+    private final HashMap<String, AtomicInteger> mRequestCounts = new HashMap<>();
+    private final Random mRandom = new Random();
+    private final HashSet<String> mSessions = new HashSet<>();
+    private int mNextSession;
+
+    private ServerSocket mServerSocket;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    /**
+     * @param songs Number of songs in the library
+     * @param songsPerAlbum Songs in each album
+     * @param albumsPerArtist Albums by each artist
+     * @param tags Number of tags (genres)
+     * @param playlists Number of playlists
+     * @param playlistSize Songs in each playlist
+     */
+    public FakeAmpacheServer(int songs, int songsPerAlbum, int albumsPerArtist, int tags, int playlists, int playlistSize) {
+        mSongs = songs;
+        mSongsPerAlbum = songsPerAlbum;
+        mAlbumsPerArtist = albumsPerArtist;
+        mTags = tags;
+        mPlaylists = playlists;
+        mPlaylistSize = playlistSize;
+    }
+
+    /**
+     * Start listening on a free port on the loopback interface
+     */
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mExecutor.execute(() -> {
+            while (! mServerSocket.isClosed()) {
+                try {
+                    Socket socket = mServerSocket.accept();
+                    mExecutor.execute(() -> serve(socket));
+                } catch (IOException ioe) {
+                    // Closed by stop
+                }
+            }
+        });
+    }
+
+    public void stop() {
+        try {
+            mServerSocket.close();
+        } catch (IOException ioe) {
+            // Already closed
+        }
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * @return Url to log in to, as entered in a connection
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/";
+    }
+
+    public int getSongCount() {
+        return mSongs;
+    }
+
+    /**
+     * Delay every response by this long, unless set for the action
+     */
+    public void setDefaultLatency(long ms) {
+        mDefaultLatencyMs = ms;
+    }
+
+    /**
+     * Delay responses to an API action, or "stream" for stream requests, by this long
+     */
+    public void setLatency(String action, long ms) {
+        synchronized (mLatencyMs) {
+            mLatencyMs.put(action, ms);
+        }
+    }
+
+    /**
+     * Make the next requests for an API action fail
+     * @param action API action, like "songs", or "stream"
+     * @param count Number of requests to fail
+     * @param code Ampache error code to return, like 401 for an expired session; 0 to return
+     *             HTTP status 500 instead
+     */
+    public void failNext(String action, int count, int code) {
+        synchronized (mFailures) {
+            mFailures.put(action, new int[] { count, code });
+        }
+    }
+
+    /**
+     * Expire every session, so the next request with any of them fails with error 401
+     */
+    public void expireSessions() {
+        synchronized (mSessions) {
+            mSessions.clear();
+        }
+    }
+
+    public void setSessionLength(long ms) {
+        mSessionLengthMs = ms;
+    }
+
+    public void setStreamBytes(int bytes) {
+        mStreamBytes = bytes;
+    }
+
+    /**
+     * @return Number of requests for an action since the last resetCounts
+     */
+    public int getRequestCount(String action) {
+        synchronized (mRequestCounts) {
+            AtomicInteger count = mRequestCounts.get(action);
+            return count == null ? 0 : count.get();
+        }
+    }
+
+    public void resetCounts() {
+        synchronized (mRequestCounts) {
+            mRequestCounts.clear();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), UTF8));
+            String requestLine = reader.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            long rangeStart = 0;
+            for (String header = reader.readLine(); header != null && header.length() > 0; header = reader.readLine()) {
+                String lower = header.toLowerCase(Locale.US);
+                if (lower.startsWith("range: bytes=")) {
+                    String start = lower.substring("range: bytes=".length());
+                    int dash = start.indexOf('-');
+                    rangeStart = Long.parseLong(dash < 0 ? start.trim() : start.substring(0, dash).trim());
+                }
+            }
+            String[] parts = requestLine.split(" ");
+            String target = parts.length > 1 ? parts[1] : "/";
+            int q = target.indexOf('?');
+            String path = q < 0 ? target : target.substring(0, q);
+            Map<String, String> params = parseQuery(q < 0 ? "" : target.substring(q + 1));
+            String action = path.endsWith("xml.server.php") ? params.get("action") : "stream";
+            if (action == null) {
+                action = "";
+            }
+            count(action);
+            sleep(latency(action));
+            OutputStream out = socket.getOutputStream();
+            int failure = takeFailure(action);
+            if (failure == 0) {
+                writeResponse(out, "500 Internal Server Error", "text/plain", "Injected failure".getBytes(UTF8));
+            } else if (failure > 0) {
+                writeXml(out, error(failure, "Injected failure"));
+            } else if ("stream".equals(action)) {
+                writeStream(out, rangeStart);
+            } else {
+                writeXml(out, respond(action, params));
+            }
+        } catch (IOException | RuntimeException e) {
+            // Client went away
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ioe) {
+                // Nothing more to do
+            }
+        }
+    }
+
+    private void count(String action) {
+        synchronized (mRequestCounts) {
+            AtomicInteger count = mRequestCounts.get(action);
+            if (count == null) {
+                count = new AtomicInteger();
+                mRequestCounts.put(action, count);
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    private long latency(String action) {
+        synchronized (mLatencyMs) {
+            Long ms = mLatencyMs.get(action);
+            return ms == null ? mDefaultLatencyMs : ms;
+        }
+    }
+
+    /**
+     * @return -1 for no failure, otherwise the error code (0 for HTTP 500)
+     */
+    private int takeFailure(String action) {
+        synchronized (mFailures) {
+            int[] failure = mFailures.get(action);
+            if (failure == null || failure[0] <= 0) {
+                return -1;
+            }
+            failure[0]--;
+            return failure[1];
+        }
+    }
+
+    private static void sleep(long ms) {
+        if (ms > 0) {
+            try {
+                Thread.sleep(ms);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        HashMap<String, String> params = new HashMap<>();
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"), URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+            }
+        }
+        return params;
+    }
+
+    private String respond(String action, Map<String, String> params) {
+        if ("handshake".equals(action)) {
+            return handshake();
+        }
+        String auth = params.get("auth");
+        synchronized (mSessions) {
+            if (auth == null || ! mSessions.contains(auth)) {
+                return error(401, "Session Expired");
+            }
+        }
+        int offset = parseInt(params.get("offset"), 0);
+        int limit = parseInt(params.get("limit"), 0);
+        String filter = params.get("filter");
+        int id = parseInt(filter, -1);
+        StringBuilder sb = new StringBuilder();
+        switch (action) {
+            case "ping":
+                element(sb, "session_expire", expiry());
+                element(sb, "server", "fake");
+                element(sb, "version", "380001");
+                break;
+            case "songs":
+                // add and update filters: the library never changes after LIBRARY_DATE
+                if (params.get(AmpacheXmlClient.FILTER_ADD) == null && params.get(AmpacheXmlClient.FILTER_UPDATE) == null) {
+                    songRange(sb, 0, mSongs, offset, limit, auth);
+                }
+                break;
+            case "playlist_generate":
+                // Only mode=random, format=song
+                for (int i = 0; i < limit && i < mSongs; i++) {
+                    song(sb, mRandom.nextInt(mSongs), auth);
+                }
+                break;
+            case "song":
+                if (id >= 0 && id < mSongs) {
+                    song(sb, id, auth);
+                }
+                break;
+            case "search_songs":
+                for (int i = 0, found = 0; i < mSongs && found < 100; i++) {
+                    if (filter != null && songTitle(i).contains(filter)) {
+                        song(sb, i, auth);
+                        found++;
+                    }
+                }
+                break;
+            case "albums":
+                if (params.get(AmpacheXmlClient.FILTER_ADD) == null && params.get(AmpacheXmlClient.FILTER_UPDATE) == null) {
+                    for (int a : window(albumCount(), offset, limit)) {
+                        album(sb, a, auth);
+                    }
+                }
+                break;
+            case "album_songs":
+                if (id >= 0 && id < albumCount()) {
+                    songRange(sb, id * mSongsPerAlbum, Math.min(mSongs, (id + 1) * mSongsPerAlbum), offset, limit, auth);
+                }
+                break;
+            case "artists":
+                if (params.get(AmpacheXmlClient.FILTER_ADD) == null && params.get(AmpacheXmlClient.FILTER_UPDATE) == null) {
+                    for (int a : window(artistCount(), offset, limit)) {
+                        artist(sb, a);
+                    }
+                }
+                break;
+            case "artist_albums":
+                if (id >= 0 && id < artistCount()) {
+                    for (int a = id * mAlbumsPerArtist; a < Math.min(albumCount(), (id + 1) * mAlbumsPerArtist); a++) {
+                        album(sb, a, auth);
+                    }
+                }
+                break;
+            case "artist_songs":
+                if (id >= 0 && id < artistCount()) {
+                    int songsPerArtist = mSongsPerAlbum * mAlbumsPerArtist;
+                    songRange(sb, id * songsPerArtist, Math.min(mSongs, (id + 1) * songsPerArtist), offset, limit, auth);
+                }
+                break;
+            case "tags":
+                for (int t : window(mTags, offset, limit)) {
+                    sb.append("<tag id=\"").append(t).append("\">");
+                    element(sb, "name", tagName(t));
+                    element(sb, "albums", "0");
+                    element(sb, "artists", "0");
+                    element(sb, "songs", Integer.toString(tagSongs(t)));
+                    element(sb, "videos", "0");
+                    element(sb, "playlist", "0");
+                    element(sb, "stream", "0");
+                    sb.append("</tag>\n");
+                }
+                break;
+            case "tag_songs":
+                if (id >= 0 && id < mTags) {
+                    int skipped = 0;
+                    int written = 0;
+                    for (int i = id; i < mSongs && (limit <= 0 || written < limit); i += mTags) {
+                        if (skipped++ >= offset) {
+                            song(sb, i, auth);
+                            written++;
+                        }
+                    }
+                }
+                break;
+            case "playlists":
+                for (int p : window(mPlaylists, offset, limit)) {
+                    sb.append("<playlist id=\"").append(p).append("\">");
+                    element(sb, "name", "Playlist " + p);
+                    element(sb, "owner", LOGIN);
+                    element(sb, "items", Integer.toString(mPlaylistSize));
+                    element(sb, "type", "public");
+                    sb.append("</playlist>\n");
+                }
+                break;
+            case "playlist_songs":
+                if (id >= 0 && id < mPlaylists) {
+                    // Songs spread through the library, as a real playlist would be
+                    int stride = Math.max(1, mSongs / Math.max(1, mPlaylistSize));
+                    int written = 0;
+                    for (int n = offset; n < mPlaylistSize && (limit <= 0 || written < limit); n++, written++) {
+                        song(sb, (id + n * stride) % mSongs, auth);
+                    }
+                }
+                break;
+            default:
+                return error(405, "Invalid Request");
+        }
+        return sb.toString();
+    }
+
+    private String handshake() {
+        String auth;
+        synchronized (mSessions) {
+            auth = "fake" + (mNextSession++);
+            mSessions.add(auth);
+        }
+        StringBuilder sb = new StringBuilder();
+        element(sb, "auth", auth);
+        element(sb, "api", "380001");
+        element(sb, "session_expire", expiry());
+        element(sb, "update", LIBRARY_DATE);
+        element(sb, "add", LIBRARY_DATE);
+        element(sb, "clean", LIBRARY_DATE);
+        element(sb, "songs", Integer.toString(mSongs));
+        element(sb, "albums", Integer.toString(albumCount()));
+        element(sb, "artists", Integer.toString(artistCount()));
+        element(sb, "playlists", Integer.toString(mPlaylists));
+        element(sb, "videos", "0");
+        element(sb, "catalogs", "1");
+        return sb.toString();
+    }
+
+    private String expiry() {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'+00:00'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return format.format(new Date(System.currentTimeMillis() + mSessionLengthMs));
+    }
+
+    private static String error(int code, String message) {
+        return "<error code=\"" + code + "\"><![CDATA[" + message + "]]></error>";
+    }
+
+    private int albumCount() {
+        return (mSongs + mSongsPerAlbum - 1) / mSongsPerAlbum;
+    }
+
+    private int artistCount() {
+        return (albumCount() + mAlbumsPerArtist - 1) / mAlbumsPerArtist;
+    }
+
+    private int tagSongs(int tag) {
+        return mSongs / mTags + (tag < mSongs % mTags ? 1 : 0);
+    }
+
+    private static String songTitle(int song) {
+        return "Song " + song;
+    }
+
+    private static String tagName(int tag) {
+        return "Genre " + tag;
+    }
+
+    private static int[] window(int count, int offset, int limit) {
+        int end = limit > 0 ? Math.min(count, offset + limit) : count;
+        int start = Math.min(offset, end);
+        int[] ids = new int[end - start];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = start + i;
+        }
+        return ids;
+    }
+
+    private void songRange(StringBuilder sb, int first, int end, int offset, int limit, String auth) {
+        for (int i : window(end - first, offset, limit)) {
+            song(sb, first + i, auth);
+        }
+    }
+
+    private void song(StringBuilder sb, int song, String auth) {
+        int album = song / mSongsPerAlbum;
+        int artist = album / mAlbumsPerArtist;
+        int tag = song % mTags;
+        sb.append("<song id=\"").append(song).append("\">");
+        element(sb, "title", songTitle(song));
+        sb.append("<artist id=\"").append(artist).append("\"><![CDATA[Artist ").append(artist).append("]]></artist>");
+        sb.append("<album id=\"").append(album).append("\"><![CDATA[Album ").append(album).append("]]></album>");
+        sb.append("<tag id=\"").append(tag).append("\" count=\"1\"><![CDATA[").append(tagName(tag)).append("]]></tag>");
+        element(sb, "filename", "/music/" + song + ".mp3");
+        element(sb, "track", Integer.toString(song % mSongsPerAlbum + 1));
+        element(sb, "time", Integer.toString(180 + song % 120));
+        element(sb, "year", "2017");
+        element(sb, "bitrate", "192000");
+        element(sb, "mode", "cbr");
+        element(sb, "mime", "audio/mpeg");
+        element(sb, "url", getUrl() + "play/index.php?ssid=" + auth + "&oid=" + song + "&uid=1&name=" + song + ".mp3");
+        element(sb, "size", Integer.toString(mStreamBytes));
+        element(sb, "art", getUrl() + "image.php?object_id=" + album + "&object_type=album&auth=" + auth);
+        element(sb, "preciserating", Integer.toString(song % 6));
+        element(sb, "rating", Integer.toString(song % 6));
+        element(sb, "averagerating", "0");
+        sb.append("</song>\n");
+    }
+
+    private void album(StringBuilder sb, int album, String auth) {
+        int artist = album / mAlbumsPerArtist;
+        sb.append("<album id=\"").append(album).append("\">");
+        element(sb, "name", "Album " + album);
+        sb.append("<artist id=\"").append(artist).append("\"><![CDATA[Artist ").append(artist).append("]]></artist>");
+        element(sb, "year", "2017");
+        element(sb, "tracks", Integer.toString(Math.min(mSongsPerAlbum, mSongs - album * mSongsPerAlbum)));
+        element(sb, "disk", "1");
+        element(sb, "art", getUrl() + "image.php?object_id=" + album + "&object_type=album&auth=" + auth);
+        element(sb, "preciserating", "0");
+        element(sb, "rating", "0");
+        sb.append("</album>\n");
+    }
+
+    private void artist(StringBuilder sb, int artist) {
+        int albums = Math.min(mAlbumsPerArtist, albumCount() - artist * mAlbumsPerArtist);
+        sb.append("<artist id=\"").append(artist).append("\">");
+        element(sb, "name", "Artist " + artist);
+        element(sb, "albums", Integer.toString(albums));
+        element(sb, "songs", Integer.toString(Math.min(albums * mSongsPerAlbum, mSongs - artist * mAlbumsPerArtist * mSongsPerAlbum)));
+        element(sb, "preciserating", "0");
+        element(sb, "rating", "0");
+        sb.append("</artist>\n");
+    }
+
+    private static void element(StringBuilder sb, String name, String text) {
+        sb.append('<').append(name).append("><![CDATA[").append(text).append("]]></").append(name).append('>');
+    }
+
+    private static int parseInt(String s, int defaultValue) {
+        if (s == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException nfe) {
+            return defaultValue;
+        }
+    }
+
+    private static void writeXml(OutputStream out, String body) throws IOException {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\" ?>\n<root>\n" + body + "</root>\n";
+        writeResponse(out, "200 OK", "text/xml; charset=UTF-8", xml.getBytes(UTF8));
+    }
+
+    private static void writeResponse(OutputStream out, String status, String contentType, byte[] body) throws IOException {
+        String head = "HTTP/1.1 " + status + "\r\nContent-Type: " + contentType + "\r\nContent-Length: " + body.length +
+                "\r\nConnection: close\r\n\r\n";
+        out.write(head.getBytes(UTF8));
+        out.write(body);
+        out.flush();
+    }
+
+    private void writeStream(OutputStream out, long rangeStart) throws IOException {
+        int total = mStreamBytes;
+        long start = Math.min(rangeStart, total);
+        StringBuilder head = new StringBuilder();
+        if (start > 0) {
+            head.append("HTTP/1.1 206 Partial Content\r\nContent-Range: bytes ").append(start).append('-')
+                    .append(total - 1).append('/').append(total).append("\r\n");
+        } else {
+            head.append("HTTP/1.1 200 OK\r\n");
+        }
+        head.append("Content-Type: audio/mpeg\r\nAccept-Ranges: bytes\r\nContent-Length: ").append(total - start)
+                .append("\r\nConnection: close\r\n\r\n");
+        out.write(head.toString().getBytes(UTF8));
+        byte[] buffer = new byte[8192];
+        try {
+            for (long remaining = total - start; remaining > 0; remaining -= buffer.length) {
+                out.write(buffer, 0, (int)Math.min(buffer.length, remaining));
+            }
+            out.flush();
+        } catch (SocketException se) {
+            // Player stopped reading
+        }
+    }
+}
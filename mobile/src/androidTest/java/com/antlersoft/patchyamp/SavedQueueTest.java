@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.media.session.MediaSessionCompat;
+
+import com.antlersoft.patchyamp.db.PatchyDatabase;
+import com.example.android.uamp.TestSetupHelper;
+import com.example.android.uamp.model.SongRecord;
+import com.example.android.uamp.utils.SimpleMusicProviderSource;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE;
+import static com.example.android.uamp.utils.MediaIDHelper.createMediaID;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Saving a long queue and reading it back
+ */
+@RunWith(AndroidJUnit4.class)
+public class SavedQueueTest {
+    private static final int SIZE = 5000;
+    private static final int CURRENT = 4000;
+    private static final long TIMEOUT_MS = 5000;
+
+    private SavedQueue mSavedQueue;
+
+    @Before
+    public void setupSavedQueue() {
+        PatchyDatabase db = PatchyDatabase.createInMemory(InstrumentationRegistry.getTargetContext());
+        mSavedQueue = new SavedQueue(db, TestSetupHelper.setupMusicProvider(new SimpleMusicProviderSource()));
+    }
+
+    private static List<MediaSessionCompat.QueueItem> makeQueue(int count) {
+        List<MediaSessionCompat.QueueItem> queue = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            SongRecord song = new SongRecord(Integer.toString(i), "Song " + i, "Artist " + (i / 40),
+                    "Album " + (i / 10), "Rock", null, null, 0, 0, 0.0f);
+            queue.add(new MediaSessionCompat.QueueItem(song.toDescription(
+                    createMediaID(song.id, MEDIA_ID_MUSICS_BY_GENRE, "Rock")), i + 1));
+        }
+        return queue;
+    }
+
+    /**
+     * Load until what was saved in the background comes back
+     */
+    private SavedQueue.Contents loadWhen(int size, int position) throws InterruptedException {
+        long end = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < end) {
+            TestSetupHelper.Result<SavedQueue.Contents> result = new TestSetupHelper.Result<>();
+            mSavedQueue.load(result::set);
+            SavedQueue.Contents contents = result.get();
+            if (contents != null && contents.queue.size() == size && contents.position == position) {
+                return contents;
+            }
+            Thread.sleep(50);
+        }
+        fail("Queue wasn't saved");
+        return null;
+    }
+
+    @Test
+    public void longQueue() throws Exception {
+        List<MediaSessionCompat.QueueItem> queue = makeQueue(SIZE);
+        mSavedQueue.setQueue("Rock", queue, CURRENT);
+        mSavedQueue.setPosition(1234);
+        SavedQueue.Contents contents = loadWhen(SIZE, 1234);
+        assertEquals("Rock", contents.title);
+        assertEquals(CURRENT, contents.currentIndex);
+        for (int i = 0; i < SIZE; i++) {
+            assertEquals(queue.get(i).getQueueId(), contents.queue.get(i).getQueueId());
+            assertEquals(queue.get(i).getDescription().getMediaId(),
+                    contents.queue.get(i).getDescription().getMediaId());
+        }
+        // Items around the current one keep what they show; those far from it only their ids
+        for (int i = CURRENT - 100; i <= CURRENT + 100; i++) {
+            assertEquals(String.valueOf(queue.get(i).getDescription().getTitle()),
+                    String.valueOf(contents.queue.get(i).getDescription().getTitle()));
+        }
+        assertNull(contents.queue.get(0).getDescription().getTitle());
+    }
+
+    @Test
+    public void appendToQueue() throws Exception {
+        List<MediaSessionCompat.QueueItem> queue = makeQueue(SIZE + 10);
+        mSavedQueue.setQueue("Rock", queue.subList(0, SIZE), CURRENT);
+        loadWhen(SIZE, 0);
+        mSavedQueue.setQueue("Rock", queue, CURRENT);
+        SavedQueue.Contents contents = loadWhen(SIZE + 10, 0);
+        assertEquals(CURRENT, contents.currentIndex);
+        for (int i = SIZE - 10; i < SIZE + 10; i++) {
+            assertEquals(queue.get(i).getQueueId(), contents.queue.get(i).getQueueId());
+            assertEquals(queue.get(i).getDescription().getMediaId(),
+                    contents.queue.get(i).getDescription().getMediaId());
+        }
+    }
+}
@@ -16,26 +16,62 @@
 
 package com.example.android.uamp;
 
+import android.support.test.InstrumentationRegistry;
+import android.support.v4.media.MediaMetadataCompat;
+import android.util.Log;
+
+import com.antlersoft.patchyamp.db.PatchyDatabase;
 import com.example.android.uamp.model.MusicProvider;
 import com.example.android.uamp.model.MusicProviderSource;
-import com.example.android.uamp.utils.SimpleMusicProviderSource;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
 
 public class TestSetupHelper {
+    private static final String TAG = "TestSetupHelper";
+    private static final long TIMEOUT_S = 5;
 
-    public static MusicProvider setupMusicProvider(MusicProviderSource source)
-            throws Exception {
-        final CountDownLatch signal = new CountDownLatch(1);
-        MusicProvider provider = new MusicProvider(source);
-        provider.retrieveMediaAsync(new MusicProvider.Callback() {
-            @Override
-            public void onMusicCatalogReady(boolean success) {
-                signal.countDown();
-            }
-        });
-        signal.await();
-        return provider;
+    /**
+     * @return A provider of its own over source, with a database that isn't saved
+     */
+    public static MusicProvider setupMusicProvider(MusicProviderSource source) {
+        return new MusicProvider(PatchyDatabase.createInMemory(InstrumentationRegistry.getTargetContext()),
+                source, (message, throwable) -> Log.e(TAG, message, throwable));
     }
 
-}
\ No newline at end of file
+    /**
+     * Holds a result delivered through a callback, and waits for it
+     */
+    public static class Result<T> {
+        private final CountDownLatch mDone = new CountDownLatch(1);
+        private T mValue;
+
+        public void set(T value) {
+            mValue = value;
+            mDone.countDown();
+        }
+
+        public T get() throws InterruptedException {
+            assertTrue("No result", mDone.await(TIMEOUT_S, TimeUnit.SECONDS));
+            return mValue;
+        }
+    }
+
+    /**
+     * @return Result that receives the items of a MediaFetchResult as a list
+     */
+    public static MusicProviderSource.MediaFetchResult toList(final Result<List<MediaMetadataCompat>> result) {
+        return (title, items) -> {
+            List<MediaMetadataCompat> list = new ArrayList<>();
+            for (Iterator<MediaMetadataCompat> it = items; it.hasNext(); ) {
+                list.add(it.next());
+            }
+            result.set(list);
+        };
+    }
+}
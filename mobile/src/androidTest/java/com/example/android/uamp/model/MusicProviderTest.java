@@ -49,6 +49,19 @@ public class MusicProviderTest {
 
     private MusicProvider provider;
 
+    private final MockResources resources = new MockResources() {
+        @NonNull
+        @Override
+        public String getString(int id) throws NotFoundException {
+            return "";
+        }
+        @NonNull
+        @Override
+        public String getString(int id, Object... formatArgs) throws NotFoundException {
+            return "";
+        }
+    };
+
     @Before
     public void setupMusicProvider() throws Exception {
         SimpleMusicProviderSource source = new SimpleMusicProviderSource();
@@ -65,12 +78,53 @@ public class MusicProviderTest {
         provider = TestSetupHelper.setupMusicProvider(source);
     }
 
+    private List<MediaBrowserCompat.MediaItem> getChildren(String mediaId) throws Exception {
+        final TestSetupHelper.Result<List<MediaBrowserCompat.MediaItem>> result = new TestSetupHelper.Result<>();
+        provider.getChildren(mediaId, resources, null, new ResultWrapper<List<MediaBrowserCompat.MediaItem>>(null) {
+            @Override
+            public void onSendResult(List<MediaBrowserCompat.MediaItem> items) {
+                result.set(items);
+            }
+        });
+        return result.get();
+    }
+
+    private List<MediaMetadataCompat> getMusicsByGenre(String genre) throws Exception {
+        TestSetupHelper.Result<List<MediaMetadataCompat>> result = new TestSetupHelper.Result<>();
+        provider.getMusicByGenre(genre, TestSetupHelper.toList(result));
+        return result.get();
+    }
+
+    private List<MediaMetadataCompat> getMusicsByAlbum(String album) throws Exception {
+        TestSetupHelper.Result<List<MediaMetadataCompat>> result = new TestSetupHelper.Result<>();
+        provider.getMusicByAlbum(album, TestSetupHelper.toList(result));
+        return result.get();
+    }
+
+    private List<MediaMetadataCompat> getMusicsByArtist(String artist) throws Exception {
+        TestSetupHelper.Result<List<MediaMetadataCompat>> result = new TestSetupHelper.Result<>();
+        provider.getMusicByArtist(artist, TestSetupHelper.toList(result));
+        return result.get();
+    }
+
+    private List<MediaMetadataCompat> searchMusicBySongTitle(String query) throws Exception {
+        TestSetupHelper.Result<List<MediaMetadataCompat>> result = new TestSetupHelper.Result<>();
+        provider.searchMusicBySongTitle(query, TestSetupHelper.toList(result));
+        return result.get();
+    }
+
+    private MediaMetadataCompat getMusic(String musicId) throws Exception {
+        TestSetupHelper.Result<MediaMetadataCompat> result = new TestSetupHelper.Result<>();
+        provider.getMusic(musicId, result::set);
+        return result.get();
+    }
+
     @Test
     public void testGetGenres() throws Exception {
-        Iterable<String> genres = provider.getGenres();
         ArrayList<String> list = new ArrayList<>();
-        for (String genre: genres) {
-            list.add(genre);
+        for (MediaBrowserCompat.MediaItem genre : getChildren(MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE)) {
+            assertTrue(genre.isBrowsable());
+            list.add(String.valueOf(genre.getDescription().getTitle()));
         }
         assertEquals(2, list.size());
 
@@ -81,7 +135,7 @@ public class MusicProviderTest {
     @Test
     public void testGetMusicsByGenre() throws Exception {
         int count = 0;
-        for (MediaMetadataCompat metadata: provider.getMusicsByGenre("Genre 1")) {
+        for (MediaMetadataCompat metadata: getMusicsByGenre("Genre 1")) {
             String genre = metadata.getString(MediaMetadataCompat.METADATA_KEY_GENRE);
             assertEquals("Genre 1", genre);
             count++;
@@ -92,13 +146,13 @@ public class MusicProviderTest {
 
     @Test
     public void testGetMusicsByInvalidGenre() throws Exception {
-        assertFalse(provider.getMusicsByGenre("XYZ").iterator().hasNext());
+        assertTrue(getMusicsByGenre("XYZ").isEmpty());
     }
 
     @Test
     public void testSearchBySongTitle() throws Exception {
         int count = 0;
-        for (MediaMetadataCompat metadata: provider.searchMusicBySongTitle("Romantic")) {
+        for (MediaMetadataCompat metadata: searchMusicBySongTitle("Romantic")) {
             String title = metadata.getString(MediaMetadataCompat.METADATA_KEY_TITLE);
             assertTrue(title.contains("Romantic"));
             count++;
@@ -109,32 +163,32 @@ public class MusicProviderTest {
 
     @Test
     public void testSearchByInvalidSongTitle() throws Exception {
-        assertFalse(provider.searchMusicBySongTitle("XYZ").iterator().hasNext());
+        assertTrue(searchMusicBySongTitle("XYZ").isEmpty());
     }
 
     @Test
-    public void testSearchMusicByAlbum() throws Exception {
+    public void testGetMusicsByAlbum() throws Exception {
         int count = 0;
-        for (MediaMetadataCompat metadata: provider.searchMusicByAlbum("Album")) {
-            String title = metadata.getString(MediaMetadataCompat.METADATA_KEY_ALBUM);
-            assertTrue(title.contains("Album"));
+        for (MediaMetadataCompat metadata: getMusicsByAlbum("Album 1")) {
+            String album = metadata.getString(MediaMetadataCompat.METADATA_KEY_ALBUM);
+            assertEquals("Album 1", album);
             count++;
         }
 
-        assertEquals(5, count);
+        assertEquals(3, count);
     }
 
     @Test
-    public void testSearchMusicByInvalidAlbum() throws Exception {
-        assertFalse(provider.searchMusicByAlbum("XYZ").iterator().hasNext());
+    public void testGetMusicsByInvalidAlbum() throws Exception {
+        assertTrue(getMusicsByAlbum("XYZ").isEmpty());
     }
 
     @Test
-    public void testSearchMusicByArtist() throws Exception {
+    public void testGetMusicsByArtist() throws Exception {
         int count = 0;
-        for (MediaMetadataCompat metadata : provider.searchMusicByArtist("Joe")) {
-            String title = metadata.getString(MediaMetadataCompat.METADATA_KEY_ARTIST);
-            assertTrue(title.contains("Joe"));
+        for (MediaMetadataCompat metadata : getMusicsByArtist("Joe Singer")) {
+            String artist = metadata.getString(MediaMetadataCompat.METADATA_KEY_ARTIST);
+            assertEquals("Joe Singer", artist);
             count++;
         }
 
@@ -142,8 +196,8 @@ public class MusicProviderTest {
     }
 
     @Test
-    public void testSearchMusicByInvalidArtist() throws Exception {
-        assertFalse(provider.searchMusicByArtist("XYZ").iterator().hasNext());
+    public void testGetMusicsByInvalidArtist() throws Exception {
+        assertTrue(getMusicsByArtist("XYZ").isEmpty());
     }
 
     @Test
@@ -151,80 +205,47 @@ public class MusicProviderTest {
         Bitmap bIcon = Bitmap.createBitmap(2, 2, Bitmap.Config.ALPHA_8);
         Bitmap bArt = Bitmap.createBitmap(2, 2, Bitmap.Config.ALPHA_8);
 
-        MediaMetadataCompat metadata = provider.getShuffledMusic().iterator().next();
+        MediaMetadataCompat metadata = getMusicsByGenre("Genre 1").get(0);
         String musicId = metadata.getDescription().getMediaId();
 
         assertNotEquals(bArt, metadata.getBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART));
         assertNotEquals(bIcon, metadata.getBitmap(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON));
 
         provider.updateMusicArt(musicId, bArt, bIcon);
-        MediaMetadataCompat newMetadata = provider.getMusic(musicId);
+        MediaMetadataCompat newMetadata = getMusic(musicId);
         assertEquals(bArt, newMetadata.getBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART));
         assertEquals(bIcon, newMetadata.getBitmap(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON));
     }
 
-    @Test
-    public void testFavorite() throws Exception {
-        MediaMetadataCompat metadata = provider.getShuffledMusic().iterator().next();
-        String musicId = metadata.getDescription().getMediaId();
-
-        assertFalse(provider.isFavorite(musicId));
-        provider.setFavorite(musicId, true);
-        assertTrue(provider.isFavorite(musicId));
-        provider.setFavorite(musicId, false);
-        assertFalse(provider.isFavorite(musicId));
-    }
-
     @Test
     public void testGetChildren() throws Exception {
-        MockResources resources = new MockResources() {
-            @NonNull
-            @Override
-            public String getString(int id) throws NotFoundException {
-                return "";
-            }
-            @NonNull
-            @Override
-            public String getString(int id, Object... formatArgs) throws NotFoundException {
-                return "";
-            }
-        };
-
         // test an invalid root
-        List<MediaBrowserCompat.MediaItem> invalid = provider.getChildren(
-                "INVALID_MEDIA_ID", resources);
+        List<MediaBrowserCompat.MediaItem> invalid = getChildren("INVALID_MEDIA_ID");
         assertEquals(0, invalid.size());
 
-        // test level 1 (list of category types - only "by genre" for now)
-        List<MediaBrowserCompat.MediaItem> level1 = provider.getChildren(
-                MediaIDHelper.MEDIA_ID_ROOT, resources);
-        assertEquals(1, level1.size());
+        // test level 1 (list of category types: playlists, artists, albums and genres)
+        List<MediaBrowserCompat.MediaItem> level1 = getChildren(MediaIDHelper.MEDIA_ID_ROOT);
+        assertEquals(4, level1.size());
 
         // test level 2 (list of genres)
-        int genreCount = 0;
-        for (String ignored : provider.getGenres()) {
-            genreCount++;
-        }
-        List<MediaBrowserCompat.MediaItem> level2 = provider.getChildren(
-                level1.get(0).getMediaId(), resources);
-        assertEquals(genreCount, level2.size());
+        List<MediaBrowserCompat.MediaItem> level2 = getChildren(MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE);
+        assertEquals(2, level2.size());
 
         // test level 3 (list of music for a given genre)
-        List<MediaBrowserCompat.MediaItem> level3 = provider.getChildren(
-                level2.get(0).getMediaId(), resources);
+        List<MediaBrowserCompat.MediaItem> level3 = getChildren(level2.get(0).getMediaId());
         String genre = MediaIDHelper.extractBrowseCategoryValueFromMediaID(
                 level2.get(0).getMediaId());
+        assertFalse(level3.isEmpty());
         for (MediaBrowserCompat.MediaItem mediaItem: level3) {
             assertTrue(mediaItem.isPlayable());
             assertFalse(mediaItem.isBrowsable());
-            MediaMetadataCompat metadata = provider.getMusic(
+            MediaMetadataCompat metadata = getMusic(
                     MediaIDHelper.extractMusicIDFromMediaID(mediaItem.getMediaId()));
             assertEquals(genre, metadata.getString(MediaMetadataCompat.METADATA_KEY_GENRE));
         }
 
         // test an invalid level 4
-        List<MediaBrowserCompat.MediaItem> invalidLevel4 = provider.getChildren(
-                level3.get(0).getMediaId(), resources);
+        List<MediaBrowserCompat.MediaItem> invalidLevel4 = getChildren(level3.get(0).getMediaId());
         assertTrue(invalidLevel4.isEmpty());
    }
-}
\ No newline at end of file
+}
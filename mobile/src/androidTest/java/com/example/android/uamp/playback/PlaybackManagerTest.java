@@ -18,6 +18,7 @@ package com.example.android.uamp.playback;
 import android.content.res.Resources;
 import android.support.annotation.NonNull;
 import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.media.MediaBrowserCompat;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
@@ -25,6 +26,7 @@ import android.test.mock.MockResources;
 
 import com.example.android.uamp.TestSetupHelper;
 import com.example.android.uamp.model.MusicProvider;
+import com.example.android.uamp.model.ResultWrapper;
 import com.example.android.uamp.utils.MediaIDHelper;
 import com.example.android.uamp.utils.SimpleMusicProviderSource;
 
@@ -32,6 +34,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
@@ -79,11 +82,22 @@ public class PlaybackManagerTest {
                 "https://examplemusic.com/music5.mp3", null, 2, 2, 4200);
     }
 
+    private List<MediaBrowserCompat.MediaItem> getChildren(String mediaId) throws Exception {
+        final TestSetupHelper.Result<List<MediaBrowserCompat.MediaItem>> result = new TestSetupHelper.Result<>();
+        musicProvider.getChildren(mediaId, resources, null, new ResultWrapper<List<MediaBrowserCompat.MediaItem>>(null) {
+            @Override
+            public void onSendResult(List<MediaBrowserCompat.MediaItem> items) {
+                result.set(items);
+            }
+        });
+        return result.get();
+    }
+
     @Test
     public void testPlay() throws Exception {
         String mediaId = MediaIDHelper.MEDIA_ID_ROOT;
         while (MediaIDHelper.isBrowseable(mediaId)) {
-            mediaId = musicProvider.getChildren(mediaId, resources).get(0).getMediaId();
+            mediaId = getChildren(mediaId).get(0).getMediaId();
         }
 
         // Using a CountDownLatch, we will check if all callbacks are called correctly when
@@ -149,8 +163,9 @@ public class PlaybackManagerTest {
         // Using a CountDownLatch, we will check if all callbacks are called correctly when
         // a onPlayFromMediaId command is issued.
         final CountDownLatch latch = new CountDownLatch(5);
-        final String expectedMusicId = musicProvider.searchMusicBySongTitle("Music 3")
-                .iterator().next().getDescription().getMediaId();
+        TestSetupHelper.Result<List<MediaMetadataCompat>> found = new TestSetupHelper.Result<>();
+        musicProvider.searchMusicBySongTitle("Music 3", TestSetupHelper.toList(found));
+        final String expectedMusicId = found.get().get(0).getDescription().getMediaId();
 
         QueueManager queueManager = new QueueManager(musicProvider, resources, new SimpleMetadataUpdateListener(){
             @Override
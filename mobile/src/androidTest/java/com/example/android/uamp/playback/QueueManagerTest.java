@@ -31,7 +31,6 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
-import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -110,19 +109,38 @@ public class QueueManagerTest {
                 });
     }
 
+    private List<MediaSessionCompat.QueueItem> getPlayingQueue(String mediaId) throws Exception {
+        TestSetupHelper.Result<List<MediaSessionCompat.QueueItem>> result = new TestSetupHelper.Result<>();
+        QueueHelper.getPlayingQueue(mediaId, provider, result::set);
+        return result.get();
+    }
+
+    private List<MediaSessionCompat.QueueItem> getPlayingQueueFromSearch(String query) throws Exception {
+        TestSetupHelper.Result<List<MediaSessionCompat.QueueItem>> result = new TestSetupHelper.Result<>();
+        QueueHelper.getPlayingQueueFromSearch(query, null, provider, result::set);
+        return result.get();
+    }
+
+    private List<MediaMetadataCompat> getMusicsByGenre(String genre) throws Exception {
+        TestSetupHelper.Result<List<MediaMetadataCompat>> result = new TestSetupHelper.Result<>();
+        provider.getMusicByGenre(genre, TestSetupHelper.toList(result));
+        return result.get();
+    }
+
+    private MediaMetadataCompat getMusic(String musicId) throws Exception {
+        TestSetupHelper.Result<MediaMetadataCompat> result = new TestSetupHelper.Result<>();
+        provider.getMusic(musicId, result::set);
+        return result.get();
+    }
+
     @Test
     public void testIsSameBrowsingCategory() throws Exception {
         QueueManager queueManager = createQueueManagerWithValidation(null, -1, null);
 
-        Iterator<String> genres = provider.getGenres().iterator();
-        String genre1 = genres.next();
-        String genre2 = genres.next();
-        List<MediaSessionCompat.QueueItem> queueGenre1 = QueueHelper.getPlayingQueue(
-                MediaIDHelper.createMediaID(null, MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE, genre1),
-                provider);
-        List<MediaSessionCompat.QueueItem> queueGenre2 = QueueHelper.getPlayingQueue(
-                MediaIDHelper.createMediaID(null, MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE, genre2),
-                provider);
+        List<MediaSessionCompat.QueueItem> queueGenre1 = getPlayingQueue(
+                MediaIDHelper.createMediaID(null, MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE, "Genre 1"));
+        List<MediaSessionCompat.QueueItem> queueGenre2 = getPlayingQueue(
+                MediaIDHelper.createMediaID(null, MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE, "Genre 2"));
 
         // set the current queue
         queueManager.setCurrentQueue("Queue genre 1", queueGenre1);
@@ -137,8 +155,7 @@ public class QueueManagerTest {
     @Test
     public void testSetValidQueueItem() throws Exception {
         // Get a queue that contains songs with space on their title (all in our test dataset)
-        List<MediaSessionCompat.QueueItem> queue = QueueHelper.getPlayingQueueFromSearch(
-                " ", null, provider);
+        List<MediaSessionCompat.QueueItem> queue = getPlayingQueueFromSearch(" ");
 
         int expectedItemIndex = queue.size() - 1;
         MediaSessionCompat.QueueItem expectedItem = queue.get(expectedItemIndex);
@@ -162,8 +179,7 @@ public class QueueManagerTest {
     @Test
     public void testSetInvalidQueueItem() throws Exception {
         // Get a queue that contains songs with space on their title (all in our test dataset)
-        List<MediaSessionCompat.QueueItem> queue = QueueHelper.getPlayingQueueFromSearch(
-                " ", null, provider);
+        List<MediaSessionCompat.QueueItem> queue = getPlayingQueueFromSearch(" ");
 
         int expectedItemIndex = queue.size() - 1;
 
@@ -193,8 +209,7 @@ public class QueueManagerTest {
     @Test
     public void testSkip() throws Exception {
         // Get a queue that contains songs with space on their title (all in our test dataset)
-        List<MediaSessionCompat.QueueItem> queue = QueueHelper.getPlayingQueueFromSearch(
-                " ", null, provider);
+        List<MediaSessionCompat.QueueItem> queue = getPlayingQueueFromSearch(" ");
         assertTrue(queue.size() > 3);
 
         QueueManager queueManager = createQueueManagerWithValidation(null, -1, queue);
@@ -231,7 +246,9 @@ public class QueueManagerTest {
     public void testSetQueueFromSearch() throws Exception {
         QueueManager queueManager = createQueueManagerWithValidation(null, -1, null);
         // set a queue from a free search
-        queueManager.setQueueFromSearch("Romantic", null);
+        TestSetupHelper.Result<List<MediaSessionCompat.QueueItem>> result = new TestSetupHelper.Result<>();
+        queueManager.setQueueFromSearch("Romantic", null, result::set);
+        result.get();
         // confirm that the search results have the expected size of 2 (because we know the dataset)
         assertEquals(2, queueManager.getCurrentQueueSize());
 
@@ -248,31 +265,28 @@ public class QueueManagerTest {
         QueueManager queueManager = createQueueManagerWithValidation(null, -1, null);
         // get the first music of the first genre and build a hierarchy-aware version of its
         // mediaId
-        String genre = provider.getGenres().iterator().next();
-        MediaMetadataCompat metadata = provider.getMusicsByGenre(genre).iterator().next();
+        String genre = "Genre 1";
+        List<MediaMetadataCompat> genreSongs = getMusicsByGenre(genre);
+        MediaMetadataCompat metadata = genreSongs.get(0);
         String hierarchyAwareMediaID = MediaIDHelper.createMediaID(
                 metadata.getDescription().getMediaId(), MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE,
                 genre);
 
         // set a queue from the hierarchyAwareMediaID. It should contain all music with the same
         // genre
-        queueManager.setQueueFromMusic(hierarchyAwareMediaID);
-
-        // count all songs with the same genre
-        int count = 0;
-        for (MediaMetadataCompat m: provider.getMusicsByGenre(genre)) {
-            count++;
-        }
+        CountDownLatch queueSet = new CountDownLatch(1);
+        queueManager.setQueueFromMusic(hierarchyAwareMediaID, queueSet::countDown);
+        assertTrue(queueSet.await(5, TimeUnit.SECONDS));
 
-        // check if size matches
-        assertEquals(count, queueManager.getCurrentQueueSize());
+        // check if size matches the count of all songs with the same genre
+        assertEquals(genreSongs.size(), queueManager.getCurrentQueueSize());
 
         // Now check if all songs in current queue have the expected genre:
         for (int i=0; i < queueManager.getCurrentQueueSize(); i++) {
             MediaSessionCompat.QueueItem item = queueManager.getCurrentMusic();
             String musicId = MediaIDHelper.extractMusicIDFromMediaID(
                     item.getDescription().getMediaId());
-            String itemGenre = provider.getMusic(musicId).getString(
+            String itemGenre = getMusic(musicId).getString(
                     MediaMetadataCompat.METADATA_KEY_GENRE);
             assertEquals(genre, itemGenre);
             queueManager.skipQueuePosition(1);
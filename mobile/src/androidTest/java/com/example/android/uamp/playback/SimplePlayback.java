@@ -17,6 +17,8 @@ package com.example.android.uamp.playback;
 
 import android.support.v4.media.session.MediaSessionCompat;
 
+import java.util.List;
+
 class SimplePlayback implements Playback {
     @Override
     public void start() {
@@ -68,6 +70,10 @@ class SimplePlayback implements Playback {
 
     }
 
+    @Override
+    public void setNextItems(List<MediaSessionCompat.QueueItem> items) {
+    }
+
     @Override
     public void pause() {
 
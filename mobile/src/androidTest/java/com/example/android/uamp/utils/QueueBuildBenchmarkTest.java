@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.utils;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.support.v4.media.MediaDescriptionCompat;
+import android.support.v4.media.MediaMetadataCompat;
+import android.support.v4.media.session.MediaSessionCompat;
+import android.util.Log;
+
+import com.example.android.uamp.model.SongIterator;
+import com.example.android.uamp.model.SongRecord;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Allocations and time for QueueHelper.convertToQueue to build long queues, from songs given
+ * only as metadata and from songs given as SongRecords through a SongIterator.
+ *
+ * Results go to logcat under the tag QueueBuildBenchmark, and to the instrumentation status.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueueBuildBenchmarkTest {
+    private static final String TAG = "QueueBuildBenchmark";
+    private static final String GENRE = "Rock";
+    private static final int RUNS = 5;
+
+    private static class Measurement {
+        long mNanos;
+        long mAllocCount;
+        long mAllocBytes;
+    }
+
+    /**
+     * Only has metadata to give, like MusicProvider's iterators before SongIterator
+     */
+    private static Iterator<MediaMetadataCompat> metadataOnly(List<SongRecord> songs) {
+        final Iterator<SongRecord> it = songs.iterator();
+        return new Iterator<MediaMetadataCompat>() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public MediaMetadataCompat next() {
+                return it.next().toMetadata();
+            }
+        };
+    }
+
+    private static SongIterator records(List<SongRecord> songs) {
+        final Iterator<SongRecord> it = songs.iterator();
+        return new SongIterator() {
+            @Override
+            public SongRecord nextSong() {
+                return it.next();
+            }
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public MediaMetadataCompat next() {
+                return it.next().toMetadata();
+            }
+        };
+    }
+
+    private static List<SongRecord> makeSongs(int count) {
+        List<SongRecord> songs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            songs.add(new SongRecord(Integer.toString(i), "Song " + i, "Artist " + (i / 40),
+                    "Album " + (i / 10), GENRE, "http://example.com/play/" + i,
+                    "http://example.com/art/" + (i / 10), 180000 + i, i % 10 + 1, 0.0f));
+        }
+        return songs;
+    }
+
+    @Test
+    public void buildQueues() {
+        for (int count : new int[] { 10000, 100000 }) {
+            List<SongRecord> songs = makeSongs(count);
+            Measurement[] metadata = new Measurement[RUNS];
+            Measurement[] direct = new Measurement[RUNS];
+            for (int i = 0; i < RUNS; i++) {
+                metadata[i] = measure(() -> metadataOnly(songs), count);
+                direct[i] = measure(() -> records(songs), count);
+            }
+            report("from metadata " + count, metadata);
+            report("from records " + count, direct);
+            assertTrue(median(direct, m -> m.mAllocCount) < median(metadata, m -> m.mAllocCount));
+        }
+    }
+
+    @Test
+    public void sameDescriptions() {
+        List<SongRecord> songs = makeSongs(100);
+        songs.add(new SongRecord("x", "Untitled", null, "", null, "http://example.com/play/x", null, 0, 0, 0.0f));
+        List<MediaSessionCompat.QueueItem> expected = QueueHelper.convertToQueue(metadataOnly(songs), 7,
+                MEDIA_ID_MUSICS_BY_GENRE, GENRE);
+        List<MediaSessionCompat.QueueItem> actual = QueueHelper.convertToQueue(records(songs), 7,
+                MEDIA_ID_MUSICS_BY_GENRE, GENRE);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            MediaDescriptionCompat e = expected.get(i).getDescription();
+            MediaDescriptionCompat a = actual.get(i).getDescription();
+            assertEquals(expected.get(i).getQueueId(), actual.get(i).getQueueId());
+            assertEquals(e.getMediaId(), a.getMediaId());
+            assertEquals(String.valueOf(e.getTitle()), String.valueOf(a.getTitle()));
+            assertEquals(String.valueOf(e.getSubtitle()), String.valueOf(a.getSubtitle()));
+            assertEquals(String.valueOf(e.getDescription()), String.valueOf(a.getDescription()));
+            assertEquals(e.getIconUri(), a.getIconUri());
+        }
+    }
+
+    private interface Source {
+        Iterator<MediaMetadataCompat> make();
+    }
+
+    private interface Field {
+        long get(Measurement m);
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Measurement measure(Source source, int count) {
+        Iterator<MediaMetadataCompat> tracks = source.make();
+        Measurement m = new Measurement();
+        Debug.resetGlobalAllocCount();
+        Debug.resetGlobalAllocSize();
+        Debug.startAllocCounting();
+        long start = SystemClock.elapsedRealtimeNanos();
+        List<MediaSessionCompat.QueueItem> queue = QueueHelper.convertToQueue(tracks, 0,
+                MEDIA_ID_MUSICS_BY_GENRE, GENRE);
+        m.mNanos = SystemClock.elapsedRealtimeNanos() - start;
+        Debug.stopAllocCounting();
+        m.mAllocCount = Debug.getGlobalAllocCount();
+        m.mAllocBytes = Debug.getGlobalAllocSize();
+        assertEquals(count, queue.size());
+        return m;
+    }
+
+    private static void report(String name, Measurement[] runs) {
+        String line = String.format("%-24s time %6d ms allocs %9d %8d KB", name,
+                median(runs, m -> m.mNanos) / 1000000, median(runs, m -> m.mAllocCount),
+                median(runs, m -> m.mAllocBytes) / 1024);
+        Log.i(TAG, line);
+        Bundle status = new Bundle();
+        status.putString(TAG, line);
+        InstrumentationRegistry.getInstrumentation().sendStatus(Activity.RESULT_OK, status);
+    }
+
+    private static long median(Measurement[] runs, Field field) {
+        long[] sorted = new long[runs.length];
+        for (int i = 0; i < runs.length; i++) {
+            sorted[i] = field.get(runs[i]);
+        }
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
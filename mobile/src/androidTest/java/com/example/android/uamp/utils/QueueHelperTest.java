@@ -28,6 +28,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -62,9 +63,29 @@ public class QueueHelperTest {
                 "https://examplemusic.com/music5.mp3", "https://icons.com/album2.png", 2, 2, 4200);
     }
 
+    private List<MediaSessionCompat.QueueItem> getPlayingQueue(String mediaId) throws Exception {
+        TestSetupHelper.Result<List<MediaSessionCompat.QueueItem>> result = new TestSetupHelper.Result<>();
+        QueueHelper.getPlayingQueue(mediaId, provider, result::set);
+        return result.get();
+    }
+
+    private List<MediaSessionCompat.QueueItem> getPlayingQueueFromSearch(String query, Bundle extras) throws Exception {
+        TestSetupHelper.Result<List<MediaSessionCompat.QueueItem>> result = new TestSetupHelper.Result<>();
+        QueueHelper.getPlayingQueueFromSearch(query, extras, provider, result::set);
+        return result.get();
+    }
+
+    private MediaMetadataCompat getMusic(String musicId) throws Exception {
+        TestSetupHelper.Result<MediaMetadataCompat> result = new TestSetupHelper.Result<>();
+        provider.getMusic(musicId, result::set);
+        return result.get();
+    }
+
     @Test
     public void testGetPlayingQueueForSelectedPlayableMedia() throws Exception {
-        MediaMetadataCompat selectedMusic = provider.getMusicsByGenre("Genre 1").iterator().next();
+        TestSetupHelper.Result<List<MediaMetadataCompat>> genreSongs = new TestSetupHelper.Result<>();
+        provider.getMusicByGenre("Genre 1", TestSetupHelper.toList(genreSongs));
+        MediaMetadataCompat selectedMusic = genreSongs.get().get(0);
         String selectedGenre = selectedMusic.getString(MediaMetadataCompat.METADATA_KEY_GENRE);
 
         assertEquals("Genre 1", selectedGenre);
@@ -73,7 +94,7 @@ public class QueueHelperTest {
                 selectedMusic.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID),
                 MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE, selectedGenre);
 
-        List<MediaSessionCompat.QueueItem> queue = QueueHelper.getPlayingQueue(mediaId, provider);
+        List<MediaSessionCompat.QueueItem> queue = new ArrayList<>(getPlayingQueue(mediaId));
         assertNotNull(queue);
         assertFalse(queue.isEmpty());
 
@@ -89,7 +110,7 @@ public class QueueHelperTest {
         // assert they are all of the expected genre
         for (MediaSessionCompat.QueueItem item : queue) {
             String musicId = MediaIDHelper.extractMusicIDFromMediaID(item.getDescription().getMediaId());
-            MediaMetadataCompat metadata = provider.getMusic(musicId);
+            MediaMetadataCompat metadata = getMusic(musicId);
             assertEquals(selectedGenre, metadata.getString(MediaMetadataCompat.METADATA_KEY_GENRE));
         }
 
@@ -101,41 +122,54 @@ public class QueueHelperTest {
 
     @Test
     public void testGetPlayingQueueFromUnstructuredSearch() throws Exception {
-        List<MediaSessionCompat.QueueItem> queue = QueueHelper.getPlayingQueueFromSearch(
-                "Romantic", null, provider);
+        List<MediaSessionCompat.QueueItem> queue = getPlayingQueueFromSearch("Romantic", null);
         assertNotNull(queue);
         assertFalse(queue.isEmpty());
 
         // assert they all contain "Romantic" in the title
         for (MediaSessionCompat.QueueItem item : queue) {
             String musicId = MediaIDHelper.extractMusicIDFromMediaID(item.getDescription().getMediaId());
-            MediaMetadataCompat metadata = provider.getMusic(musicId);
+            MediaMetadataCompat metadata = getMusic(musicId);
             assertTrue(metadata.getString(MediaMetadataCompat.METADATA_KEY_TITLE).contains("Romantic"));
         }
     }
 
     @Test
-    public void testGetPlayingQueueFromArtistSearch() throws Exception {
+    public void testGetPlayingQueueFromGenreSearch() throws Exception {
         Bundle extras = new Bundle();
-        extras.putString(MediaStore.EXTRA_MEDIA_FOCUS, MediaStore.Audio.Artists.ENTRY_CONTENT_TYPE);
-        extras.putString(MediaStore.EXTRA_MEDIA_ARTIST, "Joe");
-        List<MediaSessionCompat.QueueItem> queue = QueueHelper.getPlayingQueueFromSearch(
-                "Joe", extras, provider);
+        extras.putString(MediaStore.EXTRA_MEDIA_FOCUS, MediaStore.Audio.Genres.ENTRY_CONTENT_TYPE);
+        extras.putString(MediaStore.EXTRA_MEDIA_GENRE, "Genre 2");
+        List<MediaSessionCompat.QueueItem> queue = getPlayingQueueFromSearch("Genre 2", extras);
         assertNotNull(queue);
-        assertFalse(queue.isEmpty());
+        assertEquals(2, queue.size());
+
+        // assert they are all of the genre searched for
+        for (MediaSessionCompat.QueueItem item : queue) {
+            String musicId = MediaIDHelper.extractMusicIDFromMediaID(item.getDescription().getMediaId());
+            MediaMetadataCompat metadata = getMusic(musicId);
+            assertEquals("Genre 2", metadata.getString(MediaMetadataCompat.METADATA_KEY_GENRE));
+        }
+    }
+
+    @Test
+    public void testGetPlayingQueueForArtist() throws Exception {
+        List<MediaSessionCompat.QueueItem> queue = getPlayingQueue(MediaIDHelper.createMediaID(
+                null, MediaIDHelper.MEDIA_ID_ARTIST_SONGS, "Joe Singer"));
+        assertNotNull(queue);
+        assertEquals(3, queue.size());
 
-        // assert they all contain "Joe" in the artist
+        // assert they are all by the artist asked for
         for (MediaSessionCompat.QueueItem item : queue) {
             String musicId = MediaIDHelper.extractMusicIDFromMediaID(item.getDescription().getMediaId());
-            MediaMetadataCompat metadata = provider.getMusic(musicId);
-            assertTrue(metadata.getString(MediaMetadataCompat.METADATA_KEY_ARTIST).contains("Joe"));
+            MediaMetadataCompat metadata = getMusic(musicId);
+            assertEquals("Joe Singer", metadata.getString(MediaMetadataCompat.METADATA_KEY_ARTIST));
         }
     }
 
     @Test
     public void testGetMusicIndexOnQueue() throws Exception {
         // get a queue with all songs with "c" in their title
-        List<MediaSessionCompat.QueueItem> queue = QueueHelper.getPlayingQueueFromSearch("c", null, provider);
+        List<MediaSessionCompat.QueueItem> queue = getPlayingQueueFromSearch("c", null);
 
         assertNotNull(queue);
         assertFalse(queue.isEmpty());
@@ -149,7 +183,9 @@ public class QueueHelperTest {
 
     @Test
     public void testGetRandomQueue() throws Exception {
-        List<MediaSessionCompat.QueueItem> queue = QueueHelper.getRandomQueue(provider);
+        TestSetupHelper.Result<List<MediaSessionCompat.QueueItem>> result = new TestSetupHelper.Result<>();
+        QueueHelper.getRandomQueue(provider, result::set);
+        List<MediaSessionCompat.QueueItem> queue = result.get();
         assertNotNull(queue);
         assertFalse(queue.isEmpty());
     }
@@ -157,7 +193,7 @@ public class QueueHelperTest {
     @Test
     public void testIsIndexPlayable() throws Exception {
         // get a queue with all songs with "c" on its title
-        List<MediaSessionCompat.QueueItem> queue = QueueHelper.getPlayingQueueFromSearch("c", null, provider);
+        List<MediaSessionCompat.QueueItem> queue = getPlayingQueueFromSearch("c", null);
 
         assertFalse(QueueHelper.isIndexPlayable(-1, queue));
         assertFalse(QueueHelper.isIndexPlayable(queue.size(), queue));
@@ -168,4 +204,4 @@ public class QueueHelperTest {
             assertTrue(QueueHelper.isIndexPlayable(0, queue));
         }
     }
-}
\ No newline at end of file
+}
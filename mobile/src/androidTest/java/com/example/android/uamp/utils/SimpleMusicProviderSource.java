@@ -16,40 +16,166 @@
 
 package com.example.android.uamp.utils;
 
+import android.os.Bundle;
 import android.support.v4.media.MediaMetadataCompat;
 
 import com.example.android.uamp.model.MusicProviderSource;
+import com.example.android.uamp.model.SongRecord;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Random;
 
+/**
+ * Source with a fixed list of songs, which answers every request at once.
+ *
+ * Genres, artists and albums use their names as ids. There is one playlist, with id "0",
+ * holding every song.
+ */
 public class SimpleMusicProviderSource implements MusicProviderSource {
+    public static final String PLAYLIST_ID = "0";
 
-    private List<MediaMetadataCompat> mData = new ArrayList<>();
+    private List<SongRecord> mData = new ArrayList<>();
+    private final Random mRandom = new Random();
+
+    /**
+     * Matches songs for one request
+     */
+    private interface Filter {
+        boolean matches(SongRecord song);
+    }
 
     public void add(String title, String album, String artist, String genre, String source,
                     String iconUrl, long trackNumber, long totalTrackCount, long durationMs) {
         String id = String.valueOf(source.hashCode());
+        mData.add(new SongRecord(id, title, artist, album, genre, source, iconUrl, durationMs,
+                (int) trackNumber, 0.0f));
+    }
+
+    private List<SongRecord> songs(Filter filter) {
+        ArrayList<SongRecord> songs = new ArrayList<>();
+        for (SongRecord song : mData) {
+            if (filter.matches(song)) {
+                songs.add(song);
+            }
+        }
+        return songs;
+    }
+
+    private static List<MediaMetadataCompat> browsable(Iterable<String> names) {
+        ArrayList<MediaMetadataCompat> items = new ArrayList<>();
+        for (String name : names) {
+            items.add(new MediaMetadataCompat.Builder()
+                    .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, name)
+                    .putString(MediaMetadataCompat.METADATA_KEY_TITLE, name)
+                    .build());
+        }
+        return items;
+    }
+
+    @Override
+    public State getState() {
+        return State.INITIALIZED;
+    }
+
+    @Override
+    public void RequestLogin(Bundle extras, ErrorCallback error) {
+    }
 
-        //noinspection ResourceType
-        mData.add(new MediaMetadataCompat.Builder()
-                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, id)
-                .putString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE, source)
-                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, album)
-                .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, artist)
-                .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, durationMs)
-                .putString(MediaMetadataCompat.METADATA_KEY_GENRE, genre)
-                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, iconUrl)
-                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, title)
-                .putLong(MediaMetadataCompat.METADATA_KEY_TRACK_NUMBER, trackNumber)
-                .putLong(MediaMetadataCompat.METADATA_KEY_NUM_TRACKS, totalTrackCount)
-                .build());
+    @Override
+    public void getDefaultSongs(SongPageResult result) {
+        result.setResult("All songs", new ArrayList<>(mData).iterator());
+        result.addPage(Collections.<SongRecord>emptyList().iterator(), true);
     }
 
     @Override
-    public Iterator<MediaMetadataCompat> iterator() {
-        return mData.iterator();
+    public void getRandomSongs(int count, SongFetchResult result) {
+        ArrayList<SongRecord> songs = new ArrayList<>(mData);
+        Collections.shuffle(songs, mRandom);
+        result.setResult("Random", songs.subList(0, Math.min(count, songs.size())).iterator());
     }
 
+    @Override
+    public void GetPlaylists(MediaFetchResult result) {
+        result.setResult("Playlists", Collections.singletonList(new MediaMetadataCompat.Builder()
+                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, PLAYLIST_ID)
+                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, "All songs")
+                .build()).iterator());
+    }
+
+    @Override
+    public void GetPlaylistSongs(String playListId, SongFetchResult toSetQueue) {
+        toSetQueue.setResult("Playlist", songs(song -> PLAYLIST_ID.equals(playListId)).iterator());
+    }
+
+    @Override
+    public void GetGenres(MediaFetchResult result) {
+        LinkedHashSet<String> genres = new LinkedHashSet<>();
+        for (SongRecord song : mData) {
+            genres.add(song.genre);
+        }
+        result.setResult("Genres", browsable(genres).iterator());
+    }
+
+    @Override
+    public void GetGenreSongs(String genreId, SongFetchResult toSetQueue) {
+        toSetQueue.setResult(genreId, songs(song -> genreId.equals(song.genre)).iterator());
+    }
+
+    @Override
+    public void GetSearchSongs(String anyMatch, SongFetchResult toSetQueue) {
+        final String match = anyMatch.toLowerCase(Locale.US);
+        toSetQueue.setResult(anyMatch, songs(song -> song.title.toLowerCase(Locale.US).contains(match)).iterator());
+    }
+
+    @Override
+    public void GetArtists(MediaFetchResult result) {
+        LinkedHashSet<String> artists = new LinkedHashSet<>();
+        for (SongRecord song : mData) {
+            artists.add(song.artist);
+        }
+        result.setResult("Artists", browsable(artists).iterator());
+    }
+
+    @Override
+    public void GetArtistAlbums(String id, MediaFetchResult result) {
+        LinkedHashSet<String> albums = new LinkedHashSet<>();
+        for (SongRecord song : songs(song -> id.equals(song.artist))) {
+            albums.add(song.album);
+        }
+        result.setResult(id, browsable(albums).iterator());
+    }
+
+    @Override
+    public void GetArtistSongs(String id, SongFetchResult result) {
+        result.setResult(id, songs(song -> id.equals(song.artist)).iterator());
+    }
+
+    @Override
+    public void GetAlbums(MediaFetchResult result) {
+        LinkedHashSet<String> albums = new LinkedHashSet<>();
+        for (SongRecord song : mData) {
+            albums.add(song.album);
+        }
+        result.setResult("Albums", browsable(albums).iterator());
+    }
+
+    @Override
+    public void GetAlbumSongs(String id, SongFetchResult result) {
+        result.setResult(id, songs(song -> id.equals(song.album)).iterator());
+    }
+
+    @Override
+    public void GetSong(String id, SongResult result) {
+        List<SongRecord> songs = songs(song -> song.id.equals(id));
+        result.setResult(songs.isEmpty() ? null : songs.get(0));
+    }
+
+    @Override
+    public String withCurrentSession(String url) {
+        return url;
+    }
 }
@@ -17,11 +17,22 @@ package com.antlersoft.patchyamp;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.database.SQLException;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.media.MediaMetadataCompat;
-import android.support.v4.media.RatingCompat;
 
+import com.antlersoft.patchyamp.cache.CachingProxy;
+import com.antlersoft.patchyamp.db.CatalogAlbum;
+import com.antlersoft.patchyamp.db.CatalogArtist;
+import com.antlersoft.patchyamp.db.CatalogSong;
+import com.antlersoft.patchyamp.db.CatalogTag;
 import com.antlersoft.patchyamp.db.ConnectionBean;
+import com.antlersoft.patchyamp.db.LocalCatalog;
+import com.antlersoft.patchyamp.db.PatchyDatabase;
+import com.antlersoft.patchyamp.exec.Lane;
+import com.antlersoft.patchyamp.exec.TaskExecutor;
 import com.antoniotari.reactiveampache.Exceptions.AmpacheApiException;
 import com.antoniotari.reactiveampache.api.AmpacheApi;
 import com.antoniotari.reactiveampache.models.Album;
@@ -31,15 +42,17 @@ import com.antoniotari.reactiveampache.models.Song;
 import com.antoniotari.reactiveampache.models.Tag;
 import com.antoniotari.reactiveampache.models.TagEntity;
 import com.example.android.uamp.model.MusicProviderSource;
+import com.example.android.uamp.model.SongRecord;
 import com.example.android.uamp.utils.LogHelper;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
-import java.util.concurrent.TimeUnit;
 import java.util.List;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 
 /**
@@ -51,17 +64,67 @@ import java.util.concurrent.ScheduledFuture;
 
 public class AmpacheSource implements MusicProviderSource {
     static final String TAG = LogHelper.makeLogTag(AmpacheSource.class);
+    static final String DEFAULT_SONGS_TITLE = "All songs shuffled";
+    static final String RANDOM_SONGS_TITLE = "Random songs";
+    // Small first page so the queue can start playing right away
+    static final int FIRST_PAGE_SIZE = 100;
+    // Songs read at once when going through the server's whole list
+    static final int PAGE_SIZE = 2000;
     Object mLock = new Object();
     private volatile EAmpacheState mState = EAmpacheState.INITIAL;
+    // Continuations waiting for login to finish; guarded by mLock
+    private final ArrayList<Runnable> mReadyContinuations = new ArrayList<>();
     private MusicProviderSource.ErrorCallback mErrorCallback;
     private static ArrayList<MediaMetadataCompat> mEmptyMetadata = new ArrayList<>();
-    private ScheduledExecutorService _executorService = Executors.newScheduledThreadPool(1);
-    private ScheduledFuture<?> _pingFuture;
-    public AmpacheSource(Context context) {
+    private static ArrayList<SongRecord> mEmptySongs = new ArrayList<>();
+    private final SessionManager mSession = new SessionManager();
+    private volatile AmpacheXmlClient mXmlClient;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LocalCatalog mCatalog;
+    private final CatalogSynchronizer mSynchronizer;
+    private final RequestCoalescer mCoalescer = new RequestCoalescer();
+    private final BitratePolicy mBitratePolicy;
+    private final CachingProxy mProxy;
+    // Server and login of the current session, for matching against the local catalog
+    private volatile String mServerUrl;
+    private volatile String mLogin;
+    private final Random mRandom = new Random();
+    // Set when the server turns out not to have playlist_generate
+    private volatile boolean mNoRandomAction;
+    // Songs on the server, from the handshake or the last pass over the whole list; 0 if
+    // not known
+    private volatile int mServerSongCount;
+
+    /**
+     * Produces a browse result from the local catalog
+     */
+    private interface CatalogQuery<T> {
+        List<T> query(LocalCatalog catalog, AmpacheXmlClient client);
+    }
+
+    /**
+     * Receives a browse result; either MediaFetchResult.setResult or SongFetchResult.setResult
+     */
+    private interface ResultSetter<T> {
+        void setResult(String title, Iterator<T> items);
+    }
+
+    public AmpacheSource(Context context, PatchyDatabase database) {
+        this(context, new LocalCatalog(database));
+    }
+
+    /**
+     * @param catalog Catalog kept in the database, which the caller may also use directly
+     */
+    AmpacheSource(Context context, LocalCatalog catalog) {
         AmpacheApi.INSTANCE.initSession(context);
+        mCatalog = catalog;
+        mSynchronizer = new CatalogSynchronizer(mCatalog);
+        mBitratePolicy = BitratePolicy.getInstance(context);
+        mProxy = CachingProxy.getInstance(context);
     }
 
-    private MediaMetadataCompat buildMetadataFromSong(Song song) {
+    private SongRecord buildRecordFromSong(Song song) {
         StringBuilder sb = new StringBuilder();
         if (song.getTag() != null) {
             for (Tag t : song.getTag()) {
@@ -70,32 +133,49 @@ public class AmpacheSource implements MusicProviderSource {
                 sb.append(t.getTag());
             }
         }
-        return new MediaMetadataCompat.Builder()
-                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, song.getId())
-                .putString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE, song.getUrl())
-                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, song.getAlbum().getName())
-                .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, song.getArtist().getName())
-                .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, song.getTime()*1000L)
-                .putString(MediaMetadataCompat.METADATA_KEY_GENRE, sb.toString())
-                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, song.getArt())
-                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, song.getTitle())
-                .putLong(MediaMetadataCompat.METADATA_KEY_TRACK_NUMBER, song.getTrack())
-                .putLong(MediaMetadataCompat.METADATA_KEY_NUM_TRACKS, song.getTrack()+1)
-                .putRating(MediaMetadataCompat.METADATA_KEY_RATING, RatingCompat.newPercentageRating((float)(song.getRating()/5.0)))
-                .build();
-    }
-
-    private Iterator<MediaMetadataCompat> songIterator(Iterable<Song> songs) {
+        return new SongRecord(song.getId(), song.getTitle(), song.getArtist().getName(), song.getAlbum().getName(),
+                sb.toString(), song.getUrl(), song.getArt(), song.getTime()*1000L, song.getTrack(),
+                (float)song.getRating());
+    }
+
+    private static SongRecord buildRecordFromCatalog(CatalogSong song, AmpacheXmlClient client) {
+        return new SongRecord(song.getAmpacheId(), song.getTitle(), song.getArtistName(), song.getAlbumName(),
+                song.getGenre(), client.withCurrentSession(song.getUrl()), client.withCurrentSession(song.getArt()),
+                song.getTime()*1000L, (int)song.getTrack(), (float)song.getRating());
+    }
+
+    private static List<SongRecord> catalogSongs(List<CatalogSong> songs, AmpacheXmlClient client) {
+        ArrayList<SongRecord> records = new ArrayList<>(songs.size());
+        for (CatalogSong song : songs) {
+            records.add(buildRecordFromCatalog(song, client));
+        }
+        return records;
+    }
+
+    private static List<MediaMetadataCompat> catalogAlbums(List<CatalogAlbum> albums, AmpacheXmlClient client) {
+        ArrayList<MediaMetadataCompat> metadata = new ArrayList<>(albums.size());
+        for (CatalogAlbum a : albums) {
+            metadata.add(new MediaMetadataCompat.Builder()
+                    .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, a.getAmpacheId())
+                    .putString(MediaMetadataCompat.METADATA_KEY_TITLE, a.getName())
+                    .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_SUBTITLE, a.getArtistName())
+                    .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, client.withCurrentSession(a.getArt()))
+                    .build());
+        }
+        return metadata;
+    }
+
+    private Iterator<SongRecord> songIterator(Iterable<Song> songs) {
         final Iterator<Song> s = songs == null ? new ArrayList<Song>().iterator() : songs.iterator();
-        return new Iterator<MediaMetadataCompat>() {
+        return new Iterator<SongRecord>() {
             @Override
             public boolean hasNext() {
                 return s.hasNext();
             }
 
             @Override
-            public MediaMetadataCompat next() {
-                return buildMetadataFromSong(s.next());
+            public SongRecord next() {
+                return buildRecordFromSong(s.next());
             }
 
             @Override
@@ -104,23 +184,45 @@ public class AmpacheSource implements MusicProviderSource {
         };
     }
 
-    public static void patientWait(Object l)
-    {
-        try
-        {
-            l.wait();
-        }
-        catch (InterruptedException ie)
-        {
+    private boolean isLoginInProgress() {
+        return mState == EAmpacheState.LOGGING_IN || mState == EAmpacheState.RETRIEVING;
+    }
+
+    /**
+     * Run continuation on the UI thread once no login is in progress. The continuation
+     * checks mState to see whether it can proceed. Nothing waits on a thread while login
+     * is in progress; the continuation is saved and run when the state changes.
+     */
+    private void whenReady(Runnable continuation) {
+        mMainHandler.post(() -> runWhenReady(continuation));
+    }
 
+    private void runWhenReady(Runnable continuation) {
+        synchronized (mLock) {
+            if (isLoginInProgress()) {
+                mReadyContinuations.add(continuation);
+                return;
+            }
         }
+        continuation.run();
     }
 
-    private void waitForInitialization()
-    {
+    /**
+     * Change state, releasing continuations waiting for login to finish. Every change of
+     * mState goes through here; it may be called with mLock held.
+     */
+    private void setState(EAmpacheState state) {
+        ArrayList<Runnable> ready = null;
         synchronized (mLock) {
-            while (mState == EAmpacheState.LOGGING_IN || mState == EAmpacheState.RETRIEVING) {
-                patientWait(mLock);
+            mState = state;
+            if (! isLoginInProgress() && ! mReadyContinuations.isEmpty()) {
+                ready = new ArrayList<>(mReadyContinuations);
+                mReadyContinuations.clear();
+            }
+        }
+        if (ready != null) {
+            for (Runnable r : ready) {
+                whenReady(r);
             }
         }
     }
@@ -142,31 +244,177 @@ public class AmpacheSource implements MusicProviderSource {
     }
 
     @Override
-    public void getDefaultSongs(MediaFetchResult result) {
-        final ArrayList<String> complain = new ArrayList<String>();
-        AsyncRunner.RunAsync(() -> {
-            waitForInitialization();
-            if (mState != EAmpacheState.READY) {
-                result.setResult("All songs shuffled", new ArrayList<MediaMetadataCompat>().iterator());
-                complain.add("Not ready");
+    public void getDefaultSongs(SongPageResult result) {
+        whenReady(() -> {
+            AmpacheXmlClient client = mXmlClient;
+            if (mState != EAmpacheState.READY || client == null) {
+                result.setResult(DEFAULT_SONGS_TITLE, mEmptySongs.iterator());
+                result.addPage(mEmptySongs.iterator(), true);
+                if (mErrorCallback!=null) {
+                    mErrorCallback.onError("Not ready", null);
+                }
+                return;
             }
-            AmpacheApi.INSTANCE.getSongs().subscribe(songs -> {
-                result.setResult("All songs shuffled", songIterator(songs));
-            }, throwable -> {
-                result.setResult("All songs shuffled", new ArrayList<MediaMetadataCompat>().iterator());
-                synchronized (mLock) {
-                    mState = EAmpacheState.FAILURE;
-                    mLock.notifyAll();
+            // Reading the whole library takes long; playback work mustn't wait behind it
+            AsyncRunner.RunAsync(Lane.BROWSE, TaskExecutor.PRIORITY_NORMAL, () -> fetchSongPages(client, result), null);
+        });
+    }
+
+    /**
+     * Fetch the whole song list in offset/limit windows, passing each window to result on the
+     * UI thread as soon as it arrives. The first window is small so playback can start quickly.
+     */
+    private void fetchSongPages(AmpacheXmlClient client, SongPageResult result) {
+        final AtomicBoolean wantMore = new AtomicBoolean(true);
+        int offset = 0;
+        int limit = FIRST_PAGE_SIZE;
+        boolean first = true;
+        try {
+            while (wantMore.get()) {
+                final List<SongRecord> page = catalogSongs(client.getSongs(offset, limit, null), client);
+                final boolean lastPage = page.size() < limit;
+                final boolean isFirst = first;
+                mMainHandler.post(() -> {
+                    if (isFirst) {
+                        result.setResult(DEFAULT_SONGS_TITLE, page.iterator());
+                        if (lastPage) {
+                            result.addPage(mEmptySongs.iterator(), true);
+                        }
+                    } else if (wantMore.get() && ! result.addPage(page.iterator(), lastPage)) {
+                        wantMore.set(false);
+                    }
+                });
+                if (lastPage) {
+                    break;
                 }
-                onError(throwable);
+                offset += page.size();
+                limit = PAGE_SIZE;
+                first = false;
+            }
+        } catch (IOException ioe) {
+            final boolean isFirst = first;
+            mMainHandler.post(() -> {
+                if (isFirst) {
+                    result.setResult(DEFAULT_SONGS_TITLE, mEmptySongs.iterator());
+                }
+                result.addPage(mEmptySongs.iterator(), true);
+                onError(ioe);
             });
-        }, () -> {
-            if (! complain.isEmpty() && mErrorCallback!=null) {
-                mErrorCallback.onError(complain.get(0), null);
+        }
+    }
+
+    @Override
+    public void getRandomSongs(int count, SongFetchResult result) {
+        whenReady(() -> {
+            AmpacheXmlClient client = mXmlClient;
+            if (mState != EAmpacheState.READY || client == null) {
+                result.setResult(RANDOM_SONGS_TITLE, mEmptySongs.iterator());
+                if (mErrorCallback!=null) {
+                    mErrorCallback.onError("Not ready", null);
+                }
+                return;
             }
+            final ArrayList<SongRecord> songs = new ArrayList<>(count);
+            final IOException[] error = new IOException[1];
+            AsyncRunner.RunAsync(Lane.PLAYBACK, TaskExecutor.PRIORITY_NORMAL, () -> {
+                try {
+                    songs.addAll(catalogSongs(sampleSongs(client, count), client));
+                } catch (IOException ioe) {
+                    error[0] = ioe;
+                }
+            }, () -> {
+                result.setResult(RANDOM_SONGS_TITLE, songs.iterator());
+                if (error[0] != null) {
+                    onError(error[0]);
+                }
+            });
         });
     }
 
+    /**
+     * Pick count songs at random: from the local catalog if it is complete, otherwise by
+     * asking the server
+     */
+    private List<CatalogSong> sampleSongs(AmpacheXmlClient client, int count) throws IOException {
+        if (mCatalog.isCompleteFor(mServerUrl, mLogin)) {
+            try {
+                return mCatalog.getRandomSongs(count, mRandom);
+            } catch (SQLException sqle) {
+                LogHelper.e(TAG, sqle, "Reading local catalog failed");
+            }
+        }
+        if (! mNoRandomAction) {
+            try {
+                return client.getRandomSongs(count);
+            } catch (AmpacheXmlClient.AmpacheXmlException axe) {
+                if (AmpacheXmlClient.isAuthError(axe.getCode())) {
+                    throw axe;
+                }
+                // Servers before API 4 don't have playlist_generate
+                LogHelper.i(TAG, "Server can't pick random songs: ", axe.getMessage());
+                mNoRandomAction = true;
+            }
+        }
+        return sampleServerSongs(client, count);
+    }
+
+    /**
+     * Pick songs from the server's song list by reading one song at each of count random
+     * offsets, when the number of songs is known. The whole list is only read when it isn't,
+     * or when it is short enough to come in one page anyway.
+     */
+    private List<CatalogSong> sampleServerSongs(AmpacheXmlClient client, int count) throws IOException {
+        int total = mServerSongCount;
+        if (total <= PAGE_SIZE || count * 2 > total) {
+            return scanServerSongs(client, count);
+        }
+        HashSet<Integer> offsets = new HashSet<>();
+        while (offsets.size() < count) {
+            offsets.add(mRandom.nextInt(total));
+        }
+        ArrayList<CatalogSong> chosen = new ArrayList<>(count);
+        for (int offset : offsets) {
+            List<CatalogSong> song = client.getSongs(offset, 1, null);
+            if (song.isEmpty()) {
+                // Songs were removed since the count was taken; a pass over the list counts again
+                LogHelper.i(TAG, "No song at offset ", offset, " of ", total);
+                return scanServerSongs(client, count);
+            }
+            chosen.add(song.get(0));
+        }
+        Collections.shuffle(chosen, mRandom);
+        return chosen;
+    }
+
+    /**
+     * Reservoir sample the server's song list a page at a time. The whole list goes by, but
+     * only count songs and one page are held at once. Remembers how many songs there are, so
+     * later samples don't need the whole list.
+     */
+    private List<CatalogSong> scanServerSongs(AmpacheXmlClient client, int count) throws IOException {
+        ArrayList<CatalogSong> chosen = new ArrayList<>(count);
+        int seen = 0;
+        for (int offset = 0; ; ) {
+            List<CatalogSong> page = client.getSongs(offset, PAGE_SIZE, null);
+            for (CatalogSong song : page) {
+                int slot = seen < count ? seen : mRandom.nextInt(seen + 1);
+                if (slot < chosen.size()) {
+                    chosen.set(slot, song);
+                } else if (slot < count) {
+                    chosen.add(song);
+                }
+                seen++;
+            }
+            if (page.size() < PAGE_SIZE) {
+                break;
+            }
+            offset += page.size();
+        }
+        mServerSongCount = seen;
+        Collections.shuffle(chosen, mRandom);
+        return chosen;
+    }
+
     @Override
     public void RequestLogin(Bundle extras, ErrorCallback error) {
         ContentValues connValues = extras.getParcelable(ConnectionBean.GEN_TABLE_NAME);
@@ -182,58 +430,88 @@ public class AmpacheSource implements MusicProviderSource {
         synchronized (mLock) {
             mayBeLoggingIn = (getState() == State.INITIALIZING);
             if (! mayBeLoggingIn) {
-                mState = EAmpacheState.LOGGING_IN;
+                setState(EAmpacheState.LOGGING_IN);
             }
         }
 
-        AsyncRunner.RunAsync(() -> {
-                    synchronized (mLock) {
-                        while (mayBeLoggingIn && (mState == EAmpacheState.LOGGING_IN || mState == EAmpacheState.RETRIEVING)) {
-                            patientWait(mLock);
-                        }
-                        mErrorCallback = error;
-                        mState = EAmpacheState.LOGGING_IN;
-                        mLock.notifyAll();
-                    }
-                }, () -> {
-            ScheduledFuture<?> f = _pingFuture;
-            _pingFuture = null;
-            if (f != null) {
-                f.cancel(false);
+        Runnable startLogin = () -> {
+            synchronized (mLock) {
+                mErrorCallback = error;
+                setState(EAmpacheState.LOGGING_IN);
             }
+            mXmlClient = null;
+            mServerUrl = bean.getUrl();
+            mProxy.setServer(bean.getUrl());
+            mNoRandomAction = false;
+            mServerSongCount = 0;
+            mBitratePolicy.setCaps(bean.getWifiBitrateCap(), bean.getCellularBitrateCap());
+            mLogin = bean.getLogin();
+            mSession.stop();
             AmpacheApi.INSTANCE.initUser(bean.getUrl(), bean.getLogin(), bean.getPassword())
                     .flatMap(aVoid -> AmpacheApi.INSTANCE.handshake())
                     .subscribe(handshakeResponse -> {
                         LogHelper.i(TAG, "Expiration: " + handshakeResponse.getSession_expire());
-                        _pingFuture = _executorService.scheduleAtFixedRate(()->{
-                            AmpacheApi.INSTANCE.ping().subscribe();
-                        }, 300, 300, TimeUnit.SECONDS);
-                        synchronized (mLock) {
-                            mState = EAmpacheState.READY;
-                            mLock.notifyAll();
-                        }
+                        AmpacheXmlClient client = new AmpacheXmlClient(bean.getUrl(), handshakeResponse.getAuth(), mSession);
+                        mXmlClient = client;
+                        mServerSongCount = handshakeResponse.getSongs();
+                        mSession.start(client, handshakeResponse.getSession_expire());
+                        mSynchronizer.requestSync(client, bean.getUrl(), bean.getLogin(), handshakeResponse.getAdd(),
+                                handshakeResponse.getUpdate(), handshakeResponse.getClean());
+                        setState(EAmpacheState.READY);
                     }, throwable -> {
-                        synchronized (mLock) {
-                            mState = EAmpacheState.FAILURE;
-                            mLock.notifyAll();
-                        }
+                        setState(EAmpacheState.FAILURE);
                         onError(throwable);
                     });
-        });
+        };
+        if (mayBeLoggingIn) {
+            // Start after the login in progress finishes
+            whenReady(startLogin);
+        } else {
+            mMainHandler.post(startLogin);
+        }
+    }
 
+    /**
+     * Answer a browse request from the local catalog if it has been synced for this
+     * session's server and user; otherwise run fromServer to ask the server.
+     */
+    private <T> void fromCatalogOrServer(String title, ResultSetter<T> result, CatalogQuery<T> query, Runnable fromServer) {
+        final ArrayList<List<T>> fromCatalog = new ArrayList<>(1);
+        whenReady(() -> {
+            AmpacheXmlClient client = mXmlClient;
+            if (mState != EAmpacheState.READY || client == null) {
+                result.setResult(title, new ArrayList<T>().iterator());
+                return;
+            }
+            AsyncRunner.RunAsync(() -> {
+                if (mCatalog.isCompleteFor(mServerUrl, mLogin)) {
+                    try {
+                        fromCatalog.add(query.query(mCatalog, client));
+                    } catch (SQLException sqle) {
+                        LogHelper.e(TAG, sqle, "Reading local catalog failed");
+                    }
+                }
+            }, () -> {
+                if (! fromCatalog.isEmpty()) {
+                    result.setResult(title, fromCatalog.get(0).iterator());
+                } else {
+                    fromServer.run();
+                }
+            });
+        });
     }
 
     @Override
     public void GetPlaylists(MediaFetchResult result) {
         final ArrayList<MediaMetadataCompat> items = new ArrayList<>();
 
-        AsyncRunner.RunAsync(this::waitForInitialization, () -> {
+        whenReady(() -> {
             if (mState != EAmpacheState.READY) {
                 result.setResult("Playlists", items.iterator());
                 return;
             }
 
-            AmpacheApi.INSTANCE.getPlaylists().subscribe(playlists -> {
+            mSession.call(() -> AmpacheApi.INSTANCE.getPlaylists(), playlists -> {
                         for (Playlist pl : playlists) {
                             MediaMetadataCompat description = new MediaMetadataCompat.Builder()
                                     .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, pl.getId())
@@ -257,13 +535,20 @@ public class AmpacheSource implements MusicProviderSource {
     public void GetGenres(MediaFetchResult result) {
         final ArrayList<MediaMetadataCompat> items = new ArrayList<>();
 
-        AsyncRunner.RunAsync(this::waitForInitialization, () -> {
-            if (mState != EAmpacheState.READY) {
-                result.setResult("Genres", items.iterator());
-                return;
+        fromCatalogOrServer("Genres", result::setResult, (catalog, client) -> {
+            List<MediaMetadataCompat> metadata = new ArrayList<MediaMetadataCompat>();
+            for (CatalogTag t : catalog.getTags()) {
+                metadata.add(new MediaMetadataCompat.Builder()
+                        .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, t.getAmpacheId())
+                        .putString(MediaMetadataCompat.METADATA_KEY_TITLE, t.getName())
+                        .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_SUBTITLE, Long.toString(t.getSongs()))
+                        .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, "android.resource://" +
+                                "com.antlersoft.patchyamp/drawable/ic_by_genre")
+                        .build());
             }
-
-            AmpacheApi.INSTANCE.getTags().subscribe(playlists -> {
+            return metadata;
+        }, () -> {
+            mSession.call(() -> AmpacheApi.INSTANCE.getTags(), playlists -> {
                         for (TagEntity pl : playlists) {
                             MediaMetadataCompat description = new MediaMetadataCompat.Builder()
                                     .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, pl.getId())
@@ -285,18 +570,22 @@ public class AmpacheSource implements MusicProviderSource {
     }
 
     @Override
-    public void GetPlaylistSongs(String playListId, MediaFetchResult toSetQueue) {
-        final ArrayList<MediaMetadataCompat> items = new ArrayList<>();
+    public void GetPlaylistSongs(String playListId, SongFetchResult caller) {
+        final SongFetchResult toSetQueue = mCoalescer.join("GetPlaylistSongs", playListId, caller);
+        if (toSetQueue == null) {
+            return;
+        }
+        final ArrayList<SongRecord> items = new ArrayList<>();
 
-        AsyncRunner.RunAsync(this::waitForInitialization, () -> {
+        whenReady(() -> {
             if (mState != EAmpacheState.READY) {
                 toSetQueue.setResult("Playlist", items.iterator());
                 return;
             }
-            AmpacheApi.INSTANCE.getPlaylistSongs(playListId).subscribe((songs) -> {
+            mSession.call(() -> AmpacheApi.INSTANCE.getPlaylistSongs(playListId), (songs) -> {
                 toSetQueue.setResult("Playlist", songIterator(songs));
             }, (throwable) -> {
-                mState = EAmpacheState.FAILURE;
+                setState(EAmpacheState.FAILURE);
                 toSetQueue.setResult("Playlist", items.iterator());
                 onError(throwable);
             });
@@ -304,18 +593,14 @@ public class AmpacheSource implements MusicProviderSource {
     }
 
     @Override
-    public void GetGenreSongs(String genreId, MediaFetchResult toSetQueue) {
-        final ArrayList<MediaMetadataCompat> items = new ArrayList<>();
+    public void GetGenreSongs(String genreId, SongFetchResult toSetQueue) {
+        final ArrayList<SongRecord> items = new ArrayList<>();
 
-        AsyncRunner.RunAsync(this::waitForInitialization, () -> {
-            if (mState != EAmpacheState.READY) {
-                toSetQueue.setResult("Genre", items.iterator());
-                return;
-            }
-            AmpacheApi.INSTANCE.getTagSongs(genreId).subscribe((songs) -> {
+        fromCatalogOrServer("Genre", toSetQueue::setResult, (catalog, client) -> catalogSongs(catalog.getTagSongs(genreId), client), () -> {
+            mSession.call(() -> AmpacheApi.INSTANCE.getTagSongs(genreId), (songs) -> {
                 toSetQueue.setResult("Genre", songIterator(songs));
             }, (throwable) -> {
-                mState = EAmpacheState.FAILURE;
+                setState(EAmpacheState.FAILURE);
                 toSetQueue.setResult("Genre", items.iterator());
                 onError(throwable);
             });
@@ -323,16 +608,16 @@ public class AmpacheSource implements MusicProviderSource {
     }
 
     @Override
-    public void GetSearchSongs(String anyMatch, MediaFetchResult toSetQueue) {
-        AsyncRunner.RunAsync(this::waitForInitialization, () -> {
+    public void GetSearchSongs(String anyMatch, SongFetchResult toSetQueue) {
+        whenReady(() -> {
             if (mState != EAmpacheState.READY) {
-                toSetQueue.setResult("Genre", mEmptyMetadata.iterator());
+                toSetQueue.setResult("Genre", mEmptySongs.iterator());
                 return;
             }
-            AmpacheApi.INSTANCE.searchSongs(anyMatch).subscribe((songs) -> {
+            mSession.call(() -> AmpacheApi.INSTANCE.searchSongs(anyMatch), (songs) -> {
                 toSetQueue.setResult(anyMatch, songIterator(songs));
             }, throwable -> {
-                toSetQueue.setResult(anyMatch, mEmptyMetadata.iterator());
+                toSetQueue.setResult(anyMatch, mEmptySongs.iterator());
                 onError(throwable);
             });
         });
@@ -340,12 +625,20 @@ public class AmpacheSource implements MusicProviderSource {
 
     @Override
     public void GetArtists(MediaFetchResult result) {
-        AsyncRunner.RunAsync(this::waitForInitialization, () -> {
-            if (mState != EAmpacheState.READY) {
-                result.setResult("Artists", mEmptyMetadata.iterator());
-                return;
+        fromCatalogOrServer("Artists", result::setResult, (catalog, client) -> {
+            List<MediaMetadataCompat> metadata = new ArrayList<MediaMetadataCompat>();
+            for (CatalogArtist a : catalog.getArtists()) {
+                metadata.add(new MediaMetadataCompat.Builder()
+                        .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, a.getAmpacheId())
+                        .putString(MediaMetadataCompat.METADATA_KEY_TITLE, a.getName())
+                        .putString(MediaMetadataCompat.METADATA_KEY_DISPLAY_SUBTITLE, Long.toString(a.getSongs()))
+                        .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, "android.resource://" +
+                                "com.antlersoft.patchyamp/drawable/ic_by_genre")
+                        .build());
             }
-           AmpacheApi.INSTANCE.getArtists().subscribe((artists) -> {
+            return metadata;
+        }, () -> {
+           mSession.call(() -> AmpacheApi.INSTANCE.getArtists(), (artists) -> {
                List<MediaMetadataCompat> metadata = new ArrayList<MediaMetadataCompat>();
                for (Artist a : artists) {
                    MediaMetadataCompat description = new MediaMetadataCompat.Builder()
@@ -367,12 +660,8 @@ public class AmpacheSource implements MusicProviderSource {
 
     @Override
     public void GetAlbums(MediaFetchResult result) {
-        AsyncRunner.RunAsync(this::waitForInitialization, () -> {
-            if (mState != EAmpacheState.READY) {
-                result.setResult("Albums", mEmptyMetadata.iterator());
-                return;
-            }
-            AmpacheApi.INSTANCE.getAlbums().subscribe((albums) -> {
+        fromCatalogOrServer("Albums", result::setResult, (catalog, client) -> catalogAlbums(catalog.getAlbums(), client), () -> {
+            mSession.call(() -> AmpacheApi.INSTANCE.getAlbums(), (albums) -> {
                 List<MediaMetadataCompat> metadata = new ArrayList<MediaMetadataCompat>();
                 for (Album a : albums) {
                     MediaMetadataCompat description = new MediaMetadataCompat.Builder()
@@ -392,13 +681,13 @@ public class AmpacheSource implements MusicProviderSource {
     }
 
     @Override
-    public void GetArtistAlbums(String id, MediaFetchResult result) {
-        AsyncRunner.RunAsync(this::waitForInitialization, () -> {
-            if (mState != EAmpacheState.READY) {
-                result.setResult("Albums", mEmptyMetadata.iterator());
-                return;
-            }
-            AmpacheApi.INSTANCE.getAlbumsFromArtist(id).subscribe((albums) -> {
+    public void GetArtistAlbums(String id, MediaFetchResult caller) {
+        final MediaFetchResult result = mCoalescer.join("GetArtistAlbums", id, caller);
+        if (result == null) {
+            return;
+        }
+        fromCatalogOrServer("Albums", result::setResult, (catalog, client) -> catalogAlbums(catalog.getArtistAlbums(id), client), () -> {
+            mSession.call(() -> AmpacheApi.INSTANCE.getAlbumsFromArtist(id), (albums) -> {
                 List<MediaMetadataCompat> metadata = new ArrayList<MediaMetadataCompat>();
                 for (Album a : albums) {
                     MediaMetadataCompat description = new MediaMetadataCompat.Builder()
@@ -418,18 +707,14 @@ public class AmpacheSource implements MusicProviderSource {
     }
 
     @Override
-    public void GetArtistSongs(String id, MediaFetchResult result) {
-        final ArrayList<MediaMetadataCompat> items = new ArrayList<>();
+    public void GetArtistSongs(String id, SongFetchResult result) {
+        final ArrayList<SongRecord> items = new ArrayList<>();
 
-        AsyncRunner.RunAsync(this::waitForInitialization, () -> {
-            if (mState != EAmpacheState.READY) {
-                result.setResult("Artist", items.iterator());
-                return;
-            }
-            AmpacheApi.INSTANCE.getSongsFromArtist(id).subscribe((songs) -> {
+        fromCatalogOrServer("Artist", result::setResult, (catalog, client) -> catalogSongs(catalog.getArtistSongs(id), client), () -> {
+            mSession.call(() -> AmpacheApi.INSTANCE.getSongsFromArtist(id), (songs) -> {
                 result.setResult("Artist", songIterator(songs));
             }, (throwable) -> {
-                mState = EAmpacheState.FAILURE;
+                setState(EAmpacheState.FAILURE);
                 result.setResult("Artist", items.iterator());
                 onError(throwable);
             });
@@ -437,18 +722,18 @@ public class AmpacheSource implements MusicProviderSource {
     }
 
     @Override
-    public void GetAlbumSongs(String id, MediaFetchResult result) {
-        final ArrayList<MediaMetadataCompat> items = new ArrayList<>();
+    public void GetAlbumSongs(String id, SongFetchResult caller) {
+        final SongFetchResult result = mCoalescer.join("GetAlbumSongs", id, caller);
+        if (result == null) {
+            return;
+        }
+        final ArrayList<SongRecord> items = new ArrayList<>();
 
-        AsyncRunner.RunAsync(this::waitForInitialization, () -> {
-            if (mState != EAmpacheState.READY) {
-                result.setResult("Album", items.iterator());
-                return;
-            }
-            AmpacheApi.INSTANCE.getSongsFromAlbum(id).subscribe((songs) -> {
+        fromCatalogOrServer("Album", result::setResult, (catalog, client) -> catalogSongs(catalog.getAlbumSongs(id), client), () -> {
+            mSession.call(() -> AmpacheApi.INSTANCE.getSongsFromAlbum(id), (songs) -> {
                 result.setResult("Album", songIterator(songs));
             }, (throwable) -> {
-                mState = EAmpacheState.FAILURE;
+                setState(EAmpacheState.FAILURE);
                 result.setResult("Album", items.iterator());
                 onError(throwable);
             });
@@ -457,16 +742,45 @@ public class AmpacheSource implements MusicProviderSource {
     }
 
     @Override
-    public void GetSong(String id, ItemResult result) {
-        AmpacheApi.INSTANCE.getSong(id).subscribe((Song song)->{
-            result.setResult(buildMetadataFromSong(song));
-        }, (throwable)->{
-            mState = EAmpacheState.FAILURE;
-            onError(throwable);
-            result.setResult(null);
+    public void GetSong(String id, SongResult caller) {
+        final SongResult result = mCoalescer.join("GetSong", id, caller);
+        if (result == null) {
+            return;
+        }
+        final ArrayList<SongRecord> fromCatalog = new ArrayList<>(1);
+        AsyncRunner.RunAsync(Lane.PLAYBACK, TaskExecutor.PRIORITY_NORMAL, () -> {
+            AmpacheXmlClient client = mXmlClient;
+            if (client != null && mCatalog.isCompleteFor(mServerUrl, mLogin)) {
+                try {
+                    CatalogSong song = mCatalog.getSong(id);
+                    if (song != null) {
+                        fromCatalog.add(buildRecordFromCatalog(song, client));
+                    }
+                } catch (SQLException sqle) {
+                    LogHelper.e(TAG, sqle, "Reading local catalog failed");
+                }
+            }
+        }, () -> {
+            if (! fromCatalog.isEmpty()) {
+                result.setResult(fromCatalog.get(0));
+                return;
+            }
+            mSession.call(() -> AmpacheApi.INSTANCE.getSong(id), (Song song)->{
+                result.setResult(buildRecordFromSong(song));
+            }, (throwable)->{
+                setState(EAmpacheState.FAILURE);
+                onError(throwable);
+                result.setResult(null);
+            });
         });
     }
 
+    @Override
+    public String withCurrentSession(String url) {
+        AmpacheXmlClient client = mXmlClient;
+        return client == null ? url : client.withCurrentSession(url);
+    }
+
     public void onError(Throwable throwable) {
         String message;
         if (throwable instanceof AmpacheApiException) {
@@ -0,0 +1,423 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp;
+
+import android.net.Uri;
+import android.util.Xml;
+
+import com.antlersoft.patchyamp.db.CatalogAlbum;
+import com.antlersoft.patchyamp.db.CatalogArtist;
+import com.antlersoft.patchyamp.db.CatalogSong;
+import com.antlersoft.patchyamp.db.CatalogSongTag;
+import com.antlersoft.patchyamp.db.CatalogTag;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Minimal blocking client for the parts of the Ampache XML API that reactive-ampache
+ * doesn't expose, like offset/limit windows and add/update filters.
+ *
+ * Must not be called on the UI thread.
+ */
+class AmpacheXmlClient {
+    private static final String XML_SERVER_PATH = "server/xml.server.php";
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 60000;
+    // Session token parameters embedded in stream and art urls
+    private static final Pattern SESSION_PARAM = Pattern.compile("([?&](?:ssid|auth)=)[^&]*");
+
+    /** Name of filter parameter for items added after a date */
+    static final String FILTER_ADD = "add";
+    /** Name of filter parameter for items updated after a date */
+    static final String FILTER_UPDATE = "update";
+
+    private final String mServerUrl;
+    private final SessionRenewer mRenewer;
+    private volatile String mAuth;
+
+    /**
+     * Error element returned by the server in place of the requested data
+     */
+    static class AmpacheXmlException extends IOException {
+        private final int mCode;
+
+        AmpacheXmlException(int code, String message) {
+            super("Ampache error\ncode:" + code + "\nerror: " + message);
+            mCode = code;
+        }
+
+        int getCode() {
+            return mCode;
+        }
+    }
+
+    /**
+     * Gets a new session when the server says the current one is no longer valid
+     */
+    interface SessionRenewer {
+        /**
+         * Called on the calling thread of a request that failed with an authentication error;
+         * blocks until the session has been renewed or renewal failed
+         * @param staleAuth The session token the request was made with
+         * @return true if the request should be made again with the new token
+         */
+        boolean renew(String staleAuth);
+    }
+
+    /**
+     * Builds one kind of item from the child elements of its XML element
+     */
+    private interface ItemReader<T> {
+        T create(String id);
+        void setField(T item, String name, String childId, String text);
+    }
+
+    /**
+     * @param renewer If not null, asked for a new session when a request fails because
+     * the session expired; the request is then made once more
+     */
+    AmpacheXmlClient(String serverUrl, String auth, SessionRenewer renewer) {
+        mServerUrl = serverUrl;
+        mAuth = auth;
+        mRenewer = renewer;
+    }
+
+    String getAuth() {
+        return mAuth;
+    }
+
+    /**
+     * Use a new token after the session has been renewed
+     */
+    void setAuth(String auth) {
+        mAuth = auth;
+    }
+
+    /**
+     * @return true if the server error code means the session token was not accepted
+     */
+    static boolean isAuthError(int code) {
+        // 401 through API 4; 4701 from API 5
+        return code == 401 || code == 4701;
+    }
+
+    /**
+     * Replace the session token in a stream or art url saved from an earlier session
+     * with the token for this session
+     */
+    String withCurrentSession(String url) {
+        if (url == null) {
+            return null;
+        }
+        Matcher m = SESSION_PARAM.matcher(url);
+        return m.find() ? m.replaceAll("$1" + Matcher.quoteReplacement(mAuth)) : url;
+    }
+
+    /**
+     * Retrieve one window of the songs in the catalog
+     * @param offset Index of first song to return
+     * @param limit Maximum number of songs to return
+     * @param songTags If not null, receives the tags for each song returned
+     * @param filter Optional filter name, filter value pair like FILTER_ADD, date
+     * @return The songs in the window; fewer than limit songs means the end
+     * of the catalog was reached
+     * @throws IOException
+     */
+    List<CatalogSong> getSongs(int offset, int limit, List<CatalogSongTag> songTags, String... filter) throws IOException {
+        return fetch("songs", offset, limit, "song", songReader(songTags), filter);
+    }
+
+    /**
+     * Ask the server to pick songs at random, with the playlist_generate action from API 4
+     * @param limit Most songs to return
+     * @throws AmpacheXmlException if the server doesn't have the action
+     */
+    List<CatalogSong> getRandomSongs(int limit) throws IOException {
+        return fetch("playlist_generate", 0, limit, "song", songReader(null), "mode", "random", "format", "song");
+    }
+
+    /**
+     * @param songTags If not null, receives the tags for each song read
+     */
+    private static ItemReader<CatalogSong> songReader(final List<CatalogSongTag> songTags) {
+        return new ItemReader<CatalogSong>() {
+            private boolean mHaveRating;
+
+            @Override
+            public CatalogSong create(String id) {
+                CatalogSong song = new CatalogSong();
+                song.setAmpacheId(id);
+                song.setGenre("");
+                mHaveRating = false;
+                return song;
+            }
+
+            @Override
+            public void setField(CatalogSong song, String name, String childId, String text) {
+                switch (name) {
+                    case "title":
+                        song.setTitle(text);
+                        break;
+                    case "artist":
+                        song.setArtistId(childId);
+                        song.setArtistName(text);
+                        break;
+                    case "album":
+                        song.setAlbumId(childId);
+                        song.setAlbumName(text);
+                        break;
+                    case "url":
+                        song.setUrl(text);
+                        break;
+                    case "art":
+                        song.setArt(text);
+                        break;
+                    case "tag":
+                        song.setGenre(song.getGenre().length() > 0 ? song.getGenre() + ' ' + text : text);
+                        if (songTags != null && childId != null) {
+                            CatalogSongTag songTag = new CatalogSongTag();
+                            songTag.setSongId(song.getAmpacheId());
+                            songTag.setTagId(childId);
+                            songTags.add(songTag);
+                        }
+                        break;
+                    case "time":
+                        song.setTime(parseLong(text));
+                        break;
+                    case "track":
+                        song.setTrack(parseLong(text));
+                        break;
+                    case "preciserating":
+                        song.setRating(parseDouble(text));
+                        mHaveRating = true;
+                        break;
+                    case "rating":
+                        if (! mHaveRating) {
+                            song.setRating(parseDouble(text));
+                        }
+                        break;
+                }
+            }
+        };
+    }
+
+    List<CatalogAlbum> getAlbums(int offset, int limit, String... filter) throws IOException {
+        return fetch("albums", offset, limit, "album", new ItemReader<CatalogAlbum>() {
+            @Override
+            public CatalogAlbum create(String id) {
+                CatalogAlbum album = new CatalogAlbum();
+                album.setAmpacheId(id);
+                return album;
+            }
+
+            @Override
+            public void setField(CatalogAlbum album, String name, String childId, String text) {
+                switch (name) {
+                    case "name":
+                        album.setName(text);
+                        break;
+                    case "artist":
+                        album.setArtistId(childId);
+                        album.setArtistName(text);
+                        break;
+                    case "art":
+                        album.setArt(text);
+                        break;
+                    case "year":
+                        album.setYear(parseLong(text));
+                        break;
+                    case "tracks":
+                        album.setTracks(parseLong(text));
+                        break;
+                }
+            }
+        }, filter);
+    }
+
+    List<CatalogArtist> getArtists(int offset, int limit, String... filter) throws IOException {
+        return fetch("artists", offset, limit, "artist", new ItemReader<CatalogArtist>() {
+            @Override
+            public CatalogArtist create(String id) {
+                CatalogArtist artist = new CatalogArtist();
+                artist.setAmpacheId(id);
+                return artist;
+            }
+
+            @Override
+            public void setField(CatalogArtist artist, String name, String childId, String text) {
+                switch (name) {
+                    case "name":
+                        artist.setName(text);
+                        break;
+                    case "albums":
+                        artist.setAlbums(parseLong(text));
+                        break;
+                    case "songs":
+                        artist.setSongs(parseLong(text));
+                        break;
+                }
+            }
+        }, filter);
+    }
+
+    List<CatalogTag> getTags(int offset, int limit) throws IOException {
+        return fetch("tags", offset, limit, "tag", new ItemReader<CatalogTag>() {
+            @Override
+            public CatalogTag create(String id) {
+                CatalogTag tag = new CatalogTag();
+                tag.setAmpacheId(id);
+                return tag;
+            }
+
+            @Override
+            public void setField(CatalogTag tag, String name, String childId, String text) {
+                switch (name) {
+                    case "name":
+                        tag.setName(text);
+                        break;
+                    case "songs":
+                        tag.setSongs(parseLong(text));
+                        break;
+                }
+            }
+        });
+    }
+
+    /**
+     * Request a window of items, renewing the session and asking once more if the session
+     * has expired
+     */
+    private <T> List<T> fetch(String action, int offset, int limit, String element, ItemReader<T> reader, String... params) throws IOException {
+        String auth = mAuth;
+        try {
+            return readItems(request(action, auth, offset, limit, params), element, reader);
+        } catch (AmpacheXmlException axe) {
+            if (mRenewer == null || ! isAuthError(axe.getCode()) || ! mRenewer.renew(auth)) {
+                throw axe;
+            }
+        }
+        return readItems(request(action, mAuth, offset, limit, params), element, reader);
+    }
+
+    private HttpURLConnection request(String action, String auth, int offset, int limit, String... params) throws IOException {
+        Uri.Builder builder = Uri.parse(mServerUrl).buildUpon()
+                .appendEncodedPath(XML_SERVER_PATH)
+                .appendQueryParameter("action", action)
+                .appendQueryParameter("auth", auth)
+                .appendQueryParameter("offset", Integer.toString(offset))
+                .appendQueryParameter("limit", Integer.toString(limit));
+        for (int i = 0; i + 1 < params.length; i += 2) {
+            builder.appendQueryParameter(params[i], params[i + 1]);
+        }
+        HttpURLConnection connection = (HttpURLConnection)new URL(builder.build().toString()).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        return connection;
+    }
+
+    private <T> List<T> readItems(HttpURLConnection connection, String element, ItemReader<T> reader) throws IOException {
+        ArrayList<T> items = new ArrayList<>();
+        try (InputStream stream = new BufferedInputStream(connection.getInputStream())) {
+            XmlPullParser parser = Xml.newPullParser();
+            parser.setInput(stream, null);
+            for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+                if (event != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                if (element.equals(parser.getName())) {
+                    items.add(readItem(parser, reader));
+                } else if ("error".equals(parser.getName())) {
+                    readError(parser);
+                }
+            }
+        } catch (XmlPullParserException xppe) {
+            throw new IOException("Bad response from Ampache server", xppe);
+        } finally {
+            connection.disconnect();
+        }
+        return items;
+    }
+
+    private static void readError(XmlPullParser parser) throws IOException, XmlPullParserException {
+        int code;
+        try {
+            code = Integer.parseInt(parser.getAttributeValue(null, "code"));
+        } catch (NumberFormatException nfe) {
+            code = -1;
+        }
+        throw new AmpacheXmlException(code, readText(parser));
+    }
+
+    private static <T> T readItem(XmlPullParser parser, ItemReader<T> reader) throws IOException, XmlPullParserException {
+        T item = reader.create(parser.getAttributeValue(null, "id"));
+        int depth = parser.getDepth();
+        for (int event = parser.next(); event != XmlPullParser.END_TAG || parser.getDepth() > depth; event = parser.next()) {
+            if (event == XmlPullParser.END_DOCUMENT) {
+                throw new XmlPullParserException("Unexpected end of document");
+            }
+            if (event == XmlPullParser.START_TAG) {
+                String name = parser.getName();
+                String childId = parser.getAttributeValue(null, "id");
+                reader.setField(item, name, childId, readText(parser));
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Read the text directly within the current element, skipping any nested elements
+     */
+    private static String readText(XmlPullParser parser) throws IOException, XmlPullParserException {
+        StringBuilder sb = new StringBuilder();
+        int depth = parser.getDepth();
+        for (int event = parser.next(); event != XmlPullParser.END_TAG || parser.getDepth() > depth; event = parser.next()) {
+            if (event == XmlPullParser.END_DOCUMENT) {
+                throw new XmlPullParserException("Unexpected end of document");
+            }
+            if ((event == XmlPullParser.TEXT || event == XmlPullParser.CDSECT) && parser.getDepth() == depth) {
+                sb.append(parser.getText());
+            }
+        }
+        return sb.toString().trim();
+    }
+
+    private static long parseLong(String text) {
+        try {
+            return Long.parseLong(text);
+        } catch (NumberFormatException nfe) {
+            return 0;
+        }
+    }
+
+    private static double parseDouble(String text) {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException nfe) {
+            return 0;
+        }
+    }
+}
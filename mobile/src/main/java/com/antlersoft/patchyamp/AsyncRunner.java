@@ -15,36 +15,28 @@
  */
 package com.antlersoft.patchyamp;
 
-import java.lang.Void;
-
-import android.os.AsyncTask;
+import com.antlersoft.patchyamp.exec.Lane;
+import com.antlersoft.patchyamp.exec.TaskExecutor;
 
 /**
  * Created by mike on 2/6/17.
+ *
+ * Runs work in the background and continues on the UI thread, using the lanes of
+ * TaskExecutor rather than the process-wide serial AsyncTask executor.
  */
 
-public class AsyncRunner extends AsyncTask<Void, Void, Void> {
-    private Runnable mInBackground;
-    private Runnable mContinueOnUiThread;
-
+public class AsyncRunner {
+    /**
+     * Run browse work at normal priority
+     */
     public static void RunAsync(Runnable inBackground, Runnable continueOnUiThread) {
-        new AsyncRunner(inBackground, continueOnUiThread).execute();
-    }
-
-    private AsyncRunner(Runnable inBackground, Runnable continueOnUiThread) {
-        mInBackground = inBackground;
-        mContinueOnUiThread = continueOnUiThread;
+        RunAsync(Lane.BROWSE, TaskExecutor.PRIORITY_NORMAL, inBackground, continueOnUiThread);
     }
 
-    @Override
-    protected Void doInBackground(Void... params) {
-        mInBackground.run();
-        return null;
+    public static TaskExecutor.TaskHandle RunAsync(Lane lane, int priority, Runnable inBackground, Runnable continueOnUiThread) {
+        return TaskExecutor.getInstance().submit(lane, priority, inBackground, continueOnUiThread);
     }
 
-    @Override
-    protected void onPostExecute(Void aVoid) {
-        if (mContinueOnUiThread != null)
-            mContinueOnUiThread.run();
+    private AsyncRunner() {
     }
 }
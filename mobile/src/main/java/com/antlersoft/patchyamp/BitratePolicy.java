@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+import com.example.android.uamp.utils.LogHelper;
+
+import java.util.EnumMap;
+
+/**
+ * Picks the bitrate to stream each song at, from the kind of network, the cap the user set
+ * for it on the connection, and the throughput measured while streaming.
+ *
+ * Ampache transcodes a song when the stream url asks for a bitrate; without one it sends the
+ * file as it is, which for a FLAC library can be far more than a cellular link carries.
+ */
+public class BitratePolicy {
+    private static final String TAG = LogHelper.makeLogTag(BitratePolicy.class);
+
+    /** Cap setting for picking the bitrate from measured throughput */
+    public static final long CAP_AUTOMATIC = 0;
+    /** Cap setting for always streaming the file as it is */
+    public static final long CAP_ORIGINAL = -1;
+
+    // Bitrates to transcode to, in kbps, highest first
+    private static final long[] LADDER = { 320, 256, 192, 128, 96, 64 };
+    // Throughput that plays nearly any original file without stalling
+    private static final long ORIGINAL_MIN_KBPS = 2000;
+    // Leave room for throughput to vary
+    private static final double HEADROOM = 0.6;
+    // For automatic on a cellular network, until throughput has been measured
+    private static final long UNMEASURED_CELLULAR_KBPS = 192;
+    // Weight of each new throughput sample
+    private static final double SAMPLE_WEIGHT = 0.3;
+    private static final String TRANSCODE_FORMAT = "mp3";
+
+    public enum NetworkClass { WIFI, CELLULAR }
+
+    private static BitratePolicy sInstance;
+
+    private final ConnectivityManager mConnectivity;
+    private final EnumMap<NetworkClass, Long> mCaps = new EnumMap<>(NetworkClass.class);
+    // Smoothed measured throughput in kbps for each kind of network
+    private final EnumMap<NetworkClass, Double> mThroughput = new EnumMap<>(NetworkClass.class);
+
+    public static synchronized BitratePolicy getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new BitratePolicy((ConnectivityManager) context.getApplicationContext()
+                    .getSystemService(Context.CONNECTIVITY_SERVICE));
+        }
+        return sInstance;
+    }
+
+    BitratePolicy(ConnectivityManager connectivity) {
+        mConnectivity = connectivity;
+    }
+
+    /**
+     * Set the caps from the connection being logged in to
+     * @param wifiCap Cap in kbps on unmetered networks, or CAP_AUTOMATIC or CAP_ORIGINAL
+     * @param cellularCap Cap in kbps on cellular and other metered networks
+     */
+    public synchronized void setCaps(long wifiCap, long cellularCap) {
+        mCaps.put(NetworkClass.WIFI, wifiCap);
+        mCaps.put(NetworkClass.CELLULAR, cellularCap);
+    }
+
+    /**
+     * Record throughput measured while downloading from the server
+     * @param bytes Bytes received
+     * @param nanos Time spent waiting for them
+     */
+    public synchronized void recordTransfer(long bytes, long nanos) {
+        if (nanos <= 0) {
+            return;
+        }
+        NetworkClass network = getNetworkClass();
+        double kbps = bytes * 8.0 * 1000000.0 / nanos;
+        Double old = mThroughput.get(network);
+        double smoothed = old == null ? kbps : old + SAMPLE_WEIGHT * (kbps - old);
+        mThroughput.put(network, smoothed);
+        LogHelper.d(TAG, "Measured ", (long) kbps, " kbps on ", network, "; now ", (long) smoothed);
+    }
+
+    /**
+     * @return Bitrate in kbps to stream at now, or 0 for the original file
+     */
+    public synchronized long chooseBitrate() {
+        NetworkClass network = getNetworkClass();
+        Long capSetting = mCaps.get(network);
+        long cap = capSetting == null ? CAP_AUTOMATIC : capSetting;
+        if (cap == CAP_ORIGINAL) {
+            return 0;
+        }
+        Double measured = mThroughput.get(network);
+        long chosen;
+        if (measured == null) {
+            chosen = network == NetworkClass.CELLULAR ? UNMEASURED_CELLULAR_KBPS : 0;
+        } else if (measured >= ORIGINAL_MIN_KBPS) {
+            chosen = 0;
+        } else {
+            long usable = (long) (measured * HEADROOM);
+            chosen = LADDER[LADDER.length - 1];
+            for (long step : LADDER) {
+                if (step <= usable) {
+                    chosen = step;
+                    break;
+                }
+            }
+        }
+        if (cap > 0 && (chosen == 0 || chosen > cap)) {
+            chosen = cap;
+        }
+        return chosen;
+    }
+
+    /**
+     * @param source Url to stream a song from Ampache
+     * @return The url asking for the bitrate to stream at now
+     */
+    public String apply(String source) {
+        long bitrate = chooseBitrate();
+        if (bitrate <= 0 || source.contains("bitrate=")) {
+            return source;
+        }
+        return source + (source.indexOf('?') < 0 ? "?" : "&") + "transcode_to=" + TRANSCODE_FORMAT
+                + "&bitrate=" + bitrate;
+    }
+
+    public NetworkClass getNetworkClass() {
+        NetworkInfo info = mConnectivity.getActiveNetworkInfo();
+        if (info == null || info.getType() == ConnectivityManager.TYPE_MOBILE || mConnectivity.isActiveNetworkMetered()) {
+            return NetworkClass.CELLULAR;
+        }
+        return NetworkClass.WIFI;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp;
+
+import android.text.TextUtils;
+
+import com.antlersoft.patchyamp.db.CatalogSong;
+import com.antlersoft.patchyamp.db.CatalogSongTag;
+import com.antlersoft.patchyamp.db.CatalogState;
+import com.antlersoft.patchyamp.db.CatalogTag;
+import com.antlersoft.patchyamp.db.LocalCatalog;
+import com.example.android.uamp.utils.LogHelper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Brings the LocalCatalog up to date with the server in the background after login.
+ *
+ * The handshake reports when the catalog last had items added, updated and cleaned. If
+ * the catalog was cleaned (or we're talking to a different server or user) everything is
+ * fetched again; otherwise only the items added or updated since the last sync are fetched.
+ */
+class CatalogSynchronizer {
+    private static final String TAG = LogHelper.makeLogTag(CatalogSynchronizer.class);
+    static final int SYNC_PAGE_SIZE = 1000;
+
+    private final LocalCatalog mCatalog;
+    // One sync at a time; a sync requested while one is running waits its turn
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    CatalogSynchronizer(LocalCatalog catalog) {
+        mCatalog = catalog;
+    }
+
+    /**
+     * Start a sync in the background
+     * @param client Client for the session that just logged in
+     * @param serverUrl Url of the server the session is for
+     * @param login User name the session is for
+     * @param add Date of last add from the handshake
+     * @param update Date of last update from the handshake
+     * @param clean Date of last clean from the handshake
+     */
+    void requestSync(AmpacheXmlClient client, String serverUrl, String login, String add, String update, String clean) {
+        mExecutor.execute(() -> {
+            try {
+                sync(client, serverUrl, login, add, update, clean);
+            } catch (IOException | RuntimeException e) {
+                // Catalog stays as it was; the next login tries again
+                LogHelper.e(TAG, e, "Catalog sync failed");
+            }
+        });
+    }
+
+    private void sync(AmpacheXmlClient client, String serverUrl, String login, String add, String update, String clean) throws IOException {
+        CatalogState state = mCatalog.getState();
+        boolean full = state == null || ! state.isComplete() || ! TextUtils.equals(serverUrl, state.getServerUrl()) ||
+                ! TextUtils.equals(login, state.getLogin()) || ! TextUtils.equals(clean, state.getLastClean());
+        if (! full && TextUtils.equals(add, state.getLastAdd()) && TextUtils.equals(update, state.getLastUpdate())) {
+            LogHelper.i(TAG, "Catalog is up to date");
+            return;
+        }
+        if (state == null) {
+            state = new CatalogState();
+        }
+        if (full) {
+            LogHelper.i(TAG, "Full catalog sync");
+            state.setComplete(false);
+            state.setServerUrl(serverUrl);
+            state.setLogin(login);
+            mCatalog.saveState(state);
+            mCatalog.clear();
+            fetchAll(client);
+        } else {
+            LogHelper.i(TAG, "Incremental catalog sync since add ", state.getLastAdd(), " update ", state.getLastUpdate());
+            if (! TextUtils.equals(add, state.getLastAdd())) {
+                fetchAll(client, AmpacheXmlClient.FILTER_ADD, state.getLastAdd());
+            }
+            if (! TextUtils.equals(update, state.getLastUpdate())) {
+                fetchAll(client, AmpacheXmlClient.FILTER_UPDATE, state.getLastUpdate());
+            }
+        }
+        fetchTags(client);
+        state.setLastAdd(add);
+        state.setLastUpdate(update);
+        state.setLastClean(clean);
+        state.setComplete(true);
+        mCatalog.saveState(state);
+        LogHelper.i(TAG, "Catalog sync complete");
+    }
+
+    private void fetchAll(AmpacheXmlClient client, String... filter) throws IOException {
+        for (int offset = 0; ; ) {
+            ArrayList<CatalogSongTag> songTags = new ArrayList<>();
+            List<CatalogSong> songs = client.getSongs(offset, SYNC_PAGE_SIZE, songTags, filter);
+            mCatalog.putSongs(songs, songTags);
+            offset += songs.size();
+            if (songs.size() < SYNC_PAGE_SIZE) {
+                break;
+            }
+        }
+        for (int offset = 0; ; ) {
+            int count = putPage(client.getAlbums(offset, SYNC_PAGE_SIZE, filter), mCatalog::putAlbums);
+            offset += count;
+            if (count < SYNC_PAGE_SIZE) {
+                break;
+            }
+        }
+        for (int offset = 0; ; ) {
+            int count = putPage(client.getArtists(offset, SYNC_PAGE_SIZE, filter), mCatalog::putArtists);
+            offset += count;
+            if (count < SYNC_PAGE_SIZE) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * The tag list is small and has no date filter, so it is always replaced
+     */
+    private void fetchTags(AmpacheXmlClient client) throws IOException {
+        ArrayList<CatalogTag> tags = new ArrayList<>();
+        for (int offset = 0; ; ) {
+            List<CatalogTag> page = client.getTags(offset, SYNC_PAGE_SIZE);
+            tags.addAll(page);
+            offset += page.size();
+            if (page.size() < SYNC_PAGE_SIZE) {
+                break;
+            }
+        }
+        mCatalog.replaceTags(tags);
+    }
+
+    private interface PagePutter<T> {
+        void put(List<T> page);
+    }
+
+    private static <T> int putPage(List<T> page, PagePutter<T> putter) {
+        putter.put(page);
+        return page.size();
+    }
+}
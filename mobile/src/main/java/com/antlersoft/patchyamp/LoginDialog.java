@@ -48,6 +48,9 @@ public class LoginDialog extends Dialog {
     private EditText mTextLogin;
     private EditText mTextPassword;
     private CheckBox mKeepPassword;
+    private Spinner mWifiBitrate;
+    private Spinner mCellularBitrate;
+    private int[] mBitrateCaps;
     boolean mCalledOnStartUp;
 
     public LoginDialog(Activity context, PatchyDatabase dbHelper, boolean calledOnStartUp) {
@@ -69,6 +72,9 @@ public class LoginDialog extends Dialog {
         mTextLogin = (EditText)findViewById(R.id.textUsername);
         mTextPassword = (EditText)findViewById(R.id.textPASSWORD);
         mKeepPassword = (CheckBox)findViewById(R.id.checkboxKeepPassword);
+        mWifiBitrate = (Spinner)findViewById(R.id.spinnerWifiBitrate);
+        mCellularBitrate = (Spinner)findViewById(R.id.spinnerCellularBitrate);
+        mBitrateCaps = getContext().getResources().getIntArray(R.array.bitrate_cap_values);
         mSpinnerConnection = (Spinner) findViewById(R.id.spinnerConnection);
         mSpinnerConnection.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
@@ -129,6 +135,8 @@ public class LoginDialog extends Dialog {
             mTextPassword.setText(mSelected.getPassword());
             mTextUrl.setText(mSelected.getUrl());
             mKeepPassword.setChecked(mSelected.isKeepPassword());
+            mWifiBitrate.setSelection(capIndex(mSelected.getWifiBitrateCap()));
+            mCellularBitrate.setSelection(capIndex(mSelected.getCellularBitrateCap()));
         }
     }
 
@@ -139,8 +147,22 @@ public class LoginDialog extends Dialog {
             mSelected.setPassword(mTextPassword.getText().toString());
             mSelected.setUrl(mTextUrl.getText().toString());
             mSelected.setKeepPassword(mKeepPassword.isChecked());
+            mSelected.setWifiBitrateCap(mBitrateCaps[mWifiBitrate.getSelectedItemPosition()]);
+            mSelected.setCellularBitrateCap(mBitrateCaps[mCellularBitrate.getSelectedItemPosition()]);
         }
     }
+
+    /**
+     * @return Position in the bitrate spinners of a cap; caps not in the list show as automatic
+     */
+    private int capIndex(long cap) {
+        for (int i = 0; i < mBitrateCaps.length; i++) {
+            if (mBitrateCaps[i] == cap) {
+                return i;
+            }
+        }
+        return 0;
+    }
     private void saveAndWriteRecent()
     {
         if (mSelected == null)
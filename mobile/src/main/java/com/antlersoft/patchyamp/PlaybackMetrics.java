@@ -0,0 +1,445 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.support.v4.media.session.PlaybackStateCompat;
+
+import com.antlersoft.patchyamp.exec.Lane;
+import com.antlersoft.patchyamp.exec.TaskExecutor;
+import com.example.android.uamp.utils.LogHelper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Quality of experience for each track played: how long from asking for it until audio
+ * started, how many times it stalled to rebuffer after that and for how long in all; and
+ * what it cost in power, as how long the Wifi lock was held against how long it played.
+ *
+ * The most recent tracks are kept in a ring on the device, so the numbers survive restarts
+ * without growing; histograms and percentiles over them are worked out when asked for.
+ */
+public class PlaybackMetrics {
+    private static final String TAG = LogHelper.makeLogTag(PlaybackMetrics.class);
+
+    public static final int ROUTE_LOCAL = 0;
+    public static final int ROUTE_CAST = 1;
+
+    /** Upper bounds, in ms, of the buckets for time to audio and stall duration; the last is open */
+    public static final int[] TIME_BUCKETS = { 250, 500, 1000, 2000, 4000, 8000 };
+    /** Upper bounds of the buckets for rebuffer count; the last is open */
+    public static final int[] REBUFFER_BUCKETS = { 0, 1, 2, 5 };
+
+    private static final int CAPACITY = 500;
+    private static final String FILE_NAME = "playback_metrics";
+    private static final int FILE_VERSION = 2;
+    private static final int RECORD_BYTES = 1 + 6 * 4 + 8;
+    // Rough extra current drawn while the Wifi lock keeps the radio out of power save; varies
+    // a lot between devices, so the saving shown from it is only an estimate
+    private static final double WIFI_LOCK_MILLIAMPS = 60.0;
+
+    private static PlaybackMetrics sInstance;
+
+    private final File mFile;
+    // Ring of tracks, mNext is where the next one goes
+    private final byte[] mRoute = new byte[CAPACITY];
+    private final int[] mTimeToAudio = new int[CAPACITY];
+    private final int[] mPrepare = new int[CAPACITY];
+    private final int[] mRebuffers = new int[CAPACITY];
+    private final int[] mStall = new int[CAPACITY];
+    private final int[] mPlayed = new int[CAPACITY];
+    private final int[] mWifiLock = new int[CAPACITY];
+    private final long[] mWhen = new long[CAPACITY];
+    private int mNext;
+    private int mCount;
+    private boolean mSavePending;
+
+    public static synchronized PlaybackMetrics getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PlaybackMetrics(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        }
+        return sInstance;
+    }
+
+    PlaybackMetrics(File file) {
+        mFile = file;
+        load();
+    }
+
+    /**
+     * @param route ROUTE_LOCAL or ROUTE_CAST
+     * @return Tracker for one Playback to report its events to
+     */
+    public Tracker newTracker(int route) {
+        return new Tracker(route);
+    }
+
+    /**
+     * Follows the track being played by one Playback; its methods are called on the UI thread
+     * as the player moves between states, and it records the track when it is done with.
+     */
+    public class Tracker {
+        private final int mTrackerRoute;
+        private String mMediaId;
+        private long mRequested;
+        private long mPreparing;
+        private long mPrepared;
+        private long mFirstAudio;
+        private long mStallStart;
+        private int mTrackRebuffers;
+        private long mStallTotal;
+        private boolean mSeeking;
+        private long mPlayingSince;
+        private long mPlayedTotal;
+        private long mWifiLockTotal;
+
+        Tracker(int route) {
+            mTrackerRoute = route;
+        }
+
+        /**
+         * A new track has been asked for; records the one before it
+         */
+        public void requested(String mediaId) {
+            finished();
+            mMediaId = mediaId;
+            mRequested = SystemClock.elapsedRealtime();
+        }
+
+        /**
+         * The player has started loading the track
+         */
+        public void preparing() {
+            if (mMediaId != null && mPreparing == 0) {
+                mPreparing = SystemClock.elapsedRealtime();
+            }
+        }
+
+        /**
+         * The player has loaded enough of the track to start
+         */
+        public void prepared() {
+            if (mMediaId != null && mPrepared == 0) {
+                mPrepared = SystemClock.elapsedRealtime();
+            }
+        }
+
+        /**
+         * The player has moved to one of the PlaybackStateCompat states
+         */
+        public void state(int state) {
+            if (mMediaId == null) {
+                return;
+            }
+            switch (state) {
+                case PlaybackStateCompat.STATE_PLAYING:
+                    long now = SystemClock.elapsedRealtime();
+                    if (mFirstAudio == 0) {
+                        mFirstAudio = now;
+                    }
+                    endStall(now);
+                    if (mPlayingSince == 0) {
+                        mPlayingSince = now;
+                    }
+                    mSeeking = false;
+                    break;
+                case PlaybackStateCompat.STATE_BUFFERING:
+                    endPlaying(SystemClock.elapsedRealtime());
+                    bufferingStarted();
+                    break;
+                case PlaybackStateCompat.STATE_PAUSED:
+                case PlaybackStateCompat.STATE_STOPPED:
+                    endStall(SystemClock.elapsedRealtime());
+                    endPlaying(SystemClock.elapsedRealtime());
+                    break;
+            }
+        }
+
+        /**
+         * The user has asked to move within the track, so buffering until it plays again is
+         * not counted as a stall
+         */
+        public void seeking() {
+            mSeeking = true;
+            endStall(SystemClock.elapsedRealtime());
+        }
+
+        /**
+         * Playback ran out of data
+         */
+        public void bufferingStarted() {
+            if (mFirstAudio != 0 && mStallStart == 0 && ! mSeeking) {
+                mStallStart = SystemClock.elapsedRealtime();
+                mTrackRebuffers++;
+            }
+        }
+
+        /**
+         * Playback has enough data again
+         */
+        public void bufferingEnded() {
+            endStall(SystemClock.elapsedRealtime());
+        }
+
+        /**
+         * The Playback let go of the Wifi lock, having held it for heldMs; counted against the
+         * track playing then
+         */
+        public void wifiLockReleased(long heldMs) {
+            mWifiLockTotal += heldMs;
+        }
+
+        /**
+         * The track has ended, been stopped or failed; records it
+         */
+        public void finished() {
+            if (mMediaId == null) {
+                return;
+            }
+            long now = SystemClock.elapsedRealtime();
+            endStall(now);
+            endPlaying(now);
+            int timeToAudio = mFirstAudio == 0 ? -1 : (int) (mFirstAudio - mRequested);
+            int prepare = mPreparing == 0 || mPrepared == 0 ? -1 : (int) (mPrepared - mPreparing);
+            record(mTrackerRoute, timeToAudio, prepare, mTrackRebuffers, (int) mStallTotal,
+                    (int) mPlayedTotal, (int) mWifiLockTotal);
+            LogHelper.d(TAG, "Played ", mMediaId, ": time to audio ", timeToAudio, " ms, prepare ", prepare,
+                    " ms, ", mTrackRebuffers, " rebuffers for ", mStallTotal, " ms, Wifi lock ",
+                    mWifiLockTotal, " of ", mPlayedTotal, " ms");
+            mMediaId = null;
+            mPreparing = 0;
+            mPrepared = 0;
+            mFirstAudio = 0;
+            mStallStart = 0;
+            mTrackRebuffers = 0;
+            mStallTotal = 0;
+            mSeeking = false;
+            mPlayingSince = 0;
+            mPlayedTotal = 0;
+            mWifiLockTotal = 0;
+        }
+
+        private void endPlaying(long now) {
+            if (mPlayingSince != 0) {
+                mPlayedTotal += now - mPlayingSince;
+                mPlayingSince = 0;
+            }
+        }
+
+        private void endStall(long now) {
+            if (mStallStart != 0) {
+                mStallTotal += now - mStallStart;
+                mStallStart = 0;
+            }
+        }
+    }
+
+    /**
+     * What the recorded tracks for a route add up to
+     */
+    public static class Summary {
+        /** Tracks recorded */
+        public int tracks;
+        /** Tracks given up on or failed before any audio played */
+        public int neverStarted;
+        /** Median and 90th percentile time to audio in ms, or -1 with nothing started */
+        public int timeToAudioMedian = -1;
+        public int timeToAudio90 = -1;
+        /** Median time the player took to prepare in ms, or -1 if not known */
+        public int prepareMedian = -1;
+        /** Counts in each of TIME_BUCKETS, plus one over the last */
+        public final int[] timeToAudio = new int[TIME_BUCKETS.length + 1];
+        /** Counts in each of REBUFFER_BUCKETS, plus one over the last */
+        public final int[] rebuffers = new int[REBUFFER_BUCKETS.length + 1];
+        /** Stall time for tracks that stalled, counted in each of TIME_BUCKETS plus one over */
+        public final int[] stalls = new int[TIME_BUCKETS.length + 1];
+        public int totalRebuffers;
+        public long totalStallMs;
+        /** Time spent playing, and with the Wifi lock held, over all the tracks */
+        public long totalPlayedMs;
+        public long totalWifiLockMs;
+
+        /**
+         * @return Estimated battery saved by not holding the Wifi lock for all the time spent
+         * playing, in mAh
+         */
+        public double getWifiSavingMah() {
+            return Math.max(0, totalPlayedMs - totalWifiLockMs) * WIFI_LOCK_MILLIAMPS / 3600000.0;
+        }
+    }
+
+    /**
+     * @param route ROUTE_LOCAL or ROUTE_CAST
+     */
+    public synchronized Summary getSummary(int route) {
+        Summary summary = new Summary();
+        int[] started = new int[mCount];
+        int[] prepares = new int[mCount];
+        int startedCount = 0;
+        int prepareCount = 0;
+        for (int i = 0; i < mCount; i++) {
+            if (mRoute[i] != route) {
+                continue;
+            }
+            summary.tracks++;
+            summary.totalPlayedMs += mPlayed[i];
+            summary.totalWifiLockMs += mWifiLock[i];
+            if (mTimeToAudio[i] < 0) {
+                summary.neverStarted++;
+                continue;
+            }
+            started[startedCount++] = mTimeToAudio[i];
+            summary.timeToAudio[bucket(TIME_BUCKETS, mTimeToAudio[i])]++;
+            if (mPrepare[i] >= 0) {
+                prepares[prepareCount++] = mPrepare[i];
+            }
+            summary.rebuffers[bucket(REBUFFER_BUCKETS, mRebuffers[i])]++;
+            summary.totalRebuffers += mRebuffers[i];
+            if (mRebuffers[i] > 0) {
+                summary.stalls[bucket(TIME_BUCKETS, mStall[i])]++;
+                summary.totalStallMs += mStall[i];
+            }
+        }
+        if (startedCount > 0) {
+            Arrays.sort(started, 0, startedCount);
+            summary.timeToAudioMedian = started[startedCount / 2];
+            summary.timeToAudio90 = started[Math.min(startedCount - 1, startedCount * 9 / 10)];
+        }
+        if (prepareCount > 0) {
+            Arrays.sort(prepares, 0, prepareCount);
+            summary.prepareMedian = prepares[prepareCount / 2];
+        }
+        return summary;
+    }
+
+    /**
+     * Forget everything recorded
+     */
+    public synchronized void clear() {
+        mCount = 0;
+        mNext = 0;
+        scheduleSave();
+    }
+
+    private static int bucket(int[] bounds, int value) {
+        for (int i = 0; i < bounds.length; i++) {
+            if (value <= bounds[i]) {
+                return i;
+            }
+        }
+        return bounds.length;
+    }
+
+    private synchronized void record(int route, int timeToAudio, int prepare, int rebuffers, int stall,
+                                     int played, int wifiLock) {
+        put(route, timeToAudio, prepare, rebuffers, stall, played, wifiLock, System.currentTimeMillis());
+        scheduleSave();
+    }
+
+    private void put(int route, int timeToAudio, int prepare, int rebuffers, int stall, int played,
+                     int wifiLock, long when) {
+        mRoute[mNext] = (byte) route;
+        mTimeToAudio[mNext] = timeToAudio;
+        mPrepare[mNext] = prepare;
+        mRebuffers[mNext] = rebuffers;
+        mStall[mNext] = stall;
+        mPlayed[mNext] = played;
+        mWifiLock[mNext] = wifiLock;
+        mWhen[mNext] = when;
+        mNext = (mNext + 1) % CAPACITY;
+        if (mCount < CAPACITY) {
+            mCount++;
+        }
+    }
+
+    /**
+     * Write the ring out in the background; tracks recorded before the write starts go out with it
+     */
+    private void scheduleSave() {
+        if (mSavePending) {
+            return;
+        }
+        mSavePending = true;
+        AsyncRunner.RunAsync(Lane.STORE, TaskExecutor.PRIORITY_NORMAL, this::save, null);
+    }
+
+    private void save() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_BYTES * CAPACITY + 8);
+        synchronized (this) {
+            mSavePending = false;
+            try {
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(FILE_VERSION);
+                out.writeInt(mCount);
+                // Oldest first, so loading puts them back in order
+                int start = (mNext - mCount + CAPACITY) % CAPACITY;
+                for (int n = 0; n < mCount; n++) {
+                    int i = (start + n) % CAPACITY;
+                    out.writeByte(mRoute[i]);
+                    out.writeInt(mTimeToAudio[i]);
+                    out.writeInt(mPrepare[i]);
+                    out.writeInt(mRebuffers[i]);
+                    out.writeInt(mStall[i]);
+                    out.writeInt(mPlayed[i]);
+                    out.writeInt(mWifiLock[i]);
+                    out.writeLong(mWhen[i]);
+                }
+            } catch (IOException ioe) {
+                // Not from a byte array
+            }
+        }
+        File temp = new File(mFile.getPath() + ".tmp");
+        try (BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+            bytes.writeTo(out);
+        } catch (IOException ioe) {
+            LogHelper.e(TAG, ioe, "Failed to save playback metrics");
+            return;
+        }
+        if (! temp.renameTo(mFile)) {
+            LogHelper.e(TAG, "Failed to replace playback metrics file");
+        }
+    }
+
+    private synchronized void load() {
+        if (! mFile.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)))) {
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int n = 0; n < count; n++) {
+                put(in.readByte(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                        in.readInt(), in.readLong());
+            }
+        } catch (IOException ioe) {
+            LogHelper.e(TAG, ioe, "Can't read playback metrics; starting over");
+            mCount = 0;
+            mNext = 0;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp;
+
+import android.app.Activity;
+import android.app.Dialog;
+import android.os.Bundle;
+import android.widget.TextView;
+
+import java.util.Locale;
+
+/**
+ * Shows what PlaybackMetrics has recorded, for working out why playback starts slowly or stalls
+ */
+public class PlaybackMetricsDialog extends Dialog {
+    private final PlaybackMetrics mMetrics;
+    private TextView mText;
+
+    public PlaybackMetricsDialog(Activity context) {
+        super(context);
+        setOwnerActivity(context);
+        mMetrics = PlaybackMetrics.getInstance(context);
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.metrics_dialog);
+        setTitle(R.string.playback_metrics_title);
+        mText = (TextView) findViewById(R.id.textMetrics);
+        findViewById(R.id.buttonResetMetrics).setOnClickListener((v) -> {
+            mMetrics.clear();
+            fill(mText);
+        });
+        findViewById(R.id.buttonCloseMetrics).setOnClickListener((v) -> dismiss());
+        fill(mText);
+    }
+
+    private void fill(TextView text) {
+        StringBuilder sb = new StringBuilder();
+        append(sb, "Local", mMetrics.getSummary(PlaybackMetrics.ROUTE_LOCAL), true);
+        sb.append('\n');
+        append(sb, "Cast", mMetrics.getSummary(PlaybackMetrics.ROUTE_CAST), false);
+        text.setText(sb);
+    }
+
+    /**
+     * @param holdsWifiLock Whether playing on this route holds the Wifi lock
+     */
+    private static void append(StringBuilder sb, String route, PlaybackMetrics.Summary summary,
+                               boolean holdsWifiLock) {
+        sb.append(route).append(": ").append(summary.tracks).append(" tracks, ")
+                .append(summary.neverStarted).append(" never started\n");
+        if (holdsWifiLock && summary.totalPlayedMs > 0) {
+            sb.append(String.format(Locale.US, "Wifi lock: held %.1f of %.1f min playing, about %.1f mAh saved\n",
+                    summary.totalWifiLockMs / 60000.0, summary.totalPlayedMs / 60000.0,
+                    summary.getWifiSavingMah()));
+        }
+        if (summary.tracks == summary.neverStarted) {
+            return;
+        }
+        sb.append("Time to audio: median ").append(summary.timeToAudioMedian)
+                .append(" ms, 90% ").append(summary.timeToAudio90).append(" ms\n");
+        if (summary.prepareMedian >= 0) {
+            sb.append("Prepare: median ").append(summary.prepareMedian).append(" ms\n");
+        }
+        appendHistogram(sb, PlaybackMetrics.TIME_BUCKETS, summary.timeToAudio, " ms");
+        sb.append("Rebuffers: ").append(summary.totalRebuffers).append(", stalled ")
+                .append(summary.totalStallMs).append(" ms in all\n");
+        appendHistogram(sb, PlaybackMetrics.REBUFFER_BUCKETS, summary.rebuffers, "");
+        sb.append("Stall time per stalled track:\n");
+        appendHistogram(sb, PlaybackMetrics.TIME_BUCKETS, summary.stalls, " ms");
+    }
+
+    private static void appendHistogram(StringBuilder sb, int[] bounds, int[] counts, String unit) {
+        int max = 1;
+        for (int count : counts) {
+            max = Math.max(max, count);
+        }
+        for (int i = 0; i < counts.length; i++) {
+            String label = i < bounds.length ? "<=" + bounds[i] + unit : ">" + bounds[bounds.length - 1] + unit;
+            sb.append("  ").append(label);
+            for (int pad = label.length(); pad < 10; pad++) {
+                sb.append(' ');
+            }
+            sb.append(String.format(Locale.US, "%4d ", counts[i]));
+            for (int bar = counts[i] * 20 / max; bar > 0; bar--) {
+                sb.append('#');
+            }
+            sb.append('\n');
+        }
+    }
+}
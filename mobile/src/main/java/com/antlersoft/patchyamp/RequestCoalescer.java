@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp;
+
+import android.os.SystemClock;
+import android.support.v4.media.MediaMetadataCompat;
+
+import com.example.android.uamp.model.MusicProviderSource;
+import com.example.android.uamp.model.SongRecord;
+import com.example.android.uamp.utils.LogHelper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Lets concurrent identical requests share a single request to the server.
+ *
+ * The first caller for a (method, id) key gets back a result object to hand to the real
+ * request; callers that arrive while that request is in flight are queued, and all of them
+ * receive the result when it arrives. Only the first result is delivered. A request that
+ * hasn't delivered a result after PENDING_TIMEOUT_MS is made again by the next caller, and
+ * the callers waiting for it move to the new request, so none of them wait on it forever.
+ */
+class RequestCoalescer {
+    private static final String TAG = LogHelper.makeLogTag(RequestCoalescer.class);
+    static final long PENDING_TIMEOUT_MS = 60000;
+
+    private final HashMap<String, Pending> mPending = new HashMap<>();
+
+    /**
+     * One request in flight and the callers waiting for it
+     */
+    private static class Pending {
+        final long started = SystemClock.elapsedRealtime();
+        // Guarded by mPending; null once the result is delivered
+        List<Object> waiting = new ArrayList<>();
+    }
+
+    private static String key(String method, String id) {
+        return method + '\n' + id;
+    }
+
+    /**
+     * @return The new request this caller must make, or null if it has joined one in flight
+     */
+    private Pending first(String key, Object result) {
+        synchronized (mPending) {
+            Pending pending = mPending.get(key);
+            if (pending != null && SystemClock.elapsedRealtime() - pending.started < PENDING_TIMEOUT_MS) {
+                pending.waiting.add(result);
+                return null;
+            }
+            Pending stale = pending;
+            pending = new Pending();
+            if (stale != null) {
+                LogHelper.i(TAG, "Request ", key.replace('\n', ' '), " hasn't finished; making it again");
+                // Its callers get the result of the new request; if it delivers after all,
+                // nobody is left to give it to
+                pending.waiting = stale.waiting;
+                stale.waiting = null;
+            }
+            pending.waiting.add(result);
+            mPending.put(key, pending);
+            return pending;
+        }
+    }
+
+    /**
+     * @return Every caller waiting for the request, or null if its result was already
+     * delivered; the request is no longer in flight
+     */
+    @SuppressWarnings("unchecked")
+    private <T> List<T> finish(String key, Pending pending) {
+        synchronized (mPending) {
+            if (mPending.get(key) == pending) {
+                mPending.remove(key);
+            }
+            List<Object> waiting = pending.waiting;
+            pending.waiting = null;
+            return (List<T>) waiting;
+        }
+    }
+
+    private static <T> List<T> toList(Iterator<T> items) {
+        ArrayList<T> list = new ArrayList<>();
+        while (items != null && items.hasNext()) {
+            list.add(items.next());
+        }
+        return list;
+    }
+
+    /**
+     * Give the result to one caller, so one that fails doesn't keep it from the rest
+     */
+    private static void deliver(String key, Runnable delivery) {
+        try {
+            delivery.run();
+        } catch (RuntimeException re) {
+            LogHelper.e(TAG, re, "Delivering result of ", key.replace('\n', ' '), " failed");
+        }
+    }
+
+    /**
+     * Join the in-flight request for method and id, if any
+     * @param method Name of the request
+     * @param id Id of the item requested
+     * @param result Where this caller wants the result delivered
+     * @return Result to pass to the request that must be made, or null if an identical
+     * request is already in flight and will deliver its result to this caller
+     */
+    MusicProviderSource.MediaFetchResult join(String method, String id, MusicProviderSource.MediaFetchResult result) {
+        final String key = key(method, id);
+        final Pending pending = first(key, result);
+        if (pending == null) {
+            return null;
+        }
+        return (title, items) -> {
+            List<MusicProviderSource.MediaFetchResult> waiting = finish(key, pending);
+            if (waiting == null) {
+                return;
+            }
+            // Each caller gets its own iterator over the one result
+            List<MediaMetadataCompat> list = toList(items);
+            for (MusicProviderSource.MediaFetchResult r : waiting) {
+                deliver(key, () -> r.setResult(title, list.iterator()));
+            }
+        };
+    }
+
+    /**
+     * Join the in-flight request for a list of songs, if any
+     * @see #join(String, String, MusicProviderSource.MediaFetchResult)
+     */
+    MusicProviderSource.SongFetchResult join(String method, String id, MusicProviderSource.SongFetchResult result) {
+        final String key = key(method, id);
+        final Pending pending = first(key, result);
+        if (pending == null) {
+            return null;
+        }
+        return (title, items) -> {
+            List<MusicProviderSource.SongFetchResult> waiting = finish(key, pending);
+            if (waiting == null) {
+                return;
+            }
+            List<SongRecord> list = toList(items);
+            for (MusicProviderSource.SongFetchResult r : waiting) {
+                deliver(key, () -> r.setResult(title, list.iterator()));
+            }
+        };
+    }
+
+    /**
+     * Join the in-flight request for a single song, if any
+     * @see #join(String, String, MusicProviderSource.MediaFetchResult)
+     */
+    MusicProviderSource.SongResult join(String method, String id, MusicProviderSource.SongResult result) {
+        final String key = key(method, id);
+        final Pending pending = first(key, result);
+        if (pending == null) {
+            return null;
+        }
+        return song -> {
+            List<MusicProviderSource.SongResult> waiting = finish(key, pending);
+            if (waiting == null) {
+                return;
+            }
+            for (MusicProviderSource.SongResult r : waiting) {
+                deliver(key, () -> r.setResult(song));
+            }
+        };
+    }
+}
@@ -0,0 +1,588 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp;
+
+import android.support.v4.media.MediaDescriptionCompat;
+import android.support.v4.media.session.MediaSessionCompat;
+
+import com.antlersoft.patchyamp.db.PatchyDatabase;
+import com.antlersoft.patchyamp.exec.Lane;
+import com.antlersoft.patchyamp.exec.TaskExecutor;
+import com.example.android.uamp.model.MusicProvider;
+import com.example.android.uamp.model.SongRecord;
+import com.example.android.uamp.utils.LogHelper;
+import com.example.android.uamp.utils.MediaIDHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the playing queue, the current item and the position in it in the database, so
+ * after the process is killed the queue comes back as it was without asking the server.
+ *
+ * The title, current item and position are saved as a small blob in LIST_CONTENT, and the
+ * queue in parts in QUEUE_PART, so no one row grows with the queue. Parts from 0 on hold just
+ * the ids of IDS_PART_ITEMS items each. Part PART_RECORDS holds the songs in a window around the
+ * current item, which is what the session shows: a table of the distinct strings, then a column
+ * for each field of the songs, so the artist, album and art shared by many songs and the
+ * browse category shared by every item are stored once. Of those, songs MusicProvider has read
+ * recently are saved whole, so they can be played again after the restart; for others only what
+ * the queue item shows is kept. Items outside the window come back with only their ids.
+ *
+ * Changes are written in the background, several at a time if they come quickly. Only the
+ * parts that changed are written: adding to the end of a long queue writes the last parts,
+ * and a change of only the current item or position writes the small blob, and the window
+ * when the current item nears its end.
+ */
+public class SavedQueue {
+    private static final String TAG = LogHelper.makeLogTag(SavedQueue.class);
+    private static final int FORMAT_VERSION = 2;
+    // Items whose ids are in each id part
+    private static final int IDS_PART_ITEMS = 2000;
+    // Index of the part with the songs around the current item
+    private static final int PART_RECORDS = -1;
+    // Items in that part, and how many of them are before the current item when it is made
+    private static final int RECORDS_WINDOW = 500;
+    private static final int RECORDS_BEHIND = 150;
+    // It is made again when the current item comes this close to either end, which leaves
+    // more than the session shows either side
+    private static final int RECORDS_MARGIN = 100;
+
+    // String columns, each an index into the string table; 0 is null
+    private static final int COLUMN_PARENT = 0;
+    private static final int COLUMN_MUSIC_ID = 1;
+    private static final int COLUMN_TITLE = 2;
+    private static final int COLUMN_ARTIST = 3;
+    private static final int COLUMN_ALBUM = 4;
+    private static final int COLUMN_GENRE = 5;
+    private static final int COLUMN_URL = 6;
+    private static final int COLUMN_ART = 7;
+    private static final int STRING_COLUMNS = 8;
+    // Ratings are stored in steps of 1/RATING_SCALE of a star
+    private static final float RATING_SCALE = 20.0f;
+
+    private final PatchyDatabase mDatabase;
+    private final MusicProvider mMusicProvider;
+    // Serializes writes, so a later state is never overwritten by an earlier one
+    private final Object mSaveLock = new Object();
+
+    private String mTitle;
+    private List<MediaSessionCompat.QueueItem> mQueue;
+    private int mCurrentIndex;
+    private int mPosition;
+    private boolean mSavePending;
+    // What is in the database, guarded by mSaveLock: the queue, its id parts and where the
+    // part with the songs starts, or -1 if it isn't known
+    private List<MediaSessionCompat.QueueItem> mSavedQueue;
+    private byte[][] mSavedIdParts = new byte[0][];
+    private int mSavedRecordsStart = -1;
+
+    /**
+     * A queue read back from the database
+     */
+    public static class Contents {
+        public final String title;
+        public final List<MediaSessionCompat.QueueItem> queue;
+        /** Songs that were saved whole, to give to MusicProvider */
+        public final List<SongRecord> songs;
+        public final int currentIndex;
+        public final int position;
+        final byte[][] idParts;
+        final int recordsStart;
+
+        Contents(String title, List<MediaSessionCompat.QueueItem> queue, List<SongRecord> songs,
+                 int currentIndex, int position, byte[][] idParts, int recordsStart) {
+            this.title = title;
+            this.queue = queue;
+            this.songs = songs;
+            this.currentIndex = currentIndex;
+            this.position = position;
+            this.idParts = idParts;
+            this.recordsStart = recordsStart;
+        }
+    }
+
+    public interface LoadResult {
+        /**
+         * @param contents The saved queue, or null if there is none that can be read
+         */
+        void onLoaded(Contents contents);
+    }
+
+    /**
+     * @param musicProvider Source of the songs in the queue when it is saved
+     */
+    public SavedQueue(PatchyDatabase database, MusicProvider musicProvider) {
+        mDatabase = database;
+        mMusicProvider = musicProvider;
+    }
+
+    /**
+     * Save a new queue, or the queue with items added or removed
+     * @param queue Not changed after this; a changed queue is passed in again as a new list
+     */
+    public synchronized void setQueue(String title, List<MediaSessionCompat.QueueItem> queue, int currentIndex) {
+        // The position carries over if the current item is still the same one
+        if (getItem(mQueue, mCurrentIndex) != getItem(queue, currentIndex)) {
+            mPosition = 0;
+        }
+        mTitle = title;
+        mQueue = queue;
+        mCurrentIndex = currentIndex;
+        scheduleSave();
+    }
+
+    public synchronized void setCurrentIndex(int currentIndex) {
+        if (currentIndex != mCurrentIndex) {
+            mCurrentIndex = currentIndex;
+            mPosition = 0;
+            scheduleSave();
+        }
+    }
+
+    /**
+     * @param position Position in the current item, in ms
+     */
+    public synchronized void setPosition(int position) {
+        if (position != mPosition) {
+            mPosition = position;
+            scheduleSave();
+        }
+    }
+
+    /**
+     * Take back a queue that has been loaded, as what is saved, without writing it again
+     */
+    public void setRestored(Contents contents) {
+        synchronized (mSaveLock) {
+            synchronized (this) {
+                mTitle = contents.title;
+                mQueue = contents.queue;
+                mCurrentIndex = contents.currentIndex;
+                mPosition = contents.position;
+            }
+            mSavedQueue = contents.queue;
+            mSavedIdParts = contents.idParts;
+            mSavedRecordsStart = contents.recordsStart;
+        }
+    }
+
+    /**
+     * Read the saved queue in the background
+     * @param result Called on the UI thread
+     */
+    public void load(final LoadResult result) {
+        final Contents[] loaded = new Contents[1];
+        AsyncRunner.RunAsync(Lane.PLAYBACK, TaskExecutor.PRIORITY_HIGH, () -> {
+            byte[] saved = mDatabase.LoadListContent();
+            if (saved == null) {
+                return;
+            }
+            try {
+                loaded[0] = decode(saved);
+            } catch (IOException | RuntimeException e) {
+                LogHelper.e(TAG, e, "Can't read saved queue");
+            }
+        }, () -> result.onLoaded(loaded[0]));
+    }
+
+    private void scheduleSave() {
+        if (mSavePending) {
+            return;
+        }
+        mSavePending = true;
+        AsyncRunner.RunAsync(Lane.STORE, TaskExecutor.PRIORITY_NORMAL, this::save, null);
+    }
+
+    private void save() {
+        synchronized (mSaveLock) {
+            String title;
+            List<MediaSessionCompat.QueueItem> queue;
+            int currentIndex;
+            int position;
+            synchronized (this) {
+                mSavePending = false;
+                title = mTitle;
+                queue = mQueue;
+                currentIndex = mCurrentIndex;
+                position = mPosition;
+            }
+            if (queue == null) {
+                return;
+            }
+            int size = queue.size();
+            HashMap<Integer, byte[]> parts = new HashMap<>();
+            byte[][] idParts = mSavedIdParts;
+            int recordsStart = mSavedRecordsStart;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            try {
+                if (queue != mSavedQueue) {
+                    idParts = new byte[(size + IDS_PART_ITEMS - 1) / IDS_PART_ITEMS][];
+                    for (int p = 0; p < idParts.length; p++) {
+                        idParts[p] = encodeIds(queue.subList(p * IDS_PART_ITEMS,
+                                Math.min(size, (p + 1) * IDS_PART_ITEMS)));
+                        if (p >= mSavedIdParts.length || ! Arrays.equals(idParts[p], mSavedIdParts[p])) {
+                            parts.put(p, idParts[p]);
+                        }
+                    }
+                    recordsStart = -1;
+                }
+                if (! inRecordsWindow(currentIndex, recordsStart, size)) {
+                    int start = Math.max(0, Math.min(currentIndex - RECORDS_BEHIND, size - RECORDS_WINDOW));
+                    if (start != recordsStart) {
+                        recordsStart = start;
+                        parts.put(PART_RECORDS, encodeRecords(queue, start));
+                    }
+                }
+                DataOutputStream out = new DataOutputStream(bytes);
+                out.writeInt(FORMAT_VERSION);
+                out.writeBoolean(title != null);
+                if (title != null) {
+                    out.writeUTF(title);
+                }
+                writeVarLong(out, currentIndex);
+                writeVarLong(out, position);
+                writeVarLong(out, size);
+                writeVarLong(out, idParts.length);
+            } catch (IOException ioe) {
+                // Not from a byte array
+            }
+            if (mDatabase.SaveListContent(bytes.toByteArray(), parts, idParts.length)) {
+                mSavedQueue = queue;
+                mSavedIdParts = idParts;
+                mSavedRecordsStart = recordsStart;
+            }
+        }
+    }
+
+    /**
+     * @return Whether the part with the songs starting at start still covers the items
+     * around index
+     */
+    private static boolean inRecordsWindow(int index, int start, int size) {
+        if (start < 0) {
+            return false;
+        }
+        int end = Math.min(size, start + RECORDS_WINDOW);
+        return (start == 0 || index >= start + RECORDS_MARGIN) && (end == size || index < end - RECORDS_MARGIN);
+    }
+
+    /**
+     * Encode the queue ids and media ids of items
+     */
+    private static byte[] encodeIds(List<MediaSessionCompat.QueueItem> items) throws IOException {
+        int size = items.size();
+        ArrayList<String> strings = new ArrayList<>();
+        HashMap<String, Integer> stringIndex = new HashMap<>();
+        strings.add(null);
+        int[] parents = new int[size];
+        int[] musicIds = new int[size];
+        for (int i = 0; i < size; i++) {
+            String mediaId = items.get(i).getDescription().getMediaId();
+            if (mediaId != null) {
+                String musicId = MediaIDHelper.extractMusicIDFromMediaID(mediaId);
+                parents[i] = index(strings, stringIndex, mediaId.substring(0, mediaId.length() - musicId.length()));
+                musicIds[i] = index(strings, stringIndex, musicId);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size * 8 + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeVarLong(out, size);
+        writeVarLong(out, strings.size() - 1);
+        for (int s = 1; s < strings.size(); s++) {
+            out.writeUTF(strings.get(s));
+        }
+        long previous = 0;
+        for (MediaSessionCompat.QueueItem item : items) {
+            writeVarLong(out, zigZag(item.getQueueId() - previous));
+            previous = item.getQueueId();
+        }
+        for (int parent : parents) {
+            writeVarLong(out, parent);
+        }
+        for (int musicId : musicIds) {
+            writeVarLong(out, musicId);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Encode the songs in the window of the queue from start
+     */
+    private byte[] encodeRecords(List<MediaSessionCompat.QueueItem> queue, int start) throws IOException {
+        byte[] songs = encodeQueue(queue.subList(start, Math.min(queue.size(), start + RECORDS_WINDOW)));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(songs.length + 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeVarLong(out, start);
+        out.write(songs);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private byte[] encodeQueue(List<MediaSessionCompat.QueueItem> queue) throws IOException {
+        int size = queue.size();
+        ArrayList<String> strings = new ArrayList<>();
+        HashMap<String, Integer> stringIndex = new HashMap<>();
+        strings.add(null);
+        int[][] text = new int[STRING_COLUMNS][size];
+        long[] queueIds = new long[size];
+        long[] durations = new long[size];
+        int[] tracks = new int[size];
+        byte[] ratings = new byte[size];
+        for (int i = 0; i < size; i++) {
+            MediaSessionCompat.QueueItem item = queue.get(i);
+            MediaDescriptionCompat description = item.getDescription();
+            String mediaId = description.getMediaId();
+            String musicId = mediaId == null ? null : MediaIDHelper.extractMusicIDFromMediaID(mediaId);
+            SongRecord song = musicId == null ? null : mMusicProvider.getRecentSong(musicId);
+            queueIds[i] = item.getQueueId();
+            if (musicId != null) {
+                text[COLUMN_PARENT][i] = index(strings, stringIndex, mediaId.substring(0, mediaId.length() - musicId.length()));
+                text[COLUMN_MUSIC_ID][i] = index(strings, stringIndex, musicId);
+            }
+            if (song != null) {
+                text[COLUMN_TITLE][i] = index(strings, stringIndex, song.title);
+                text[COLUMN_ARTIST][i] = index(strings, stringIndex, song.artist);
+                text[COLUMN_ALBUM][i] = index(strings, stringIndex, song.album);
+                text[COLUMN_GENRE][i] = index(strings, stringIndex, song.genre);
+                text[COLUMN_URL][i] = index(strings, stringIndex, song.url);
+                text[COLUMN_ART][i] = index(strings, stringIndex, song.art);
+                durations[i] = song.durationMs;
+                tracks[i] = song.track;
+                ratings[i] = (byte) Math.round(song.rating * RATING_SCALE);
+            } else {
+                // Only what the queue shows, from the description built by SongRecord.toDescription
+                text[COLUMN_TITLE][i] = index(strings, stringIndex, toString(description.getTitle()));
+                text[COLUMN_ARTIST][i] = index(strings, stringIndex, toString(description.getSubtitle()));
+                text[COLUMN_ALBUM][i] = index(strings, stringIndex, toString(description.getDescription()));
+                text[COLUMN_ART][i] = index(strings, stringIndex, toString(description.getIconUri()));
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(size * 16 + 64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeVarLong(out, size);
+        writeVarLong(out, strings.size() - 1);
+        for (int s = 1; s < strings.size(); s++) {
+            out.writeUTF(strings.get(s));
+        }
+        // Queue ids usually go up by one, so store the differences
+        long previous = 0;
+        for (long queueId : queueIds) {
+            writeVarLong(out, zigZag(queueId - previous));
+            previous = queueId;
+        }
+        for (int[] column : text) {
+            for (int value : column) {
+                writeVarLong(out, value);
+            }
+        }
+        for (long duration : durations) {
+            writeVarLong(out, duration);
+        }
+        for (int track : tracks) {
+            writeVarLong(out, zigZag(track));
+        }
+        out.write(ratings);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private Contents decode(byte[] saved) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(saved));
+        if (in.readInt() != FORMAT_VERSION) {
+            return null;
+        }
+        String title = in.readBoolean() ? in.readUTF() : null;
+        int currentIndex = (int) readVarLong(in);
+        int position = (int) readVarLong(in);
+        int size = (int) readVarLong(in);
+        int partCount = (int) readVarLong(in);
+        if (size == 0 || currentIndex >= size) {
+            return null;
+        }
+        Map<Integer, byte[]> parts = mDatabase.LoadQueueParts();
+        long[] queueIds = new long[size];
+        String[] mediaIds = new String[size];
+        byte[][] idParts = new byte[partCount][];
+        int count = 0;
+        for (int p = 0; p < partCount; p++) {
+            idParts[p] = parts.get(p);
+            if (idParts[p] == null) {
+                throw new IOException("Saved queue is missing part " + p);
+            }
+            count = decodeIds(idParts[p], queueIds, mediaIds, count);
+        }
+        if (count != size) {
+            throw new IOException("Saved queue has " + count + " items, not " + size);
+        }
+        SongRecord[] records = new SongRecord[size];
+        byte[] recordsPart = parts.get(PART_RECORDS);
+        int recordsStart = recordsPart == null ? -1 : decodeRecords(recordsPart, records);
+
+        ArrayList<MediaSessionCompat.QueueItem> queue = new ArrayList<>(size);
+        ArrayList<SongRecord> songs = new ArrayList<>(Math.min(size, RECORDS_WINDOW));
+        for (int i = 0; i < size; i++) {
+            String mediaId = mediaIds[i];
+            SongRecord song = records[i];
+            if (song == null) {
+                song = new SongRecord(mediaId == null ? null : MediaIDHelper.extractMusicIDFromMediaID(mediaId),
+                        null, null, null, null, null, null, 0, 0, 0.0f);
+            } else if (song.id != null && song.url != null) {
+                songs.add(song);
+            }
+            queue.add(new MediaSessionCompat.QueueItem(song.toDescription(mediaId), queueIds[i]));
+        }
+        return new Contents(title, queue, songs, currentIndex, position, idParts, recordsStart);
+    }
+
+    /**
+     * Read the ids in an id part into queueIds and mediaIds from start
+     * @return Where the items after these go
+     */
+    private static int decodeIds(byte[] part, long[] queueIds, String[] mediaIds, int start) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(part));
+        int size = (int) readVarLong(in);
+        if (start + size > queueIds.length) {
+            throw new IOException("Saved queue has more items than it should");
+        }
+        String[] strings = new String[(int) readVarLong(in) + 1];
+        for (int s = 1; s < strings.length; s++) {
+            strings[s] = in.readUTF();
+        }
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            previous += unZigZag(readVarLong(in));
+            queueIds[start + i] = previous;
+        }
+        int[] parents = new int[size];
+        for (int i = 0; i < size; i++) {
+            parents[i] = (int) readVarLong(in);
+        }
+        for (int i = 0; i < size; i++) {
+            String musicId = strings[(int) readVarLong(in)];
+            mediaIds[start + i] = musicId == null ? null : strings[parents[i]] + musicId;
+        }
+        return start + size;
+    }
+
+    /**
+     * Read the songs in the part with them into records, at their places in the queue
+     * @return Index in the queue of the first of them
+     */
+    private static int decodeRecords(byte[] part, SongRecord[] records) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(part));
+        int start = (int) readVarLong(in);
+        int size = (int) readVarLong(in);
+        if (start + size > records.length) {
+            throw new IOException("Saved queue has songs past its end");
+        }
+        String[] strings = new String[(int) readVarLong(in) + 1];
+        for (int s = 1; s < strings.length; s++) {
+            strings[s] = in.readUTF();
+        }
+        // Queue ids are in the id parts
+        for (int i = 0; i < size; i++) {
+            readVarLong(in);
+        }
+        int[][] text = new int[STRING_COLUMNS][size];
+        for (int[] column : text) {
+            for (int i = 0; i < size; i++) {
+                column[i] = (int) readVarLong(in);
+            }
+        }
+        long[] durations = new long[size];
+        for (int i = 0; i < size; i++) {
+            durations[i] = readVarLong(in);
+        }
+        int[] tracks = new int[size];
+        for (int i = 0; i < size; i++) {
+            tracks[i] = (int) unZigZag(readVarLong(in));
+        }
+        byte[] ratings = new byte[size];
+        in.readFully(ratings);
+
+        for (int i = 0; i < size; i++) {
+            records[start + i] = new SongRecord(strings[text[COLUMN_MUSIC_ID][i]], strings[text[COLUMN_TITLE][i]],
+                    strings[text[COLUMN_ARTIST][i]], strings[text[COLUMN_ALBUM][i]],
+                    strings[text[COLUMN_GENRE][i]], strings[text[COLUMN_URL][i]],
+                    strings[text[COLUMN_ART][i]], durations[i], tracks[i], ratings[i] / RATING_SCALE);
+        }
+        return start;
+    }
+
+    private static MediaSessionCompat.QueueItem getItem(List<MediaSessionCompat.QueueItem> queue, int index) {
+        return queue != null && index >= 0 && index < queue.size() ? queue.get(index) : null;
+    }
+
+    private static int index(ArrayList<String> strings, HashMap<String, Integer> stringIndex, String s) {
+        if (s == null) {
+            return 0;
+        }
+        Integer index = stringIndex.get(s);
+        if (index == null) {
+            index = strings.size();
+            strings.add(s);
+            stringIndex.put(s, index);
+        }
+        return index;
+    }
+
+    private static String toString(Object o) {
+        return o == null ? null : o.toString();
+    }
+
+    private static long zigZag(long n) {
+        return (n << 1) ^ (n >> 63);
+    }
+
+    private static long unZigZag(long n) {
+        return (n >>> 1) ^ -(n & 1);
+    }
+
+    /**
+     * Write a non-negative number in 7-bit groups, low first, so small ones take one byte
+     */
+    private static void writeVarLong(DataOutput out, long n) throws IOException {
+        while ((n & ~0x7fL) != 0) {
+            out.writeByte((int) ((n & 0x7f) | 0x80));
+            n >>>= 7;
+        }
+        out.writeByte((int) n);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long n = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            n |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return n;
+            }
+        }
+        throw new IOException("Malformed number in saved queue");
+    }
+}
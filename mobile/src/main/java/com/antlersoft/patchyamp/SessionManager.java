@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.antoniotari.reactiveampache.Exceptions.AmpacheApiException;
+import com.antoniotari.reactiveampache.api.AmpacheApi;
+import com.example.android.uamp.utils.LogHelper;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import rx.Observable;
+import rx.functions.Action1;
+import rx.functions.Func0;
+
+/**
+ * Keeps the Ampache session from a login alive.
+ *
+ * The session is renewed with a new handshake shortly before the expiry time the server
+ * gave; a request that still fails because the session expired (the device clock may not
+ * agree with the server's) renews the session and is made once more, so an expired session
+ * doesn't show up as an error.
+ *
+ * Renewal runs on the UI thread, where reactive-ampache delivers results; concurrent requests
+ * that find the session expired share one renewal.
+ */
+class SessionManager implements AmpacheXmlClient.SessionRenewer {
+    private static final String TAG = LogHelper.makeLogTag(SessionManager.class);
+    // Renew this long before the session expires
+    private static final long RENEW_MARGIN_MS = 120000;
+    // Never renew more often than this
+    private static final long MIN_RENEW_DELAY_MS = 30000;
+    // When the expiry time can't be used; the interval the session used to be pinged at
+    private static final long DEFAULT_RENEW_DELAY_MS = 300000;
+    // After a renewal fails, try again after this long
+    private static final long RETRY_DELAY_MS = 60000;
+    private static final long RENEW_TIMEOUT_S = 60;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ScheduledExecutorService mScheduler = Executors.newScheduledThreadPool(1);
+    private ScheduledFuture<?> mRenewFuture;
+    private volatile AmpacheXmlClient mClient;
+    // Increases with each login, so results of a renewal for an earlier login are ignored
+    private int mGeneration;
+    // Waiting for the renewal in progress; null when there is none. Used on UI thread only
+    private ArrayList<Action1<Throwable>> mRenewalWaiting;
+
+    /**
+     * Start managing the session from a successful login. Call on the UI thread.
+     * @param client Client using the session, which gets the token of each renewed session
+     * @param sessionExpire session_expire from the handshake
+     */
+    void start(AmpacheXmlClient client, String sessionExpire) {
+        stop();
+        mClient = client;
+        scheduleRenewal(sessionExpire);
+    }
+
+    /**
+     * Stop renewing the session, because it is about to be replaced by a new login. Call on
+     * the UI thread.
+     */
+    void stop() {
+        mGeneration++;
+        mClient = null;
+        cancelRenewal();
+        if (mRenewalWaiting != null) {
+            ArrayList<Action1<Throwable>> waiting = mRenewalWaiting;
+            mRenewalWaiting = null;
+            IllegalStateException stopped = new IllegalStateException("Logged in again");
+            for (Action1<Throwable> w : waiting) {
+                w.call(stopped);
+            }
+        }
+    }
+
+    /**
+     * Make a request to the server through reactive-ampache, renewing the session and making
+     * the request once more if it fails because the session expired. Call on the UI thread.
+     * @param request Makes the request; may be called twice
+     * @param onResult Receives the result
+     * @param onError Receives the error if the request fails for another reason, or fails
+     *                again after the session is renewed
+     */
+    <T> void call(Func0<Observable<T>> request, Action1<T> onResult, Action1<Throwable> onError) {
+        request.call().subscribe(onResult, throwable -> {
+            if (! isAuthError(throwable) || mClient == null) {
+                onError.call(throwable);
+                return;
+            }
+            LogHelper.i(TAG, "Session expired; renewing and repeating request");
+            renew(renewFailure -> {
+                if (renewFailure == null) {
+                    request.call().subscribe(onResult, onError);
+                } else {
+                    onError.call(renewFailure);
+                }
+            });
+        });
+    }
+
+    /**
+     * Blocking renewal for AmpacheXmlClient requests; not called on the UI thread
+     */
+    @Override
+    public boolean renew(String staleAuth) {
+        AmpacheXmlClient client = mClient;
+        if (client == null) {
+            return false;
+        }
+        if (! staleAuth.equals(client.getAuth())) {
+            // Already renewed since the request was made
+            return true;
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicBoolean renewed = new AtomicBoolean();
+        mMainHandler.post(() -> renew(failure -> {
+            renewed.set(failure == null);
+            done.countDown();
+        }));
+        try {
+            done.await(RENEW_TIMEOUT_S, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        return renewed.get();
+    }
+
+    static boolean isAuthError(Throwable throwable) {
+        if (throwable instanceof AmpacheXmlClient.AmpacheXmlException) {
+            return AmpacheXmlClient.isAuthError(((AmpacheXmlClient.AmpacheXmlException) throwable).getCode());
+        }
+        if (throwable instanceof AmpacheApiException) {
+            try {
+                return AmpacheXmlClient.isAuthError(Integer.parseInt(
+                        String.valueOf(((AmpacheApiException) throwable).getAmpacheError().getCode()).trim()));
+            } catch (NumberFormatException nfe) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Handshake again, joining a renewal already in progress
+     * @param done Called with null when renewed, or with the reason renewal failed
+     */
+    private void renew(Action1<Throwable> done) {
+        if (mRenewalWaiting != null) {
+            mRenewalWaiting.add(done);
+            return;
+        }
+        mRenewalWaiting = new ArrayList<>();
+        mRenewalWaiting.add(done);
+        cancelRenewal();
+        final int generation = mGeneration;
+        AmpacheApi.INSTANCE.handshake().subscribe(handshakeResponse -> {
+            if (generation != mGeneration) {
+                return;
+            }
+            AmpacheXmlClient client = mClient;
+            if (client != null) {
+                client.setAuth(handshakeResponse.getAuth());
+            }
+            LogHelper.i(TAG, "Session renewed; expiration: " + handshakeResponse.getSession_expire());
+            scheduleRenewal(handshakeResponse.getSession_expire());
+            finishRenewal(null);
+        }, throwable -> {
+            if (generation != mGeneration) {
+                return;
+            }
+            LogHelper.e(TAG, throwable, "Session renewal failed");
+            schedule(RETRY_DELAY_MS);
+            finishRenewal(throwable);
+        });
+    }
+
+    private void finishRenewal(Throwable failure) {
+        ArrayList<Action1<Throwable>> waiting = mRenewalWaiting;
+        mRenewalWaiting = null;
+        if (waiting != null) {
+            for (Action1<Throwable> w : waiting) {
+                w.call(failure);
+            }
+        }
+    }
+
+    private void scheduleRenewal(String sessionExpire) {
+        long delay = DEFAULT_RENEW_DELAY_MS;
+        Date expires = parseExpiry(sessionExpire);
+        if (expires != null) {
+            long remaining = expires.getTime() - System.currentTimeMillis();
+            if (remaining > 0) {
+                // For a short session, renew half way through
+                delay = Math.max(MIN_RENEW_DELAY_MS, remaining - Math.min(RENEW_MARGIN_MS, remaining / 2));
+            } else {
+                LogHelper.i(TAG, "Session expiry " + sessionExpire + " already passed; clocks may disagree");
+            }
+        }
+        schedule(delay);
+    }
+
+    private void schedule(long delay) {
+        cancelRenewal();
+        final int generation = mGeneration;
+        mRenewFuture = mScheduler.schedule(() -> mMainHandler.post(() -> {
+            if (generation == mGeneration && mClient != null) {
+                renew(failure -> {
+                });
+            }
+        }), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelRenewal() {
+        ScheduledFuture<?> f = mRenewFuture;
+        mRenewFuture = null;
+        if (f != null) {
+            f.cancel(false);
+        }
+    }
+
+    /**
+     * @param sessionExpire ISO 8601 date and time, like 2017-09-24T19:51:13+00:00
+     * @return The time, or null if it can't be read
+     */
+    static Date parseExpiry(String sessionExpire) {
+        if (sessionExpire == null) {
+            return null;
+        }
+        // SimpleDateFormat before API 24 only reads zones without the colon
+        String s = sessionExpire.trim().replaceFirst("Z$", "+0000").replaceFirst("([+-]\\d\\d):(\\d\\d)$", "$1$2");
+        try {
+            return new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US).parse(s);
+        } catch (ParseException pe) {
+            LogHelper.i(TAG, "Can't read session expiry " + sessionExpire);
+            return null;
+        }
+    }
+}
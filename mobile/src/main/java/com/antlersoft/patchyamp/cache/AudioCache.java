@@ -0,0 +1,340 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp.cache;
+
+import com.example.android.uamp.utils.LogHelper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Size-capped cache of audio files on disk, evicted least recently used first.
+ *
+ * Each song has up to three files named for its key: the complete audio, or the part of it
+ * downloaded so far (KEY.part), and KEY.info with the full length and content type so a
+ * partial file can be resumed and served before it is complete.
+ *
+ * Only one writer at a time is given an entry; entries being written are never evicted.
+ */
+public class AudioCache {
+    private static final String TAG = LogHelper.makeLogTag(AudioCache.class);
+    private static final String PARTIAL = ".part";
+    private static final String INFO = ".info";
+    static final String DEFAULT_CONTENT_TYPE = "audio/mpeg";
+
+    private final File mDir;
+    private long mMaxBytes;
+    // Bytes on disk for each key, least recently used first
+    private final LinkedHashMap<String, Long> mSizes = new LinkedHashMap<>(64, 0.75f, true);
+    private long mTotalBytes;
+    // Keys with a Writer
+    private final HashSet<String> mWriting = new HashSet<>();
+
+    /**
+     * Length and type of the whole file for an entry
+     */
+    public static class Info {
+        public final long length;
+        public final String contentType;
+
+        Info(long length, String contentType) {
+            this.length = length;
+            this.contentType = contentType;
+        }
+    }
+
+    /**
+     * Adds to the partial file for an entry; from {@link #startWriting(String)}
+     */
+    public class Writer {
+        private final String mKey;
+        private final File mFile;
+        private Info mInfo;
+        private OutputStream mOut;
+
+        private Writer(String key) {
+            mKey = key;
+            mFile = new File(mDir, key + PARTIAL);
+            mInfo = readInfo(key);
+            if (mInfo == null && mFile.exists()) {
+                // Can't tell what the partial file belongs to
+                mFile.delete();
+            }
+        }
+
+        public String getKey() {
+            return mKey;
+        }
+
+        /**
+         * @return Partial file, to read what has been written so far
+         */
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * @return Bytes written so far
+         */
+        public long getLength() {
+            return mFile.length();
+        }
+
+        /**
+         * @return Length and type of the whole file, or null if not known yet
+         */
+        public Info getInfo() {
+            return mInfo;
+        }
+
+        /**
+         * Record the length and type of the whole file
+         * @param length Length in bytes, or -1 if not known until the download ends
+         */
+        public void setInfo(long length, String contentType) throws IOException {
+            mInfo = new Info(length, contentType == null ? DEFAULT_CONTENT_TYPE : contentType);
+            try (FileWriter w = new FileWriter(new File(mDir, mKey + INFO))) {
+                w.write(Long.toString(length));
+                w.write('\n');
+                w.write(mInfo.contentType);
+                w.write('\n');
+            }
+        }
+
+        /**
+         * Throw away what has been written, as when the server won't resume from the end of it
+         */
+        public void restart() throws IOException {
+            closeOutput();
+            mOut = new FileOutputStream(mFile, false);
+        }
+
+        public void write(byte[] buffer, int offset, int count) throws IOException {
+            if (mOut == null) {
+                mOut = new FileOutputStream(mFile, true);
+            }
+            mOut.write(buffer, offset, count);
+        }
+
+        /**
+         * Finish writing; the entry becomes complete if the whole file has been written.
+         * @param reachedEnd Whether the download reached the end of the file, which is how the
+         *                   end is found when the length wasn't known
+         * @return The complete file, or null if it is still partial
+         */
+        public File close(boolean reachedEnd) {
+            closeOutput();
+            File complete = null;
+            long length = mFile.length();
+            if (mInfo != null && (length == mInfo.length || (mInfo.length < 0 && reachedEnd))) {
+                complete = new File(mDir, mKey);
+                if (mInfo.length < 0) {
+                    try {
+                        setInfo(length, mInfo.contentType);
+                    } catch (IOException ioe) {
+                        LogHelper.e(TAG, ioe, "Failed to record length of ", mKey);
+                    }
+                }
+                if (! mFile.renameTo(complete)) {
+                    LogHelper.e(TAG, "Failed to complete cached file ", mKey);
+                    complete = null;
+                }
+            }
+            finishWriting(mKey, length);
+            return complete;
+        }
+
+        private void closeOutput() {
+            if (mOut != null) {
+                try {
+                    mOut.close();
+                } catch (IOException ioe) {
+                    LogHelper.e(TAG, ioe, "Error closing cached file ", mKey);
+                }
+                mOut = null;
+            }
+        }
+    }
+
+    /**
+     * @param dir Directory holding the cache; created if it doesn't exist
+     * @param maxBytes Most bytes the cache may hold
+     */
+    public AudioCache(File dir, long maxBytes) {
+        mDir = dir;
+        mMaxBytes = maxBytes;
+        if (! dir.isDirectory() && ! dir.mkdirs()) {
+            LogHelper.e(TAG, "Can't create audio cache directory ", dir);
+        }
+        load();
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = maxBytes;
+        trim();
+    }
+
+    public synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * @return The complete file for key, or null if it isn't completely cached; marks the
+     * entry as recently used
+     */
+    public synchronized File getComplete(String key) {
+        File f = new File(mDir, key);
+        if (! f.isFile()) {
+            return null;
+        }
+        mSizes.get(key);
+        f.setLastModified(System.currentTimeMillis());
+        return f;
+    }
+
+    /**
+     * @return A complete file whose key starts with prefix, or null if there isn't one
+     */
+    public synchronized File findComplete(String prefix) {
+        for (String key : mSizes.keySet()) {
+            if (key.startsWith(prefix) && ! mWriting.contains(key)) {
+                File f = new File(mDir, key);
+                if (f.isFile()) {
+                    return f;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Length and type of the file for key, or null if nothing has been cached for it
+     */
+    public Info readInfo(String key) {
+        File f = new File(mDir, key + INFO);
+        if (! f.isFile()) {
+            return null;
+        }
+        try (BufferedReader r = new BufferedReader(new FileReader(f))) {
+            long length = Long.parseLong(r.readLine().trim());
+            String type = r.readLine();
+            return new Info(length, type == null || type.isEmpty() ? DEFAULT_CONTENT_TYPE : type);
+        } catch (IOException | RuntimeException e) {
+            LogHelper.e(TAG, e, "Can't read cache info for ", key);
+            return null;
+        }
+    }
+
+    /**
+     * Start adding to the entry for key
+     * @return Writer for the entry, or null if the entry is complete or already being written
+     */
+    public synchronized Writer startWriting(String key) {
+        if (mWriting.contains(key) || new File(mDir, key).isFile()) {
+            return null;
+        }
+        mWriting.add(key);
+        mSizes.get(key);
+        return new Writer(key);
+    }
+
+    /**
+     * Delete what is cached for key
+     * @return false if it couldn't be deleted because it is being written
+     */
+    public synchronized boolean remove(String key) {
+        if (mWriting.contains(key)) {
+            return false;
+        }
+        deleteFiles(key);
+        Long size = mSizes.remove(key);
+        if (size != null) {
+            mTotalBytes -= size;
+        }
+        return true;
+    }
+
+    private synchronized void finishWriting(String key, long length) {
+        mWriting.remove(key);
+        Long old = mSizes.put(key, length);
+        mTotalBytes += length - (old == null ? 0 : old);
+        trim();
+    }
+
+    /**
+     * Evict least recently used entries until the cache fits
+     */
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> it = mSizes.entrySet().iterator();
+        while (mTotalBytes > mMaxBytes && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            String key = entry.getKey();
+            if (mWriting.contains(key)) {
+                continue;
+            }
+            deleteFiles(key);
+            mTotalBytes -= entry.getValue();
+            it.remove();
+        }
+    }
+
+    private void deleteFiles(String key) {
+        new File(mDir, key).delete();
+        new File(mDir, key + PARTIAL).delete();
+        new File(mDir, key + INFO).delete();
+    }
+
+    /**
+     * Find what's already on disk, ordered by when it was last used
+     */
+    private synchronized void load() {
+        File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+        ArrayList<String> orphans = new ArrayList<>();
+        for (File f : files) {
+            String name = f.getName();
+            if (name.endsWith(INFO)) {
+                String key = name.substring(0, name.length() - INFO.length());
+                if (! new File(mDir, key).isFile() && ! new File(mDir, key + PARTIAL).isFile()) {
+                    orphans.add(key);
+                }
+                continue;
+            }
+            String key = name.endsWith(PARTIAL) ? name.substring(0, name.length() - PARTIAL.length()) : name;
+            Long old = mSizes.put(key, f.length());
+            mTotalBytes += f.length() - (old == null ? 0 : old);
+        }
+        for (String key : orphans) {
+            new File(mDir, key + INFO).delete();
+        }
+        trim();
+        LogHelper.i(TAG, "Audio cache holds ", mSizes.size(), " songs, ", mTotalBytes, " bytes");
+    }
+}
@@ -0,0 +1,863 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp.cache;
+
+import android.content.Context;
+import android.net.Uri;
+
+import com.antlersoft.patchyamp.BitratePolicy;
+import com.example.android.uamp.utils.LogHelper;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP server on the loopback interface that MediaPlayer streams songs through.
+ *
+ * Bytes from the Ampache server are passed on to the player as they arrive and written to
+ * the {@link AudioCache}, so playing a song again, or seeking back in it, reads from disk
+ * instead of the network. A song that was only partly downloaded is resumed from where it
+ * stopped with a range request.
+ *
+ * Each connection gets its own thread rather than a TaskExecutor lane, since a connection
+ * lasts as long as the player is reading the song.
+ *
+ * Other apps can reach the loopback interface too, so urls carry a random token made for this
+ * process, and only songs from the server of the current connection are fetched, under the
+ * key that belongs to them.
+ *
+ * In burst mode the song is downloaded into the cache as fast as the network allows, and the
+ * player is fed from the file on disk; then the radio can idle for the rest of the song
+ * instead of trickling data at the rate the player reads it. It is off until turned on, as
+ * on a metered network the whole of a song that is skipped would be paid for.
+ */
+public class CachingProxy {
+    private static final String TAG = LogHelper.makeLogTag(CachingProxy.class);
+    private static final long MAX_CACHE_BYTES = 512L * 1024 * 1024;
+    private static final String CACHE_DIR = "audio";
+    private static final int BUFFER_SIZE = 32 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 15000;
+    private static final int READ_TIMEOUT_MS = 30000;
+    // A client that sends nothing for this long while giving its request is dropped
+    static final int CLIENT_TIMEOUT_MS = 15000;
+    // Longest request or header line read; a longer one ends the connection
+    private static final int MAX_LINE_LENGTH = 8192;
+    // Most connections served at once; more are closed as soon as they are accepted
+    static final int MAX_CONNECTIONS = 16;
+    private static final String SOURCE_PARAM = "src";
+    private static final String ID_PARAM = "id";
+    // How long the player's request waits for warming of the same song to stop
+    private static final int TAKE_OVER_POLLS = 40;
+    private static final long TAKE_OVER_POLL_MS = 50;
+    private static final Pattern REQUEST_LINE = Pattern.compile("GET (\\S+) HTTP/1\\.\\d");
+    static final Pattern RANGE = Pattern.compile("range:\\s*bytes=(\\d+)-\\s*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-\\d+/(\\d+)");
+
+    private static CachingProxy sInstance;
+
+    private final AudioCache mCache;
+    private final BitratePolicy mPolicy;
+    private final ExecutorService mConnections = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "CachingProxy");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Semaphore mConnectionSlots = new Semaphore(MAX_CONNECTIONS);
+    private ServerSocket mServer;
+    // Threads warming the start of a song, by cache key; interrupted when the player wants it
+    private final ConcurrentHashMap<String, Thread> mWarming = new ConcurrentHashMap<>();
+    // Songs being downloaded in burst mode, by cache key
+    private final ConcurrentHashMap<String, Burst> mBursts = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<DownloadListener> mListeners = new CopyOnWriteArrayList<>();
+    private volatile boolean mBurstMode;
+    // First path segment of every url; requests without it are refused
+    private final String mToken;
+    // Host of the Ampache server songs may be fetched from; null until a connection is made
+    private volatile String mServerHost;
+
+    /**
+     * Told when a song has been completely downloaded into the cache; called on a proxy thread
+     */
+    public interface DownloadListener {
+        void onDownloaded(String key);
+    }
+
+    public static synchronized CachingProxy getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CachingProxy(new AudioCache(
+                    new File(context.getApplicationContext().getCacheDir(), CACHE_DIR), MAX_CACHE_BYTES),
+                    BitratePolicy.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    CachingProxy(AudioCache cache, BitratePolicy policy) {
+        mCache = cache;
+        mPolicy = policy;
+        SecureRandom random = new SecureRandom();
+        mToken = Long.toHexString(random.nextLong() & Long.MAX_VALUE) + Long.toHexString(random.nextLong() & Long.MAX_VALUE);
+    }
+
+    public AudioCache getCache() {
+        return mCache;
+    }
+
+    /**
+     * Turn burst mode on or off; off by default
+     */
+    public void setBurstMode(boolean burstMode) {
+        mBurstMode = burstMode;
+    }
+
+    /**
+     * @param serverUrl Url of the Ampache server being connected to; the proxy fetches songs
+     * only from there
+     */
+    public void setServer(String serverUrl) {
+        mServerHost = serverUrl == null ? null : Uri.parse(serverUrl).getHost();
+    }
+
+    public void addDownloadListener(DownloadListener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeDownloadListener(DownloadListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * @param url Url the player is given for a song, from {@link #getUrl(String, String)}
+     * @return Cache key that {@link DownloadListener}s will be told about when the song no
+     * longer needs the network, the url itself if it isn't played through the proxy, or null if
+     * the song is already cached in full
+     */
+    public String getDownloadKey(String url) {
+        Uri uri = Uri.parse(url);
+        String key = uri.getLastPathSegment();
+        if (! "127.0.0.1".equals(uri.getHost()) || key == null || uri.getQueryParameter(SOURCE_PARAM) == null) {
+            return url;
+        }
+        return mCache.getComplete(key) == null ? key : null;
+    }
+
+    /**
+     * @param songId Ampache id of the song
+     * @param source Url to stream the song from the server
+     * @return Url that plays the song through the cache, or source if the proxy can't run
+     */
+    public String getUrl(String songId, String source) {
+        int port = ensureStarted();
+        if (port < 0 || songId == null) {
+            return source;
+        }
+        return "http://127.0.0.1:" + port + "/" + mToken + "/" + Uri.encode(cacheKey(songId, source))
+                + "?" + ID_PARAM + "=" + Uri.encode(songId) + "&" + SOURCE_PARAM + "=" + Uri.encode(source);
+    }
+
+    /**
+     * @param songId Ampache id of the song
+     * @param source Url to stream the song from the server
+     * @return The url to stream the song at the bitrate for the network now, or source if the
+     * original is already cached in full
+     */
+    public String chooseSource(String songId, String source) {
+        if (songId != null && mCache.getComplete(cacheKey(songId, source)) != null) {
+            return source;
+        }
+        return mPolicy.apply(source);
+    }
+
+    /**
+     * @param songId Ampache id of the song
+     * @param source Url to stream the original song from the server
+     * @return The song's complete file in the cache, the original if it is there or else the
+     * song transcoded to any bitrate, or null if it isn't completely cached
+     */
+    public File getCachedFile(String songId, String source) {
+        String key = cacheKey(songId, source);
+        File complete = mCache.getComplete(key);
+        return complete == null ? mCache.findComplete(key + "_") : complete;
+    }
+
+    /**
+     * Ids are only unique on one server, so the key includes the server's host; a song
+     * transcoded to a lower bitrate is kept apart from the original
+     */
+    public static String cacheKey(String songId, String source) {
+        Uri uri = Uri.parse(source);
+        String host = uri.getHost();
+        String bitrate = uri.isHierarchical() ? uri.getQueryParameter("bitrate") : null;
+        return ((host == null ? "" : host + "_") + songId + (bitrate == null ? "" : "_" + bitrate + "k"))
+                .replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private synchronized int ensureStarted() {
+        if (mServer == null) {
+            try {
+                mServer = new ServerSocket(0, 8, InetAddress.getByName("127.0.0.1"));
+            } catch (IOException ioe) {
+                LogHelper.e(TAG, ioe, "Can't start caching proxy");
+                return -1;
+            }
+            final ServerSocket server = mServer;
+            mConnections.execute(() -> accept(server));
+            LogHelper.i(TAG, "Caching proxy on port ", server.getLocalPort());
+        }
+        return mServer.getLocalPort();
+    }
+
+    private void accept(ServerSocket server) {
+        while (! server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                if (! mConnectionSlots.tryAcquire()) {
+                    LogHelper.w(TAG, "Too many proxy connections; refusing one");
+                    close(socket);
+                    continue;
+                }
+                mConnections.execute(() -> {
+                    try {
+                        serve(socket);
+                    } finally {
+                        mConnectionSlots.release();
+                    }
+                });
+            } catch (IOException ioe) {
+                LogHelper.e(TAG, ioe, "Caching proxy stopped accepting");
+                synchronized (this) {
+                    mServer = null;
+                }
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setSoTimeout(CLIENT_TIMEOUT_MS);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String requestLine = readLine(in);
+            Matcher m = REQUEST_LINE.matcher(requestLine == null ? "" : requestLine);
+            String rangeStart = readRangeStart(in);
+            Uri uri = m.matches() ? Uri.parse(m.group(1)) : null;
+            List<String> path = uri == null ? null : uri.getPathSegments();
+            if (path == null || path.size() != 2 || ! mToken.equals(path.get(0))) {
+                writeStatus(out, 404, "Not Found");
+                out.write(ascii("\r\n"));
+                return;
+            }
+            String source = uri.getQueryParameter(SOURCE_PARAM);
+            String songId = uri.getQueryParameter(ID_PARAM);
+            String key = path.get(1);
+            if (source == null || songId == null || ! key.equals(cacheKey(songId, source))) {
+                writeStatus(out, 400, "Bad Request");
+                out.write(ascii("\r\n"));
+                return;
+            }
+            String host = Uri.parse(source).getHost();
+            if (host == null || ! host.equalsIgnoreCase(mServerHost)) {
+                LogHelper.w(TAG, "Refusing to fetch from ", host);
+                writeStatus(out, 403, "Forbidden");
+                out.write(ascii("\r\n"));
+                return;
+            }
+            long start = parseRangeStart(rangeStart);
+            if (start < 0) {
+                writeStatus(out, 416, "Range Not Satisfiable");
+                out.write(ascii("\r\n"));
+                return;
+            }
+            serve(out, key, source, start);
+        } catch (IOException ioe) {
+            // Usually the player closing the connection to seek or stop
+            LogHelper.d(TAG, "Proxy connection ended: ", ioe.getMessage());
+        } finally {
+            close(socket);
+        }
+    }
+
+    static void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ioe) {
+            // Already closed
+        }
+    }
+
+    /**
+     * Read the headers of a request, up to the empty line that ends them
+     * @return First byte of the Range header as sent, or null if there wasn't one
+     */
+    static String readRangeStart(InputStream in) throws IOException {
+        String rangeStart = null;
+        for (String line = readLine(in); line != null && ! line.isEmpty(); line = readLine(in)) {
+            Matcher range = RANGE.matcher(line);
+            if (range.matches()) {
+                rangeStart = range.group(1);
+            }
+        }
+        return rangeStart;
+    }
+
+    /**
+     * @param rangeStart From readRangeStart
+     * @return Position to start sending from; -1 if it is too big to be one
+     */
+    static long parseRangeStart(String rangeStart) {
+        if (rangeStart == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(rangeStart);
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    private void serve(OutputStream out, String key, String source, long start) throws IOException {
+        if (sendComplete(out, key, start)) {
+            return;
+        }
+        Burst burst = mBursts.get(key);
+        if (burst != null && burst.serve(out, start)) {
+            return;
+        }
+        AudioCache.Writer writer = mCache.startWriting(key);
+        if (writer == null) {
+            writer = takeOverWarming(key);
+        }
+        if (writer == null) {
+            // Another connection is downloading it, or it was just completed
+            if (! sendComplete(out, key, start)) {
+                passThrough(out, source, start);
+            }
+            return;
+        }
+        boolean reachedEnd = false;
+        try {
+            long have = writer.getLength();
+            AudioCache.Info info = writer.getInfo();
+            if (start > have || (start > 0 && (info == null || info.length < 0))) {
+                // Can't add to the cache contiguously from there
+                writer.close(false);
+                writer = null;
+                passThrough(out, source, start);
+                return;
+            }
+            HttpURLConnection connection = null;
+            try {
+                if (info == null || info.length < 0 || have < info.length) {
+                    connection = resume(writer, source);
+                    if (connection == null) {
+                        writeStatus(out, 502, "Bad Gateway");
+                        out.write(ascii("\r\n"));
+                        return;
+                    }
+                    have = writer.getLength();
+                    info = writer.getInfo();
+                }
+                if (start > 0 && info.length < 0) {
+                    writer.close(false);
+                    writer = null;
+                    passThrough(out, source, start);
+                    return;
+                }
+                sendHeaders(out, info.contentType, start, info.length);
+                // What's on disk first
+                long position = start;
+                if (position < have) {
+                    copyFile(out, writer.getFile(), position, have);
+                    position = have;
+                }
+                if (connection == null) {
+                    reachedEnd = true;
+                    return;
+                }
+                if (mBurstMode) {
+                    // The burst thread owns the download from here
+                    burst = new Burst(writer, connection, info);
+                    writer = null;
+                    connection = null;
+                    mBursts.put(key, burst);
+                    mConnections.execute(burst);
+                    burst.tail(out, position);
+                    return;
+                }
+                // Then the rest from the server, into the cache as it goes to the player
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long downloaded = have;
+                Meter meter = new Meter();
+                try (InputStream body = connection.getInputStream()) {
+                    for (int count = meter.read(body, buffer); count >= 0; count = meter.read(body, buffer)) {
+                        writer.write(buffer, 0, count);
+                        long end = downloaded + count;
+                        if (end > position) {
+                            int skip = (int) (position - downloaded);
+                            out.write(buffer, skip, count - skip);
+                            position = end;
+                        }
+                        downloaded = end;
+                    }
+                } finally {
+                    meter.report(mPolicy);
+                }
+                reachedEnd = true;
+                out.flush();
+            } finally {
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            }
+        } finally {
+            if (writer != null) {
+                closeWriter(writer, reachedEnd);
+            }
+        }
+    }
+
+    /**
+     * Finish with a writer, telling listeners if the song is now complete
+     */
+    private void closeWriter(AudioCache.Writer writer, boolean reachedEnd) {
+        if (writer.close(reachedEnd) != null) {
+            for (DownloadListener listener : mListeners) {
+                listener.onDownloaded(writer.getKey());
+            }
+        }
+    }
+
+    /**
+     * Downloads the rest of a song into the cache without waiting for the player, while any
+     * number of player connections read what has arrived so far from the file
+     */
+    private class Burst implements Runnable {
+        private final AudioCache.Writer mWriter;
+        private final HttpURLConnection mConnection;
+        private final AudioCache.Info mInfo;
+        private long mDownloaded;
+        private boolean mDone;
+
+        Burst(AudioCache.Writer writer, HttpURLConnection connection, AudioCache.Info info) {
+            mWriter = writer;
+            mConnection = connection;
+            mInfo = info;
+            mDownloaded = writer.getLength();
+        }
+
+        @Override
+        public void run() {
+            boolean reachedEnd = false;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            Meter meter = new Meter();
+            try (InputStream body = mConnection.getInputStream()) {
+                for (int count = meter.read(body, buffer); count >= 0; count = meter.read(body, buffer)) {
+                    mWriter.write(buffer, 0, count);
+                    synchronized (this) {
+                        mDownloaded += count;
+                        notifyAll();
+                    }
+                }
+                reachedEnd = true;
+            } catch (IOException ioe) {
+                LogHelper.e(TAG, ioe, "Burst download of ", mWriter.getKey(), " failed");
+            } finally {
+                meter.report(mPolicy);
+                mConnection.disconnect();
+                closeWriter(mWriter, reachedEnd);
+                mBursts.remove(mWriter.getKey(), this);
+                synchronized (this) {
+                    mDone = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Serve a player request for the song being downloaded, as after a seek
+         * @return false if the request can't be served from this download
+         */
+        boolean serve(OutputStream out, long start) throws IOException {
+            if (start > 0 && mInfo.length < 0) {
+                return false;
+            }
+            sendHeaders(out, mInfo.contentType, start, mInfo.length);
+            tail(out, start);
+            return true;
+        }
+
+        /**
+         * Send the song to the player from position, as fast as it is downloaded
+         */
+        void tail(OutputStream out, long position) throws IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            RandomAccessFile raf;
+            try {
+                raf = new RandomAccessFile(mWriter.getFile(), "r");
+            } catch (FileNotFoundException fnfe) {
+                // Completed and renamed since the request came in
+                File complete = mCache.getComplete(mWriter.getKey());
+                if (complete == null) {
+                    throw fnfe;
+                }
+                raf = new RandomAccessFile(complete, "r");
+            }
+            try {
+                raf.seek(position);
+                while (true) {
+                    long available;
+                    boolean done;
+                    synchronized (this) {
+                        while (mDownloaded <= position && ! mDone) {
+                            try {
+                                wait();
+                            } catch (InterruptedException ie) {
+                                throw new InterruptedIOException();
+                            }
+                        }
+                        available = mDownloaded;
+                        done = mDone;
+                    }
+                    if (position >= available) {
+                        if (done) {
+                            break;
+                        }
+                        continue;
+                    }
+                    int count = raf.read(buffer, 0, (int) Math.min(buffer.length, available - position));
+                    if (count < 0) {
+                        throw new IOException("Cached file shorter than downloaded");
+                    }
+                    out.write(buffer, 0, count);
+                    position += count;
+                }
+            } finally {
+                raf.close();
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Download the start of a song into the cache, so it starts playing without waiting for
+     * the network. Blocks; stops early if the thread is interrupted.
+     * @param songId Ampache id of the song
+     * @param source Url to stream the song from the server
+     * @param bytes How much of the song to have cached
+     */
+    public void warm(String songId, String source, long bytes) {
+        String key = cacheKey(songId, source);
+        AudioCache.Writer writer = mCache.startWriting(key);
+        if (writer == null) {
+            return;
+        }
+        boolean reachedEnd = false;
+        HttpURLConnection connection = null;
+        Thread thread = Thread.currentThread();
+        mWarming.put(key, thread);
+        try {
+            AudioCache.Info info = writer.getInfo();
+            if (writer.getLength() >= bytes || (info != null && writer.getLength() == info.length)) {
+                reachedEnd = info != null && writer.getLength() == info.length;
+                return;
+            }
+            connection = resume(writer, source);
+            if (connection == null) {
+                return;
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long have = writer.getLength();
+            Meter meter = new Meter();
+            try (InputStream body = connection.getInputStream()) {
+                while (have < bytes && ! thread.isInterrupted()) {
+                    int count = meter.read(body, buffer);
+                    if (count < 0) {
+                        reachedEnd = true;
+                        break;
+                    }
+                    writer.write(buffer, 0, count);
+                    have += count;
+                }
+            } finally {
+                meter.report(mPolicy);
+            }
+        } catch (IOException ioe) {
+            LogHelper.d(TAG, "Warming ", key, " stopped: ", ioe.getMessage());
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+            closeWriter(writer, reachedEnd);
+            mWarming.remove(key, thread);
+            // Don't leave an interrupt from takeOverWarming for the thread's next task
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Stop warming a song the player is asking for, so the player's request can cache it
+     * @return Writer for the song, or null if it isn't being warmed or warming didn't stop
+     */
+    private AudioCache.Writer takeOverWarming(String key) {
+        Thread warming = mWarming.get(key);
+        if (warming == null) {
+            return null;
+        }
+        warming.interrupt();
+        for (int i = 0; i < TAKE_OVER_POLLS; i++) {
+            try {
+                Thread.sleep(TAKE_OVER_POLL_MS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            AudioCache.Writer writer = mCache.startWriting(key);
+            if (writer != null) {
+                return writer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Request the rest of a partly cached song from the server. If the server won't send
+     * just the rest, what was cached is thrown away and the whole song is requested.
+     * @return Connection whose body continues from writer.getLength(), or null if the server
+     * refused the request
+     */
+    static HttpURLConnection resume(AudioCache.Writer writer, String source) throws IOException {
+        long have = writer.getInfo() == null ? 0 : writer.getLength();
+        HttpURLConnection connection = open(source, have);
+        int code = connection.getResponseCode();
+        if (code / 100 != 2) {
+            LogHelper.e(TAG, "Server returned ", code, " for ", writer.getKey());
+            connection.disconnect();
+            return null;
+        }
+        long length = connection.getContentLength();
+        if (code == HttpURLConnection.HTTP_PARTIAL) {
+            Matcher cr = CONTENT_RANGE.matcher(String.valueOf(connection.getHeaderField("Content-Range")));
+            if (! cr.matches() || Long.parseLong(cr.group(1)) != have) {
+                // Can't tell how the resumed part fits with what we have
+                connection.disconnect();
+                connection = open(source, 0);
+                if (connection.getResponseCode() / 100 != 2) {
+                    connection.disconnect();
+                    return null;
+                }
+                have = 0;
+                length = connection.getContentLength();
+            } else {
+                length = Long.parseLong(cr.group(2));
+            }
+        } else {
+            // Server sent it all again
+            have = 0;
+        }
+        if (have == 0) {
+            writer.restart();
+        }
+        AudioCache.Info info = writer.getInfo();
+        if (info == null || info.length != length || have == 0) {
+            writer.setInfo(length, connection.getContentType());
+        }
+        return connection;
+    }
+
+    /**
+     * Relay from the server without caching
+     */
+    private void passThrough(OutputStream out, String source, long start) throws IOException {
+        HttpURLConnection connection = open(source, start);
+        try {
+            int code = connection.getResponseCode();
+            writeStatus(out, code, connection.getResponseMessage());
+            writeHeader(out, "Content-Type", connection.getContentType());
+            writeHeader(out, "Content-Length", connection.getHeaderField("Content-Length"));
+            writeHeader(out, "Content-Range", connection.getHeaderField("Content-Range"));
+            writeHeader(out, "Accept-Ranges", "bytes");
+            writeHeader(out, "Connection", "close");
+            out.write(ascii("\r\n"));
+            if (code / 100 == 2) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                Meter meter = new Meter();
+                try (InputStream body = connection.getInputStream()) {
+                    for (int count = meter.read(body, buffer); count >= 0; count = meter.read(body, buffer)) {
+                        out.write(buffer, 0, count);
+                    }
+                } finally {
+                    meter.report(mPolicy);
+                }
+            }
+            out.flush();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Serve the song from disk if it is completely cached
+     * @return Whether the song was completely cached
+     */
+    private boolean sendComplete(OutputStream out, String key, long start) throws IOException {
+        File complete = mCache.getComplete(key);
+        if (complete == null) {
+            return false;
+        }
+        AudioCache.Info info = mCache.readInfo(key);
+        sendFile(out, complete, info == null ? AudioCache.DEFAULT_CONTENT_TYPE : info.contentType,
+                start, complete.length());
+        return true;
+    }
+
+    static void sendFile(OutputStream out, File file, String contentType, long start, long length) throws IOException {
+        if (start >= length && length > 0) {
+            writeStatus(out, 416, "Range Not Satisfiable");
+            writeHeader(out, "Content-Range", "bytes */" + length);
+            out.write(ascii("\r\n"));
+            return;
+        }
+        sendHeaders(out, contentType, start, length);
+        copyFile(out, file, start, length);
+        out.flush();
+    }
+
+    /**
+     * @param length Length of the whole file, or -1 if not known
+     */
+    private static void sendHeaders(OutputStream out, String contentType, long start, long length) throws IOException {
+        if (start > 0) {
+            writeStatus(out, 206, "Partial Content");
+            writeHeader(out, "Content-Range", String.format(Locale.US, "bytes %d-%d/%d", start, length - 1, length));
+        } else {
+            writeStatus(out, 200, "OK");
+        }
+        writeHeader(out, "Content-Type", contentType);
+        writeHeader(out, "Content-Length", length < 0 ? null : Long.toString(length - start));
+        writeHeader(out, "Accept-Ranges", "bytes");
+        writeHeader(out, "Connection", "close");
+        out.write(ascii("\r\n"));
+    }
+
+    private static void copyFile(OutputStream out, File file, long from, long to) throws IOException {
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(from);
+            for (long remaining = to - from; remaining > 0; ) {
+                int count = raf.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (count < 0) {
+                    throw new IOException("Cached file shorter than expected");
+                }
+                out.write(buffer, 0, count);
+                remaining -= count;
+            }
+        }
+    }
+
+    private static HttpURLConnection open(String source, long start) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(source).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        connection.setReadTimeout(READ_TIMEOUT_MS);
+        if (start > 0) {
+            connection.setRequestProperty("Range", "bytes=" + start + "-");
+        }
+        return connection;
+    }
+
+    static void writeStatus(OutputStream out, int code, String message) throws IOException {
+        out.write(ascii("HTTP/1.1 " + code + " " + (message == null ? "" : message) + "\r\n"));
+    }
+
+    static void writeHeader(OutputStream out, String name, String value) throws IOException {
+        if (value != null) {
+            out.write(ascii(name + ": " + value + "\r\n"));
+        }
+    }
+
+    /**
+     * Measures throughput from the server while the player is filling its buffer. Later
+     * reads are paced by playback rather than the network, so they aren't counted.
+     */
+    private static class Meter {
+        private static final long MEASURED_BYTES = 1024 * 1024;
+        private static final long MIN_SAMPLE_BYTES = 64 * 1024;
+        private long mBytes;
+        private long mNanos;
+
+        int read(InputStream in, byte[] buffer) throws IOException {
+            if (mBytes >= MEASURED_BYTES) {
+                return in.read(buffer);
+            }
+            long start = System.nanoTime();
+            int count = in.read(buffer);
+            mNanos += System.nanoTime() - start;
+            if (count > 0) {
+                mBytes += count;
+            }
+            return count;
+        }
+
+        void report(BitratePolicy policy) {
+            if (mBytes >= MIN_SAMPLE_BYTES) {
+                policy.recordTransfer(mBytes, mNanos);
+            }
+        }
+    }
+
+    static byte[] ascii(String s) throws IOException {
+        return s.getBytes("US-ASCII");
+    }
+
+    /**
+     * @return Line without the line ending, or null at the end of the stream
+     * @throws IOException if the line is longer than MAX_LINE_LENGTH
+     */
+    static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (int c = in.read(); c >= 0; c = in.read()) {
+            if (c == '\n') {
+                int len = sb.length();
+                return len > 0 && sb.charAt(len - 1) == '\r' ? sb.substring(0, len - 1) : sb.toString();
+            }
+            if (sb.length() >= MAX_LINE_LENGTH) {
+                throw new IOException("Request line too long");
+            }
+            sb.append((char) c);
+        }
+        return sb.length() == 0 ? null : sb.toString();
+    }
+}
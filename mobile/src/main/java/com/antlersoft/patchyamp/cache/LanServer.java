@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp.cache;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.wifi.WifiManager;
+
+import com.example.android.uamp.utils.LogHelper;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP server on the Wifi network that lets a Cast receiver play songs and show album art
+ * that are already on the phone, pinned or completely in the streaming cache, instead of
+ * fetching them again from the Ampache server, which may be far away over a slow uplink.
+ *
+ * Only what has been published is served, each under a random path, so other devices on the
+ * network can't browse the phone's files.
+ */
+public class LanServer {
+    private static final String TAG = LogHelper.makeLogTag(LanServer.class);
+    // Most items published at once; the oldest is forgotten after that
+    private static final int MAX_PUBLISHED = 64;
+    private static final int ART_QUALITY = 90;
+    private static final Pattern REQUEST_LINE = Pattern.compile("GET /([0-9a-f]+) HTTP/1\\.\\d");
+
+    private static LanServer sInstance;
+
+    private final WifiManager mWifi;
+    private final CachingProxy mProxy;
+    private final PinnedDownloads mPinned;
+    private final SecureRandom mRandom = new SecureRandom();
+    private final ExecutorService mConnections = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "LanServer");
+        t.setDaemon(true);
+        return t;
+    });
+    // Any device on the network can connect, so only a few connections are served at once
+    private final Semaphore mConnectionSlots = new Semaphore(CachingProxy.MAX_CONNECTIONS);
+    private ServerSocket mServer;
+    // Published items by path, least recently used first
+    private final LinkedHashMap<String, Item> mPublished = new LinkedHashMap<String, Item>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Item> eldest) {
+            return size() > MAX_PUBLISHED;
+        }
+    };
+    // Paths by what they publish, so publishing the same thing again gives the same url
+    private final LinkedHashMap<String, String> mPaths = new LinkedHashMap<>();
+
+    /**
+     * A song or image available to the receiver
+     */
+    public static class Published {
+        public final String url;
+        public final String contentType;
+
+        Published(String url, String contentType) {
+            this.url = url;
+            this.contentType = contentType;
+        }
+    }
+
+    private static class Item {
+        final File file;
+        final byte[] bytes;
+        final String contentType;
+
+        Item(File file, byte[] bytes, String contentType) {
+            this.file = file;
+            this.bytes = bytes;
+            this.contentType = contentType;
+        }
+    }
+
+    public static synchronized LanServer getInstance(Context context) {
+        if (sInstance == null) {
+            Context app = context.getApplicationContext();
+            sInstance = new LanServer((WifiManager) app.getSystemService(Context.WIFI_SERVICE),
+                    CachingProxy.getInstance(app), PinnedDownloads.getInstance(app));
+        }
+        return sInstance;
+    }
+
+    LanServer(WifiManager wifi, CachingProxy proxy, PinnedDownloads pinned) {
+        mWifi = wifi;
+        mProxy = proxy;
+        mPinned = pinned;
+    }
+
+    /**
+     * @param songId Ampache id of the song
+     * @param source Url to stream the original song from the server
+     * @return Where the receiver can get the song from the phone, or null if it isn't on the
+     * phone or the phone isn't on Wifi
+     */
+    public Published publishSong(String songId, String source) {
+        if (songId == null || source == null) {
+            return null;
+        }
+        File file = mPinned.getPinnedFile(songId, source);
+        String contentType;
+        if (file != null) {
+            contentType = mPinned.getContentType(file);
+        } else {
+            file = mProxy.getCachedFile(songId, source);
+            if (file == null) {
+                return null;
+            }
+            AudioCache.Info info = mProxy.getCache().readInfo(file.getName());
+            contentType = info == null ? AudioCache.DEFAULT_CONTENT_TYPE : info.contentType;
+        }
+        return publish(file.getAbsolutePath(), new Item(file, null, contentType));
+    }
+
+    /**
+     * @param artUrl Url of the art on the server, to recognize it by
+     * @param art The art, from AlbumArtCache
+     * @return Where the receiver can get the art from the phone, or null if the phone isn't on Wifi
+     */
+    public Published publishArt(String artUrl, Bitmap art) {
+        if (artUrl == null || art == null) {
+            return null;
+        }
+        synchronized (this) {
+            String path = mPaths.get(artUrl);
+            Item known = path == null ? null : mPublished.get(path);
+            if (known != null) {
+                return publish(artUrl, known);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        art.compress(Bitmap.CompressFormat.JPEG, ART_QUALITY, bytes);
+        return publish(artUrl, new Item(null, bytes.toByteArray(), "image/jpeg"));
+    }
+
+    private synchronized Published publish(String what, Item item) {
+        String address = getWifiAddress();
+        if (address == null || ! ensureStarted(address)) {
+            return null;
+        }
+        String path = mPaths.get(what);
+        if (path == null || ! mPublished.containsKey(path)) {
+            path = Long.toHexString(mRandom.nextLong() & Long.MAX_VALUE) + Long.toHexString(mRandom.nextLong() & Long.MAX_VALUE);
+            mPaths.remove(what);
+            mPaths.put(what, path);
+            while (mPaths.size() > MAX_PUBLISHED) {
+                mPaths.remove(mPaths.keySet().iterator().next());
+            }
+        }
+        mPublished.put(path, item);
+        return new Published("http://" + address + ":" + mServer.getLocalPort() + "/" + path, item.contentType);
+    }
+
+    /**
+     * @return Address of the phone on the Wifi network, or null if it isn't on one
+     */
+    private String getWifiAddress() {
+        if (! mWifi.isWifiEnabled() || mWifi.getConnectionInfo() == null) {
+            return null;
+        }
+        int ip = mWifi.getConnectionInfo().getIpAddress();
+        if (ip == 0) {
+            return null;
+        }
+        return String.format(Locale.US, "%d.%d.%d.%d", ip & 0xff, (ip >> 8) & 0xff, (ip >> 16) & 0xff, (ip >> 24) & 0xff);
+    }
+
+    /**
+     * Listen on address, moving there if the phone's address has changed
+     * @return Whether the server is listening
+     */
+    private boolean ensureStarted(String address) {
+        if (mServer != null && ! mServer.isClosed()
+                && address.equals(mServer.getInetAddress().getHostAddress())) {
+            return true;
+        }
+        if (mServer != null) {
+            try {
+                mServer.close();
+            } catch (IOException ioe) {
+                // Already closed
+            }
+        }
+        try {
+            mServer = new ServerSocket(0, 8, InetAddress.getByName(address));
+        } catch (IOException ioe) {
+            LogHelper.e(TAG, ioe, "Can't start LAN server on ", address);
+            mServer = null;
+            return false;
+        }
+        final ServerSocket server = mServer;
+        mConnections.execute(() -> accept(server));
+        LogHelper.i(TAG, "LAN server on ", address, ":", server.getLocalPort());
+        return true;
+    }
+
+    private void accept(ServerSocket server) {
+        while (! server.isClosed()) {
+            try {
+                final Socket socket = server.accept();
+                if (! mConnectionSlots.tryAcquire()) {
+                    LogHelper.w(TAG, "Too many LAN connections; refusing one");
+                    CachingProxy.close(socket);
+                    continue;
+                }
+                mConnections.execute(() -> {
+                    try {
+                        serve(socket);
+                    } finally {
+                        mConnectionSlots.release();
+                    }
+                });
+            } catch (IOException ioe) {
+                LogHelper.d(TAG, "LAN server stopped accepting: ", ioe.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            socket.setSoTimeout(CachingProxy.CLIENT_TIMEOUT_MS);
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = socket.getOutputStream();
+            String requestLine = CachingProxy.readLine(in);
+            Matcher m = REQUEST_LINE.matcher(requestLine == null ? "" : requestLine);
+            String rangeStart = CachingProxy.readRangeStart(in);
+            Item item = null;
+            if (m.matches()) {
+                synchronized (this) {
+                    item = mPublished.get(m.group(1));
+                }
+            }
+            if (item == null || (item.file != null && ! item.file.isFile())) {
+                CachingProxy.writeStatus(out, 404, "Not Found");
+                CachingProxy.writeHeader(out, "Connection", "close");
+                out.write(CachingProxy.ascii("\r\n"));
+                return;
+            }
+            long start = CachingProxy.parseRangeStart(rangeStart);
+            if (start < 0) {
+                CachingProxy.writeStatus(out, 416, "Range Not Satisfiable");
+                CachingProxy.writeHeader(out, "Connection", "close");
+                out.write(CachingProxy.ascii("\r\n"));
+                return;
+            }
+            if (item.file != null) {
+                CachingProxy.sendFile(out, item.file, item.contentType, start, item.file.length());
+            } else {
+                CachingProxy.writeStatus(out, 200, "OK");
+                CachingProxy.writeHeader(out, "Content-Type", item.contentType);
+                CachingProxy.writeHeader(out, "Content-Length", Integer.toString(item.bytes.length));
+                CachingProxy.writeHeader(out, "Connection", "close");
+                out.write(CachingProxy.ascii("\r\n"));
+                out.write(item.bytes);
+                out.flush();
+            }
+        } catch (IOException ioe) {
+            LogHelper.d(TAG, "LAN connection ended: ", ioe.getMessage());
+        } finally {
+            CachingProxy.close(socket);
+        }
+    }
+}
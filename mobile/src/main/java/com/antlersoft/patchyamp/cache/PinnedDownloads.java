@@ -0,0 +1,585 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp.cache;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v4.media.MediaMetadataCompat;
+
+import com.antlersoft.android.dbimpl.ImplementationBase;
+import com.antlersoft.android.dbimpl.NewInstance;
+import com.antlersoft.patchyamp.AsyncRunner;
+import com.antlersoft.patchyamp.db.PatchyDatabase;
+import com.antlersoft.patchyamp.db.PinnedList;
+import com.antlersoft.patchyamp.db.PinnedSong;
+import com.example.android.uamp.model.MusicProvider;
+import com.example.android.uamp.model.MusicProviderSource;
+import com.example.android.uamp.model.SongRecord;
+import com.example.android.uamp.utils.LogHelper;
+import com.example.android.uamp.utils.MediaIDHelper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the songs of pinned playlists and albums on the device, so they play without a
+ * network connection.
+ *
+ * Songs download a few at a time, only while the network is unmetered, and only while the
+ * pinned songs fit within a storage quota; a song that doesn't fit waits until an unpin or a
+ * bigger quota makes room. A download that is interrupted, by losing the
+ * network or by the app stopping, continues from where it stopped next time. A song already
+ * in the streaming cache (see {@link CachingProxy}) is copied from there instead of downloaded.
+ *
+ * Pins are recorded in the PINNED_LIST and PINNED_SONG tables, with each song as it was
+ * when pinned, so pinned lists can be browsed and queued without the server; the files
+ * themselves are in an {@link AudioCache} that is never evicted.
+ *
+ * Methods other than {@link #getPinnedFile(String, String)} are called on the UI thread.
+ */
+public class PinnedDownloads {
+    private static final String TAG = LogHelper.makeLogTag(PinnedDownloads.class);
+    private static final long DEFAULT_QUOTA_BYTES = 2L * 1024 * 1024 * 1024;
+    private static final int MAX_WORKERS = 2;
+    private static final String PINNED_DIR = "pinned";
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private static PinnedDownloads sInstance;
+
+    private final Context mContext;
+    private final PatchyDatabase mDatabase;
+    private final AudioCache mStore;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService mWorkers = Executors.newFixedThreadPool(MAX_WORKERS);
+    private volatile long mQuotaBytes = DEFAULT_QUOTA_BYTES;
+    // Bytes that downloads in progress expect to add to the store
+    private final AtomicLong mReservedBytes = new AtomicLong();
+    // Downloads stop between reads when this is cleared
+    private volatile boolean mUnmetered;
+    private MusicProvider mProvider;
+    // Songs waiting to download, song id by cache key, in the order they were pinned
+    private final LinkedHashMap<String, String> mWaiting = new LinkedHashMap<>();
+    // Songs that didn't fit in the quota, song id by cache key; tried again when room is made
+    private final LinkedHashMap<String, String> mOverQuota = new LinkedHashMap<>();
+    // Cache keys of the songs downloading
+    private final HashSet<String> mActive = new HashSet<>();
+    // Cache keys of downloading songs that were unpinned; the download stops, and what it
+    // wrote is removed unless the song was pinned again meanwhile
+    private final Set<String> mCancelled = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final BroadcastReceiver mConnectivityReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            updateNetwork();
+        }
+    };
+
+    public static synchronized PinnedDownloads getInstance(Context context) {
+        if (sInstance == null) {
+            Context app = context.getApplicationContext();
+            sInstance = new PinnedDownloads(app, PatchyDatabase.getInstance(app),
+                    new AudioCache(new File(app.getFilesDir(), PINNED_DIR), Long.MAX_VALUE));
+        }
+        return sInstance;
+    }
+
+    PinnedDownloads(Context context, PatchyDatabase database, AudioCache store) {
+        mContext = context;
+        mDatabase = database;
+        mStore = store;
+    }
+
+    public void setQuotaBytes(long quotaBytes) {
+        boolean bigger = quotaBytes > mQuotaBytes;
+        mQuotaBytes = quotaBytes;
+        if (bigger) {
+            retryOverQuota();
+        }
+    }
+
+    /**
+     * Start downloading whatever pinned songs are missing, now and when an unmetered network
+     * becomes available
+     * @param provider Provides the current stream url of each song
+     */
+    public void start(MusicProvider provider) {
+        mProvider = provider;
+        mContext.registerReceiver(mConnectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        updateNetwork();
+    }
+
+    /**
+     * Stop downloading; partial downloads are kept to continue later
+     */
+    public void stop() {
+        if (mProvider != null) {
+            mContext.unregisterReceiver(mConnectivityReceiver);
+            mProvider = null;
+        }
+        mUnmetered = false;
+        mWaiting.clear();
+        mOverQuota.clear();
+    }
+
+    /**
+     * @param mediaId Browse id of a playlist or album
+     */
+    public static boolean canPin(String mediaId) {
+        String[] hierarchy = MediaIDHelper.getHierarchy(mediaId);
+        return MediaIDHelper.isBrowseable(mediaId) && hierarchy.length == 2 && (MediaIDHelper.MEDIA_ID_PLAYLISTS.equals(hierarchy[0])
+                || MediaIDHelper.MEDIA_ID_ALBUMS.equals(hierarchy[0]));
+    }
+
+    /**
+     * Keep the songs of a playlist or album on the device
+     * @param mediaId Browse id of a playlist or album, like __PLAYLISTS__/12
+     */
+    public void pin(String mediaId) {
+        final MusicProvider provider = mProvider;
+        if (provider == null || ! canPin(mediaId)) {
+            LogHelper.e(TAG, "Can't pin ", mediaId);
+            return;
+        }
+        String[] hierarchy = MediaIDHelper.getHierarchy(mediaId);
+        MusicProviderSource.MediaFetchResult songs = (title, items) -> {
+            final PinnedList list = new PinnedList();
+            list.setMediaId(mediaId);
+            list.setTitle(title);
+            final ArrayList<PinnedSong> pinned = new ArrayList<>();
+            while (items.hasNext()) {
+                MediaMetadataCompat track = items.next();
+                String songId = track.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
+                String source = provider.getTrackSource(track);
+                if (songId == null || source == null) {
+                    continue;
+                }
+                PinnedSong song = new PinnedSong();
+                song.setSongId(songId);
+                song.setCacheKey(CachingProxy.cacheKey(songId, source));
+                song.setTitle(track.getString(MediaMetadataCompat.METADATA_KEY_TITLE));
+                song.setArtist(track.getString(MediaMetadataCompat.METADATA_KEY_ARTIST));
+                song.setAlbum(track.getString(MediaMetadataCompat.METADATA_KEY_ALBUM));
+                song.setGenre(track.getString(MediaMetadataCompat.METADATA_KEY_GENRE));
+                song.setUrl(track.getString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE));
+                song.setArt(track.getString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI));
+                song.setDurationMs(track.getLong(MediaMetadataCompat.METADATA_KEY_DURATION));
+                song.setTrack(track.getLong(MediaMetadataCompat.METADATA_KEY_TRACK_NUMBER));
+                pinned.add(song);
+            }
+            AsyncRunner.RunAsync(() -> savePin(list, pinned), () -> {
+                LogHelper.i(TAG, "Pinned ", pinned.size(), " songs of ", title);
+                for (PinnedSong song : pinned) {
+                    enqueue(song.getCacheKey(), song.getSongId());
+                }
+                pump();
+            });
+        };
+        if (MediaIDHelper.MEDIA_ID_PLAYLISTS.equals(hierarchy[0])) {
+            provider.getMusicByPlaylist(hierarchy[1], songs);
+        } else {
+            provider.getMusicByAlbum(hierarchy[1], songs);
+        }
+    }
+
+    /**
+     * Stop keeping a playlist or album on the device, deleting the songs no other pin has
+     */
+    public void unpin(String mediaId) {
+        final ArrayList<String> orphans = new ArrayList<>();
+        AsyncRunner.RunAsync(() -> orphans.addAll(deletePin(mediaId)), () -> {
+            for (String key : orphans) {
+                mWaiting.remove(key);
+                mOverQuota.remove(key);
+                if (mActive.contains(key)) {
+                    // Can't be removed while it is being written; finished removes it
+                    mCancelled.add(key);
+                } else {
+                    removeUnlessPinned(key);
+                }
+            }
+        });
+    }
+
+    /**
+     * List the playlists or albums that are pinned, for browsing without the server
+     * @param category MediaIDHelper.MEDIA_ID_PLAYLISTS or MediaIDHelper.MEDIA_ID_ALBUMS
+     * @param result Given browsable items with the ids of the lists within category
+     */
+    public void getPinnedLists(String category, MusicProviderSource.MediaFetchResult result) {
+        final ArrayList<PinnedList> lists = new ArrayList<>();
+        final String prefix = MediaIDHelper.createMediaID(null, category, "");
+        AsyncRunner.RunAsync(() -> query(lists, PinnedList.GEN_NEW,
+                "SELECT * FROM PINNED_LIST WHERE substr(MEDIAID, 1, ?) = ? ORDER BY TITLE",
+                Integer.toString(prefix.length()), prefix), () -> {
+            ArrayList<MediaMetadataCompat> items = new ArrayList<>(lists.size());
+            for (PinnedList list : lists) {
+                items.add(new MediaMetadataCompat.Builder()
+                        .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, list.getMediaId().substring(prefix.length()))
+                        .putString(MediaMetadataCompat.METADATA_KEY_TITLE, list.getTitle())
+                        .build());
+            }
+            result.setResult(category, items.iterator());
+        });
+    }
+
+    /**
+     * The songs of a pinned playlist or album as they were when it was pinned
+     * @param mediaId Browse id of the playlist or album
+     * @param result Given no songs if it isn't pinned
+     */
+    public void getPinnedSongs(String mediaId, MusicProviderSource.SongFetchResult result) {
+        final ArrayList<PinnedList> lists = new ArrayList<>(1);
+        final ArrayList<PinnedSong> songs = new ArrayList<>();
+        AsyncRunner.RunAsync(() -> {
+            query(lists, PinnedList.GEN_NEW, "SELECT * FROM PINNED_LIST WHERE MEDIAID = ?", mediaId);
+            if (! lists.isEmpty()) {
+                query(songs, PinnedSong.GEN_NEW, "SELECT * FROM PINNED_SONG WHERE PINID = ? AND TITLE IS NOT NULL ORDER BY _id",
+                        Long.toString(lists.get(0).get_Id()));
+            }
+        }, () -> {
+            ArrayList<SongRecord> records = new ArrayList<>(songs.size());
+            for (PinnedSong song : songs) {
+                records.add(toRecord(song));
+            }
+            result.setResult(lists.isEmpty() ? mediaId : lists.get(0).getTitle(), records.iterator());
+        });
+    }
+
+    /**
+     * A pinned song as it was when it was pinned
+     * @param songId Ampache id of the song
+     * @param result Given null if no pin has the song
+     */
+    public void getPinnedSong(String songId, MusicProviderSource.SongResult result) {
+        final ArrayList<PinnedSong> songs = new ArrayList<>(1);
+        AsyncRunner.RunAsync(() -> query(songs, PinnedSong.GEN_NEW,
+                "SELECT * FROM PINNED_SONG WHERE SONGID = ? AND TITLE IS NOT NULL LIMIT 1", songId),
+                () -> result.setResult(songs.isEmpty() ? null : toRecord(songs.get(0))));
+    }
+
+    private static SongRecord toRecord(PinnedSong song) {
+        return new SongRecord(song.getSongId(), song.getTitle(), song.getArtist(), song.getAlbum(),
+                song.getGenre(), song.getUrl(), song.getArt(), song.getDurationMs(), (int) song.getTrack(), 0.0f);
+    }
+
+    /**
+     * Check whether a song is on the device; may be called on any thread
+     * @param songId Ampache id of the song
+     * @param source Stream url of the song
+     * @return The file holding the song, or null if it hasn't been downloaded
+     */
+    public File getPinnedFile(String songId, String source) {
+        if (songId == null || source == null) {
+            return null;
+        }
+        return mStore.getComplete(CachingProxy.cacheKey(songId, source));
+    }
+
+    /**
+     * @return Content type of a file from {@link #getPinnedFile(String, String)}
+     */
+    String getContentType(File pinned) {
+        AudioCache.Info info = mStore.readInfo(pinned.getName());
+        return info == null ? AudioCache.DEFAULT_CONTENT_TYPE : info.contentType;
+    }
+
+    private void updateNetwork() {
+        ConnectivityManager cm = (ConnectivityManager) mContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+        NetworkInfo network = cm.getActiveNetworkInfo();
+        boolean unmetered = network != null && network.isConnected() && ! cm.isActiveNetworkMetered();
+        if (unmetered == mUnmetered) {
+            return;
+        }
+        mUnmetered = unmetered;
+        LogHelper.i(TAG, unmetered ? "Unmetered network; downloading pinned songs" : "Pinned downloads paused");
+        if (unmetered) {
+            enqueueMissing();
+        }
+    }
+
+    /**
+     * Queue every pinned song that hasn't completely downloaded
+     */
+    private void enqueueMissing() {
+        final ArrayList<PinnedSong> missing = new ArrayList<>();
+        AsyncRunner.RunAsync(() -> {
+            ArrayList<PinnedSong> all = new ArrayList<>();
+            query(all, PinnedSong.GEN_NEW, "SELECT * FROM PINNED_SONG ORDER BY _id");
+            for (PinnedSong song : all) {
+                if (mStore.getComplete(song.getCacheKey()) == null) {
+                    missing.add(song);
+                }
+            }
+        }, () -> {
+            for (PinnedSong song : missing) {
+                enqueue(song.getCacheKey(), song.getSongId());
+            }
+            pump();
+        });
+    }
+
+    private void enqueue(String key, String songId) {
+        // Pinned again before an unpinned download stopped
+        mCancelled.remove(key);
+        mOverQuota.remove(key);
+        if (! mActive.contains(key)) {
+            mWaiting.put(key, songId);
+        }
+    }
+
+    /**
+     * Start downloads until all the workers are busy
+     */
+    private void pump() {
+        final MusicProvider provider = mProvider;
+        while (provider != null && mUnmetered && mActive.size() < MAX_WORKERS && ! mWaiting.isEmpty()) {
+            Map.Entry<String, String> next = mWaiting.entrySet().iterator().next();
+            final String key = next.getKey();
+            final String songId = next.getValue();
+            mWaiting.remove(key);
+            mActive.add(key);
+            // Look up the song for a stream url with the current session
+            provider.getMusic(songId, (track) -> {
+                String source = track == null ? null : provider.getTrackSource(track);
+                if (source == null) {
+                    LogHelper.e(TAG, "Can't find pinned song ", songId);
+                    finished(key, songId, false);
+                    return;
+                }
+                final String url = source.replaceAll(" ", "%20");
+                mWorkers.execute(() -> {
+                    final boolean[] overQuota = new boolean[1];
+                    try {
+                        overQuota[0] = ! download(key, url);
+                    } catch (IOException ioe) {
+                        LogHelper.e(TAG, ioe, "Download of ", key, " stopped");
+                    } finally {
+                        // Even after an unexpected exception, so the worker's slot is freed
+                        mMainHandler.post(() -> finished(key, songId, overQuota[0]));
+                    }
+                });
+            });
+        }
+    }
+
+    /**
+     * @param overQuota The song didn't fit in the quota, so waits for room to be made
+     */
+    private void finished(String key, String songId, boolean overQuota) {
+        mActive.remove(key);
+        if (mCancelled.remove(key)) {
+            removeUnlessPinned(key);
+        } else if (overQuota) {
+            mOverQuota.put(key, songId);
+        }
+        pump();
+    }
+
+    /**
+     * Queue the songs that didn't fit in the quota again, now there may be room for them
+     */
+    private void retryOverQuota() {
+        if (mOverQuota.isEmpty()) {
+            return;
+        }
+        LogHelper.i(TAG, "Room made for pinned songs; trying ", mOverQuota.size(), " again");
+        ArrayList<Map.Entry<String, String>> retry = new ArrayList<>(mOverQuota.entrySet());
+        mOverQuota.clear();
+        for (Map.Entry<String, String> entry : retry) {
+            enqueue(entry.getKey(), entry.getValue());
+        }
+        pump();
+    }
+
+    /**
+     * Delete a song's file, complete or partial, if no pin has the song any more
+     */
+    private void removeUnlessPinned(String key) {
+        final boolean[] removed = new boolean[1];
+        AsyncRunner.RunAsync(() -> {
+            ArrayList<PinnedSong> songs = new ArrayList<>(1);
+            query(songs, PinnedSong.GEN_NEW, "SELECT * FROM PINNED_SONG WHERE CACHEKEY = ? LIMIT 1", key);
+            if (songs.isEmpty()) {
+                mStore.remove(key);
+                removed[0] = true;
+            }
+        }, () -> {
+            if (removed[0]) {
+                retryOverQuota();
+            }
+        });
+    }
+
+    /**
+     * Download a song into the store, or continue downloading it. Runs on a worker thread.
+     * @return false if the song doesn't fit in the quota, so it wasn't downloaded
+     */
+    private boolean download(String key, String source) throws IOException {
+        if (mStore.getComplete(key) != null) {
+            return true;
+        }
+        AudioCache.Writer writer = mStore.startWriting(key);
+        if (writer == null) {
+            return true;
+        }
+        boolean reachedEnd = false;
+        long reserved = 0;
+        try {
+            File cached = CachingProxy.getInstance(mContext).getCache().getComplete(key);
+            InputStream body;
+            HttpURLConnection connection = null;
+            long have;
+            if (cached != null) {
+                // Already streamed in full, so no need for the network
+                AudioCache.Info info = CachingProxy.getInstance(mContext).getCache().readInfo(key);
+                writer.restart();
+                have = 0;
+                writer.setInfo(cached.length(), info == null ? null : info.contentType);
+                body = new FileInputStream(cached);
+            } else {
+                connection = CachingProxy.resume(writer, source);
+                if (connection == null) {
+                    throw new IOException("Server refused download");
+                }
+                have = writer.getLength();
+                body = connection.getInputStream();
+            }
+            long length = writer.getInfo().length;
+            if (length > 0) {
+                reserved = length - have;
+                if (mStore.getTotalBytes() + mReservedBytes.addAndGet(reserved) > mQuotaBytes) {
+                    LogHelper.i(TAG, "Pinned songs would exceed quota; not downloading ", key);
+                    body.close();
+                    if (connection != null) {
+                        connection.disconnect();
+                    }
+                    return false;
+                }
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try {
+                for (int count = body.read(buffer); count >= 0; count = body.read(buffer)) {
+                    if (mCancelled.contains(key)) {
+                        LogHelper.i(TAG, "Unpinned; stopping download of ", key);
+                        return true;
+                    }
+                    if (! mUnmetered && connection != null) {
+                        LogHelper.i(TAG, "Network no longer unmetered; pausing download of ", key);
+                        return true;
+                    }
+                    writer.write(buffer, 0, count);
+                }
+                reachedEnd = true;
+                return true;
+            } finally {
+                body.close();
+                if (connection != null) {
+                    connection.disconnect();
+                }
+            }
+        } finally {
+            mReservedBytes.addAndGet(-reserved);
+            writer.close(reachedEnd);
+        }
+    }
+
+    private void savePin(PinnedList list, Collection<PinnedSong> songs) {
+        SQLiteDatabase db = mDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            // Pinning again replaces the songs, in case the playlist changed
+            ArrayList<PinnedList> existing = new ArrayList<>(1);
+            query(existing, PinnedList.GEN_NEW, "SELECT * FROM PINNED_LIST WHERE MEDIAID = ?", list.getMediaId());
+            if (existing.isEmpty()) {
+                list.Gen_insert(db);
+            } else {
+                list.set_Id(existing.get(0).get_Id());
+                list.Gen_update(db);
+                db.delete(PinnedSong.GEN_TABLE_NAME, PinnedSong.GEN_FIELD_PINID + " = ?",
+                        new String[] { Long.toString(list.get_Id()) });
+            }
+            for (PinnedSong song : songs) {
+                song.setPinId(list.get_Id());
+                song.Gen_insert(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return Cache keys of the songs that no remaining pin has
+     */
+    private ArrayList<String> deletePin(String mediaId) {
+        ArrayList<String> orphans = new ArrayList<>();
+        SQLiteDatabase db = mDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ArrayList<PinnedList> existing = new ArrayList<>(1);
+            query(existing, PinnedList.GEN_NEW, "SELECT * FROM PINNED_LIST WHERE MEDIAID = ?", mediaId);
+            if (existing.isEmpty()) {
+                return orphans;
+            }
+            String pinId = Long.toString(existing.get(0).get_Id());
+            Cursor cursor = db.rawQuery("SELECT DISTINCT CACHEKEY FROM PINNED_SONG WHERE PINID = ? AND CACHEKEY NOT IN " +
+                    "(SELECT CACHEKEY FROM PINNED_SONG WHERE PINID <> ?)", new String[] { pinId, pinId });
+            try {
+                while (cursor.moveToNext()) {
+                    orphans.add(cursor.getString(0));
+                }
+            } finally {
+                cursor.close();
+            }
+            db.delete(PinnedSong.GEN_TABLE_NAME, PinnedSong.GEN_FIELD_PINID + " = ?", new String[] { pinId });
+            db.delete(PinnedList.GEN_TABLE_NAME, PinnedList.GEN_FIELD__ID + " = ?", new String[] { pinId });
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return orphans;
+    }
+
+    private <E extends ImplementationBase> void query(Collection<E> result, NewInstance<E> newInstance, String sql, String... args) {
+        Cursor cursor = mDatabase.getReadableDatabase().rawQuery(sql, args);
+        try {
+            ImplementationBase.Gen_populateFromCursor(cursor, result, newInstance);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -5,7 +5,7 @@ package com.antlersoft.patchyamp.db;
 public abstract class AbstractConnectionBean extends com.antlersoft.android.dbimpl.IdImplementationBase implements IConnectionBean {
 
     public static final String GEN_TABLE_NAME = "CONNECTION_BEAN";
-    public static final int GEN_COUNT = 7;
+    public static final int GEN_COUNT = 9;
 
     // Field constants
     public static final String GEN_FIELD__ID = "_id";
@@ -22,6 +22,10 @@ public abstract class AbstractConnectionBean extends com.antlersoft.android.dbim
     public static final int GEN_ID_VERIFIED = 5;
     public static final String GEN_FIELD_KEEPPASSWORD = "KEEPPASSWORD";
     public static final int GEN_ID_KEEPPASSWORD = 6;
+    public static final String GEN_FIELD_WIFIBITRATECAP = "WIFIBITRATECAP";
+    public static final int GEN_ID_WIFIBITRATECAP = 7;
+    public static final String GEN_FIELD_CELLULARBITRATECAP = "CELLULARBITRATECAP";
+    public static final int GEN_ID_CELLULARBITRATECAP = 8;
 
     // SQL Command for creating the table
     public static String GEN_CREATE = "CREATE TABLE CONNECTION_BEAN (" +
@@ -31,7 +35,9 @@ public abstract class AbstractConnectionBean extends com.antlersoft.android.dbim
     "LOGIN TEXT," +
     "PASSWORD TEXT," +
     "VERIFIED INTEGER," +
-    "KEEPPASSWORD INTEGER" +
+    "KEEPPASSWORD INTEGER," +
+    "WIFIBITRATECAP INTEGER," +
+    "CELLULARBITRATECAP INTEGER" +
     ")";
 
     // Members corresponding to defined fields
@@ -42,6 +48,8 @@ public abstract class AbstractConnectionBean extends com.antlersoft.android.dbim
     private java.lang.String gen_password;
     private boolean gen_verified;
     private boolean gen_keepPassword;
+    private long gen_wifiBitrateCap;
+    private long gen_cellularBitrateCap;
 
 
     public String Gen_tableName() { return GEN_TABLE_NAME; }
@@ -61,6 +69,10 @@ public abstract class AbstractConnectionBean extends com.antlersoft.android.dbim
     public void setVerified(boolean arg_verified) { gen_verified = arg_verified; }
     public boolean isKeepPassword() { return gen_keepPassword; }
     public void setKeepPassword(boolean arg_keepPassword) { gen_keepPassword = arg_keepPassword; }
+    public long getWifiBitrateCap() { return gen_wifiBitrateCap; }
+    public void setWifiBitrateCap(long arg_wifiBitrateCap) { gen_wifiBitrateCap = arg_wifiBitrateCap; }
+    public long getCellularBitrateCap() { return gen_cellularBitrateCap; }
+    public void setCellularBitrateCap(long arg_cellularBitrateCap) { gen_cellularBitrateCap = arg_cellularBitrateCap; }
 
     public android.content.ContentValues Gen_getValues() {
         android.content.ContentValues values=new android.content.ContentValues();
@@ -71,6 +83,8 @@ public abstract class AbstractConnectionBean extends com.antlersoft.android.dbim
         values.put(GEN_FIELD_PASSWORD,this.gen_password);
         values.put(GEN_FIELD_VERIFIED,(this.gen_verified ? "1" : "0"));
         values.put(GEN_FIELD_KEEPPASSWORD,(this.gen_keepPassword ? "1" : "0"));
+        values.put(GEN_FIELD_WIFIBITRATECAP,Long.toString(this.gen_wifiBitrateCap));
+        values.put(GEN_FIELD_CELLULARBITRATECAP,Long.toString(this.gen_cellularBitrateCap));
         return values;
     }
 
@@ -92,6 +106,8 @@ public abstract class AbstractConnectionBean extends com.antlersoft.android.dbim
         result[4] = cursor.getColumnIndex(GEN_FIELD_PASSWORD);
         result[5] = cursor.getColumnIndex(GEN_FIELD_VERIFIED);
         result[6] = cursor.getColumnIndex(GEN_FIELD_KEEPPASSWORD);
+        result[7] = cursor.getColumnIndex(GEN_FIELD_WIFIBITRATECAP);
+        result[8] = cursor.getColumnIndex(GEN_FIELD_CELLULARBITRATECAP);
         return result;
     }
 
@@ -120,6 +136,12 @@ public abstract class AbstractConnectionBean extends com.antlersoft.android.dbim
         if ( columnIndices[GEN_ID_KEEPPASSWORD] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_KEEPPASSWORD])) {
             gen_keepPassword = (cursor.getInt(columnIndices[GEN_ID_KEEPPASSWORD]) != 0);
         }
+        if ( columnIndices[GEN_ID_WIFIBITRATECAP] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_WIFIBITRATECAP])) {
+            gen_wifiBitrateCap = cursor.getLong(columnIndices[GEN_ID_WIFIBITRATECAP]);
+        }
+        if ( columnIndices[GEN_ID_CELLULARBITRATECAP] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_CELLULARBITRATECAP])) {
+            gen_cellularBitrateCap = cursor.getLong(columnIndices[GEN_ID_CELLULARBITRATECAP]);
+        }
     }
 
     /**
@@ -133,5 +155,7 @@ public abstract class AbstractConnectionBean extends com.antlersoft.android.dbim
         gen_password = values.getAsString(GEN_FIELD_PASSWORD);
         gen_verified = (values.getAsInteger(GEN_FIELD_VERIFIED) != 0);
         gen_keepPassword = (values.getAsInteger(GEN_FIELD_KEEPPASSWORD) != 0);
+        gen_wifiBitrateCap = values.getAsLong(GEN_FIELD_WIFIBITRATECAP);
+        gen_cellularBitrateCap = values.getAsLong(GEN_FIELD_CELLULARBITRATECAP);
     }
 }
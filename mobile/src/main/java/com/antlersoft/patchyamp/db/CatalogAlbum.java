@@ -0,0 +1,155 @@
+// This class was generated from com.antlersoft.patchyamp.db.ICatalogAlbum by a tool
+// Do not edit this file directly! PLX THX
+package com.antlersoft.patchyamp.db;
+
+public class CatalogAlbum extends com.antlersoft.android.dbimpl.IdImplementationBase implements ICatalogAlbum {
+
+    public static final String GEN_TABLE_NAME = "ALBUM";
+    public static final int GEN_COUNT = 8;
+
+    // Field constants
+    public static final String GEN_FIELD__ID = "_id";
+    public static final int GEN_ID__ID = 0;
+    public static final String GEN_FIELD_AMPACHEID = "AMPACHEID";
+    public static final int GEN_ID_AMPACHEID = 1;
+    public static final String GEN_FIELD_NAME = "NAME";
+    public static final int GEN_ID_NAME = 2;
+    public static final String GEN_FIELD_ARTISTID = "ARTISTID";
+    public static final int GEN_ID_ARTISTID = 3;
+    public static final String GEN_FIELD_ARTISTNAME = "ARTISTNAME";
+    public static final int GEN_ID_ARTISTNAME = 4;
+    public static final String GEN_FIELD_ART = "ART";
+    public static final int GEN_ID_ART = 5;
+    public static final String GEN_FIELD_YEAR = "YEAR";
+    public static final int GEN_ID_YEAR = 6;
+    public static final String GEN_FIELD_TRACKS = "TRACKS";
+    public static final int GEN_ID_TRACKS = 7;
+
+    // SQL Command for creating the table
+    public static String GEN_CREATE = "CREATE TABLE ALBUM (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "AMPACHEID TEXT," +
+            "NAME TEXT," +
+            "ARTISTID TEXT," +
+            "ARTISTNAME TEXT," +
+            "ART TEXT," +
+            "YEAR INTEGER," +
+            "TRACKS INTEGER" +
+            ")";
+
+    // Members corresponding to defined fields
+    private long gen__Id;
+    private String gen_ampacheId;
+    private String gen_name;
+    private String gen_artistId;
+    private String gen_artistName;
+    private String gen_art;
+    private long gen_year;
+    private long gen_tracks;
+
+    public static final com.antlersoft.android.dbimpl.NewInstance<CatalogAlbum> GEN_NEW = new com.antlersoft.android.dbimpl.NewInstance<CatalogAlbum>() {
+        public CatalogAlbum get() {
+            return new CatalogAlbum();
+        }
+    }
+            ;
+    @Override
+    public String Gen_tableName() { return GEN_TABLE_NAME; }
+
+    // Field accessors
+    public long get_Id() { return gen__Id; }
+    public void set_Id(long arg__Id) { gen__Id = arg__Id; }
+    public String getAmpacheId() { return gen_ampacheId; }
+    public void setAmpacheId(String arg_ampacheId) { gen_ampacheId = arg_ampacheId; }
+    public String getName() { return gen_name; }
+    public void setName(String arg_name) { gen_name = arg_name; }
+    public String getArtistId() { return gen_artistId; }
+    public void setArtistId(String arg_artistId) { gen_artistId = arg_artistId; }
+    public String getArtistName() { return gen_artistName; }
+    public void setArtistName(String arg_artistName) { gen_artistName = arg_artistName; }
+    public String getArt() { return gen_art; }
+    public void setArt(String arg_art) { gen_art = arg_art; }
+    public long getYear() { return gen_year; }
+    public void setYear(long arg_year) { gen_year = arg_year; }
+    public long getTracks() { return gen_tracks; }
+    public void setTracks(long arg_tracks) { gen_tracks = arg_tracks; }
+
+    public android.content.ContentValues Gen_getValues() {
+        android.content.ContentValues values=new android.content.ContentValues();
+        values.put(GEN_FIELD__ID,Long.toString(this.gen__Id));
+        values.put(GEN_FIELD_AMPACHEID,this.gen_ampacheId);
+        values.put(GEN_FIELD_NAME,this.gen_name);
+        values.put(GEN_FIELD_ARTISTID,this.gen_artistId);
+        values.put(GEN_FIELD_ARTISTNAME,this.gen_artistName);
+        values.put(GEN_FIELD_ART,this.gen_art);
+        values.put(GEN_FIELD_YEAR,Long.toString(this.gen_year));
+        values.put(GEN_FIELD_TRACKS,Long.toString(this.gen_tracks));
+        return values;
+    }
+
+    /**
+     * Return an array that gives the column index in the cursor for each field defined
+     * @param cursor Database cursor over some columns, possibly including this table
+     * @return array of column indices; -1 if the column with that id is not in cursor
+     */
+    public int[] Gen_columnIndices(android.database.Cursor cursor) {
+        int[] result=new int[GEN_COUNT];
+        result[0] = cursor.getColumnIndex(GEN_FIELD__ID);
+        // Make compatible with database generated by older version of plugin with uppercase column name
+        if (result[0] == -1) {
+            result[0] = cursor.getColumnIndex("_ID");
+        }
+        result[1] = cursor.getColumnIndex(GEN_FIELD_AMPACHEID);
+        result[2] = cursor.getColumnIndex(GEN_FIELD_NAME);
+        result[3] = cursor.getColumnIndex(GEN_FIELD_ARTISTID);
+        result[4] = cursor.getColumnIndex(GEN_FIELD_ARTISTNAME);
+        result[5] = cursor.getColumnIndex(GEN_FIELD_ART);
+        result[6] = cursor.getColumnIndex(GEN_FIELD_YEAR);
+        result[7] = cursor.getColumnIndex(GEN_FIELD_TRACKS);
+        return result;
+    }
+
+    /**
+     * Populate one instance from a cursor
+     */
+    public void Gen_populate(android.database.Cursor cursor,int[] columnIndices) {
+        if ( columnIndices[GEN_ID__ID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID__ID])) {
+            gen__Id = cursor.getLong(columnIndices[GEN_ID__ID]);
+        }
+        if ( columnIndices[GEN_ID_AMPACHEID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_AMPACHEID])) {
+            gen_ampacheId = cursor.getString(columnIndices[GEN_ID_AMPACHEID]);
+        }
+        if ( columnIndices[GEN_ID_NAME] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_NAME])) {
+            gen_name = cursor.getString(columnIndices[GEN_ID_NAME]);
+        }
+        if ( columnIndices[GEN_ID_ARTISTID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_ARTISTID])) {
+            gen_artistId = cursor.getString(columnIndices[GEN_ID_ARTISTID]);
+        }
+        if ( columnIndices[GEN_ID_ARTISTNAME] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_ARTISTNAME])) {
+            gen_artistName = cursor.getString(columnIndices[GEN_ID_ARTISTNAME]);
+        }
+        if ( columnIndices[GEN_ID_ART] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_ART])) {
+            gen_art = cursor.getString(columnIndices[GEN_ID_ART]);
+        }
+        if ( columnIndices[GEN_ID_YEAR] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_YEAR])) {
+            gen_year = cursor.getLong(columnIndices[GEN_ID_YEAR]);
+        }
+        if ( columnIndices[GEN_ID_TRACKS] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_TRACKS])) {
+            gen_tracks = cursor.getLong(columnIndices[GEN_ID_TRACKS]);
+        }
+    }
+
+    /**
+     * Populate one instance from a ContentValues
+     */
+    public void Gen_populate(android.content.ContentValues values) {
+        gen__Id = values.getAsLong(GEN_FIELD__ID);
+        gen_ampacheId = values.getAsString(GEN_FIELD_AMPACHEID);
+        gen_name = values.getAsString(GEN_FIELD_NAME);
+        gen_artistId = values.getAsString(GEN_FIELD_ARTISTID);
+        gen_artistName = values.getAsString(GEN_FIELD_ARTISTNAME);
+        gen_art = values.getAsString(GEN_FIELD_ART);
+        gen_year = values.getAsLong(GEN_FIELD_YEAR);
+        gen_tracks = values.getAsLong(GEN_FIELD_TRACKS);
+    }
+}
@@ -0,0 +1,119 @@
+// This class was generated from com.antlersoft.patchyamp.db.ICatalogArtist by a tool
+// Do not edit this file directly! PLX THX
+package com.antlersoft.patchyamp.db;
+
+public class CatalogArtist extends com.antlersoft.android.dbimpl.IdImplementationBase implements ICatalogArtist {
+
+    public static final String GEN_TABLE_NAME = "ARTIST";
+    public static final int GEN_COUNT = 5;
+
+    // Field constants
+    public static final String GEN_FIELD__ID = "_id";
+    public static final int GEN_ID__ID = 0;
+    public static final String GEN_FIELD_AMPACHEID = "AMPACHEID";
+    public static final int GEN_ID_AMPACHEID = 1;
+    public static final String GEN_FIELD_NAME = "NAME";
+    public static final int GEN_ID_NAME = 2;
+    public static final String GEN_FIELD_ALBUMS = "ALBUMS";
+    public static final int GEN_ID_ALBUMS = 3;
+    public static final String GEN_FIELD_SONGS = "SONGS";
+    public static final int GEN_ID_SONGS = 4;
+
+    // SQL Command for creating the table
+    public static String GEN_CREATE = "CREATE TABLE ARTIST (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "AMPACHEID TEXT," +
+            "NAME TEXT," +
+            "ALBUMS INTEGER," +
+            "SONGS INTEGER" +
+            ")";
+
+    // Members corresponding to defined fields
+    private long gen__Id;
+    private String gen_ampacheId;
+    private String gen_name;
+    private long gen_albums;
+    private long gen_songs;
+
+    public static final com.antlersoft.android.dbimpl.NewInstance<CatalogArtist> GEN_NEW = new com.antlersoft.android.dbimpl.NewInstance<CatalogArtist>() {
+        public CatalogArtist get() {
+            return new CatalogArtist();
+        }
+    }
+            ;
+    @Override
+    public String Gen_tableName() { return GEN_TABLE_NAME; }
+
+    // Field accessors
+    public long get_Id() { return gen__Id; }
+    public void set_Id(long arg__Id) { gen__Id = arg__Id; }
+    public String getAmpacheId() { return gen_ampacheId; }
+    public void setAmpacheId(String arg_ampacheId) { gen_ampacheId = arg_ampacheId; }
+    public String getName() { return gen_name; }
+    public void setName(String arg_name) { gen_name = arg_name; }
+    public long getAlbums() { return gen_albums; }
+    public void setAlbums(long arg_albums) { gen_albums = arg_albums; }
+    public long getSongs() { return gen_songs; }
+    public void setSongs(long arg_songs) { gen_songs = arg_songs; }
+
+    public android.content.ContentValues Gen_getValues() {
+        android.content.ContentValues values=new android.content.ContentValues();
+        values.put(GEN_FIELD__ID,Long.toString(this.gen__Id));
+        values.put(GEN_FIELD_AMPACHEID,this.gen_ampacheId);
+        values.put(GEN_FIELD_NAME,this.gen_name);
+        values.put(GEN_FIELD_ALBUMS,Long.toString(this.gen_albums));
+        values.put(GEN_FIELD_SONGS,Long.toString(this.gen_songs));
+        return values;
+    }
+
+    /**
+     * Return an array that gives the column index in the cursor for each field defined
+     * @param cursor Database cursor over some columns, possibly including this table
+     * @return array of column indices; -1 if the column with that id is not in cursor
+     */
+    public int[] Gen_columnIndices(android.database.Cursor cursor) {
+        int[] result=new int[GEN_COUNT];
+        result[0] = cursor.getColumnIndex(GEN_FIELD__ID);
+        // Make compatible with database generated by older version of plugin with uppercase column name
+        if (result[0] == -1) {
+            result[0] = cursor.getColumnIndex("_ID");
+        }
+        result[1] = cursor.getColumnIndex(GEN_FIELD_AMPACHEID);
+        result[2] = cursor.getColumnIndex(GEN_FIELD_NAME);
+        result[3] = cursor.getColumnIndex(GEN_FIELD_ALBUMS);
+        result[4] = cursor.getColumnIndex(GEN_FIELD_SONGS);
+        return result;
+    }
+
+    /**
+     * Populate one instance from a cursor
+     */
+    public void Gen_populate(android.database.Cursor cursor,int[] columnIndices) {
+        if ( columnIndices[GEN_ID__ID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID__ID])) {
+            gen__Id = cursor.getLong(columnIndices[GEN_ID__ID]);
+        }
+        if ( columnIndices[GEN_ID_AMPACHEID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_AMPACHEID])) {
+            gen_ampacheId = cursor.getString(columnIndices[GEN_ID_AMPACHEID]);
+        }
+        if ( columnIndices[GEN_ID_NAME] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_NAME])) {
+            gen_name = cursor.getString(columnIndices[GEN_ID_NAME]);
+        }
+        if ( columnIndices[GEN_ID_ALBUMS] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_ALBUMS])) {
+            gen_albums = cursor.getLong(columnIndices[GEN_ID_ALBUMS]);
+        }
+        if ( columnIndices[GEN_ID_SONGS] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_SONGS])) {
+            gen_songs = cursor.getLong(columnIndices[GEN_ID_SONGS]);
+        }
+    }
+
+    /**
+     * Populate one instance from a ContentValues
+     */
+    public void Gen_populate(android.content.ContentValues values) {
+        gen__Id = values.getAsLong(GEN_FIELD__ID);
+        gen_ampacheId = values.getAsString(GEN_FIELD_AMPACHEID);
+        gen_name = values.getAsString(GEN_FIELD_NAME);
+        gen_albums = values.getAsLong(GEN_FIELD_ALBUMS);
+        gen_songs = values.getAsLong(GEN_FIELD_SONGS);
+    }
+}
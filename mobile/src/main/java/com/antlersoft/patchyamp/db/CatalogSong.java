@@ -0,0 +1,215 @@
+// This class was generated from com.antlersoft.patchyamp.db.ICatalogSong by a tool
+// Do not edit this file directly! PLX THX
+package com.antlersoft.patchyamp.db;
+
+public class CatalogSong extends com.antlersoft.android.dbimpl.IdImplementationBase implements ICatalogSong {
+
+    public static final String GEN_TABLE_NAME = "SONG";
+    public static final int GEN_COUNT = 13;
+
+    // Field constants
+    public static final String GEN_FIELD__ID = "_id";
+    public static final int GEN_ID__ID = 0;
+    public static final String GEN_FIELD_AMPACHEID = "AMPACHEID";
+    public static final int GEN_ID_AMPACHEID = 1;
+    public static final String GEN_FIELD_TITLE = "TITLE";
+    public static final int GEN_ID_TITLE = 2;
+    public static final String GEN_FIELD_ARTISTID = "ARTISTID";
+    public static final int GEN_ID_ARTISTID = 3;
+    public static final String GEN_FIELD_ARTISTNAME = "ARTISTNAME";
+    public static final int GEN_ID_ARTISTNAME = 4;
+    public static final String GEN_FIELD_ALBUMID = "ALBUMID";
+    public static final int GEN_ID_ALBUMID = 5;
+    public static final String GEN_FIELD_ALBUMNAME = "ALBUMNAME";
+    public static final int GEN_ID_ALBUMNAME = 6;
+    public static final String GEN_FIELD_GENRE = "GENRE";
+    public static final int GEN_ID_GENRE = 7;
+    public static final String GEN_FIELD_URL = "URL";
+    public static final int GEN_ID_URL = 8;
+    public static final String GEN_FIELD_ART = "ART";
+    public static final int GEN_ID_ART = 9;
+    public static final String GEN_FIELD_TIME = "TIME";
+    public static final int GEN_ID_TIME = 10;
+    public static final String GEN_FIELD_TRACK = "TRACK";
+    public static final int GEN_ID_TRACK = 11;
+    public static final String GEN_FIELD_RATING = "RATING";
+    public static final int GEN_ID_RATING = 12;
+
+    // SQL Command for creating the table
+    public static String GEN_CREATE = "CREATE TABLE SONG (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "AMPACHEID TEXT," +
+            "TITLE TEXT," +
+            "ARTISTID TEXT," +
+            "ARTISTNAME TEXT," +
+            "ALBUMID TEXT," +
+            "ALBUMNAME TEXT," +
+            "GENRE TEXT," +
+            "URL TEXT," +
+            "ART TEXT," +
+            "TIME INTEGER," +
+            "TRACK INTEGER," +
+            "RATING REAL" +
+            ")";
+
+    // Members corresponding to defined fields
+    private long gen__Id;
+    private String gen_ampacheId;
+    private String gen_title;
+    private String gen_artistId;
+    private String gen_artistName;
+    private String gen_albumId;
+    private String gen_albumName;
+    private String gen_genre;
+    private String gen_url;
+    private String gen_art;
+    private long gen_time;
+    private long gen_track;
+    private double gen_rating;
+
+    public static final com.antlersoft.android.dbimpl.NewInstance<CatalogSong> GEN_NEW = new com.antlersoft.android.dbimpl.NewInstance<CatalogSong>() {
+        public CatalogSong get() {
+            return new CatalogSong();
+        }
+    }
+            ;
+    @Override
+    public String Gen_tableName() { return GEN_TABLE_NAME; }
+
+    // Field accessors
+    public long get_Id() { return gen__Id; }
+    public void set_Id(long arg__Id) { gen__Id = arg__Id; }
+    public String getAmpacheId() { return gen_ampacheId; }
+    public void setAmpacheId(String arg_ampacheId) { gen_ampacheId = arg_ampacheId; }
+    public String getTitle() { return gen_title; }
+    public void setTitle(String arg_title) { gen_title = arg_title; }
+    public String getArtistId() { return gen_artistId; }
+    public void setArtistId(String arg_artistId) { gen_artistId = arg_artistId; }
+    public String getArtistName() { return gen_artistName; }
+    public void setArtistName(String arg_artistName) { gen_artistName = arg_artistName; }
+    public String getAlbumId() { return gen_albumId; }
+    public void setAlbumId(String arg_albumId) { gen_albumId = arg_albumId; }
+    public String getAlbumName() { return gen_albumName; }
+    public void setAlbumName(String arg_albumName) { gen_albumName = arg_albumName; }
+    public String getGenre() { return gen_genre; }
+    public void setGenre(String arg_genre) { gen_genre = arg_genre; }
+    public String getUrl() { return gen_url; }
+    public void setUrl(String arg_url) { gen_url = arg_url; }
+    public String getArt() { return gen_art; }
+    public void setArt(String arg_art) { gen_art = arg_art; }
+    public long getTime() { return gen_time; }
+    public void setTime(long arg_time) { gen_time = arg_time; }
+    public long getTrack() { return gen_track; }
+    public void setTrack(long arg_track) { gen_track = arg_track; }
+    public double getRating() { return gen_rating; }
+    public void setRating(double arg_rating) { gen_rating = arg_rating; }
+
+    public android.content.ContentValues Gen_getValues() {
+        android.content.ContentValues values=new android.content.ContentValues();
+        values.put(GEN_FIELD__ID,Long.toString(this.gen__Id));
+        values.put(GEN_FIELD_AMPACHEID,this.gen_ampacheId);
+        values.put(GEN_FIELD_TITLE,this.gen_title);
+        values.put(GEN_FIELD_ARTISTID,this.gen_artistId);
+        values.put(GEN_FIELD_ARTISTNAME,this.gen_artistName);
+        values.put(GEN_FIELD_ALBUMID,this.gen_albumId);
+        values.put(GEN_FIELD_ALBUMNAME,this.gen_albumName);
+        values.put(GEN_FIELD_GENRE,this.gen_genre);
+        values.put(GEN_FIELD_URL,this.gen_url);
+        values.put(GEN_FIELD_ART,this.gen_art);
+        values.put(GEN_FIELD_TIME,Long.toString(this.gen_time));
+        values.put(GEN_FIELD_TRACK,Long.toString(this.gen_track));
+        values.put(GEN_FIELD_RATING,Double.toString(this.gen_rating));
+        return values;
+    }
+
+    /**
+     * Return an array that gives the column index in the cursor for each field defined
+     * @param cursor Database cursor over some columns, possibly including this table
+     * @return array of column indices; -1 if the column with that id is not in cursor
+     */
+    public int[] Gen_columnIndices(android.database.Cursor cursor) {
+        int[] result=new int[GEN_COUNT];
+        result[0] = cursor.getColumnIndex(GEN_FIELD__ID);
+        // Make compatible with database generated by older version of plugin with uppercase column name
+        if (result[0] == -1) {
+            result[0] = cursor.getColumnIndex("_ID");
+        }
+        result[1] = cursor.getColumnIndex(GEN_FIELD_AMPACHEID);
+        result[2] = cursor.getColumnIndex(GEN_FIELD_TITLE);
+        result[3] = cursor.getColumnIndex(GEN_FIELD_ARTISTID);
+        result[4] = cursor.getColumnIndex(GEN_FIELD_ARTISTNAME);
+        result[5] = cursor.getColumnIndex(GEN_FIELD_ALBUMID);
+        result[6] = cursor.getColumnIndex(GEN_FIELD_ALBUMNAME);
+        result[7] = cursor.getColumnIndex(GEN_FIELD_GENRE);
+        result[8] = cursor.getColumnIndex(GEN_FIELD_URL);
+        result[9] = cursor.getColumnIndex(GEN_FIELD_ART);
+        result[10] = cursor.getColumnIndex(GEN_FIELD_TIME);
+        result[11] = cursor.getColumnIndex(GEN_FIELD_TRACK);
+        result[12] = cursor.getColumnIndex(GEN_FIELD_RATING);
+        return result;
+    }
+
+    /**
+     * Populate one instance from a cursor
+     */
+    public void Gen_populate(android.database.Cursor cursor,int[] columnIndices) {
+        if ( columnIndices[GEN_ID__ID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID__ID])) {
+            gen__Id = cursor.getLong(columnIndices[GEN_ID__ID]);
+        }
+        if ( columnIndices[GEN_ID_AMPACHEID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_AMPACHEID])) {
+            gen_ampacheId = cursor.getString(columnIndices[GEN_ID_AMPACHEID]);
+        }
+        if ( columnIndices[GEN_ID_TITLE] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_TITLE])) {
+            gen_title = cursor.getString(columnIndices[GEN_ID_TITLE]);
+        }
+        if ( columnIndices[GEN_ID_ARTISTID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_ARTISTID])) {
+            gen_artistId = cursor.getString(columnIndices[GEN_ID_ARTISTID]);
+        }
+        if ( columnIndices[GEN_ID_ARTISTNAME] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_ARTISTNAME])) {
+            gen_artistName = cursor.getString(columnIndices[GEN_ID_ARTISTNAME]);
+        }
+        if ( columnIndices[GEN_ID_ALBUMID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_ALBUMID])) {
+            gen_albumId = cursor.getString(columnIndices[GEN_ID_ALBUMID]);
+        }
+        if ( columnIndices[GEN_ID_ALBUMNAME] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_ALBUMNAME])) {
+            gen_albumName = cursor.getString(columnIndices[GEN_ID_ALBUMNAME]);
+        }
+        if ( columnIndices[GEN_ID_GENRE] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_GENRE])) {
+            gen_genre = cursor.getString(columnIndices[GEN_ID_GENRE]);
+        }
+        if ( columnIndices[GEN_ID_URL] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_URL])) {
+            gen_url = cursor.getString(columnIndices[GEN_ID_URL]);
+        }
+        if ( columnIndices[GEN_ID_ART] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_ART])) {
+            gen_art = cursor.getString(columnIndices[GEN_ID_ART]);
+        }
+        if ( columnIndices[GEN_ID_TIME] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_TIME])) {
+            gen_time = cursor.getLong(columnIndices[GEN_ID_TIME]);
+        }
+        if ( columnIndices[GEN_ID_TRACK] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_TRACK])) {
+            gen_track = cursor.getLong(columnIndices[GEN_ID_TRACK]);
+        }
+        if ( columnIndices[GEN_ID_RATING] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_RATING])) {
+            gen_rating = cursor.getDouble(columnIndices[GEN_ID_RATING]);
+        }
+    }
+
+    /**
+     * Populate one instance from a ContentValues
+     */
+    public void Gen_populate(android.content.ContentValues values) {
+        gen__Id = values.getAsLong(GEN_FIELD__ID);
+        gen_ampacheId = values.getAsString(GEN_FIELD_AMPACHEID);
+        gen_title = values.getAsString(GEN_FIELD_TITLE);
+        gen_artistId = values.getAsString(GEN_FIELD_ARTISTID);
+        gen_artistName = values.getAsString(GEN_FIELD_ARTISTNAME);
+        gen_albumId = values.getAsString(GEN_FIELD_ALBUMID);
+        gen_albumName = values.getAsString(GEN_FIELD_ALBUMNAME);
+        gen_genre = values.getAsString(GEN_FIELD_GENRE);
+        gen_url = values.getAsString(GEN_FIELD_URL);
+        gen_art = values.getAsString(GEN_FIELD_ART);
+        gen_time = values.getAsLong(GEN_FIELD_TIME);
+        gen_track = values.getAsLong(GEN_FIELD_TRACK);
+        gen_rating = values.getAsDouble(GEN_FIELD_RATING);
+    }
+}
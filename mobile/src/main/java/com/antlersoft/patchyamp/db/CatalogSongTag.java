@@ -0,0 +1,95 @@
+// This class was generated from com.antlersoft.patchyamp.db.ICatalogSongTag by a tool
+// Do not edit this file directly! PLX THX
+package com.antlersoft.patchyamp.db;
+
+public class CatalogSongTag extends com.antlersoft.android.dbimpl.IdImplementationBase implements ICatalogSongTag {
+
+    public static final String GEN_TABLE_NAME = "SONG_TAG";
+    public static final int GEN_COUNT = 3;
+
+    // Field constants
+    public static final String GEN_FIELD__ID = "_id";
+    public static final int GEN_ID__ID = 0;
+    public static final String GEN_FIELD_SONGID = "SONGID";
+    public static final int GEN_ID_SONGID = 1;
+    public static final String GEN_FIELD_TAGID = "TAGID";
+    public static final int GEN_ID_TAGID = 2;
+
+    // SQL Command for creating the table
+    public static String GEN_CREATE = "CREATE TABLE SONG_TAG (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "SONGID TEXT," +
+            "TAGID TEXT" +
+            ")";
+
+    // Members corresponding to defined fields
+    private long gen__Id;
+    private String gen_songId;
+    private String gen_tagId;
+
+    public static final com.antlersoft.android.dbimpl.NewInstance<CatalogSongTag> GEN_NEW = new com.antlersoft.android.dbimpl.NewInstance<CatalogSongTag>() {
+        public CatalogSongTag get() {
+            return new CatalogSongTag();
+        }
+    }
+            ;
+    @Override
+    public String Gen_tableName() { return GEN_TABLE_NAME; }
+
+    // Field accessors
+    public long get_Id() { return gen__Id; }
+    public void set_Id(long arg__Id) { gen__Id = arg__Id; }
+    public String getSongId() { return gen_songId; }
+    public void setSongId(String arg_songId) { gen_songId = arg_songId; }
+    public String getTagId() { return gen_tagId; }
+    public void setTagId(String arg_tagId) { gen_tagId = arg_tagId; }
+
+    public android.content.ContentValues Gen_getValues() {
+        android.content.ContentValues values=new android.content.ContentValues();
+        values.put(GEN_FIELD__ID,Long.toString(this.gen__Id));
+        values.put(GEN_FIELD_SONGID,this.gen_songId);
+        values.put(GEN_FIELD_TAGID,this.gen_tagId);
+        return values;
+    }
+
+    /**
+     * Return an array that gives the column index in the cursor for each field defined
+     * @param cursor Database cursor over some columns, possibly including this table
+     * @return array of column indices; -1 if the column with that id is not in cursor
+     */
+    public int[] Gen_columnIndices(android.database.Cursor cursor) {
+        int[] result=new int[GEN_COUNT];
+        result[0] = cursor.getColumnIndex(GEN_FIELD__ID);
+        // Make compatible with database generated by older version of plugin with uppercase column name
+        if (result[0] == -1) {
+            result[0] = cursor.getColumnIndex("_ID");
+        }
+        result[1] = cursor.getColumnIndex(GEN_FIELD_SONGID);
+        result[2] = cursor.getColumnIndex(GEN_FIELD_TAGID);
+        return result;
+    }
+
+    /**
+     * Populate one instance from a cursor
+     */
+    public void Gen_populate(android.database.Cursor cursor,int[] columnIndices) {
+        if ( columnIndices[GEN_ID__ID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID__ID])) {
+            gen__Id = cursor.getLong(columnIndices[GEN_ID__ID]);
+        }
+        if ( columnIndices[GEN_ID_SONGID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_SONGID])) {
+            gen_songId = cursor.getString(columnIndices[GEN_ID_SONGID]);
+        }
+        if ( columnIndices[GEN_ID_TAGID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_TAGID])) {
+            gen_tagId = cursor.getString(columnIndices[GEN_ID_TAGID]);
+        }
+    }
+
+    /**
+     * Populate one instance from a ContentValues
+     */
+    public void Gen_populate(android.content.ContentValues values) {
+        gen__Id = values.getAsLong(GEN_FIELD__ID);
+        gen_songId = values.getAsString(GEN_FIELD_SONGID);
+        gen_tagId = values.getAsString(GEN_FIELD_TAGID);
+    }
+}
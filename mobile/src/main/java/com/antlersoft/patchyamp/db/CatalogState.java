@@ -0,0 +1,143 @@
+// This class was generated from com.antlersoft.patchyamp.db.ICatalogState by a tool
+// Do not edit this file directly! PLX THX
+package com.antlersoft.patchyamp.db;
+
+public class CatalogState extends com.antlersoft.android.dbimpl.IdImplementationBase implements ICatalogState {
+
+    public static final String GEN_TABLE_NAME = "CATALOG_STATE";
+    public static final int GEN_COUNT = 7;
+
+    // Field constants
+    public static final String GEN_FIELD__ID = "_id";
+    public static final int GEN_ID__ID = 0;
+    public static final String GEN_FIELD_SERVERURL = "SERVERURL";
+    public static final int GEN_ID_SERVERURL = 1;
+    public static final String GEN_FIELD_LOGIN = "LOGIN";
+    public static final int GEN_ID_LOGIN = 2;
+    public static final String GEN_FIELD_LASTADD = "LASTADD";
+    public static final int GEN_ID_LASTADD = 3;
+    public static final String GEN_FIELD_LASTUPDATE = "LASTUPDATE";
+    public static final int GEN_ID_LASTUPDATE = 4;
+    public static final String GEN_FIELD_LASTCLEAN = "LASTCLEAN";
+    public static final int GEN_ID_LASTCLEAN = 5;
+    public static final String GEN_FIELD_COMPLETE = "COMPLETE";
+    public static final int GEN_ID_COMPLETE = 6;
+
+    // SQL Command for creating the table
+    public static String GEN_CREATE = "CREATE TABLE CATALOG_STATE (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "SERVERURL TEXT," +
+            "LOGIN TEXT," +
+            "LASTADD TEXT," +
+            "LASTUPDATE TEXT," +
+            "LASTCLEAN TEXT," +
+            "COMPLETE INTEGER" +
+            ")";
+
+    // Members corresponding to defined fields
+    private long gen__Id;
+    private String gen_serverUrl;
+    private String gen_login;
+    private String gen_lastAdd;
+    private String gen_lastUpdate;
+    private String gen_lastClean;
+    private boolean gen_complete;
+
+    public static final com.antlersoft.android.dbimpl.NewInstance<CatalogState> GEN_NEW = new com.antlersoft.android.dbimpl.NewInstance<CatalogState>() {
+        public CatalogState get() {
+            return new CatalogState();
+        }
+    }
+            ;
+    @Override
+    public String Gen_tableName() { return GEN_TABLE_NAME; }
+
+    // Field accessors
+    public long get_Id() { return gen__Id; }
+    public void set_Id(long arg__Id) { gen__Id = arg__Id; }
+    public String getServerUrl() { return gen_serverUrl; }
+    public void setServerUrl(String arg_serverUrl) { gen_serverUrl = arg_serverUrl; }
+    public String getLogin() { return gen_login; }
+    public void setLogin(String arg_login) { gen_login = arg_login; }
+    public String getLastAdd() { return gen_lastAdd; }
+    public void setLastAdd(String arg_lastAdd) { gen_lastAdd = arg_lastAdd; }
+    public String getLastUpdate() { return gen_lastUpdate; }
+    public void setLastUpdate(String arg_lastUpdate) { gen_lastUpdate = arg_lastUpdate; }
+    public String getLastClean() { return gen_lastClean; }
+    public void setLastClean(String arg_lastClean) { gen_lastClean = arg_lastClean; }
+    public boolean isComplete() { return gen_complete; }
+    public void setComplete(boolean arg_complete) { gen_complete = arg_complete; }
+
+    public android.content.ContentValues Gen_getValues() {
+        android.content.ContentValues values=new android.content.ContentValues();
+        values.put(GEN_FIELD__ID,Long.toString(this.gen__Id));
+        values.put(GEN_FIELD_SERVERURL,this.gen_serverUrl);
+        values.put(GEN_FIELD_LOGIN,this.gen_login);
+        values.put(GEN_FIELD_LASTADD,this.gen_lastAdd);
+        values.put(GEN_FIELD_LASTUPDATE,this.gen_lastUpdate);
+        values.put(GEN_FIELD_LASTCLEAN,this.gen_lastClean);
+        values.put(GEN_FIELD_COMPLETE,(this.gen_complete ? "1" : "0"));
+        return values;
+    }
+
+    /**
+     * Return an array that gives the column index in the cursor for each field defined
+     * @param cursor Database cursor over some columns, possibly including this table
+     * @return array of column indices; -1 if the column with that id is not in cursor
+     */
+    public int[] Gen_columnIndices(android.database.Cursor cursor) {
+        int[] result=new int[GEN_COUNT];
+        result[0] = cursor.getColumnIndex(GEN_FIELD__ID);
+        // Make compatible with database generated by older version of plugin with uppercase column name
+        if (result[0] == -1) {
+            result[0] = cursor.getColumnIndex("_ID");
+        }
+        result[1] = cursor.getColumnIndex(GEN_FIELD_SERVERURL);
+        result[2] = cursor.getColumnIndex(GEN_FIELD_LOGIN);
+        result[3] = cursor.getColumnIndex(GEN_FIELD_LASTADD);
+        result[4] = cursor.getColumnIndex(GEN_FIELD_LASTUPDATE);
+        result[5] = cursor.getColumnIndex(GEN_FIELD_LASTCLEAN);
+        result[6] = cursor.getColumnIndex(GEN_FIELD_COMPLETE);
+        return result;
+    }
+
+    /**
+     * Populate one instance from a cursor
+     */
+    public void Gen_populate(android.database.Cursor cursor,int[] columnIndices) {
+        if ( columnIndices[GEN_ID__ID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID__ID])) {
+            gen__Id = cursor.getLong(columnIndices[GEN_ID__ID]);
+        }
+        if ( columnIndices[GEN_ID_SERVERURL] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_SERVERURL])) {
+            gen_serverUrl = cursor.getString(columnIndices[GEN_ID_SERVERURL]);
+        }
+        if ( columnIndices[GEN_ID_LOGIN] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_LOGIN])) {
+            gen_login = cursor.getString(columnIndices[GEN_ID_LOGIN]);
+        }
+        if ( columnIndices[GEN_ID_LASTADD] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_LASTADD])) {
+            gen_lastAdd = cursor.getString(columnIndices[GEN_ID_LASTADD]);
+        }
+        if ( columnIndices[GEN_ID_LASTUPDATE] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_LASTUPDATE])) {
+            gen_lastUpdate = cursor.getString(columnIndices[GEN_ID_LASTUPDATE]);
+        }
+        if ( columnIndices[GEN_ID_LASTCLEAN] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_LASTCLEAN])) {
+            gen_lastClean = cursor.getString(columnIndices[GEN_ID_LASTCLEAN]);
+        }
+        if ( columnIndices[GEN_ID_COMPLETE] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_COMPLETE])) {
+            gen_complete = (cursor.getInt(columnIndices[GEN_ID_COMPLETE]) != 0);
+        }
+    }
+
+    /**
+     * Populate one instance from a ContentValues
+     */
+    public void Gen_populate(android.content.ContentValues values) {
+        gen__Id = values.getAsLong(GEN_FIELD__ID);
+        gen_serverUrl = values.getAsString(GEN_FIELD_SERVERURL);
+        gen_login = values.getAsString(GEN_FIELD_LOGIN);
+        gen_lastAdd = values.getAsString(GEN_FIELD_LASTADD);
+        gen_lastUpdate = values.getAsString(GEN_FIELD_LASTUPDATE);
+        gen_lastClean = values.getAsString(GEN_FIELD_LASTCLEAN);
+        gen_complete = (values.getAsInteger(GEN_FIELD_COMPLETE) != 0);
+    }
+}
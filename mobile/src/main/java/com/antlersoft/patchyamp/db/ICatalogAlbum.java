@@ -0,0 +1,24 @@
+package com.antlersoft.patchyamp.db;
+
+import com.antlersoft.android.db.FieldAccessor;
+import com.antlersoft.android.db.TableInterface;
+
+@TableInterface(ImplementingClassName="CatalogAlbum",ImplementingIsAbstract=false,TableName="ALBUM")
+public interface ICatalogAlbum {
+    @FieldAccessor
+    long get_Id();
+    @FieldAccessor
+    String getAmpacheId();
+    @FieldAccessor
+    String getName();
+    @FieldAccessor
+    String getArtistId();
+    @FieldAccessor
+    String getArtistName();
+    @FieldAccessor
+    String getArt();
+    @FieldAccessor
+    long getYear();
+    @FieldAccessor
+    long getTracks();
+}
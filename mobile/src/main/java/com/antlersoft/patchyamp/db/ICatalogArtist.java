@@ -0,0 +1,18 @@
+package com.antlersoft.patchyamp.db;
+
+import com.antlersoft.android.db.FieldAccessor;
+import com.antlersoft.android.db.TableInterface;
+
+@TableInterface(ImplementingClassName="CatalogArtist",ImplementingIsAbstract=false,TableName="ARTIST")
+public interface ICatalogArtist {
+    @FieldAccessor
+    long get_Id();
+    @FieldAccessor
+    String getAmpacheId();
+    @FieldAccessor
+    String getName();
+    @FieldAccessor
+    long getAlbums();
+    @FieldAccessor
+    long getSongs();
+}
@@ -0,0 +1,34 @@
+package com.antlersoft.patchyamp.db;
+
+import com.antlersoft.android.db.FieldAccessor;
+import com.antlersoft.android.db.TableInterface;
+
+@TableInterface(ImplementingClassName="CatalogSong",ImplementingIsAbstract=false,TableName="SONG")
+public interface ICatalogSong {
+    @FieldAccessor
+    long get_Id();
+    @FieldAccessor
+    String getAmpacheId();
+    @FieldAccessor
+    String getTitle();
+    @FieldAccessor
+    String getArtistId();
+    @FieldAccessor
+    String getArtistName();
+    @FieldAccessor
+    String getAlbumId();
+    @FieldAccessor
+    String getAlbumName();
+    @FieldAccessor
+    String getGenre();
+    @FieldAccessor
+    String getUrl();
+    @FieldAccessor
+    String getArt();
+    @FieldAccessor
+    long getTime();
+    @FieldAccessor
+    long getTrack();
+    @FieldAccessor
+    double getRating();
+}
@@ -0,0 +1,14 @@
+package com.antlersoft.patchyamp.db;
+
+import com.antlersoft.android.db.FieldAccessor;
+import com.antlersoft.android.db.TableInterface;
+
+@TableInterface(ImplementingClassName="CatalogSongTag",ImplementingIsAbstract=false,TableName="SONG_TAG")
+public interface ICatalogSongTag {
+    @FieldAccessor
+    long get_Id();
+    @FieldAccessor
+    String getSongId();
+    @FieldAccessor
+    String getTagId();
+}
@@ -0,0 +1,22 @@
+package com.antlersoft.patchyamp.db;
+
+import com.antlersoft.android.db.FieldAccessor;
+import com.antlersoft.android.db.TableInterface;
+
+@TableInterface(ImplementingClassName="CatalogState",ImplementingIsAbstract=false,TableName="CATALOG_STATE")
+public interface ICatalogState {
+    @FieldAccessor
+    long get_Id();
+    @FieldAccessor
+    String getServerUrl();
+    @FieldAccessor
+    String getLogin();
+    @FieldAccessor
+    String getLastAdd();
+    @FieldAccessor
+    String getLastUpdate();
+    @FieldAccessor
+    String getLastClean();
+    @FieldAccessor
+    boolean isComplete();
+}
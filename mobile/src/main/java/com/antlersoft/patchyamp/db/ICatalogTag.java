@@ -0,0 +1,16 @@
+package com.antlersoft.patchyamp.db;
+
+import com.antlersoft.android.db.FieldAccessor;
+import com.antlersoft.android.db.TableInterface;
+
+@TableInterface(ImplementingClassName="CatalogTag",ImplementingIsAbstract=false,TableName="TAG")
+public interface ICatalogTag {
+    @FieldAccessor
+    long get_Id();
+    @FieldAccessor
+    String getAmpacheId();
+    @FieldAccessor
+    String getName();
+    @FieldAccessor
+    long getSongs();
+}
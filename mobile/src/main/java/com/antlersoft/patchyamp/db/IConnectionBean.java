@@ -26,4 +26,8 @@ interface IConnectionBean {
 	boolean isVerified();
 	@FieldAccessor
 	boolean isKeepPassword();
+	@FieldAccessor
+	long getWifiBitrateCap();
+	@FieldAccessor
+	long getCellularBitrateCap();
 }
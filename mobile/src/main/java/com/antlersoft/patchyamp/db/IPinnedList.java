@@ -0,0 +1,14 @@
+package com.antlersoft.patchyamp.db;
+
+import com.antlersoft.android.db.FieldAccessor;
+import com.antlersoft.android.db.TableInterface;
+
+@TableInterface(ImplementingClassName="PinnedList",ImplementingIsAbstract=false,TableName="PINNED_LIST")
+public interface IPinnedList {
+    @FieldAccessor
+    long get_Id();
+    @FieldAccessor
+    String getMediaId();
+    @FieldAccessor
+    String getTitle();
+}
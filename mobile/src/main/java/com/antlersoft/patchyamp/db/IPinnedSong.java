@@ -0,0 +1,33 @@
+package com.antlersoft.patchyamp.db;
+
+import com.antlersoft.android.db.FieldAccessor;
+import com.antlersoft.android.db.TableInterface;
+
+@TableInterface(ImplementingClassName="PinnedSong",ImplementingIsAbstract=false,TableName="PINNED_SONG")
+public interface IPinnedSong {
+    @FieldAccessor
+    long get_Id();
+    @FieldAccessor
+    long getPinId();
+    @FieldAccessor
+    String getSongId();
+    @FieldAccessor
+    String getCacheKey();
+    // The song as it was when pinned, so the pin can be browsed and played offline
+    @FieldAccessor
+    String getTitle();
+    @FieldAccessor
+    String getArtist();
+    @FieldAccessor
+    String getAlbum();
+    @FieldAccessor
+    String getGenre();
+    @FieldAccessor
+    String getUrl();
+    @FieldAccessor
+    String getArt();
+    @FieldAccessor
+    long getDurationMs();
+    @FieldAccessor
+    long getTrack();
+}
@@ -0,0 +1,14 @@
+package com.antlersoft.patchyamp.db;
+
+import com.antlersoft.android.db.FieldAccessor;
+import com.antlersoft.android.db.TableInterface;
+
+@TableInterface(ImplementingClassName="QueuePart",ImplementingIsAbstract=false,TableName="QUEUE_PART")
+public interface IQueuePart {
+    @FieldAccessor
+    long get_Id();
+    @FieldAccessor
+    long getPartIndex();
+    @FieldAccessor
+    String getData();
+}
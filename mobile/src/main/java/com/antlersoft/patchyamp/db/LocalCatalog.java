@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.antlersoft.android.dbimpl.IdImplementationBase;
+import com.antlersoft.android.dbimpl.ImplementationBase;
+import com.antlersoft.android.dbimpl.NewInstance;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Local copy of the songs, albums, artists and tags in the Ampache catalog,
+ * so browsing doesn't need a round trip to the server.
+ *
+ * Rows are keyed by the Ampache id of the item; writing an item that is already
+ * present replaces it.
+ */
+public class LocalCatalog {
+    private final PatchyDatabase mDatabase;
+    // Server and login of the completed catalog, cached so browsing doesn't have to
+    // read CATALOG_STATE each time; empty if the catalog isn't complete
+    private volatile String mCompleteFor;
+
+    public LocalCatalog(PatchyDatabase database) {
+        mDatabase = database;
+    }
+
+    /**
+     * @return true if a full sync from the given server and login has finished, so the catalog
+     * can be used in place of the server
+     */
+    public boolean isCompleteFor(String serverUrl, String login) {
+        String completeFor = mCompleteFor;
+        if (completeFor == null) {
+            completeFor = completeKey(getState());
+            mCompleteFor = completeFor;
+        }
+        return completeFor.length() > 0 && completeFor.equals(serverUrl + '\n' + login);
+    }
+
+    private static String completeKey(CatalogState state) {
+        return state != null && state.isComplete() ? state.getServerUrl() + '\n' + state.getLogin() : "";
+    }
+
+    /**
+     * @return The sync state of the catalog, or null if it has never been synced
+     */
+    public CatalogState getState() {
+        ArrayList<CatalogState> states = new ArrayList<>(1);
+        CatalogState.getAll(mDatabase.getReadableDatabase(), CatalogState.GEN_TABLE_NAME, states, CatalogState.GEN_NEW);
+        return states.isEmpty() ? null : states.get(0);
+    }
+
+    public void saveState(CatalogState state) {
+        SQLiteDatabase db = mDatabase.getWritableDatabase();
+        if (state.get_Id() == 0) {
+            state.Gen_insert(db);
+        } else {
+            state.Gen_update(db);
+        }
+        mCompleteFor = completeKey(state);
+    }
+
+    /**
+     * Remove every item in the catalog, keeping the sync state row
+     */
+    public void clear() {
+        SQLiteDatabase db = mDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(CatalogSongTag.GEN_TABLE_NAME, null, null);
+            db.delete(CatalogSong.GEN_TABLE_NAME, null, null);
+            db.delete(CatalogAlbum.GEN_TABLE_NAME, null, null);
+            db.delete(CatalogArtist.GEN_TABLE_NAME, null, null);
+            db.delete(CatalogTag.GEN_TABLE_NAME, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Add or replace a page of songs and the tags that go with them, in one transaction
+     */
+    public void putSongs(List<CatalogSong> songs, List<CatalogSongTag> songTags) {
+        SQLiteDatabase db = mDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (CatalogSong song : songs) {
+                db.delete(CatalogSongTag.GEN_TABLE_NAME, CatalogSongTag.GEN_FIELD_SONGID + " = ?",
+                        new String[] { song.getAmpacheId() });
+                replace(db, song);
+            }
+            for (CatalogSongTag songTag : songTags) {
+                replace(db, songTag);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void putAlbums(List<CatalogAlbum> albums) {
+        putAll(albums);
+    }
+
+    public void putArtists(List<CatalogArtist> artists) {
+        putAll(artists);
+    }
+
+    /**
+     * Replace all the tags in the catalog
+     */
+    public void replaceTags(List<CatalogTag> tags) {
+        SQLiteDatabase db = mDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(CatalogTag.GEN_TABLE_NAME, null, null);
+            for (CatalogTag tag : tags) {
+                replace(db, tag);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public CatalogSong getSong(String ampacheId) {
+        ArrayList<CatalogSong> songs = new ArrayList<>(1);
+        query(songs, CatalogSong.GEN_NEW, "SELECT * FROM SONG WHERE AMPACHEID = ?", ampacheId);
+        return songs.isEmpty() ? null : songs.get(0);
+    }
+
+    public List<CatalogSong> getAlbumSongs(String albumId) {
+        ArrayList<CatalogSong> songs = new ArrayList<>();
+        query(songs, CatalogSong.GEN_NEW, "SELECT * FROM SONG WHERE ALBUMID = ? ORDER BY TRACK, TITLE", albumId);
+        return songs;
+    }
+
+    public List<CatalogSong> getArtistSongs(String artistId) {
+        ArrayList<CatalogSong> songs = new ArrayList<>();
+        query(songs, CatalogSong.GEN_NEW, "SELECT * FROM SONG WHERE ARTISTID = ? ORDER BY ALBUMNAME, TRACK, TITLE", artistId);
+        return songs;
+    }
+
+    public List<CatalogSong> getTagSongs(String tagId) {
+        ArrayList<CatalogSong> songs = new ArrayList<>();
+        query(songs, CatalogSong.GEN_NEW,
+                "SELECT SONG.* FROM SONG_TAG JOIN SONG ON SONG.AMPACHEID = SONG_TAG.SONGID WHERE SONG_TAG.TAGID = ? ORDER BY SONG.TITLE",
+                tagId);
+        return songs;
+    }
+
+    /**
+     * Pick songs at random by reservoir sampling the row ids, so only count ids are held
+     * however big the catalog is
+     * @return Up to count songs, in random order
+     */
+    public List<CatalogSong> getRandomSongs(int count, Random random) {
+        long[] chosen = new long[count];
+        int seen = 0;
+        Cursor cursor = mDatabase.getReadableDatabase().rawQuery("SELECT _id FROM SONG", null);
+        try {
+            while (cursor.moveToNext()) {
+                int slot = seen < count ? seen : random.nextInt(seen + 1);
+                if (slot < count) {
+                    chosen[slot] = cursor.getLong(0);
+                }
+                seen++;
+            }
+        } finally {
+            cursor.close();
+        }
+        int found = Math.min(seen, count);
+        ArrayList<CatalogSong> songs = new ArrayList<>(found);
+        if (found == 0) {
+            return songs;
+        }
+        StringBuilder sql = new StringBuilder("SELECT * FROM SONG WHERE _id IN (");
+        String[] args = new String[found];
+        for (int i = 0; i < found; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+            args[i] = Long.toString(chosen[i]);
+        }
+        sql.append(')');
+        query(songs, CatalogSong.GEN_NEW, sql.toString(), args);
+        Collections.shuffle(songs, random);
+        return songs;
+    }
+
+    public List<CatalogAlbum> getAlbums() {
+        ArrayList<CatalogAlbum> albums = new ArrayList<>();
+        query(albums, CatalogAlbum.GEN_NEW, "SELECT * FROM ALBUM ORDER BY NAME");
+        return albums;
+    }
+
+    public List<CatalogAlbum> getArtistAlbums(String artistId) {
+        ArrayList<CatalogAlbum> albums = new ArrayList<>();
+        query(albums, CatalogAlbum.GEN_NEW, "SELECT * FROM ALBUM WHERE ARTISTID = ? ORDER BY YEAR, NAME", artistId);
+        return albums;
+    }
+
+    public List<CatalogArtist> getArtists() {
+        ArrayList<CatalogArtist> artists = new ArrayList<>();
+        query(artists, CatalogArtist.GEN_NEW, "SELECT * FROM ARTIST ORDER BY NAME");
+        return artists;
+    }
+
+    public List<CatalogTag> getTags() {
+        ArrayList<CatalogTag> tags = new ArrayList<>();
+        query(tags, CatalogTag.GEN_NEW, "SELECT * FROM TAG ORDER BY NAME");
+        return tags;
+    }
+
+    private <E extends IdImplementationBase> void putAll(List<E> items) {
+        SQLiteDatabase db = mDatabase.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (E item : items) {
+                replace(db, item);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static void replace(SQLiteDatabase db, IdImplementationBase item) {
+        ContentValues values = item.Gen_getValues();
+        // Let the database assign the row id; the unique Ampache id picks the row to replace
+        values.remove("_id");
+        db.insertWithOnConflict(item.Gen_tableName(), null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private <E extends ImplementationBase> void query(Collection<E> result, NewInstance<E> newInstance, String sql, String... args) {
+        Cursor cursor = mDatabase.getReadableDatabase().rawQuery(sql, args);
+        try {
+            ImplementationBase.Gen_populateFromCursor(cursor, result, newInstance);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -15,13 +15,18 @@
  */
 package com.antlersoft.patchyamp.db;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.util.Log;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Database upgrader for PatchyAmp
@@ -30,6 +35,11 @@ import java.util.ArrayList;
 public class PatchyDatabase extends SQLiteOpenHelper {
     static final int DBV_0_1_X = 1;
     static final int DBV_0_2_x = 2;
+    static final int DBV_0_3_x = 3;
+    static final int DBV_0_4_x = 4;
+    static final int DBV_0_5_x = 5;
+    static final int DBV_0_6_x = 6;
+    static final int DBV_0_7_x = 7;
 
     public final static String TAG = PatchyDatabase.class.toString();
 
@@ -37,7 +47,19 @@ public class PatchyDatabase extends SQLiteOpenHelper {
     private static WeakReference<PatchyDatabase> mInstanceRef;
 
     private PatchyDatabase(Context context) {
-        super(context, "PatchyDatabase", null, DBV_0_2_x);
+        this(context, "PatchyDatabase");
+    }
+
+    private PatchyDatabase(Context context, String name) {
+        super(context, name, null, DBV_0_7_x);
+    }
+
+    /**
+     * A database that is not saved in a file, for tests and benchmarks that must not
+     * disturb the saved connections and catalog
+     */
+    public static PatchyDatabase createInMemory(Context context) {
+        return new PatchyDatabase(context, null);
     }
 
     public static PatchyDatabase getInstance(Context context) {
@@ -56,6 +78,51 @@ public class PatchyDatabase extends SQLiteOpenHelper {
         db.execSQL(AbstractConnectionBean.GEN_CREATE);
         db.execSQL(SavedState.GEN_CREATE);
         db.execSQL(PlayingList.GEN_CREATE);
+        db.execSQL(ListContent.GEN_CREATE);
+        createCatalog(db);
+        createPins(db);
+        createQueueParts(db);
+    }
+
+    /**
+     * Tables holding the local copy of the server catalog; see LocalCatalog
+     */
+    private static void createCatalog(SQLiteDatabase db) {
+        db.execSQL(CatalogSong.GEN_CREATE);
+        db.execSQL(CatalogAlbum.GEN_CREATE);
+        db.execSQL(CatalogArtist.GEN_CREATE);
+        db.execSQL(CatalogTag.GEN_CREATE);
+        db.execSQL(CatalogSongTag.GEN_CREATE);
+        db.execSQL(CatalogState.GEN_CREATE);
+        // Ampache ids are the keys for replacing updated rows during sync
+        db.execSQL("CREATE UNIQUE INDEX SONG_AMPACHEID ON SONG (AMPACHEID)");
+        db.execSQL("CREATE UNIQUE INDEX ALBUM_AMPACHEID ON ALBUM (AMPACHEID)");
+        db.execSQL("CREATE UNIQUE INDEX ARTIST_AMPACHEID ON ARTIST (AMPACHEID)");
+        db.execSQL("CREATE UNIQUE INDEX TAG_AMPACHEID ON TAG (AMPACHEID)");
+        db.execSQL("CREATE INDEX SONG_ALBUMID ON SONG (ALBUMID)");
+        db.execSQL("CREATE INDEX SONG_ARTISTID ON SONG (ARTISTID)");
+        db.execSQL("CREATE INDEX ALBUM_ARTISTID ON ALBUM (ARTISTID)");
+        db.execSQL("CREATE INDEX SONG_TAG_SONGID ON SONG_TAG (SONGID)");
+        db.execSQL("CREATE INDEX SONG_TAG_TAGID ON SONG_TAG (TAGID)");
+    }
+
+    /**
+     * Tables recording the playlists and albums pinned for offline use; see PinnedDownloads
+     */
+    private static void createPins(SQLiteDatabase db) {
+        db.execSQL(PinnedList.GEN_CREATE);
+        db.execSQL(PinnedSong.GEN_CREATE);
+        db.execSQL("CREATE UNIQUE INDEX PINNED_LIST_MEDIAID ON PINNED_LIST (MEDIAID)");
+        db.execSQL("CREATE INDEX PINNED_SONG_PINID ON PINNED_SONG (PINID)");
+        db.execSQL("CREATE INDEX PINNED_SONG_CACHEKEY ON PINNED_SONG (CACHEKEY)");
+    }
+
+    /**
+     * Table holding the parts of the saved playing queue; see SavedQueue
+     */
+    private static void createQueueParts(SQLiteDatabase db) {
+        db.execSQL(QueuePart.GEN_CREATE);
+        db.execSQL("CREATE UNIQUE INDEX QUEUE_PART_PARTINDEX ON QUEUE_PART (PARTINDEX)");
     }
 
     private void defaultUpgrade(SQLiteDatabase db)
@@ -65,6 +132,15 @@ public class PatchyDatabase extends SQLiteOpenHelper {
         db.execSQL("DROP TABLE IF EXISTS " + SavedState.GEN_TABLE_NAME);
         db.execSQL("DROP TABLE IF EXISTS " + PlayingList.GEN_TABLE_NAME);
         db.execSQL("DROP TABLE IF EXISTS " + ListContent.GEN_TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + CatalogSong.GEN_TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + CatalogAlbum.GEN_TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + CatalogArtist.GEN_TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + CatalogTag.GEN_TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + CatalogSongTag.GEN_TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + CatalogState.GEN_TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + PinnedList.GEN_TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + PinnedSong.GEN_TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + QueuePart.GEN_TABLE_NAME);
         onCreate(db);
     }
 
@@ -74,15 +150,40 @@ public class PatchyDatabase extends SQLiteOpenHelper {
             defaultUpgrade(db);
         }
         else {
-            /*
             // Intermediate upgrades
-            if (oldVersion < xxxx) {
-                ...
-            } ...
-            */
+            if (oldVersion < DBV_0_2_x) {
+                db.execSQL(PlayingList.GEN_CREATE);
+                db.execSQL(ListContent.GEN_CREATE);
+            }
+            if (oldVersion < DBV_0_3_x) {
+                createCatalog(db);
+            }
+            if (oldVersion < DBV_0_4_x) {
+                createPins(db);
+            }
+            if (oldVersion < DBV_0_5_x) {
+                db.execSQL("ALTER TABLE " + AbstractConnectionBean.GEN_TABLE_NAME + " ADD COLUMN "
+                        + AbstractConnectionBean.GEN_FIELD_WIFIBITRATECAP + " INTEGER");
+                db.execSQL("ALTER TABLE " + AbstractConnectionBean.GEN_TABLE_NAME + " ADD COLUMN "
+                        + AbstractConnectionBean.GEN_FIELD_CELLULARBITRATECAP + " INTEGER");
+            }
+            if (oldVersion < DBV_0_6_x && oldVersion >= DBV_0_4_x) {
+                // Pins made before this have only ids; they get the rest when pinned again
+                for (String column : new String[] { PinnedSong.GEN_FIELD_TITLE, PinnedSong.GEN_FIELD_ARTIST,
+                        PinnedSong.GEN_FIELD_ALBUM, PinnedSong.GEN_FIELD_GENRE, PinnedSong.GEN_FIELD_URL,
+                        PinnedSong.GEN_FIELD_ART }) {
+                    db.execSQL("ALTER TABLE " + PinnedSong.GEN_TABLE_NAME + " ADD COLUMN " + column + " TEXT");
+                }
+                db.execSQL("ALTER TABLE " + PinnedSong.GEN_TABLE_NAME + " ADD COLUMN "
+                        + PinnedSong.GEN_FIELD_DURATIONMS + " INTEGER");
+                db.execSQL("ALTER TABLE " + PinnedSong.GEN_TABLE_NAME + " ADD COLUMN "
+                        + PinnedSong.GEN_FIELD_TRACK + " INTEGER");
+            }
             // Current upgrade
-            db.execSQL(PlayingList.GEN_CREATE);
-            db.execSQL(ListContent.GEN_CREATE);
+            if (oldVersion < DBV_0_7_x) {
+                // The queue saved whole in LIST_CONTENT before this is no longer read
+                createQueueParts(db);
+            }
         }
     }
     /**
@@ -121,8 +222,8 @@ public class PatchyDatabase extends SQLiteOpenHelper {
                 current.setNowPlayingIndex(-1);
                 current.Gen_update(db);
             }
-        } finally {
-            db.close();
+        } catch (SQLException sqle) {
+            Log.e(TAG, "Failed to update playing list", sqle);
         }
         return -1;
     }
@@ -141,9 +242,109 @@ public class PatchyDatabase extends SQLiteOpenHelper {
             }
             current.setNowPlayingIndex(index);
             current.Gen_update(db);
+        } catch (SQLException sqle) {
+            Log.e(TAG, "Failed to update playing list index", sqle);
+        }
+    }
+
+    /**
+     * Save the encoded playing queue: content in the LIST_CONTENT row the playing list refers
+     * to, and each of parts in the QUEUE_PART row with its index, replacing what was there.
+     * Parts with an index from partCount on are removed. It is all saved in one transaction,
+     * so what is read back is from one save.
+     * The bytes go in the JSON and DATA columns as blobs; SQLite keeps whatever type it is given.
+     * @return Whether it was saved
+     */
+    public boolean SaveListContent(byte[] content, Map<Integer, byte[]> parts, int partCount)
+    {
+        SQLiteDatabase db=getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ArrayList<PlayingList> recents = new ArrayList<>(1);
+            PlayingList.getAll(db, PlayingList.GEN_TABLE_NAME, recents, PlayingList.GEN_NEW);
+            PlayingList current;
+            if (recents.size() == 0) {
+                current = new PlayingList();
+                current.setNowPlayingIndex(-1);
+                current.Gen_insert(db);
+            } else {
+                current = recents.get(0);
+            }
+            ContentValues values = new ContentValues();
+            values.put(ListContent.GEN_FIELD_JSON, content);
+            if (current.getListContentId() == 0 || db.update(ListContent.GEN_TABLE_NAME, values,
+                    ListContent.GEN_FIELD__ID + " = ?", new String[] { Long.toString(current.getListContentId()) }) == 0) {
+                current.setListContentId(db.insertOrThrow(ListContent.GEN_TABLE_NAME, null, values));
+                current.Gen_update(db);
+            }
+            for (Map.Entry<Integer, byte[]> part : parts.entrySet()) {
+                ContentValues partValues = new ContentValues();
+                partValues.put(QueuePart.GEN_FIELD_PARTINDEX, part.getKey());
+                partValues.put(QueuePart.GEN_FIELD_DATA, part.getValue());
+                db.replaceOrThrow(QueuePart.GEN_TABLE_NAME, null, partValues);
+            }
+            db.delete(QueuePart.GEN_TABLE_NAME, QueuePart.GEN_FIELD_PARTINDEX + " >= ?",
+                    new String[] { Integer.toString(partCount) });
+            db.setTransactionSuccessful();
+            return true;
+        } catch (SQLException sqle) {
+            Log.e(TAG, "Failed to save playing list content", sqle);
+            return false;
         } finally {
-            db.close();
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return The content SaveListContent last saved, or null if nothing has been
+     */
+    public byte[] LoadListContent()
+    {
+        SQLiteDatabase db=getReadableDatabase();
+        try {
+            ArrayList<PlayingList> recents = new ArrayList<>(1);
+            PlayingList.getAll(db, PlayingList.GEN_TABLE_NAME, recents, PlayingList.GEN_NEW);
+            if (recents.size() == 0 || recents.get(0).getListContentId() == 0) {
+                return null;
+            }
+            Cursor cursor = db.rawQuery("SELECT JSON FROM LIST_CONTENT WHERE _id = ?",
+                    new String[] { Long.toString(recents.get(0).getListContentId()) });
+            try {
+                if (cursor.moveToFirst() && cursor.getType(0) == Cursor.FIELD_TYPE_BLOB) {
+                    return cursor.getBlob(0);
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLException sqle) {
+            Log.e(TAG, "Failed to read playing list content", sqle);
         }
+        return null;
     }
 
+    /**
+     * @return The parts SaveListContent has saved, by index; empty if they can't be read.
+     * Each part is read on its own, so no one row has to hold the whole queue.
+     */
+    public Map<Integer, byte[]> LoadQueueParts()
+    {
+        HashMap<Integer, byte[]> parts = new HashMap<>();
+        SQLiteDatabase db=getReadableDatabase();
+        try {
+            Cursor cursor = db.rawQuery("SELECT PARTINDEX, DATA FROM QUEUE_PART", null);
+            try {
+                while (cursor.moveToNext()) {
+                    if (cursor.getType(1) == Cursor.FIELD_TYPE_BLOB) {
+                        parts.put(cursor.getInt(0), cursor.getBlob(1));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLException sqle) {
+            Log.e(TAG, "Failed to read playing list parts", sqle);
+            parts.clear();
+        }
+        return parts;
+    }
 }
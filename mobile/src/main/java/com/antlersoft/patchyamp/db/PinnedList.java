@@ -0,0 +1,95 @@
+// This class was generated from com.antlersoft.patchyamp.db.IPinnedList by a tool
+// Do not edit this file directly! PLX THX
+package com.antlersoft.patchyamp.db;
+
+public class PinnedList extends com.antlersoft.android.dbimpl.IdImplementationBase implements IPinnedList {
+
+    public static final String GEN_TABLE_NAME = "PINNED_LIST";
+    public static final int GEN_COUNT = 3;
+
+    // Field constants
+    public static final String GEN_FIELD__ID = "_id";
+    public static final int GEN_ID__ID = 0;
+    public static final String GEN_FIELD_MEDIAID = "MEDIAID";
+    public static final int GEN_ID_MEDIAID = 1;
+    public static final String GEN_FIELD_TITLE = "TITLE";
+    public static final int GEN_ID_TITLE = 2;
+
+    // SQL Command for creating the table
+    public static String GEN_CREATE = "CREATE TABLE PINNED_LIST (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "MEDIAID TEXT," +
+            "TITLE TEXT" +
+            ")";
+
+    // Members corresponding to defined fields
+    private long gen__Id;
+    private String gen_mediaId;
+    private String gen_title;
+
+    public static final com.antlersoft.android.dbimpl.NewInstance<PinnedList> GEN_NEW = new com.antlersoft.android.dbimpl.NewInstance<PinnedList>() {
+        public PinnedList get() {
+            return new PinnedList();
+        }
+    }
+            ;
+    @Override
+    public String Gen_tableName() { return GEN_TABLE_NAME; }
+
+    // Field accessors
+    public long get_Id() { return gen__Id; }
+    public void set_Id(long arg__Id) { gen__Id = arg__Id; }
+    public String getMediaId() { return gen_mediaId; }
+    public void setMediaId(String arg_mediaId) { gen_mediaId = arg_mediaId; }
+    public String getTitle() { return gen_title; }
+    public void setTitle(String arg_title) { gen_title = arg_title; }
+
+    public android.content.ContentValues Gen_getValues() {
+        android.content.ContentValues values=new android.content.ContentValues();
+        values.put(GEN_FIELD__ID,Long.toString(this.gen__Id));
+        values.put(GEN_FIELD_MEDIAID,this.gen_mediaId);
+        values.put(GEN_FIELD_TITLE,this.gen_title);
+        return values;
+    }
+
+    /**
+     * Return an array that gives the column index in the cursor for each field defined
+     * @param cursor Database cursor over some columns, possibly including this table
+     * @return array of column indices; -1 if the column with that id is not in cursor
+     */
+    public int[] Gen_columnIndices(android.database.Cursor cursor) {
+        int[] result=new int[GEN_COUNT];
+        result[0] = cursor.getColumnIndex(GEN_FIELD__ID);
+        // Make compatible with database generated by older version of plugin with uppercase column name
+        if (result[0] == -1) {
+            result[0] = cursor.getColumnIndex("_ID");
+        }
+        result[1] = cursor.getColumnIndex(GEN_FIELD_MEDIAID);
+        result[2] = cursor.getColumnIndex(GEN_FIELD_TITLE);
+        return result;
+    }
+
+    /**
+     * Populate one instance from a cursor
+     */
+    public void Gen_populate(android.database.Cursor cursor,int[] columnIndices) {
+        if ( columnIndices[GEN_ID__ID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID__ID])) {
+            gen__Id = cursor.getLong(columnIndices[GEN_ID__ID]);
+        }
+        if ( columnIndices[GEN_ID_MEDIAID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_MEDIAID])) {
+            gen_mediaId = cursor.getString(columnIndices[GEN_ID_MEDIAID]);
+        }
+        if ( columnIndices[GEN_ID_TITLE] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_TITLE])) {
+            gen_title = cursor.getString(columnIndices[GEN_ID_TITLE]);
+        }
+    }
+
+    /**
+     * Populate one instance from a ContentValues
+     */
+    public void Gen_populate(android.content.ContentValues values) {
+        gen__Id = values.getAsLong(GEN_FIELD__ID);
+        gen_mediaId = values.getAsString(GEN_FIELD_MEDIAID);
+        gen_title = values.getAsString(GEN_FIELD_TITLE);
+    }
+}
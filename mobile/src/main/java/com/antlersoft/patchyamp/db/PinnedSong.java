@@ -0,0 +1,203 @@
+// This class was generated from com.antlersoft.patchyamp.db.IPinnedSong by a tool
+// Do not edit this file directly! PLX THX
+package com.antlersoft.patchyamp.db;
+
+public class PinnedSong extends com.antlersoft.android.dbimpl.IdImplementationBase implements IPinnedSong {
+
+    public static final String GEN_TABLE_NAME = "PINNED_SONG";
+    public static final int GEN_COUNT = 12;
+
+    // Field constants
+    public static final String GEN_FIELD__ID = "_id";
+    public static final int GEN_ID__ID = 0;
+    public static final String GEN_FIELD_PINID = "PINID";
+    public static final int GEN_ID_PINID = 1;
+    public static final String GEN_FIELD_SONGID = "SONGID";
+    public static final int GEN_ID_SONGID = 2;
+    public static final String GEN_FIELD_CACHEKEY = "CACHEKEY";
+    public static final int GEN_ID_CACHEKEY = 3;
+    public static final String GEN_FIELD_TITLE = "TITLE";
+    public static final int GEN_ID_TITLE = 4;
+    public static final String GEN_FIELD_ARTIST = "ARTIST";
+    public static final int GEN_ID_ARTIST = 5;
+    public static final String GEN_FIELD_ALBUM = "ALBUM";
+    public static final int GEN_ID_ALBUM = 6;
+    public static final String GEN_FIELD_GENRE = "GENRE";
+    public static final int GEN_ID_GENRE = 7;
+    public static final String GEN_FIELD_URL = "URL";
+    public static final int GEN_ID_URL = 8;
+    public static final String GEN_FIELD_ART = "ART";
+    public static final int GEN_ID_ART = 9;
+    public static final String GEN_FIELD_DURATIONMS = "DURATIONMS";
+    public static final int GEN_ID_DURATIONMS = 10;
+    public static final String GEN_FIELD_TRACK = "TRACK";
+    public static final int GEN_ID_TRACK = 11;
+
+    // SQL Command for creating the table
+    public static String GEN_CREATE = "CREATE TABLE PINNED_SONG (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "PINID INTEGER," +
+            "SONGID TEXT," +
+            "CACHEKEY TEXT," +
+            "TITLE TEXT," +
+            "ARTIST TEXT," +
+            "ALBUM TEXT," +
+            "GENRE TEXT," +
+            "URL TEXT," +
+            "ART TEXT," +
+            "DURATIONMS INTEGER," +
+            "TRACK INTEGER" +
+            ")";
+
+    // Members corresponding to defined fields
+    private long gen__Id;
+    private long gen_pinId;
+    private String gen_songId;
+    private String gen_cacheKey;
+    private String gen_title;
+    private String gen_artist;
+    private String gen_album;
+    private String gen_genre;
+    private String gen_url;
+    private String gen_art;
+    private long gen_durationMs;
+    private long gen_track;
+
+    public static final com.antlersoft.android.dbimpl.NewInstance<PinnedSong> GEN_NEW = new com.antlersoft.android.dbimpl.NewInstance<PinnedSong>() {
+        public PinnedSong get() {
+            return new PinnedSong();
+        }
+    }
+            ;
+    @Override
+    public String Gen_tableName() { return GEN_TABLE_NAME; }
+
+    // Field accessors
+    public long get_Id() { return gen__Id; }
+    public void set_Id(long arg__Id) { gen__Id = arg__Id; }
+    public long getPinId() { return gen_pinId; }
+    public void setPinId(long arg_pinId) { gen_pinId = arg_pinId; }
+    public String getSongId() { return gen_songId; }
+    public void setSongId(String arg_songId) { gen_songId = arg_songId; }
+    public String getCacheKey() { return gen_cacheKey; }
+    public void setCacheKey(String arg_cacheKey) { gen_cacheKey = arg_cacheKey; }
+    public String getTitle() { return gen_title; }
+    public void setTitle(String arg_title) { gen_title = arg_title; }
+    public String getArtist() { return gen_artist; }
+    public void setArtist(String arg_artist) { gen_artist = arg_artist; }
+    public String getAlbum() { return gen_album; }
+    public void setAlbum(String arg_album) { gen_album = arg_album; }
+    public String getGenre() { return gen_genre; }
+    public void setGenre(String arg_genre) { gen_genre = arg_genre; }
+    public String getUrl() { return gen_url; }
+    public void setUrl(String arg_url) { gen_url = arg_url; }
+    public String getArt() { return gen_art; }
+    public void setArt(String arg_art) { gen_art = arg_art; }
+    public long getDurationMs() { return gen_durationMs; }
+    public void setDurationMs(long arg_durationMs) { gen_durationMs = arg_durationMs; }
+    public long getTrack() { return gen_track; }
+    public void setTrack(long arg_track) { gen_track = arg_track; }
+
+    public android.content.ContentValues Gen_getValues() {
+        android.content.ContentValues values=new android.content.ContentValues();
+        values.put(GEN_FIELD__ID,Long.toString(this.gen__Id));
+        values.put(GEN_FIELD_PINID,Long.toString(this.gen_pinId));
+        values.put(GEN_FIELD_SONGID,this.gen_songId);
+        values.put(GEN_FIELD_CACHEKEY,this.gen_cacheKey);
+        values.put(GEN_FIELD_TITLE,this.gen_title);
+        values.put(GEN_FIELD_ARTIST,this.gen_artist);
+        values.put(GEN_FIELD_ALBUM,this.gen_album);
+        values.put(GEN_FIELD_GENRE,this.gen_genre);
+        values.put(GEN_FIELD_URL,this.gen_url);
+        values.put(GEN_FIELD_ART,this.gen_art);
+        values.put(GEN_FIELD_DURATIONMS,Long.toString(this.gen_durationMs));
+        values.put(GEN_FIELD_TRACK,Long.toString(this.gen_track));
+        return values;
+    }
+
+    /**
+     * Return an array that gives the column index in the cursor for each field defined
+     * @param cursor Database cursor over some columns, possibly including this table
+     * @return array of column indices; -1 if the column with that id is not in cursor
+     */
+    public int[] Gen_columnIndices(android.database.Cursor cursor) {
+        int[] result=new int[GEN_COUNT];
+        result[0] = cursor.getColumnIndex(GEN_FIELD__ID);
+        // Make compatible with database generated by older version of plugin with uppercase column name
+        if (result[0] == -1) {
+            result[0] = cursor.getColumnIndex("_ID");
+        }
+        result[1] = cursor.getColumnIndex(GEN_FIELD_PINID);
+        result[2] = cursor.getColumnIndex(GEN_FIELD_SONGID);
+        result[3] = cursor.getColumnIndex(GEN_FIELD_CACHEKEY);
+        result[4] = cursor.getColumnIndex(GEN_FIELD_TITLE);
+        result[5] = cursor.getColumnIndex(GEN_FIELD_ARTIST);
+        result[6] = cursor.getColumnIndex(GEN_FIELD_ALBUM);
+        result[7] = cursor.getColumnIndex(GEN_FIELD_GENRE);
+        result[8] = cursor.getColumnIndex(GEN_FIELD_URL);
+        result[9] = cursor.getColumnIndex(GEN_FIELD_ART);
+        result[10] = cursor.getColumnIndex(GEN_FIELD_DURATIONMS);
+        result[11] = cursor.getColumnIndex(GEN_FIELD_TRACK);
+        return result;
+    }
+
+    /**
+     * Populate one instance from a cursor
+     */
+    public void Gen_populate(android.database.Cursor cursor,int[] columnIndices) {
+        if ( columnIndices[GEN_ID__ID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID__ID])) {
+            gen__Id = cursor.getLong(columnIndices[GEN_ID__ID]);
+        }
+        if ( columnIndices[GEN_ID_PINID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_PINID])) {
+            gen_pinId = cursor.getLong(columnIndices[GEN_ID_PINID]);
+        }
+        if ( columnIndices[GEN_ID_SONGID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_SONGID])) {
+            gen_songId = cursor.getString(columnIndices[GEN_ID_SONGID]);
+        }
+        if ( columnIndices[GEN_ID_CACHEKEY] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_CACHEKEY])) {
+            gen_cacheKey = cursor.getString(columnIndices[GEN_ID_CACHEKEY]);
+        }
+        if ( columnIndices[GEN_ID_TITLE] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_TITLE])) {
+            gen_title = cursor.getString(columnIndices[GEN_ID_TITLE]);
+        }
+        if ( columnIndices[GEN_ID_ARTIST] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_ARTIST])) {
+            gen_artist = cursor.getString(columnIndices[GEN_ID_ARTIST]);
+        }
+        if ( columnIndices[GEN_ID_ALBUM] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_ALBUM])) {
+            gen_album = cursor.getString(columnIndices[GEN_ID_ALBUM]);
+        }
+        if ( columnIndices[GEN_ID_GENRE] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_GENRE])) {
+            gen_genre = cursor.getString(columnIndices[GEN_ID_GENRE]);
+        }
+        if ( columnIndices[GEN_ID_URL] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_URL])) {
+            gen_url = cursor.getString(columnIndices[GEN_ID_URL]);
+        }
+        if ( columnIndices[GEN_ID_ART] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_ART])) {
+            gen_art = cursor.getString(columnIndices[GEN_ID_ART]);
+        }
+        if ( columnIndices[GEN_ID_DURATIONMS] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_DURATIONMS])) {
+            gen_durationMs = cursor.getLong(columnIndices[GEN_ID_DURATIONMS]);
+        }
+        if ( columnIndices[GEN_ID_TRACK] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_TRACK])) {
+            gen_track = cursor.getLong(columnIndices[GEN_ID_TRACK]);
+        }
+    }
+
+    /**
+     * Populate one instance from a ContentValues
+     */
+    public void Gen_populate(android.content.ContentValues values) {
+        gen__Id = values.getAsLong(GEN_FIELD__ID);
+        gen_pinId = values.getAsLong(GEN_FIELD_PINID);
+        gen_songId = values.getAsString(GEN_FIELD_SONGID);
+        gen_cacheKey = values.getAsString(GEN_FIELD_CACHEKEY);
+        gen_title = values.getAsString(GEN_FIELD_TITLE);
+        gen_artist = values.getAsString(GEN_FIELD_ARTIST);
+        gen_album = values.getAsString(GEN_FIELD_ALBUM);
+        gen_genre = values.getAsString(GEN_FIELD_GENRE);
+        gen_url = values.getAsString(GEN_FIELD_URL);
+        gen_art = values.getAsString(GEN_FIELD_ART);
+        gen_durationMs = values.getAsLong(GEN_FIELD_DURATIONMS);
+        gen_track = values.getAsLong(GEN_FIELD_TRACK);
+    }
+}
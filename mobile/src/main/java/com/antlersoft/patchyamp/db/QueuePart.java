@@ -0,0 +1,95 @@
+// This class was generated from com.antlersoft.patchyamp.db.IQueuePart by a tool
+// Do not edit this file directly! PLX THX
+package com.antlersoft.patchyamp.db;
+
+public class QueuePart extends com.antlersoft.android.dbimpl.IdImplementationBase implements IQueuePart {
+
+    public static final String GEN_TABLE_NAME = "QUEUE_PART";
+    public static final int GEN_COUNT = 3;
+
+    // Field constants
+    public static final String GEN_FIELD__ID = "_id";
+    public static final int GEN_ID__ID = 0;
+    public static final String GEN_FIELD_PARTINDEX = "PARTINDEX";
+    public static final int GEN_ID_PARTINDEX = 1;
+    public static final String GEN_FIELD_DATA = "DATA";
+    public static final int GEN_ID_DATA = 2;
+
+    // SQL Command for creating the table
+    public static String GEN_CREATE = "CREATE TABLE QUEUE_PART (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "PARTINDEX INTEGER," +
+            "DATA TEXT" +
+            ")";
+
+    // Members corresponding to defined fields
+    private long gen__Id;
+    private long gen_partIndex;
+    private String gen_data;
+
+    public static final com.antlersoft.android.dbimpl.NewInstance<QueuePart> GEN_NEW = new com.antlersoft.android.dbimpl.NewInstance<QueuePart>() {
+        public QueuePart get() {
+            return new QueuePart();
+        }
+    }
+            ;
+    @Override
+    public String Gen_tableName() { return GEN_TABLE_NAME; }
+
+    // Field accessors
+    public long get_Id() { return gen__Id; }
+    public void set_Id(long arg__Id) { gen__Id = arg__Id; }
+    public long getPartIndex() { return gen_partIndex; }
+    public void setPartIndex(long arg_partIndex) { gen_partIndex = arg_partIndex; }
+    public String getData() { return gen_data; }
+    public void setData(String arg_data) { gen_data = arg_data; }
+
+    public android.content.ContentValues Gen_getValues() {
+        android.content.ContentValues values=new android.content.ContentValues();
+        values.put(GEN_FIELD__ID,Long.toString(this.gen__Id));
+        values.put(GEN_FIELD_PARTINDEX,Long.toString(this.gen_partIndex));
+        values.put(GEN_FIELD_DATA,this.gen_data);
+        return values;
+    }
+
+    /**
+     * Return an array that gives the column index in the cursor for each field defined
+     * @param cursor Database cursor over some columns, possibly including this table
+     * @return array of column indices; -1 if the column with that id is not in cursor
+     */
+    public int[] Gen_columnIndices(android.database.Cursor cursor) {
+        int[] result=new int[GEN_COUNT];
+        result[0] = cursor.getColumnIndex(GEN_FIELD__ID);
+        // Make compatible with database generated by older version of plugin with uppercase column name
+        if (result[0] == -1) {
+            result[0] = cursor.getColumnIndex("_ID");
+        }
+        result[1] = cursor.getColumnIndex(GEN_FIELD_PARTINDEX);
+        result[2] = cursor.getColumnIndex(GEN_FIELD_DATA);
+        return result;
+    }
+
+    /**
+     * Populate one instance from a cursor
+     */
+    public void Gen_populate(android.database.Cursor cursor,int[] columnIndices) {
+        if ( columnIndices[GEN_ID__ID] >= 0 && ! cursor.isNull(columnIndices[GEN_ID__ID])) {
+            gen__Id = cursor.getLong(columnIndices[GEN_ID__ID]);
+        }
+        if ( columnIndices[GEN_ID_PARTINDEX] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_PARTINDEX])) {
+            gen_partIndex = cursor.getLong(columnIndices[GEN_ID_PARTINDEX]);
+        }
+        if ( columnIndices[GEN_ID_DATA] >= 0 && ! cursor.isNull(columnIndices[GEN_ID_DATA])) {
+            gen_data = cursor.getString(columnIndices[GEN_ID_DATA]);
+        }
+    }
+
+    /**
+     * Populate one instance from a ContentValues
+     */
+    public void Gen_populate(android.content.ContentValues values) {
+        gen__Id = values.getAsLong(GEN_FIELD__ID);
+        gen_partIndex = values.getAsLong(GEN_FIELD_PARTINDEX);
+        gen_data = values.getAsString(GEN_FIELD_DATA);
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp.exec;
+
+/**
+ * Kinds of background work, each run on its own threads so that slow work of one kind
+ * can't hold up another
+ */
+public enum Lane {
+    /** Work the user is waiting on for what to play next, like login and song lookup */
+    PLAYBACK(2),
+    /** Work the user is waiting to see, like browse lists */
+    BROWSE(4),
+    /** Work nobody is waiting on yet, like album art and look-ahead */
+    PREFETCH(2),
+    /**
+     * Writes of what is kept on the device, like the saved queue and playback metrics; never
+     * network work, so a slow server can't hold them up. One at a time, as they go to the
+     * same database and files.
+     */
+    STORE(1);
+
+    private final int mConcurrency;
+
+    Lane(int concurrency) {
+        mConcurrency = concurrency;
+    }
+
+    /**
+     * @return Maximum number of tasks in this lane that run at once
+     */
+    public int getConcurrency() {
+        return mConcurrency;
+    }
+}
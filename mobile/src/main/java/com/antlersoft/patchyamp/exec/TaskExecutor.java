@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.antlersoft.patchyamp.exec;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.EnumMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs background work in lanes (see {@link Lane}), each with its own threads and
+ * concurrency limit. Within a lane, waiting tasks run highest priority first, and in
+ * submission order for equal priority. A task can be cancelled until its continuation
+ * has run on the UI thread.
+ */
+public final class TaskExecutor {
+    private static final long IDLE_THREAD_SECONDS = 30;
+
+    public static final int PRIORITY_LOW = -10;
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 10;
+
+    private static final TaskExecutor sInstance = new TaskExecutor();
+
+    private final EnumMap<Lane, ThreadPoolExecutor> mLanes = new EnumMap<>(Lane.class);
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * Returned from submit so the task can be cancelled
+     */
+    public interface TaskHandle {
+        /**
+         * Keep the task from running if it hasn't started, interrupt it if it is running,
+         * and keep its UI thread continuation from running
+         */
+        void cancel();
+        boolean isCancelled();
+    }
+
+    public static TaskExecutor getInstance() {
+        return sInstance;
+    }
+
+    private TaskExecutor() {
+        for (Lane lane : Lane.values()) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(lane.getConcurrency(), lane.getConcurrency(),
+                    IDLE_THREAD_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<>(), new LaneThreadFactory(lane));
+            executor.allowCoreThreadTimeOut(true);
+            mLanes.put(lane, executor);
+        }
+    }
+
+    /**
+     * Run work in the background
+     * @param lane Lane to run the work in
+     * @param priority Relative priority within the lane, like PRIORITY_NORMAL
+     * @param inBackground Runs on a lane thread
+     * @param continueOnUiThread If not null, runs on the UI thread after inBackground
+     * unless the task was cancelled
+     * @return Handle for cancelling the task
+     */
+    public TaskHandle submit(Lane lane, int priority, Runnable inBackground, Runnable continueOnUiThread) {
+        Task task = new Task(lane, priority, mSequence.getAndIncrement(), inBackground, continueOnUiThread);
+        mLanes.get(lane).execute(task);
+        return task;
+    }
+
+    private class Task implements Runnable, Comparable<Task>, TaskHandle {
+        private final Lane mLane;
+        private final int mPriority;
+        private final long mSequence;
+        private final Runnable mInBackground;
+        private final Runnable mContinueOnUiThread;
+        private volatile boolean mCancelled;
+        // Thread running the task, guarded by this
+        private Thread mRunner;
+
+        Task(Lane lane, int priority, long sequence, Runnable inBackground, Runnable continueOnUiThread) {
+            mLane = lane;
+            mPriority = priority;
+            mSequence = sequence;
+            mInBackground = inBackground;
+            mContinueOnUiThread = continueOnUiThread;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                mRunner = Thread.currentThread();
+            }
+            // An exception thrown by the work is a bug, so it isn't caught; it ends the process
+            // as it would have from an AsyncTask
+            try {
+                mInBackground.run();
+            } finally {
+                synchronized (this) {
+                    mRunner = null;
+                    // Don't leave an interrupt from cancel behind for the next task on this thread
+                    Thread.interrupted();
+                }
+            }
+            if (mContinueOnUiThread != null && ! mCancelled) {
+                mMainHandler.post(() -> {
+                    if (! mCancelled) {
+                        mContinueOnUiThread.run();
+                    }
+                });
+            }
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                if (mCancelled) {
+                    return;
+                }
+                mCancelled = true;
+                if (mRunner != null) {
+                    mRunner.interrupt();
+                }
+            }
+            mLanes.get(mLane).remove(this);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (mPriority != other.mPriority) {
+                return mPriority > other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    private static class LaneThreadFactory implements ThreadFactory {
+        private final Lane mLane;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        LaneThreadFactory(Lane lane) {
+            mLane = lane;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "patchy-" + mLane.name().toLowerCase() + "-" + mCount.incrementAndGet());
+            // Keep background work from competing with the UI and audio threads
+            thread.setPriority(mLane == Lane.PLAYBACK ? Thread.NORM_PRIORITY : Thread.NORM_PRIORITY - 1);
+            return thread;
+        }
+    }
+}
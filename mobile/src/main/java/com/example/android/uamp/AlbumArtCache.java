@@ -17,9 +17,11 @@
 package com.example.android.uamp;
 
 import android.graphics.Bitmap;
-import android.os.AsyncTask;
 import android.util.LruCache;
 
+import com.antlersoft.patchyamp.AsyncRunner;
+import com.antlersoft.patchyamp.exec.Lane;
+import com.antlersoft.patchyamp.exec.TaskExecutor;
 import com.example.android.uamp.utils.BitmapHelper;
 import com.example.android.uamp.utils.LogHelper;
 
@@ -77,7 +79,11 @@ public final class AlbumArtCache {
         return result == null ? null : result[ICON_BITMAP_INDEX];
     }
 
-    public void fetch(final String artUrl, final FetchListener listener) {
+    /**
+     * Get the art from the cache, or fetch it in the background
+     * @return Handle for cancelling the fetch, or null if the art was in the cache
+     */
+    public TaskExecutor.TaskHandle fetch(final String artUrl, final FetchListener listener) {
         // WARNING: for the sake of simplicity, simultaneous multi-thread fetch requests
         // are not handled properly: they may cause redundant costly operations, like HTTP
         // requests and bitmap rescales. For production-level apps, we recommend you use
@@ -86,42 +92,38 @@ public final class AlbumArtCache {
         if (bitmap != null) {
             LogHelper.d(TAG, "getOrFetch: album art is in cache, using it", artUrl);
             listener.onFetched(artUrl, bitmap[BIG_BITMAP_INDEX], bitmap[ICON_BITMAP_INDEX]);
-            return;
+            return null;
         }
-        LogHelper.d(TAG, "getOrFetch: starting asynctask to fetch ", artUrl);
-
-        new AsyncTask<Void, Void, Bitmap[]>() {
-            @Override
-            protected Bitmap[] doInBackground(Void[] objects) {
-                Bitmap[] bitmaps;
-                try {
-                    Bitmap bitmap = BitmapHelper.fetchAndRescaleBitmap(artUrl,
-                        MAX_ART_WIDTH, MAX_ART_HEIGHT);
-                    if (bitmap == null) {
-                        return null;
-                    }
-                    Bitmap icon = BitmapHelper.scaleBitmap(bitmap,
-                        MAX_ART_WIDTH_ICON, MAX_ART_HEIGHT_ICON);
-                    bitmaps = new Bitmap[] {bitmap, icon};
-                    mCache.put(artUrl, bitmaps);
-                } catch (IOException e) {
-                    return null;
+        LogHelper.d(TAG, "getOrFetch: starting task to fetch ", artUrl);
+
+        final Bitmap[][] result = new Bitmap[1][];
+        // Art goes in its own lane so a slow download doesn't hold up browsing
+        return AsyncRunner.RunAsync(Lane.PREFETCH, TaskExecutor.PRIORITY_NORMAL, () -> {
+            try {
+                Bitmap bitmap = BitmapHelper.fetchAndRescaleBitmap(artUrl,
+                    MAX_ART_WIDTH, MAX_ART_HEIGHT);
+                if (bitmap == null) {
+                    return;
                 }
-                LogHelper.d(TAG, "doInBackground: putting bitmap in cache. cache size=" +
-                    mCache.size());
-                return bitmaps;
+                Bitmap icon = BitmapHelper.scaleBitmap(bitmap,
+                    MAX_ART_WIDTH_ICON, MAX_ART_HEIGHT_ICON);
+                Bitmap[] bitmaps = new Bitmap[] {bitmap, icon};
+                mCache.put(artUrl, bitmaps);
+                result[0] = bitmaps;
+            } catch (IOException e) {
+                return;
             }
-
-            @Override
-            protected void onPostExecute(Bitmap[] bitmaps) {
-                if (bitmaps == null) {
-                    listener.onError(artUrl, new IllegalArgumentException("got null bitmaps"));
-                } else {
-                    listener.onFetched(artUrl,
-                        bitmaps[BIG_BITMAP_INDEX], bitmaps[ICON_BITMAP_INDEX]);
-                }
+            LogHelper.d(TAG, "doInBackground: putting bitmap in cache. cache size=" +
+                mCache.size());
+        }, () -> {
+            Bitmap[] bitmaps = result[0];
+            if (bitmaps == null) {
+                listener.onError(artUrl, new IllegalArgumentException("got null bitmaps"));
+            } else {
+                listener.onFetched(artUrl,
+                    bitmaps[BIG_BITMAP_INDEX], bitmaps[ICON_BITMAP_INDEX]);
             }
-        }.execute();
+        });
     }
 
     public static abstract class FetchListener {
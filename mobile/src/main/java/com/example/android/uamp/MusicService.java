@@ -39,6 +39,7 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.net.ConnectivityManager;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
@@ -55,7 +56,11 @@ import android.support.v7.media.MediaRouter;
 import android.util.Log;
 
 import com.antlersoft.patchyamp.AmpacheSource;
+import com.antlersoft.patchyamp.BitratePolicy;
 import com.antlersoft.patchyamp.R;
+import com.antlersoft.patchyamp.SavedQueue;
+import com.antlersoft.patchyamp.cache.CachingProxy;
+import com.antlersoft.patchyamp.cache.PinnedDownloads;
 
 import com.antlersoft.patchyamp.db.PatchyDatabase;
 import com.example.android.uamp.model.MusicProvider;
@@ -66,6 +71,7 @@ import com.example.android.uamp.playback.LocalPlayback;
 import com.example.android.uamp.playback.Playback;
 import com.example.android.uamp.playback.PlaybackManager;
 import com.example.android.uamp.playback.QueueManager;
+import com.example.android.uamp.playback.QueuePrefetcher;
 import com.example.android.uamp.ui.NowPlayingActivity;
 import com.example.android.uamp.utils.CarHelper;
 import com.example.android.uamp.utils.LogHelper;
@@ -165,6 +171,7 @@ public class MusicService extends MediaBrowserServiceCompat implements
     private MusicProvider mMusicProvider;
     private PlaybackManager mPlaybackManager;
     private PatchyDatabase mDatabase;
+    private PinnedDownloads mPinnedDownloads;
 
     private MediaSessionCompat mSession;
     private MediaNotificationManager mMediaNotificationManager;
@@ -173,11 +180,13 @@ public class MusicService extends MediaBrowserServiceCompat implements
     private MediaRouter mMediaRouter;
     private PackageValidator mPackageValidator;
     private QueueManager mQueueManager;
+    private QueuePrefetcher mPrefetcher;
     private SessionManager mCastSessionManager;
     private SessionManagerListener<CastSession> mCastSessionManagerListener;
 
     private boolean mIsConnectedToCar;
     private BroadcastReceiver mCarConnectionReceiver;
+    private BroadcastReceiver mNetworkReceiver;
 
     private boolean mIsStickyService;
 
@@ -191,7 +200,7 @@ public class MusicService extends MediaBrowserServiceCompat implements
         LogHelper.d(TAG, "onCreate");
         mDatabase = PatchyDatabase.getInstance(getApplicationContext());
 
-        mMusicProvider = MusicProvider.getInstance(mDatabase, new AmpacheSource(getApplicationContext()), (message, throwable) -> {
+        mMusicProvider = MusicProvider.getInstance(mDatabase, new AmpacheSource(getApplicationContext(), mDatabase), (message, throwable) -> {
             if (mSession == null) {
                 LogHelper.e(TAG, "Can't send to session this message: "+message);
             }
@@ -233,13 +242,25 @@ public class MusicService extends MediaBrowserServiceCompat implements
                                                List<MediaSessionCompat.QueueItem> newQueue) {
                         mSession.setQueue(newQueue);
                         mSession.setQueueTitle(title);
+                        if (mPlaybackManager != null) {
+                            mPlaybackManager.updateNextItem();
+                        }
                     }
                 });
 
+        mPrefetcher = new QueuePrefetcher(mMusicProvider, CachingProxy.getInstance(this));
+        mQueueManager.setPrefetcher(mPrefetcher);
+        mQueueManager.setSavedQueue(new SavedQueue(mDatabase, mMusicProvider));
+
         LocalPlayback playback = new LocalPlayback(this, mMusicProvider);
         mPlaybackManager = new PlaybackManager(this, getResources(), mMusicProvider, mQueueManager,
                 playback);
 
+        mPinnedDownloads = PinnedDownloads.getInstance(this);
+        mMusicProvider.setPinnedDownloads(mPinnedDownloads);
+        mPlaybackManager.setPinnedDownloads(mPinnedDownloads);
+        mPinnedDownloads.start(mMusicProvider);
+
         // Start a new MediaSession
         mSession = new MediaSessionCompat(this, "MusicService");
         setSessionToken(mSession.getSessionToken());
@@ -260,6 +281,7 @@ public class MusicService extends MediaBrowserServiceCompat implements
         mSession.setExtras(mSessionExtras);
 
         mPlaybackManager.updatePlaybackState(null);
+        mPlaybackManager.restoreQueue();
 
         try {
             mMediaNotificationManager = new MediaNotificationManager(this);
@@ -277,6 +299,7 @@ public class MusicService extends MediaBrowserServiceCompat implements
         mMediaRouter = MediaRouter.getInstance(getApplicationContext());
 
         registerCarConnectionReceiver();
+        registerNetworkReceiver();
     }
 
     /**
@@ -315,9 +338,11 @@ public class MusicService extends MediaBrowserServiceCompat implements
     public void onDestroy() {
         LogHelper.d(TAG, "onDestroy");
         unregisterCarConnectionReceiver();
+        unregisterReceiver(mNetworkReceiver);
         // Service is being killed, so make sure we release our resources
         mPlaybackManager.handleStopRequest(null);
         mMediaNotificationManager.stopNotification();
+        mPinnedDownloads.stop();
 
         if (mCastSessionManager != null) {
             mCastSessionManager.removeSessionManagerListener(mCastSessionManagerListener,
@@ -503,6 +528,27 @@ public class MusicService extends MediaBrowserServiceCompat implements
         unregisterReceiver(mCarConnectionReceiver);
     }
 
+    /**
+     * Prepare less of the queue ahead of time on a metered network, and download songs in
+     * bursts only on an unmetered one; change back when the network does
+     */
+    private void registerNetworkReceiver() {
+        mNetworkReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                updateForNetwork();
+            }
+        };
+        // Also delivers the current state straight away
+        registerReceiver(mNetworkReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    private void updateForNetwork() {
+        boolean metered = BitratePolicy.getInstance(this).getNetworkClass() == BitratePolicy.NetworkClass.CELLULAR;
+        mPrefetcher.setLookAhead(metered ? QueuePrefetcher.METERED_LOOK_AHEAD : QueuePrefetcher.DEFAULT_LOOK_AHEAD);
+        CachingProxy.getInstance(this).setBurstMode(! metered);
+    }
+
     private boolean isPlayingBack() {
         return mPlaybackManager!=null && mPlaybackManager.getPlayback() != null && mPlaybackManager.getPlayback().isPlaying();
     }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.model;
+
+import android.os.SystemClock;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Song lists recently read by MusicProvider, keyed by category and id, so going back to
+ * a list doesn't fetch it again.
+ *
+ * Bounded by number of lists and by an estimate of the memory they use; the least
+ * recently used lists are dropped first. Lists older than their time to live are dropped
+ * when next asked for, so changes on the server eventually show up.
+ */
+class BrowseCache {
+    static final int MAX_ENTRIES = 24;
+    static final long MAX_BYTES = 4L * 1024 * 1024;
+    static final long TIME_TO_LIVE_MS = 30L * 60 * 1000;
+
+    // Rough cost of the MutableMediaMetadata holding each record and its list slot
+    private static final int HOLDER_OVERHEAD_BYTES = 32;
+
+    static class Entry {
+        final String title;
+        final List<MutableMediaMetadata> songs;
+        private final long mExpires;
+        private final long mBytes;
+
+        private Entry(String title, List<MutableMediaMetadata> songs, long bytes, long expires) {
+            this.title = title;
+            this.songs = songs;
+            mBytes = bytes;
+            mExpires = expires;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<>(MAX_ENTRIES, 0.75f, true);
+    private final int mMaxEntries;
+    private final long mMaxBytes;
+    private final long mTimeToLive;
+    private long mBytes;
+
+    BrowseCache() {
+        this(MAX_ENTRIES, MAX_BYTES, TIME_TO_LIVE_MS);
+    }
+
+    BrowseCache(int maxEntries, long maxBytes, long timeToLive) {
+        mMaxEntries = maxEntries;
+        mMaxBytes = maxBytes;
+        mTimeToLive = timeToLive;
+    }
+
+    private static String key(String category, String value) {
+        return category + '\n' + value;
+    }
+
+    /**
+     * @return The cached list for category and value, or null if it isn't cached or
+     * has expired
+     */
+    synchronized Entry get(String category, String value) {
+        String key = key(category, value);
+        Entry entry = mEntries.get(key);
+        if (entry != null && SystemClock.elapsedRealtime() > entry.mExpires) {
+            remove(key);
+            entry = null;
+        }
+        return entry;
+    }
+
+    /**
+     * Cache a list, replacing any list for the same category and value. The list must
+     * not be changed afterwards.
+     */
+    synchronized void put(String category, String value, String title, List<MutableMediaMetadata> songs) {
+        String key = key(category, value);
+        remove(key);
+        Entry entry = new Entry(title, songs, estimateBytes(songs), SystemClock.elapsedRealtime() + mTimeToLive);
+        if (entry.mBytes > mMaxBytes) {
+            return;
+        }
+        mEntries.put(key, entry);
+        mBytes += entry.mBytes;
+        trim();
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    private void remove(String key) {
+        Entry entry = mEntries.remove(key);
+        if (entry != null) {
+            mBytes -= entry.mBytes;
+        }
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while ((mEntries.size() > mMaxEntries || mBytes > mMaxBytes) && it.hasNext()) {
+            mBytes -= it.next().getValue().mBytes;
+            it.remove();
+        }
+    }
+
+    private static long estimateBytes(List<MutableMediaMetadata> songs) {
+        long bytes = 0;
+        for (MutableMediaMetadata song : songs) {
+            bytes += HOLDER_OVERHEAD_BYTES + song.record.estimateBytes();
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.model;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Every song MusicProvider has recently seen, by music id, whatever list it came from, so
+ * a queue item from an earlier list doesn't need a trip to the server.
+ *
+ * Holds at most a fixed number of songs, dropping the least recently used. Since lists are
+ * added in queue order, the songs dropped first from a long queue are the ones already played.
+ */
+class MusicIndex {
+    static final int MAX_SONGS = 10000;
+
+    private final LinkedHashMap<String, MutableMediaMetadata> mById;
+
+    MusicIndex() {
+        this(MAX_SONGS);
+    }
+
+    MusicIndex(final int maxSongs) {
+        mById = new LinkedHashMap<String, MutableMediaMetadata>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, MutableMediaMetadata> eldest) {
+                return size() > maxSongs;
+            }
+        };
+    }
+
+    synchronized MutableMediaMetadata get(String musicId) {
+        return mById.get(musicId);
+    }
+
+    synchronized void put(MutableMediaMetadata mutable) {
+        mById.put(mutable.trackId, mutable);
+    }
+
+    synchronized void clear() {
+        mById.clear();
+    }
+}
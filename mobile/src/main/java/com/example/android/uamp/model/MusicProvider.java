@@ -45,25 +45,24 @@ import android.support.v4.media.MediaDescriptionCompat;
 import android.support.v4.media.MediaMetadataCompat;
 
 import com.antlersoft.patchyamp.R;
+import com.antlersoft.patchyamp.cache.PinnedDownloads;
 import com.antlersoft.patchyamp.db.PatchyDatabase;
 import com.example.android.uamp.playback.QueueManager;
 import com.example.android.uamp.utils.LogHelper;
 import com.example.android.uamp.utils.MediaIDHelper;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
 
 import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_ALBUMS;
 import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_ARTISTS;
 import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_ARTIST_SONGS;
 import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_MUSICS_BY_GENRE;
-import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_MUSICS_BY_SEARCH;
 import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_PLAYLISTS;
 import static com.example.android.uamp.utils.MediaIDHelper.MEDIA_ID_ROOT;
 import static com.example.android.uamp.utils.MediaIDHelper.createMediaID;
@@ -80,11 +79,15 @@ public class MusicProvider {
 
     private static final String TAG = LogHelper.makeLogTag(MusicProvider.class);
 
-    private final ConcurrentMap<String, MutableMediaMetadata> mMusicById;
-    private List<MutableMediaMetadata> mLastRead;
+    // Songs from every list read recently; not just the current one
+    private final MusicIndex mMusicById = new MusicIndex();
+    // Song whose metadata holds album art bitmaps, and its metadata without them
+    private MutableMediaMetadata mWithArt;
+    private MediaMetadataCompat mWithoutArt;
+    private final BrowseCache mBrowseCache = new BrowseCache();
+    // Category and value of the list most recently read or returned
     private String mLastCategory;
     private String mLastCategoryValue;
-    private String mLastTitle;
 
     private PatchyDatabase mDatabase;
 
@@ -92,6 +95,8 @@ public class MusicProvider {
 
     private MusicProviderSource.ErrorCallback mErrorCallback;
 
+    private volatile PinnedDownloads mPinned;
+
     private static MusicProvider mInstance;
 
     public static MusicProvider getInstance(PatchyDatabase db, MusicProviderSource source, MusicProviderSource.ErrorCallback errorCallback) {
@@ -104,20 +109,26 @@ public class MusicProvider {
         return mInstance;
     }
 
-    private MusicProvider(PatchyDatabase db, MusicProviderSource source, MusicProviderSource.ErrorCallback errorCallback) {
+    /**
+     * The service shares one provider through getInstance; a provider of its own is for
+     * another source, like a test's
+     */
+    public MusicProvider(PatchyDatabase db, MusicProviderSource source, MusicProviderSource.ErrorCallback errorCallback) {
         mDatabase = db;
         mSource = source;
         mErrorCallback = errorCallback;
 
-        mMusicById = new ConcurrentHashMap<>();
         clearCache();
     }
 
     private synchronized void clearCache() {
         mLastCategory = "NOT A CATEGORY";
         mLastCategoryValue="";
-        mLastTitle="";
-        mLastRead = new ArrayList<>();
+        mBrowseCache.clear();
+        // Ids may belong to a different server after login
+        mMusicById.clear();
+        mWithArt = null;
+        mWithoutArt = null;
     }
 
     public void requestLogin(Bundle extras) {
@@ -135,7 +146,7 @@ public class MusicProvider {
      *
      */
     public void searchMusicBySongTitle(String query, MusicProviderSource.MediaFetchResult result) {
-        mSource.GetSearchSongs(query, result);
+        mSource.GetSearchSongs(query, (title, items) -> result.setResult(title, new MetadataIterator(items)));
     }
 
     /**
@@ -154,21 +165,56 @@ public class MusicProvider {
     public void searchMusicByArtist(String query, MusicProviderSource.MediaFetchResult result) {
     }
 
-    public void getShuffledMusic(MusicProviderSource.MediaFetchResult result) {
-        mSource.getDefaultSongs((title, it) -> {
-            List<MediaMetadataCompat> songs = readSongsFromIterator(title, it, MEDIA_ID_MUSICS_BY_SEARCH, "random");
-            Collections.shuffle(songs);
-            result.setResult(title, songs.iterator());
+    /**
+     * Fetch all songs a page at a time. Each page is shuffled as it arrives, so the first page
+     * can start playing before the rest of the library has been retrieved. The songs are kept
+     * only in the index, as for random music.
+     */
+    public void getShuffledMusic(MusicProviderSource.MediaPageResult result) {
+        mSource.getDefaultSongs(new MusicProviderSource.SongPageResult() {
+            @Override
+            public void setResult(String title, Iterator<SongRecord> items) {
+                List<MutableMediaMetadata> songs = addSongsFromIterator(items);
+                Collections.shuffle(songs);
+                result.setResult(title, metadataIterator(songs));
+            }
+
+            @Override
+            public boolean addPage(Iterator<SongRecord> items, boolean lastPage) {
+                List<MutableMediaMetadata> songs = addSongsFromIterator(items);
+                Collections.shuffle(songs);
+                return result.addPage(metadataIterator(songs), lastPage);
+            }
         });
     }
 
+    /**
+     * Fetch count songs picked at random from the whole library. Only these songs are read,
+     * so asking for more as a random queue plays takes the same memory however big the
+     * library is.
+     */
+    public void getRandomMusic(int count, MusicProviderSource.MediaFetchResult result) {
+        mSource.getRandomSongs(count, (title, items) ->
+                result.setResult(title, metadataIterator(addSongsFromIterator(items))));
+    }
+
     public synchronized void updateMusicArt(String musicId, Bitmap albumArt, Bitmap icon) {
 
         MutableMediaMetadata mutable = mMusicById.get(musicId);
         if (mutable == null) {
             return;
         }
-        MediaMetadataCompat metadata = new MediaMetadataCompat.Builder(mutable.metadata)
+        // The index holds many songs for a long time, so only keep bitmaps for the latest
+        // one; AlbumArtCache has them if they are wanted again
+        if (mWithArt != mutable) {
+            if (mWithArt != null) {
+                // Null if the metadata was being built from the record
+                mWithArt.setMetadata(mWithoutArt);
+            }
+            mWithArt = mutable;
+            mWithoutArt = mutable.hasMetadata() ? mutable.getMetadata() : null;
+        }
+        MediaMetadataCompat metadata = new MediaMetadataCompat.Builder(mutable.getMetadata())
 
                     // set high resolution bitmap in METADATA_KEY_ALBUM_ART. This is used, for
                     // example, on the lockscreen background when the media session is active.
@@ -180,23 +226,88 @@ public class MusicProvider {
                     .putBitmap(MediaMetadataCompat.METADATA_KEY_DISPLAY_ICON, icon)
 
                     .build();
-        mutable.metadata = metadata;
+        mutable.setMetadata(metadata);
     }
 
     public void getMusic(String id, MusicProviderSource.ItemResult result) {
         MutableMediaMetadata mutable = mMusicById.get(id);
         if (mutable != null) {
-            result.setResult(mutable.metadata);
+            result.setResult(mutable.getMetadata());
         } else {
-            mSource.GetSong(id, (metadata)->{
-                if (metadata != null) {
-                    mMusicById.put(id, new MutableMediaMetadata(id, metadata));
+            mSource.GetSong(id, (record)->{
+                PinnedDownloads pinned = mPinned;
+                if (record == null && pinned != null) {
+                    // Without the server, a pinned song is still known
+                    pinned.getPinnedSong(id, (song) -> {
+                        if (song == null) {
+                            result.setResult(null);
+                            return;
+                        }
+                        MutableMediaMetadata read = new MutableMediaMetadata(song);
+                        mMusicById.put(read);
+                        result.setResult(read.getMetadata());
+                    });
+                    return;
                 }
-                result.setResult(metadata);
+                if (record == null) {
+                    result.setResult(null);
+                    return;
+                }
+                MutableMediaMetadata read = new MutableMediaMetadata(record);
+                mMusicById.put(read);
+                result.setResult(read.getMetadata());
             });
         }
     }
 
+    /**
+     * @return The song with musicId if it has been read recently, without going to the server;
+     * otherwise null
+     */
+    public SongRecord getRecentSong(String musicId) {
+        MutableMediaMetadata mutable = mMusicById.get(musicId);
+        return mutable == null ? null : mutable.record;
+    }
+
+    /**
+     * Remember songs saved earlier, such as those in a queue restored after a restart, so
+     * getMusic finds them without going to the server
+     */
+    public void putRecentSongs(List<SongRecord> songs) {
+        for (SongRecord song : songs) {
+            if (mMusicById.get(song.id) == null) {
+                mMusicById.put(new MutableMediaMetadata(song));
+            }
+        }
+    }
+
+    /**
+     * @return Url to play track from; the session it was read in may have been renewed since
+     */
+    public String getTrackSource(MediaMetadataCompat track) {
+        return mSource.withCurrentSession(track.getString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE));
+    }
+
+    public void setPinnedDownloads(PinnedDownloads pinned) {
+        mPinned = pinned;
+    }
+
+    /**
+     * @return Path of the file for track if it is pinned for offline use, otherwise the url to
+     * play it from
+     */
+    public String getLocalTrackSource(MediaMetadataCompat track) {
+        String source = getTrackSource(track);
+        PinnedDownloads pinned = mPinned;
+        if (pinned != null) {
+            File file = pinned.getPinnedFile(track.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID), source);
+            if (file != null) {
+                return file.getAbsolutePath();
+            }
+        }
+        return source;
+    }
+
     public void getMusic(String id, final ResultWrapper<MediaBrowserCompat.MediaItem> result) {
         getMusic(id, new MusicProviderSource.ItemResult() {
             @Override
@@ -206,60 +317,152 @@ public class MusicProvider {
         });
     }
 
-    private synchronized boolean returnExisting(String category, String value, MusicProviderSource.MediaFetchResult result) {
-        if (mLastCategory.equals(category) && mLastCategoryValue.equals(value)) {
-            final List<MutableMediaMetadata> lastRead = mLastRead;
-            final Iterator<MutableMediaMetadata> lastIt = lastRead.iterator();
-            Iterator<MediaMetadataCompat> it = new Iterator<MediaMetadataCompat>() {
-                @Override
-                public boolean hasNext() {
-                    return lastIt.hasNext();
-                }
-
-                @Override
-                public MediaMetadataCompat next() {
-                    return lastIt.next().metadata;
-                }
+    /**
+     * @return result, or if there are pins, a result that gives the songs kept with the pin
+     * of a playlist or album when the source has none, as when the server can't be reached
+     */
+    private MusicProviderSource.SongFetchResult orPinned(String category, String id, MusicProviderSource.SongFetchResult result) {
+        PinnedDownloads pinned = mPinned;
+        if (pinned == null) {
+            return result;
+        }
+        return (title, songs) -> {
+            if (songs.hasNext()) {
+                result.setResult(title, songs);
+            } else {
+                pinned.getPinnedSongs(createMediaID(null, category, id), result);
+            }
+        };
+    }
 
-                @Override
-                public void remove() {
+    /**
+     * @return result, or if there are pins, a result that lists the pinned playlists or
+     * albums when the source lists none
+     */
+    private MusicProviderSource.MediaFetchResult orPinnedLists(String category, MusicProviderSource.MediaFetchResult result) {
+        PinnedDownloads pinned = mPinned;
+        if (pinned == null) {
+            return result;
+        }
+        return (title, items) -> {
+            if (items.hasNext()) {
+                result.setResult(title, items);
+            } else {
+                pinned.getPinnedLists(category, result);
+            }
+        };
+    }
 
+    private synchronized boolean returnExisting(String category, String value, MusicProviderSource.MediaFetchResult result) {
+        BrowseCache.Entry entry = mBrowseCache.get(category, value);
+        if (entry != null) {
+            if (! (mLastCategory.equals(category) && mLastCategoryValue.equals(value))) {
+                // Going back to a list read earlier
+                mDatabase.UpdateIndex(-1);
+                mLastCategory = category;
+                mLastCategoryValue = value;
+                for (MutableMediaMetadata mutable : entry.songs) {
+                    mMusicById.put(mutable);
                 }
-            };
-            result.setResult(mLastTitle, it);
+            }
+            result.setResult(entry.title, metadataIterator(entry.songs));
             return true;
         }
         mDatabase.UpdateIndex(-1);
         return false;
     }
 
-    private synchronized List<MediaMetadataCompat> readSongsFromIterator(String title, Iterator<MediaMetadataCompat> it, String category, String categoryValue) {
-        ArrayList<MediaMetadataCompat> result = new ArrayList<>();
+    private synchronized List<MutableMediaMetadata> readSongsFromIterator(String title, Iterator<SongRecord> it, String category, String categoryValue) {
+        ArrayList<MutableMediaMetadata> read = new ArrayList<>();
         if (! it.hasNext()) {
-            return result;
+            return read;
         }
         mLastCategoryValue = categoryValue;
         mLastCategory = category;
-        mLastTitle = title;
-        mMusicById.clear();
-        mLastRead.clear();
         while (it.hasNext()) {
-            MediaMetadataCompat s = it.next();
-            result.add(s);
-            String musicId = s.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
-            MutableMediaMetadata mutable = new MutableMediaMetadata(musicId, s);
-            mLastRead.add(mutable);
-            mMusicById.put(musicId, mutable);
+            MutableMediaMetadata mutable = new MutableMediaMetadata(it.next());
+            read.add(mutable);
+            mMusicById.put(mutable);
+        }
+        mBrowseCache.put(category, categoryValue, title, read);
+        return read;
+    }
+
+    /**
+     * Read songs that aren't a list to browse back to, keeping them only in the index
+     */
+    private synchronized List<MutableMediaMetadata> addSongsFromIterator(Iterator<SongRecord> it) {
+        ArrayList<MutableMediaMetadata> result = new ArrayList<>();
+        while (it.hasNext()) {
+            MutableMediaMetadata mutable = new MutableMediaMetadata(it.next());
+            result.add(mutable);
+            mMusicById.put(mutable);
         }
         return result;
     }
 
+    private static SongIterator metadataIterator(List<MutableMediaMetadata> songs) {
+        final Iterator<MutableMediaMetadata> it = songs.iterator();
+        return new SongIterator() {
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public MediaMetadataCompat next() {
+                return it.next().getMetadata();
+            }
+
+            @Override
+            public SongRecord nextSong() {
+                return it.next().record;
+            }
+
+            @Override
+            public void remove() {
+
+            }
+        };
+    }
+
+    /**
+     * Metadata for songs that aren't being kept, built as each is asked for
+     */
+    private static class MetadataIterator implements SongIterator {
+        private final Iterator<SongRecord> mRecords;
+
+        MetadataIterator(Iterator<SongRecord> records) {
+            mRecords = records;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mRecords.hasNext();
+        }
+
+        @Override
+        public MediaMetadataCompat next() {
+            return mRecords.next().toMetadata();
+        }
+
+        @Override
+        public SongRecord nextSong() {
+            return mRecords.next();
+        }
+
+        @Override
+        public void remove() {
+
+        }
+    }
+
     public void getMusicByGenre(String genreId, MusicProviderSource.MediaFetchResult result) {
         if (returnExisting(MEDIA_ID_MUSICS_BY_GENRE, genreId, result)) {
             return;
         }
         mSource.GetGenreSongs(genreId, (title, items) -> {
-            result.setResult(title, readSongsFromIterator(title, items, MEDIA_ID_MUSICS_BY_GENRE, genreId).iterator());
+            result.setResult(title, metadataIterator(readSongsFromIterator(title, items, MEDIA_ID_MUSICS_BY_GENRE, genreId)));
         });
     }
 
@@ -267,18 +470,18 @@ public class MusicProvider {
         if (returnExisting(MEDIA_ID_PLAYLISTS, playlistId, result)) {
             return;
         }
-        mSource.GetPlaylistSongs(playlistId, (title, items) -> {
-            result.setResult(title, readSongsFromIterator(title, items, MEDIA_ID_PLAYLISTS, playlistId).iterator());
-        });
+        mSource.GetPlaylistSongs(playlistId, orPinned(MEDIA_ID_PLAYLISTS, playlistId, (title, items) -> {
+            result.setResult(title, metadataIterator(readSongsFromIterator(title, items, MEDIA_ID_PLAYLISTS, playlistId)));
+        }));
     }
 
     public void getMusicByAlbum(String albumId, MusicProviderSource.MediaFetchResult result) {
         if (returnExisting(MEDIA_ID_ALBUMS, albumId, result)) {
             return;
         }
-        mSource.GetAlbumSongs(albumId, (title, items) -> {
-            result.setResult(title, readSongsFromIterator(title, items, MEDIA_ID_ALBUMS, albumId).iterator());
-        });
+        mSource.GetAlbumSongs(albumId, orPinned(MEDIA_ID_ALBUMS, albumId, (title, items) -> {
+            result.setResult(title, metadataIterator(readSongsFromIterator(title, items, MEDIA_ID_ALBUMS, albumId)));
+        }));
     }
 
     public void getMusicByArtist(String artistId, MusicProviderSource.MediaFetchResult result) {
@@ -286,7 +489,7 @@ public class MusicProvider {
             return;
         }
         mSource.GetArtistSongs(artistId, (title, items) -> {
-            result.setResult(title, readSongsFromIterator(title, items, MEDIA_ID_ARTIST_SONGS, artistId).iterator());
+            result.setResult(title, metadataIterator(readSongsFromIterator(title, items, MEDIA_ID_ARTIST_SONGS, artistId)));
         });
     }
 
@@ -311,12 +514,12 @@ public class MusicProvider {
             });
             return;
         } else if (MEDIA_ID_PLAYLISTS.equals(mediaId)) {
-            mSource.GetPlaylists((title,iterator)->{
+            mSource.GetPlaylists(orPinnedLists(MEDIA_ID_PLAYLISTS, (title,iterator)->{
                     while (iterator.hasNext()) {
                         mediaItems.add(createBrowsableMediaItemForGenre(iterator.next(), MEDIA_ID_PLAYLISTS));
                     }
                     result.sendResult(mediaItems);
-                });
+                }));
             return;
         } else if (mediaId.startsWith(MEDIA_ID_PLAYLISTS)) {
             String playListId = MediaIDHelper.getHierarchy(mediaId)[1];
@@ -328,13 +531,13 @@ public class MusicProvider {
             })) {
                 return;
             }
-            mSource.GetPlaylistSongs(playListId, (title,iterator)->{
-                List<MediaMetadataCompat> songs = readSongsFromIterator(title, iterator, MEDIA_ID_PLAYLISTS, playListId);
-                for (MediaMetadataCompat s : songs) {
-                   mediaItems.add(createMediaItem(s, MEDIA_ID_PLAYLISTS, playListId));
+            mSource.GetPlaylistSongs(playListId, orPinned(MEDIA_ID_PLAYLISTS, playListId, (title,iterator)->{
+                List<MutableMediaMetadata> songs = readSongsFromIterator(title, iterator, MEDIA_ID_PLAYLISTS, playListId);
+                for (MutableMediaMetadata s : songs) {
+                    mediaItems.add(createMediaItem(s.getMetadata(), MEDIA_ID_PLAYLISTS, playListId));
                 }
                 result.sendResult(mediaItems);
-            });
+            }));
             return;
         } else if (mediaId.startsWith(MEDIA_ID_MUSICS_BY_GENRE)) {
             String genre = MediaIDHelper.getHierarchy(mediaId)[1];
@@ -347,9 +550,9 @@ public class MusicProvider {
                 return;
             }
             mSource.GetGenreSongs(genre, (title, iterator)->{
-                List<MediaMetadataCompat> songs = readSongsFromIterator(title, iterator, MEDIA_ID_MUSICS_BY_GENRE, genre);
-                for (MediaMetadataCompat s : songs) {
-                    mediaItems.add(createMediaItem(s, MEDIA_ID_MUSICS_BY_GENRE, genre));
+                List<MutableMediaMetadata> songs = readSongsFromIterator(title, iterator, MEDIA_ID_MUSICS_BY_GENRE, genre);
+                for (MutableMediaMetadata s : songs) {
+                    mediaItems.add(createMediaItem(s.getMetadata(), MEDIA_ID_MUSICS_BY_GENRE, genre));
                 }
                 result.sendResult(mediaItems);
             });
@@ -398,20 +601,20 @@ public class MusicProvider {
                 return;
             }
             mSource.GetArtistSongs(artistId, (title, iterator)->{
-                List<MediaMetadataCompat> songs = readSongsFromIterator(title, iterator, MEDIA_ID_ARTIST_SONGS, artistId);
-                for (MediaMetadataCompat s : songs) {
-                    mediaItems.add(createMediaItem(s, MEDIA_ID_ARTIST_SONGS, artistId));
+                List<MutableMediaMetadata> songs = readSongsFromIterator(title, iterator, MEDIA_ID_ARTIST_SONGS, artistId);
+                for (MutableMediaMetadata s : songs) {
+                    mediaItems.add(createMediaItem(s.getMetadata(), MEDIA_ID_ARTIST_SONGS, artistId));
                 }
                 result.sendResult(mediaItems);
             });
             return;
         } else if (mediaId.equals(MEDIA_ID_ALBUMS)) {
-            mSource.GetAlbums((title, iterator) -> {
+            mSource.GetAlbums(orPinnedLists(MEDIA_ID_ALBUMS, (title, iterator) -> {
                 while (iterator.hasNext()) {
                     mediaItems.add(createBrowsableMediaItemForGenre(iterator.next(), MEDIA_ID_ALBUMS));
                 }
                 result.sendResult(mediaItems);
-            });
+            }));
             return;
         } else if (mediaId.startsWith(MEDIA_ID_ALBUMS)) {
             String album = MediaIDHelper.getHierarchy(mediaId)[1];
@@ -423,13 +626,13 @@ public class MusicProvider {
             })) {
                 return;
             }
-            mSource.GetAlbumSongs(album, (title, iterator)->{
-                List<MediaMetadataCompat> songs = readSongsFromIterator(title, iterator, MEDIA_ID_ALBUMS, album);
-                for (MediaMetadataCompat s : songs) {
-                    mediaItems.add(createMediaItem(s, MEDIA_ID_ALBUMS, album));
+            mSource.GetAlbumSongs(album, orPinned(MEDIA_ID_ALBUMS, album, (title, iterator)->{
+                List<MutableMediaMetadata> songs = readSongsFromIterator(title, iterator, MEDIA_ID_ALBUMS, album);
+                for (MutableMediaMetadata s : songs) {
+                    mediaItems.add(createMediaItem(s.getMetadata(), MEDIA_ID_ALBUMS, album));
                 }
                 result.sendResult(mediaItems);
-            });
+            }));
             return;
         } else {
             LogHelper.w(TAG, "Skipping unmatched mediaId: ", mediaId);
@@ -54,28 +54,75 @@ public interface MusicProviderSource {
         void setResult(String title, Iterator<MediaMetadataCompat> items);
     }
 
+    /**
+     * Receives a long list a page at a time; see SongPageResult
+     */
+    interface MediaPageResult extends MediaFetchResult {
+        boolean addPage(Iterator<MediaMetadataCompat> items, boolean lastPage);
+    }
+
+    /**
+     * Receives a list of songs
+     */
+    interface SongFetchResult {
+        void setResult(String title, Iterator<SongRecord> songs);
+    }
+
+    /**
+     * Receives a long list a page at a time. The first page is delivered through setResult,
+     * so a consumer can start using it while later pages are being fetched.
+     */
+    interface SongPageResult extends SongFetchResult {
+        /**
+         * Called for each page after the first
+         * @param songs Songs in this page
+         * @param lastPage true if no more pages will follow; the last call may have no items
+         * @return false if no more pages are wanted, which stops the fetch
+         */
+        boolean addPage(Iterator<SongRecord> songs, boolean lastPage);
+    }
+
     interface ItemResult {
         void setResult(MediaMetadataCompat item);
     }
 
+    interface SongResult {
+        /**
+         * @param song The song, or null if it couldn't be retrieved
+         */
+        void setResult(SongRecord song);
+    }
+
     State getState();
     void RequestLogin(Bundle extras, ErrorCallback error);
 
     /**
-     * Typically returns all songs, shuffled
+     * Typically returns all songs, a page at a time
      * @param result
      */
-    void getDefaultSongs(MediaFetchResult result);
+    void getDefaultSongs(SongPageResult result);
+
+    /**
+     * Songs picked at random from the whole library, without reading all of it
+     * @param count Most songs to return; there are fewer only if the library is smaller
+     */
+    void getRandomSongs(int count, SongFetchResult result);
     void GetPlaylists(MediaFetchResult result);
-    void GetPlaylistSongs(String playListId, MediaFetchResult toSetQueue);
+    void GetPlaylistSongs(String playListId, SongFetchResult toSetQueue);
     void GetGenres(MediaFetchResult result);
-    void GetGenreSongs(String genreId, MediaFetchResult toSetQueue);
-    void GetSearchSongs(String anyMatch, MediaFetchResult toSetQueue);
+    void GetGenreSongs(String genreId, SongFetchResult toSetQueue);
+    void GetSearchSongs(String anyMatch, SongFetchResult toSetQueue);
     void GetArtists(MediaFetchResult result);
     void GetArtistAlbums(String id, MediaFetchResult result);
-    void GetArtistSongs(String id, MediaFetchResult result);
+    void GetArtistSongs(String id, SongFetchResult result);
     void GetAlbums(MediaFetchResult result);
-    void GetAlbumSongs(String id, MediaFetchResult result);
-    void GetSong(String id, ItemResult result);
+    void GetAlbumSongs(String id, SongFetchResult result);
+    void GetSong(String id, SongResult result);
+
+    /**
+     * @param url Stream or art url read earlier, possibly in a session that has since expired
+     * @return The url for use in the current session
+     */
+    String withCurrentSession(String url);
 
 }
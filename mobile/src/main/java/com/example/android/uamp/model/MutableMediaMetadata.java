@@ -22,15 +22,35 @@ import android.text.TextUtils;
 /**
  * Holder class that encapsulates a MediaMetadata and allows the actual metadata to be modified
  * without requiring to rebuild the collections the metadata is in.
+ *
+ * Normally holds just the compact SongRecord, building the MediaMetadata when asked for it;
+ * metadata that has been set (for instance with album art) is kept.
  */
 public class MutableMediaMetadata {
 
-    public MediaMetadataCompat metadata;
+    public final SongRecord record;
     public final String trackId;
+    private MediaMetadataCompat mMetadata;
+
+    public MutableMediaMetadata(SongRecord record) {
+        this.record = record;
+        this.trackId = record.id;
+    }
+
+    public MediaMetadataCompat getMetadata() {
+        MediaMetadataCompat metadata = mMetadata;
+        return metadata != null ? metadata : record.toMetadata();
+    }
+
+    /**
+     * Replace the metadata built from the record; null goes back to building from the record
+     */
+    public void setMetadata(MediaMetadataCompat metadata) {
+        mMetadata = metadata;
+    }
 
-    public MutableMediaMetadata(String trackId, MediaMetadataCompat metadata) {
-        this.metadata = metadata;
-        this.trackId = trackId;
+    public boolean hasMetadata() {
+        return mMetadata != null;
     }
 
     @Override
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.model;
+
+import android.support.v4.media.MediaMetadataCompat;
+
+import java.util.Iterator;
+
+/**
+ * Metadata for songs MusicProvider has as SongRecords. The record can be taken in place of
+ * the metadata, so a queue can be built without a MediaMetadataCompat for each song.
+ */
+public interface SongIterator extends Iterator<MediaMetadataCompat> {
+    /**
+     * Move to the next song, like next(), but return its record instead of its metadata
+     */
+    SongRecord nextSong();
+}
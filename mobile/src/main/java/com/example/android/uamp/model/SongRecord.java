@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.model;
+
+import android.net.Uri;
+import android.support.v4.media.MediaDescriptionCompat;
+import android.support.v4.media.MediaMetadataCompat;
+import android.support.v4.media.RatingCompat;
+import android.text.TextUtils;
+
+/**
+ * Compact, immutable description of one song as read from the source.
+ *
+ * Lists of songs are kept as these rather than as MediaMetadataCompat, which wraps a Bundle
+ * and boxes every value; the metadata is built only when a song is handed to the media
+ * session or a browser. Artist, album and genre strings repeat across many songs, so they
+ * are interned.
+ */
+public final class SongRecord {
+    // Rough size of the object and its non-string fields, for cache accounting
+    private static final int OVERHEAD_BYTES = 64;
+
+    public final String id;
+    public final String title;
+    public final String artist;
+    public final String album;
+    public final String genre;
+    public final String url;
+    public final String art;
+    public final long durationMs;
+    public final int track;
+    /** 0 to 5 */
+    public final float rating;
+
+    public SongRecord(String id, String title, String artist, String album, String genre, String url, String art,
+                      long durationMs, int track, float rating) {
+        this.id = id;
+        this.title = title;
+        this.artist = intern(artist);
+        this.album = intern(album);
+        this.genre = intern(genre);
+        this.url = url;
+        this.art = art;
+        this.durationMs = durationMs;
+        this.track = track;
+        this.rating = rating;
+    }
+
+    private static String intern(String s) {
+        return s == null ? null : s.intern();
+    }
+
+    public MediaMetadataCompat toMetadata() {
+        return new MediaMetadataCompat.Builder()
+                .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, id)
+                .putString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE, url)
+                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM, album)
+                .putString(MediaMetadataCompat.METADATA_KEY_ARTIST, artist)
+                .putLong(MediaMetadataCompat.METADATA_KEY_DURATION, durationMs)
+                .putString(MediaMetadataCompat.METADATA_KEY_GENRE, genre)
+                .putString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI, art)
+                .putString(MediaMetadataCompat.METADATA_KEY_TITLE, title)
+                .putLong(MediaMetadataCompat.METADATA_KEY_TRACK_NUMBER, track)
+                .putLong(MediaMetadataCompat.METADATA_KEY_NUM_TRACKS, track+1)
+                .putRating(MediaMetadataCompat.METADATA_KEY_RATING, RatingCompat.newPercentageRating(rating/5.0f))
+                .build();
+    }
+
+    /**
+     * Describe the song for a queue item, as toMetadata().getDescription() would, without
+     * building the metadata's Bundle
+     * @param mediaId Media id for the description, usually hierarchy-aware
+     */
+    public MediaDescriptionCompat toDescription(String mediaId) {
+        // The metadata's description takes the first three of title, artist and album that
+        // aren't empty
+        CharSequence[] text = new CharSequence[3];
+        int used = 0;
+        if (! TextUtils.isEmpty(title)) {
+            text[used++] = title;
+        }
+        if (! TextUtils.isEmpty(artist)) {
+            text[used++] = artist;
+        }
+        if (! TextUtils.isEmpty(album)) {
+            text[used] = album;
+        }
+        return new MediaDescriptionCompat.Builder()
+                .setMediaId(mediaId)
+                .setTitle(text[0])
+                .setSubtitle(text[1])
+                .setDescription(text[2])
+                .setIconUri(art == null ? null : Uri.parse(art))
+                .build();
+    }
+
+    /**
+     * @return Estimate of the memory used by this record; interned strings aren't counted
+     */
+    long estimateBytes() {
+        return OVERHEAD_BYTES + stringBytes(id) + stringBytes(title) + stringBytes(url) + stringBytes(art);
+    }
+
+    private static long stringBytes(String s) {
+        return s == null ? 0 : 40 + 2 * s.length();
+    }
+}
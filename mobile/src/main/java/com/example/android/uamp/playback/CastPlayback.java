@@ -34,17 +34,26 @@
 package com.example.android.uamp.playback;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.net.Uri;
+import android.net.wifi.WifiManager;
+import android.os.SystemClock;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.text.TextUtils;
 
+import com.antlersoft.patchyamp.AsyncRunner;
+import com.antlersoft.patchyamp.PlaybackMetrics;
+import com.antlersoft.patchyamp.cache.LanServer;
+import com.antlersoft.patchyamp.exec.Lane;
+import com.antlersoft.patchyamp.exec.TaskExecutor;
+import com.example.android.uamp.AlbumArtCache;
 import com.example.android.uamp.model.MusicProvider;
-import com.example.android.uamp.model.MusicProviderSource;
 import com.example.android.uamp.utils.LogHelper;
 import com.example.android.uamp.utils.MediaIDHelper;
 import com.google.android.gms.cast.MediaInfo;
 import com.google.android.gms.cast.MediaMetadata;
+import com.google.android.gms.cast.MediaQueueItem;
 import com.google.android.gms.cast.MediaStatus;
 import com.google.android.gms.cast.framework.CastContext;
 import com.google.android.gms.cast.framework.CastSession;
@@ -54,10 +63,24 @@ import com.google.android.gms.common.images.WebImage;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
 import static android.support.v4.media.session.MediaSessionCompat.QueueItem;
 
 /**
  * An implementation of Playback that talks to Cast.
+ *
+ * The receiver is given a queue of the current item and the next few after it, which it
+ * preloads and moves on through by itself, so the change of track doesn't wait on the phone,
+ * and carries on for several tracks while the phone is asleep or out of touch. When it has
+ * moved on, the queue here follows it and the window of items after it is topped up.
+ *
+ * Songs on the phone are served to the receiver by the LAN server, so while the receiver is
+ * playing with any of those still to fetch, the Wifi lock is held to keep the phone's radio
+ * from sleeping under it.
  */
 public class CastPlayback implements Playback {
 
@@ -65,6 +88,8 @@ public class CastPlayback implements Playback {
 
     private static final String MIME_TYPE_AUDIO_MPEG = "audio/mpeg";
     private static final String ITEM_ID = "itemId";
+    // How long before the current item ends the receiver starts loading the next one
+    private static final double PRELOAD_SECONDS = 20.0;
 
     private final MusicProvider mMusicProvider;
     private final Context mAppContext;
@@ -77,6 +102,44 @@ public class CastPlayback implements Playback {
     private Callback mCallback;
     private volatile int mCurrentPosition;
     private volatile String mCurrentMediaId;
+    // Items the PlaybackManager says come next, in order
+    private List<String> mNextMediaIds = Collections.emptyList();
+    // Items queued on the receiver after the current one, in order; a prefix of mNextMediaIds
+    // unless that has just changed
+    private ArrayList<String> mQueuedMediaIds = new ArrayList<>();
+    // A queue is being loaded onto the receiver; the next items are added once it is
+    private boolean mLoading;
+    // The metadata for an item is being fetched to add it to the receiver's queue
+    private boolean mAppending;
+    // Items the receiver moved on through by itself, up to the one it is on; the play requests
+    // for them that follow leave it playing
+    private final ArrayList<String> mAdvancedThrough = new ArrayList<>();
+    // Time to audio and stalls for each track
+    private final PlaybackMetrics.Tracker mMetrics;
+    // Serves songs and art on the phone to the receiver over Wifi
+    private final LanServer mLanServer;
+    // Counts loads onto the receiver, so one overtaken by a later load is dropped
+    private int mLoadCount;
+    // Items on the receiver, current or queued, whose song the LAN server serves
+    private final HashSet<String> mServedFromPhone = new HashSet<>();
+    private final WifiManager.WifiLock mWifiLock;
+    private long mWifiLockSince;
+
+    /**
+     * Where the receiver gets a track's song and art from: the phone if they are on it,
+     * otherwise the server
+     */
+    private static class Sources {
+        String artUrl;
+        String source;
+        String contentType = MIME_TYPE_AUDIO_MPEG;
+        // The song is served from the phone
+        boolean fromPhone;
+    }
+
+    private interface SourcesResult {
+        void setResult(Sources sources);
+    }
 
     public CastPlayback(MusicProvider musicProvider, Context context) {
         mMusicProvider = musicProvider;
@@ -86,6 +149,11 @@ public class CastPlayback implements Playback {
                 .getCurrentCastSession();
         mRemoteMediaClient = castSession.getRemoteMediaClient();
         mRemoteMediaClientListener = new CastMediaClientListener();
+        mMetrics = PlaybackMetrics.getInstance(mAppContext).newTracker(PlaybackMetrics.ROUTE_CAST);
+        mLanServer = LanServer.getInstance(mAppContext);
+        mWifiLock = ((WifiManager) mAppContext.getSystemService(Context.WIFI_SERVICE))
+                .createWifiLock(WifiManager.WIFI_MODE_FULL, "patchyamp_cast_lock");
+        mWifiLock.setReferenceCounted(false);
     }
 
     @Override
@@ -97,6 +165,9 @@ public class CastPlayback implements Playback {
     public void stop(boolean notifyListeners) {
         mRemoteMediaClient.removeListener(mRemoteMediaClientListener);
         mState = PlaybackStateCompat.STATE_STOPPED;
+        mServedFromPhone.clear();
+        updateWifiLock();
+        mMetrics.finished();
         if (notifyListeners && mCallback != null) {
             mCallback.onPlaybackStatusChanged(mState);
         }
@@ -127,8 +198,23 @@ public class CastPlayback implements Playback {
 
     @Override
     public void play(QueueItem item) {
+        String mediaId = item.getDescription().getMediaId();
+        if (! mAdvancedThrough.isEmpty()) {
+            if (mediaId.equals(mAdvancedThrough.remove(0))) {
+                // The receiver has already played through this item, or is playing it, having
+                // followed on from the previous one
+                if (mAdvancedThrough.isEmpty() && mCallback != null) {
+                    mCallback.onPlaybackStatusChanged(mState);
+                }
+                return;
+            }
+            mAdvancedThrough.clear();
+        }
+        if (! TextUtils.equals(mediaId, mCurrentMediaId) || mState != PlaybackStateCompat.STATE_PAUSED) {
+            mMetrics.requested(mediaId);
+        }
         try {
-            loadMedia(item.getDescription().getMediaId(), true);
+            loadMedia(mediaId, true);
             mState = PlaybackStateCompat.STATE_BUFFERING;
             if (mCallback != null) {
                 mCallback.onPlaybackStatusChanged(mState);
@@ -141,6 +227,158 @@ public class CastPlayback implements Playback {
         }
     }
 
+    /**
+     * Queue items on the receiver after the current one, so they are preloaded
+     */
+    @Override
+    public void setNextItems(List<QueueItem> items) {
+        // While following the receiver through several items, the next items for those it
+        // has already passed are of no use; the queue is brought up to date once the last
+        // of them is current
+        if (! mAdvancedThrough.isEmpty()) {
+            return;
+        }
+        ArrayList<String> mediaIds = new ArrayList<>(items.size());
+        for (QueueItem item : items) {
+            mediaIds.add(item.getDescription().getMediaId());
+        }
+        if (mediaIds.equals(mNextMediaIds)) {
+            return;
+        }
+        mNextMediaIds = mediaIds;
+        if (! mLoading) {
+            updateQueuedNext();
+        }
+    }
+
+    /**
+     * Make the receiver's queue the current item followed by mNextMediaIds, keeping the items
+     * already queued that are still to come in the same order
+     */
+    private void updateQueuedNext() {
+        MediaStatus status = mRemoteMediaClient.getMediaStatus();
+        if (status == null || ! mRemoteMediaClient.hasMediaSession()) {
+            return;
+        }
+        // Items already played, or queued before the next items changed
+        List<MediaQueueItem> queued = status.getQueueItems();
+        int current = status.getCurrentItemId();
+        int[] toRemove = new int[queued.size()];
+        int count = 0;
+        int kept = 0;
+        boolean afterCurrent = false;
+        boolean keeping = true;
+        for (MediaQueueItem queuedItem : queued) {
+            if (queuedItem.getItemId() == current) {
+                afterCurrent = true;
+                continue;
+            }
+            if (afterCurrent && keeping && kept < mQueuedMediaIds.size() && kept < mNextMediaIds.size()
+                    && mQueuedMediaIds.get(kept).equals(mNextMediaIds.get(kept))
+                    && mQueuedMediaIds.get(kept).equals(getMediaId(queuedItem.getMedia()))) {
+                kept++;
+            } else {
+                keeping = keeping && ! afterCurrent;
+                toRemove[count++] = queuedItem.getItemId();
+            }
+        }
+        if (count > 0) {
+            int[] ids = new int[count];
+            System.arraycopy(toRemove, 0, ids, 0, count);
+            mRemoteMediaClient.queueRemoveItems(ids, null);
+        }
+        mQueuedMediaIds = new ArrayList<>(mQueuedMediaIds.subList(0, kept));
+        updateWifiLock();
+        appendNext();
+    }
+
+    /**
+     * Add the items in mNextMediaIds that aren't on the receiver yet to the end of its queue,
+     * one after another so they stay in order
+     */
+    private void appendNext() {
+        final int queued = mQueuedMediaIds.size();
+        if (mAppending || mLoading || ! mAdvancedThrough.isEmpty() || queued >= mNextMediaIds.size()) {
+            return;
+        }
+        final String nextMediaId = mNextMediaIds.get(queued);
+        mAppending = true;
+        mMusicProvider.getMusic(MediaIDHelper.extractMusicIDFromMediaID(nextMediaId), (track) -> {
+            if (track == null) {
+                mAppending = false;
+                return;
+            }
+            findSources(track, TaskExecutor.PRIORITY_NORMAL, (sources) -> {
+                mAppending = false;
+                if (mLoading || ! mRemoteMediaClient.hasMediaSession()) {
+                    return;
+                }
+                if (mQueuedMediaIds.size() == queued && queued < mNextMediaIds.size()
+                        && nextMediaId.equals(mNextMediaIds.get(queued))) {
+                    mRemoteMediaClient.queueAppendItem(toQueueItem(track, nextMediaId, 0, sources), null);
+                    mQueuedMediaIds.add(nextMediaId);
+                    if (sources.fromPhone) {
+                        mServedFromPhone.add(nextMediaId);
+                        updateWifiLock();
+                    }
+                }
+                // The next items may have changed meanwhile; carry on from what is queued now
+                appendNext();
+            });
+        });
+    }
+
+    /**
+     * If the receiver has moved on to one of the items queued after the current one, follow it
+     */
+    private void checkAdvanced() {
+        String remoteMediaId = getRemoteMediaId();
+        if (remoteMediaId == null || remoteMediaId.equals(mCurrentMediaId)) {
+            return;
+        }
+        int passed = mQueuedMediaIds.indexOf(remoteMediaId);
+        if (passed < 0) {
+            return;
+        }
+        LogHelper.d(TAG, "Receiver moved on to ", remoteMediaId, " past ", passed, " items");
+        mAdvancedThrough.clear();
+        mAdvancedThrough.addAll(mQueuedMediaIds.subList(0, passed + 1));
+        mQueuedMediaIds = new ArrayList<>(mQueuedMediaIds.subList(passed + 1, mQueuedMediaIds.size()));
+        mCurrentMediaId = remoteMediaId;
+        mCurrentPosition = 0;
+        updateWifiLock();
+        mMetrics.requested(remoteMediaId);
+        if (mCallback != null) {
+            // One completion for each item finished, so the queue here ends up where the
+            // receiver is
+            for (int i = 0; i <= passed; i++) {
+                mCallback.onCompletion();
+            }
+        }
+    }
+
+    /**
+     * @return Media id of the item the receiver is on, or null if it doesn't have one of ours
+     */
+    private String getRemoteMediaId() {
+        return getMediaId(mRemoteMediaClient.getMediaInfo());
+    }
+
+    /**
+     * @return Media id of an item given to the receiver, or null if it isn't one of ours
+     */
+    private static String getMediaId(MediaInfo mediaInfo) {
+        JSONObject customData = mediaInfo == null ? null : mediaInfo.getCustomData();
+        if (customData == null || ! customData.has(ITEM_ID)) {
+            return null;
+        }
+        try {
+            return customData.getString(ITEM_ID);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
     @Override
     public void pause() {
         try {
@@ -167,6 +405,7 @@ public class CastPlayback implements Playback {
             return;
         }
         try {
+            mMetrics.seeking();
             if (mRemoteMediaClient.hasMediaSession()) {
                 mRemoteMediaClient.seek(position);
                 mCurrentPosition = position;
@@ -216,23 +455,120 @@ public class CastPlayback implements Playback {
 
     private void loadMedia(String mediaId, boolean autoPlay) throws JSONException {
         String musicId = MediaIDHelper.extractMusicIDFromMediaID(mediaId);
+        // Either way the receiver's queue is replaced
+        mQueuedMediaIds.clear();
+        // A load in progress is replaced, whether or not this one plays
+        mLoading = autoPlay;
+        final int load = ++mLoadCount;
         mMusicProvider.getMusic(musicId, (track)-> {
             if (track == null) {
+                mLoading = false;
                 throw new IllegalArgumentException("Invalid mediaId " + mediaId);
             }
-            if (!TextUtils.equals(mediaId, mCurrentMediaId)) {
-                mCurrentMediaId = mediaId;
-                mCurrentPosition = 0;
+            findSources(track, TaskExecutor.PRIORITY_HIGH, (sources) -> {
+                if (load != mLoadCount) {
+                    // A later load replaces this one
+                    return;
+                }
+                if (!TextUtils.equals(mediaId, mCurrentMediaId)) {
+                    mCurrentMediaId = mediaId;
+                    mCurrentPosition = 0;
+                }
+                // The receiver's queue is replaced by this item
+                mServedFromPhone.clear();
+                if (sources.fromPhone) {
+                    mServedFromPhone.add(mediaId);
+                }
+                updateWifiLock();
+                mMetrics.preparing();
+                if (! autoPlay) {
+                    JSONObject customData = itemData(mediaId);
+                    MediaInfo media = toCastMediaMetadata(track, customData, sources);
+                    mRemoteMediaClient.load(media, false, mCurrentPosition, customData).setResultCallback(
+                            (result) -> {
+                                if (result.getStatus().isSuccess()) {
+                                    mMetrics.prepared();
+                                }
+                            });
+                    return;
+                }
+                loadQueue(toQueueItem(track, mediaId, mCurrentPosition / 1000.0, sources));
+            });
+        });
+    }
+
+    /**
+     * Replace the receiver's queue with the item and start playing it, then queue the next
+     * items after it
+     */
+    private void loadQueue(MediaQueueItem current) {
+        mRemoteMediaClient.queueLoad(new MediaQueueItem[] { current }, 0, MediaStatus.REPEAT_MODE_REPEAT_OFF,
+                null).setResultCallback(
+                (result) -> {
+                    if (result.getStatus().isSuccess()) {
+                        mMetrics.prepared();
+                    }
+                });
+        mLoading = false;
+        // Requests reach the receiver in order, so these go after the item loaded
+        appendNext();
+    }
+
+    private MediaQueueItem toQueueItem(MediaMetadataCompat track, String mediaId, double startSeconds,
+                                       Sources sources) {
+        return new MediaQueueItem.Builder(toCastMediaMetadata(track, itemData(mediaId), sources))
+                .setAutoplay(true)
+                .setPreloadTime(PRELOAD_SECONDS)
+                .setStartTime(startSeconds)
+                .build();
+    }
+
+    /**
+     * @return Custom data identifying the item to setMetadataFromRemote
+     */
+    private static JSONObject itemData(String mediaId) {
+        JSONObject customData = new JSONObject();
+        try {
+            customData.put(ITEM_ID, mediaId);
+        } catch (Exception e) {
+            LogHelper.e(TAG, e, "Error creating json for item");
+        }
+        return customData;
+    }
+
+    /**
+     * Find where the receiver should get the track's song and art. Those on the phone are
+     * published on the LAN server, which reads the disk and compresses the art, so that is
+     * done in the background.
+     * @param priority Priority in the playback lane; higher for the item to play now than
+     *                 for those queued after it
+     * @param result Called on the UI thread
+     */
+    private void findSources(MediaMetadataCompat track, int priority, SourcesResult result) {
+        final Sources sources = new Sources();
+        final String artUrl = track.getString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI);
+        final Bitmap art = artUrl == null ? null : AlbumArtCache.getInstance().getBigImage(artUrl);
+        final String songId = track.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
+        //noinspection ResourceType
+        final String source = mMusicProvider.getTrackSource(track);
+        sources.artUrl = artUrl;
+        sources.source = source;
+        AsyncRunner.RunAsync(Lane.PLAYBACK, priority, () -> {
+            // Art already on the phone is served from it
+            LanServer.Published localArt = mLanServer.publishArt(artUrl, art);
+            if (localArt != null) {
+                sources.artUrl = localArt.url;
             }
-            JSONObject customData = new JSONObject();
-            try {
-                customData.put(ITEM_ID, mediaId);
-            } catch (Exception e) {
-                LogHelper.e(TAG, e, "Error creating json for item");
+            // A song pinned or cached on the phone plays from it over the local network rather
+            // than from the server again
+            LanServer.Published local = mLanServer.publishSong(songId, source);
+            if (local != null) {
+                LogHelper.d(TAG, "Casting ", source, " from ", local.url);
+                sources.source = local.url;
+                sources.contentType = local.contentType;
+                sources.fromPhone = true;
             }
-            MediaInfo media = toCastMediaMetadata(track, customData);
-            mRemoteMediaClient.load(media, autoPlay, mCurrentPosition, customData);
-        });
+        }, () -> result.setResult(sources));
     }
 
     /**
@@ -241,10 +577,11 @@ public class CastPlayback implements Playback {
      *
      * @param track {@link com.google.android.gms.cast.MediaMetadata}
      * @param customData custom data specifies the local mediaId used by the player.
+     * @param sources From findSources
      * @return mediaInfo {@link com.google.android.gms.cast.MediaInfo}
      */
-    private static MediaInfo toCastMediaMetadata(MediaMetadataCompat track,
-                                                 JSONObject customData) {
+    private MediaInfo toCastMediaMetadata(MediaMetadataCompat track,
+                                                 JSONObject customData, Sources sources) {
         MediaMetadata mediaMetadata = new MediaMetadata(MediaMetadata.MEDIA_TYPE_MUSIC_TRACK);
         mediaMetadata.putString(MediaMetadata.KEY_TITLE,
                 track.getDescription().getTitle() == null ? "" :
@@ -257,8 +594,7 @@ public class CastPlayback implements Playback {
         mediaMetadata.putString(MediaMetadata.KEY_ALBUM_TITLE,
                 track.getString(MediaMetadataCompat.METADATA_KEY_ALBUM));
         WebImage image = new WebImage(
-                new Uri.Builder().encodedPath(
-                        track.getString(MediaMetadataCompat.METADATA_KEY_ALBUM_ART_URI))
+                new Uri.Builder().encodedPath(sources.artUrl)
                         .build());
         // First image is used by the receiver for showing the audio album art.
         mediaMetadata.addImage(image);
@@ -266,9 +602,8 @@ public class CastPlayback implements Playback {
         // when the cast dialog is clicked.
         mediaMetadata.addImage(image);
 
-        //noinspection ResourceType
-        return new MediaInfo.Builder(track.getString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE))
-                .setContentType(MIME_TYPE_AUDIO_MPEG)
+        return new MediaInfo.Builder(sources.source)
+                .setContentType(sources.contentType)
                 .setStreamType(MediaInfo.STREAM_TYPE_BUFFERED)
                 .setMetadata(mediaMetadata)
                 .setCustomData(customData)
@@ -280,6 +615,9 @@ public class CastPlayback implements Playback {
         // metadata if it happens to be different from the one we are currently using.
         // This can happen when the app was either restarted/disconnected + connected, or if the
         // app joins an existing session while the Chromecast was playing a queue.
+        // The metadata for the item the receiver moved on to can come before the status saying
+        // so; follow it first, or it would be taken as current and the move never seen.
+        checkAdvanced();
         try {
             MediaInfo mediaInfo = mRemoteMediaClient.getMediaInfo();
             if (mediaInfo == null) {
@@ -309,10 +647,16 @@ public class CastPlayback implements Playback {
 
         LogHelper.d(TAG, "onRemoteMediaPlayerStatusUpdated ", status);
 
+        if (status == MediaStatus.PLAYER_STATE_PLAYING || status == MediaStatus.PLAYER_STATE_BUFFERING
+                || status == MediaStatus.PLAYER_STATE_PAUSED) {
+            checkAdvanced();
+        }
+
         // Convert the remote playback states to media playback states.
         switch (status) {
             case MediaStatus.PLAYER_STATE_IDLE:
                 if (idleReason == MediaStatus.IDLE_REASON_FINISHED) {
+                    mMetrics.finished();
                     if (mCallback != null) {
                         mCallback.onCompletion();
                     }
@@ -320,12 +664,14 @@ public class CastPlayback implements Playback {
                 break;
             case MediaStatus.PLAYER_STATE_BUFFERING:
                 mState = PlaybackStateCompat.STATE_BUFFERING;
+                mMetrics.state(mState);
                 if (mCallback != null) {
                     mCallback.onPlaybackStatusChanged(mState);
                 }
                 break;
             case MediaStatus.PLAYER_STATE_PLAYING:
                 mState = PlaybackStateCompat.STATE_PLAYING;
+                mMetrics.state(mState);
                 setMetadataFromRemote();
                 if (mCallback != null) {
                     mCallback.onPlaybackStatusChanged(mState);
@@ -333,6 +679,7 @@ public class CastPlayback implements Playback {
                 break;
             case MediaStatus.PLAYER_STATE_PAUSED:
                 mState = PlaybackStateCompat.STATE_PAUSED;
+                mMetrics.state(mState);
                 setMetadataFromRemote();
                 if (mCallback != null) {
                     mCallback.onPlaybackStatusChanged(mState);
@@ -342,6 +689,26 @@ public class CastPlayback implements Playback {
                 LogHelper.d(TAG, "State default : ", status);
                 break;
         }
+        updateWifiLock();
+    }
+
+    /**
+     * Hold the Wifi lock while the receiver is playing and the item it is on, or one queued
+     * after it, is served from the phone; let it go otherwise
+     */
+    private void updateWifiLock() {
+        ArrayList<String> onReceiver = new ArrayList<>(mQueuedMediaIds);
+        onReceiver.add(mCurrentMediaId);
+        mServedFromPhone.retainAll(onReceiver);
+        boolean wanted = ! mServedFromPhone.isEmpty() && (mState == PlaybackStateCompat.STATE_PLAYING
+                || mState == PlaybackStateCompat.STATE_BUFFERING);
+        if (wanted && ! mWifiLock.isHeld()) {
+            mWifiLock.acquire();
+            mWifiLockSince = SystemClock.elapsedRealtime();
+        } else if (! wanted && mWifiLock.isHeld()) {
+            mWifiLock.release();
+            mMetrics.wifiLockReleased(SystemClock.elapsedRealtime() - mWifiLockSince);
+        }
     }
 
     private class CastMediaClientListener implements RemoteMediaClient.Listener {
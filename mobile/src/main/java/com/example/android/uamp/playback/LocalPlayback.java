@@ -40,21 +40,28 @@ import android.content.IntentFilter;
 import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 import android.text.TextUtils;
 
+import com.antlersoft.patchyamp.PlaybackMetrics;
+import com.antlersoft.patchyamp.cache.CachingProxy;
 import com.example.android.uamp.MusicService;
 import com.example.android.uamp.model.MusicProvider;
-import com.example.android.uamp.model.MusicProviderSource;
 import com.example.android.uamp.utils.LogHelper;
 import com.example.android.uamp.utils.MediaIDHelper;
 
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
 
 import static android.media.MediaPlayer.OnCompletionListener;
 import static android.media.MediaPlayer.OnErrorListener;
+import static android.media.MediaPlayer.OnInfoListener;
 import static android.media.MediaPlayer.OnPreparedListener;
 import static android.media.MediaPlayer.OnSeekCompleteListener;
 import static android.support.v4.media.session.MediaSessionCompat.QueueItem;
@@ -63,7 +70,7 @@ import static android.support.v4.media.session.MediaSessionCompat.QueueItem;
  * A class that implements local media playback using {@link android.media.MediaPlayer}
  */
 public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeListener,
-        OnCompletionListener, OnErrorListener, OnPreparedListener, OnSeekCompleteListener {
+        OnCompletionListener, OnErrorListener, OnInfoListener, OnPreparedListener, OnSeekCompleteListener {
 
     private static final String TAG = LogHelper.makeLogTag(LocalPlayback.class);
 
@@ -82,6 +89,13 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
 
     private final Context mContext;
     private final WifiManager.WifiLock mWifiLock;
+    // Downloads the Wifi lock is held for, by cache key; the lock is let go when they are done,
+    // rather than when the song finishes playing
+    private final HashSet<String> mWifiLockDownloads = new HashSet<>();
+    private long mWifiLockSince;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final CachingProxy.DownloadListener mDownloadListener = (key) ->
+            mHandler.post(() -> releaseWifiLock(key));
     private int mState;
     private boolean mPlayOnFocusGain;
     private Callback mCallback;
@@ -94,6 +108,22 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
     private int mAudioFocus = AUDIO_NO_FOCUS_NO_DUCK;
     private final AudioManager mAudioManager;
     private MediaPlayer mMediaPlayer;
+    // mMediaPlayer has been prepared with the current item
+    private boolean mPrepared;
+
+    // For gapless playback, the item expected to play next is prepared in a second player,
+    // which is chained to the current one with setNextMediaPlayer so it starts as soon as
+    // the current one completes
+    private boolean mGapless = true;
+    private String mNextMediaId;
+    private MediaPlayer mNextPlayer;
+    private boolean mNextRequested;
+    private boolean mNextPrepared;
+    private boolean mNextChained;
+    // Item the next player took over with; the play request for it that follows leaves it playing
+    private String mAdvancedToMediaId;
+    // Time to audio and stalls for each track
+    private final PlaybackMetrics.Tracker mMetrics;
 
     private final IntentFilter mAudioNoisyIntentFilter =
             new IntentFilter(AudioManager.ACTION_AUDIO_BECOMING_NOISY);
@@ -121,6 +151,7 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
         this.mWifiLock = ((WifiManager) context.getSystemService(Context.WIFI_SERVICE))
                 .createWifiLock(WifiManager.WIFI_MODE_FULL, "uAmp_lock");
         this.mState = PlaybackStateCompat.STATE_NONE;
+        this.mMetrics = PlaybackMetrics.getInstance(context).newTracker(PlaybackMetrics.ROUTE_LOCAL);
     }
 
     @Override
@@ -130,6 +161,7 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
     @Override
     public void stop(boolean notifyListeners) {
         mState = PlaybackStateCompat.STATE_STOPPED;
+        mMetrics.finished();
         if (notifyListeners && mCallback != null) {
             mCallback.onPlaybackStatusChanged(mState);
         }
@@ -176,29 +208,49 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
 
     @Override
     public void play(QueueItem item) {
+        String mediaId = item.getDescription().getMediaId();
+        String advancedTo = mAdvancedToMediaId;
+        mAdvancedToMediaId = null;
+        if (mediaId.equals(advancedTo) && mediaId.equals(mCurrentMediaId) && mMediaPlayer != null) {
+            // Already playing, having followed on from the previous item
+            if (mCallback != null) {
+                mCallback.onPlaybackStatusChanged(mState);
+            }
+            return;
+        }
         mPlayOnFocusGain = true;
         tryToGetAudioFocus();
         registerAudioNoisyReceiver();
-        String mediaId = item.getDescription().getMediaId();
         boolean mediaHasChanged = !TextUtils.equals(mediaId, mCurrentMediaId);
         if (mediaHasChanged) {
             mCurrentPosition = 0;
             mCurrentMediaId = mediaId;
         }
+        if (mediaHasChanged || mMediaPlayer == null) {
+            mMetrics.requested(mediaId);
+        }
 
         if (mState == PlaybackStateCompat.STATE_PAUSED && !mediaHasChanged && mMediaPlayer != null) {
             configMediaPlayerState();
+        } else if (mediaHasChanged && mediaId.equals(mNextMediaId) && mNextPrepared && mMediaPlayer != null) {
+            // Skipping to the item already prepared
+            MediaPlayer skipped = mMediaPlayer;
+            if (mNextChained) {
+                skipped.setNextMediaPlayer(null);
+            }
+            promoteNextPlayer();
+            skipped.release();
+            mState = PlaybackStateCompat.STATE_BUFFERING;
+            configMediaPlayerState();
         } else {
             mState = PlaybackStateCompat.STATE_STOPPED;
             relaxResources(false); // release everything except MediaPlayer
+            releaseNextPlayer();
+            mNextMediaId = null;
             mMusicProvider.getMusic(
                     MediaIDHelper.extractMusicIDFromMediaID(item.getDescription().getMediaId()), (track)-> {
 
-                        //noinspection ResourceType
-                        String source = track.getString(MusicProviderSource.CUSTOM_METADATA_TRACK_SOURCE);
-                        if (source != null) {
-                            source = source.replaceAll(" ", "%20"); // Escape spaces for URLs
-                        }
+                        String source = getSource(track);
 
                         try {
                             createMediaPlayerIfNeeded();
@@ -207,6 +259,10 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
 
                             mMediaPlayer.setAudioStreamType(AudioManager.STREAM_MUSIC);
                             mMediaPlayer.setDataSource(source);
+                            // If we are streaming from the internet, we want to hold a
+                            // Wifi lock, which prevents the Wifi radio from going to
+                            // sleep while the song is downloading.
+                            holdWifiLock(source);
 
                             // Starts preparing the media player in the background. When
                             // it's done, it will call our OnPreparedListener (that is,
@@ -214,11 +270,7 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
                             // listener to 'this'). Until the media player is prepared,
                             // we *cannot* call start() on it!
                             mMediaPlayer.prepareAsync();
-
-                            // If we are streaming from the internet, we want to hold a
-                            // Wifi lock, which prevents the Wifi radio from going to
-                            // sleep while the song is playing.
-                            mWifiLock.acquire();
+                            mMetrics.preparing();
 
                             if (mCallback != null) {
                                 mCallback.onPlaybackStatusChanged(mState);
@@ -234,6 +286,156 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
         }
     }
 
+    /**
+     * Prepare the first of the items in a second player, so it follows the current item
+     * without a gap
+     */
+    @Override
+    public void setNextItems(List<QueueItem> items) {
+        String mediaId = (items.isEmpty() || ! mGapless) ? null : items.get(0).getDescription().getMediaId();
+        if (TextUtils.equals(mediaId, mNextMediaId)) {
+            return;
+        }
+        releaseNextPlayer();
+        mNextMediaId = mediaId;
+        prepareNextPlayerIfReady();
+    }
+
+    /**
+     * Turn gapless playback on or off; on by default
+     */
+    public void setGapless(boolean gapless) {
+        mGapless = gapless;
+        if (! gapless) {
+            releaseNextPlayer();
+            mNextMediaId = null;
+        }
+    }
+
+    private String getSource(MediaMetadataCompat track) {
+        //noinspection ResourceType
+        String source = mMusicProvider.getLocalTrackSource(track);
+        // A song pinned for offline use plays from its file
+        if (source != null && ! source.startsWith("/")) {
+            source = source.replaceAll(" ", "%20"); // Escape spaces for URLs
+            // Stream at a bitrate the network can carry, through the on-disk cache so playing
+            // the song again doesn't download it again
+            String songId = track.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
+            CachingProxy proxy = CachingProxy.getInstance(mContext);
+            source = proxy.getUrl(songId, proxy.chooseSource(songId, source));
+        }
+        return source;
+    }
+
+    /**
+     * Hold the Wifi lock until the player's source has been downloaded
+     */
+    private void holdWifiLock(String source) {
+        if (source == null || source.startsWith("/")) {
+            // Pinned on the device
+            return;
+        }
+        CachingProxy proxy = CachingProxy.getInstance(mContext);
+        String key = proxy.getDownloadKey(source);
+        if (key == null || ! mWifiLockDownloads.add(key)) {
+            return;
+        }
+        if (mWifiLockDownloads.size() == 1) {
+            proxy.addDownloadListener(mDownloadListener);
+        }
+        if (! mWifiLock.isHeld()) {
+            mWifiLock.acquire();
+            mWifiLockSince = SystemClock.elapsedRealtime();
+        }
+    }
+
+    /**
+     * A download the Wifi lock was held for has finished; let go of the lock if it was the last
+     */
+    private void releaseWifiLock(String key) {
+        if (mWifiLockDownloads.remove(key) && mWifiLockDownloads.isEmpty()) {
+            LogHelper.d(TAG, "Downloaded ", key, "; releasing Wifi lock");
+            releaseWifiLock();
+        }
+    }
+
+    private void releaseWifiLock() {
+        mWifiLockDownloads.clear();
+        CachingProxy.getInstance(mContext).removeDownloadListener(mDownloadListener);
+        if (mWifiLock.isHeld()) {
+            mWifiLock.release();
+            mMetrics.wifiLockReleased(SystemClock.elapsedRealtime() - mWifiLockSince);
+        }
+    }
+
+    /**
+     * Start preparing the next item once the current one is prepared, so the two don't
+     * compete for the network while playback is starting
+     */
+    private void prepareNextPlayerIfReady() {
+        if (mNextMediaId == null || mNextRequested || mMediaPlayer == null || ! mPrepared) {
+            return;
+        }
+        mNextRequested = true;
+        final String mediaId = mNextMediaId;
+        mMusicProvider.getMusic(MediaIDHelper.extractMusicIDFromMediaID(mediaId), (track) -> {
+            if (track == null || ! mediaId.equals(mNextMediaId) || mNextPlayer != null || mMediaPlayer == null) {
+                return;
+            }
+            MediaPlayer player = newMediaPlayer();
+            try {
+                String source = getSource(track);
+                player.setAudioStreamType(AudioManager.STREAM_MUSIC);
+                player.setDataSource(source);
+                holdWifiLock(source);
+                mNextPlayer = player;
+                mNextPrepared = false;
+                player.prepareAsync();
+            } catch (IOException ex) {
+                LogHelper.e(TAG, ex, "Exception preparing next song");
+                player.release();
+            }
+        });
+    }
+
+    private void chainNextPlayer() {
+        if (mNextChained || ! mNextPrepared || ! mPrepared || mMediaPlayer == null) {
+            return;
+        }
+        float volume = mAudioFocus == AUDIO_NO_FOCUS_CAN_DUCK ? VOLUME_DUCK : VOLUME_NORMAL;
+        mNextPlayer.setVolume(volume, volume);
+        mMediaPlayer.setNextMediaPlayer(mNextPlayer);
+        mNextChained = true;
+    }
+
+    /**
+     * Make the next player the current one
+     */
+    private void promoteNextPlayer() {
+        mMediaPlayer = mNextPlayer;
+        mCurrentMediaId = mNextMediaId;
+        mCurrentPosition = 0;
+        mPrepared = true;
+        mNextPlayer = null;
+        mNextMediaId = null;
+        mNextRequested = false;
+        mNextPrepared = false;
+        mNextChained = false;
+    }
+
+    private void releaseNextPlayer() {
+        if (mNextChained && mMediaPlayer != null) {
+            mMediaPlayer.setNextMediaPlayer(null);
+        }
+        if (mNextPlayer != null) {
+            mNextPlayer.release();
+            mNextPlayer = null;
+        }
+        mNextRequested = false;
+        mNextPrepared = false;
+        mNextChained = false;
+    }
+
     @Override
     public void pause() {
         if (mState == PlaybackStateCompat.STATE_PLAYING) {
@@ -246,6 +448,7 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
             relaxResources(false);
         }
         mState = PlaybackStateCompat.STATE_PAUSED;
+        mMetrics.state(mState);
         if (mCallback != null) {
             mCallback.onPlaybackStatusChanged(mState);
         }
@@ -264,6 +467,7 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
                 mState = PlaybackStateCompat.STATE_BUFFERING;
             }
             registerAudioNoisyReceiver();
+            mMetrics.seeking();
             mMediaPlayer.seekTo(position);
             if (mCallback != null) {
                 mCallback.onPlaybackStatusChanged(mState);
@@ -336,10 +540,16 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
             registerAudioNoisyReceiver();
             if (mAudioFocus == AUDIO_NO_FOCUS_CAN_DUCK) {
                 mMediaPlayer.setVolume(VOLUME_DUCK, VOLUME_DUCK); // we'll be relatively quiet
+                if (mNextChained) {
+                    mNextPlayer.setVolume(VOLUME_DUCK, VOLUME_DUCK);
+                }
             } else {
                 if (mMediaPlayer != null) {
                     mMediaPlayer.setVolume(VOLUME_NORMAL, VOLUME_NORMAL); // we can be loud again
                 } // else do something for remote client.
+                if (mNextChained) {
+                    mNextPlayer.setVolume(VOLUME_NORMAL, VOLUME_NORMAL);
+                }
             }
             // If we were playing when we lost focus, we need to resume playing.
             if (mPlayOnFocusGain) {
@@ -357,6 +567,7 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
                 mPlayOnFocusGain = false;
             }
         }
+        mMetrics.state(mState);
         if (mCallback != null) {
             mCallback.onPlaybackStatusChanged(mState);
         }
@@ -408,6 +619,7 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
             mMediaPlayer.start();
             mState = PlaybackStateCompat.STATE_PLAYING;
         }
+        mMetrics.state(mState);
         if (mCallback != null) {
             mCallback.onPlaybackStatusChanged(mState);
         }
@@ -421,6 +633,20 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
     @Override
     public void onCompletion(MediaPlayer player) {
         LogHelper.d(TAG, "onCompletion from MediaPlayer");
+        if (player != mMediaPlayer) {
+            return;
+        }
+        if (mNextChained) {
+            // The next player has already started playing the next item
+            promoteNextPlayer();
+            mAdvancedToMediaId = mCurrentMediaId;
+            mState = PlaybackStateCompat.STATE_PLAYING;
+            player.release();
+            mMetrics.requested(mCurrentMediaId);
+            mMetrics.state(mState);
+        } else {
+            mMetrics.finished();
+        }
         // The media player finished playing the current song, so we go ahead
         // and start the next.
         if (mCallback != null) {
@@ -436,9 +662,18 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
     @Override
     public void onPrepared(MediaPlayer player) {
         LogHelper.d(TAG, "onPrepared from MediaPlayer");
+        if (player == mNextPlayer) {
+            mNextPrepared = true;
+            chainNextPlayer();
+            return;
+        }
+        mPrepared = true;
+        mMetrics.prepared();
         // The media player is done preparing. That means we can start playing if we
         // have audio focus.
         configMediaPlayerState();
+        prepareNextPlayerIfReady();
+        chainNextPlayer();
     }
 
     /**
@@ -450,13 +685,41 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
      */
     @Override
     public boolean onError(MediaPlayer mp, int what, int extra) {
+        if (mp == mNextPlayer) {
+            // The next item will be tried again when it is played
+            LogHelper.e(TAG, "Error preparing next item: what=" + what + ", extra=" + extra);
+            releaseNextPlayer();
+            return true;
+        }
         LogHelper.e(TAG, "Media player error: what=" + what + ", extra=" + extra);
+        mMetrics.finished();
         if (mCallback != null) {
             mCallback.onError("MediaPlayer error " + what + " (" + extra + ")");
         }
         return true; // true indicates we handled the error
     }
 
+    /**
+     * Called when MediaPlayer runs out of data while playing, or has enough to go on.
+     *
+     * @see OnInfoListener
+     */
+    @Override
+    public boolean onInfo(MediaPlayer mp, int what, int extra) {
+        if (mp != mMediaPlayer) {
+            return false;
+        }
+        if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START) {
+            LogHelper.d(TAG, "MediaPlayer stalled to buffer");
+            mMetrics.bufferingStarted();
+            return true;
+        } else if (what == MediaPlayer.MEDIA_INFO_BUFFERING_END) {
+            mMetrics.bufferingEnded();
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Makes sure the media player exists and has been reset. This will create
      * the media player if needed, or reset the existing media player if one
@@ -464,26 +727,37 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
      */
     private void createMediaPlayerIfNeeded() {
         LogHelper.d(TAG, "createMediaPlayerIfNeeded. needed? ", (mMediaPlayer==null));
+        mPrepared = false;
         if (mMediaPlayer == null) {
-            mMediaPlayer = new MediaPlayer();
-
-            // Make sure the media player will acquire a wake-lock while
-            // playing. If we don't do that, the CPU might go to sleep while the
-            // song is playing, causing playback to stop.
-            mMediaPlayer.setWakeMode(mContext.getApplicationContext(),
-                    PowerManager.PARTIAL_WAKE_LOCK);
-
-            // we want the media player to notify us when it's ready preparing,
-            // and when it's done playing:
-            mMediaPlayer.setOnPreparedListener(this);
-            mMediaPlayer.setOnCompletionListener(this);
-            mMediaPlayer.setOnErrorListener(this);
-            mMediaPlayer.setOnSeekCompleteListener(this);
+            mMediaPlayer = newMediaPlayer();
         } else {
+            if (mNextChained) {
+                mMediaPlayer.setNextMediaPlayer(null);
+                mNextChained = false;
+            }
             mMediaPlayer.reset();
         }
     }
 
+    private MediaPlayer newMediaPlayer() {
+        MediaPlayer player = new MediaPlayer();
+
+        // Make sure the media player will acquire a wake-lock while
+        // playing. If we don't do that, the CPU might go to sleep while the
+        // song is playing, causing playback to stop.
+        player.setWakeMode(mContext.getApplicationContext(),
+                PowerManager.PARTIAL_WAKE_LOCK);
+
+        // we want the media player to notify us when it's ready preparing,
+        // and when it's done playing:
+        player.setOnPreparedListener(this);
+        player.setOnCompletionListener(this);
+        player.setOnErrorListener(this);
+        player.setOnInfoListener(this);
+        player.setOnSeekCompleteListener(this);
+        return player;
+    }
+
     /**
      * Releases resources used by the service for playback. This includes the
      * "foreground service" status, the wake locks and possibly the MediaPlayer.
@@ -495,16 +769,20 @@ public class LocalPlayback implements Playback, AudioManager.OnAudioFocusChangeL
         LogHelper.d(TAG, "relaxResources. releaseMediaPlayer=", releaseMediaPlayer);
 
         // stop and release the Media Player, if it's available
+        if (releaseMediaPlayer) {
+            releaseNextPlayer();
+            mNextMediaId = null;
+            mAdvancedToMediaId = null;
+        }
         if (releaseMediaPlayer && mMediaPlayer != null) {
             mMediaPlayer.reset();
             mMediaPlayer.release();
             mMediaPlayer = null;
+            mPrepared = false;
         }
 
         // we can also release the Wifi lock, if we're holding it
-        if (mWifiLock.isHeld()) {
-            mWifiLock.release();
-        }
+        releaseWifiLock();
     }
 
     private void registerAudioNoisyReceiver() {
@@ -17,6 +17,8 @@ package com.example.android.uamp.playback;
 
 import com.example.android.uamp.MusicService;
 
+import java.util.List;
+
 import static android.support.v4.media.session.MediaSessionCompat.QueueItem;
 
 /**
@@ -83,6 +85,12 @@ public interface Playback {
      */
     void play(QueueItem item);
 
+    /**
+     * @param items Items expected to be played after the current one, in order, which may be
+     *              prepared ahead of time so they follow without a gap; empty if there are none
+     */
+    void setNextItems(List<QueueItem> items);
+
     /**
      * Pause the current playing item
      */
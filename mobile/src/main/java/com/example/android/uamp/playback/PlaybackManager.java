@@ -44,6 +44,7 @@ import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
 
 import com.antlersoft.patchyamp.R;
+import com.antlersoft.patchyamp.cache.PinnedDownloads;
 import com.example.android.uamp.model.MusicProvider;
 import com.example.android.uamp.model.MusicProviderSource;
 import com.example.android.uamp.utils.LogHelper;
@@ -58,6 +59,16 @@ public class PlaybackManager implements Playback.Callback {
     private static final String TAG = LogHelper.makeLogTag(PlaybackManager.class);
     // Action to thumbs up a media item
     private static final String CUSTOM_ACTION_THUMBS_UP = "com.example.android.uamp.THUMBS_UP";
+    // How many items after the current one the playback is told of, to get ready ahead of time
+    private static final int UPCOMING_ITEMS = 3;
+    // Actions to keep a playlist or album on the device, or stop keeping it; the extras
+    // have its browse id in EXTRA_PIN_MEDIA_ID
+    public static final String CUSTOM_ACTION_PIN = "com.antlersoft.patchyamp.PIN";
+    public static final String CUSTOM_ACTION_UNPIN = "com.antlersoft.patchyamp.UNPIN";
+    public static final String EXTRA_PIN_MEDIA_ID = "com.antlersoft.patchyamp.PIN_MEDIA_ID";
+    // Action to play the whole library shuffled, each song once; play with no queue picks
+    // random songs instead, which may repeat
+    public static final String CUSTOM_ACTION_SHUFFLE_ALL = "com.antlersoft.patchyamp.SHUFFLE_ALL";
 
     private MusicProvider mMusicProvider;
     private QueueManager mQueueManager;
@@ -65,6 +76,7 @@ public class PlaybackManager implements Playback.Callback {
     private Playback mPlayback;
     private PlaybackServiceCallback mServiceCallback;
     private MediaSessionCallback mMediaSessionCallback;
+    private PinnedDownloads mPinnedDownloads;
 
     public PlaybackManager(PlaybackServiceCallback serviceCallback, Resources resources,
                            MusicProvider musicProvider, QueueManager queueManager,
@@ -86,6 +98,10 @@ public class PlaybackManager implements Playback.Callback {
         return mMediaSessionCallback;
     }
 
+    public void setPinnedDownloads(PinnedDownloads pinnedDownloads) {
+        mPinnedDownloads = pinnedDownloads;
+    }
+
     /**
      * Handle a request to play music
      */
@@ -95,9 +111,34 @@ public class PlaybackManager implements Playback.Callback {
         if (currentMusic != null) {
             mServiceCallback.onPlaybackStart();
             mPlayback.play(currentMusic);
+            updateNextItem();
         }
     }
 
+    /**
+     * Put back the queue saved before the process last stopped, ready to carry on from where
+     * it was
+     */
+    public void restoreQueue() {
+        mQueueManager.restoreQueue((current, position) -> {
+            if (current == null || mPlayback.isPlaying()) {
+                return;
+            }
+            mPlayback.setCurrentMediaId(current.getDescription().getMediaId());
+            mPlayback.setCurrentStreamPosition(position);
+            mPlayback.setState(PlaybackStateCompat.STATE_STOPPED);
+            updatePlaybackState(null);
+        });
+    }
+
+    /**
+     * Tell the playback which items follow the current one, after the current item or the
+     * queue changes
+     */
+    public void updateNextItem() {
+        mPlayback.setNextItems(mQueueManager.getUpcomingMusic(UPCOMING_ITEMS));
+    }
+
     /**
      * Handle a request to pause music
      */
@@ -157,6 +198,9 @@ public class PlaybackManager implements Playback.Callback {
         MediaSessionCompat.QueueItem currentMusic = mQueueManager.getCurrentMusic();
         if (currentMusic != null) {
             stateBuilder.setActiveQueueItemId(currentMusic.getQueueId());
+            if (position >= 0) {
+                mQueueManager.setCurrentPosition((int) position);
+            }
         }
 
         mServiceCallback.onPlaybackStateUpdated(stateBuilder.build());
@@ -273,6 +317,7 @@ public class PlaybackManager implements Playback.Callback {
                 MediaSessionCompat.QueueItem currentMusic = mQueueManager.getCurrentMusic();
                 if (resumePlaying && currentMusic != null) {
                     mPlayback.play(currentMusic);
+                    updateNextItem();
                 } else if (!resumePlaying) {
                     mPlayback.pause();
                 } else {
@@ -306,6 +351,9 @@ public class PlaybackManager implements Playback.Callback {
             LogHelper.d(TAG, "play");
             if (mQueueManager.getCurrentMusic() == null) {
                 mQueueManager.setRandomQueue(() -> {handlePlayRequest();});
+            } else {
+                // Resuming, or starting a queue restored after a restart
+                handlePlayRequest();
             }
         }
 
@@ -372,6 +420,15 @@ public class PlaybackManager implements Playback.Callback {
                 // playback state needs to be updated because the "Favorite" icon on the
                 // custom action will change to reflect the new favorite state.
                 updatePlaybackState(null);
+            } else if ((CUSTOM_ACTION_PIN.equals(action) || CUSTOM_ACTION_UNPIN.equals(action))
+                    && mPinnedDownloads != null && extras != null && extras.getString(EXTRA_PIN_MEDIA_ID) != null) {
+                if (CUSTOM_ACTION_PIN.equals(action)) {
+                    mPinnedDownloads.pin(extras.getString(EXTRA_PIN_MEDIA_ID));
+                } else {
+                    mPinnedDownloads.unpin(extras.getString(EXTRA_PIN_MEDIA_ID));
+                }
+            } else if (CUSTOM_ACTION_SHUFFLE_ALL.equals(action)) {
+                mQueueManager.setShuffleAllQueue(() -> {handlePlayRequest();});
             } else {
                 LogHelper.e(TAG, "Unsupported action: ", action);
             }
@@ -45,6 +45,7 @@ import android.support.v4.media.session.MediaSessionCompat;
 
 import com.example.android.uamp.AlbumArtCache;
 import com.antlersoft.patchyamp.R;
+import com.antlersoft.patchyamp.SavedQueue;
 import com.example.android.uamp.model.MusicProvider;
 import com.example.android.uamp.utils.LogHelper;
 import com.example.android.uamp.utils.MediaIDHelper;
@@ -53,8 +54,8 @@ import com.example.android.uamp.utils.QueueHelper;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Simple data provider for queues. Keeps track of a current queue and a current index in the
@@ -63,14 +64,32 @@ import java.util.List;
  */
 public class QueueManager {
     private static final String TAG = LogHelper.makeLogTag(QueueManager.class);
+    // A long queue is published to the MediaSession only around the current item, so it isn't
+    // all sent to every controller: this many items before the current one and after it
+    private static final int SESSION_WINDOW_BEHIND = 25;
+    private static final int SESSION_WINDOW_AHEAD = 75;
+    // The window moves when the current item comes this close to its edge
+    private static final int SESSION_WINDOW_MARGIN = 10;
+    // A random queue gets more songs when this few are left after the current one
+    private static final int RANDOM_QUEUE_MARGIN = QueuePrefetcher.DEFAULT_LOOK_AHEAD + 2;
+    // Played songs kept at the start of a random queue; older ones are dropped as it grows
+    private static final int RANDOM_QUEUE_HISTORY = SESSION_WINDOW_BEHIND;
 
     private MusicProvider mMusicProvider;
     private MetadataUpdateListener mListener;
     private Resources mResources;
 
-    // "Now playing" queue:
-    private List<MediaSessionCompat.QueueItem> mPlayingQueue;
-    private int mCurrentIndex;
+    // "Now playing" queue; each change swaps in a new snapshot, so readers never lock it
+    private final AtomicReference<QueueSnapshot> mQueue = new AtomicReference<>(QueueSnapshot.EMPTY);
+    private QueuePrefetcher mPrefetcher;
+    private SavedQueue mSavedQueue;
+    // The queue is a random one, which is extended as it plays
+    private boolean mRandomQueue;
+    // Songs are being picked to extend the random queue
+    private boolean mExtendingRandomQueue;
+    // Part of the queue published to the session, from mWindowStart up to mWindowEnd
+    private int mWindowStart;
+    private int mWindowEnd;
 
     public QueueManager(@NonNull MusicProvider musicProvider,
                         @NonNull Resources resources,
@@ -78,9 +97,66 @@ public class QueueManager {
         this.mMusicProvider = musicProvider;
         this.mListener = listener;
         this.mResources = resources;
+    }
+
+    /**
+     * @return The queue as it is now; it won't change, however the queue moves on
+     */
+    public QueueSnapshot getQueue() {
+        return mQueue.get();
+    }
+
+    /**
+     * @param prefetcher Prepares the items after the current one; may be null
+     */
+    public void setPrefetcher(QueuePrefetcher prefetcher) {
+        mPrefetcher = prefetcher;
+    }
 
-        mPlayingQueue = Collections.synchronizedList(new ArrayList<MediaSessionCompat.QueueItem>());
-        mCurrentIndex = 0;
+    /**
+     * @param savedQueue Keeps the queue over a restart; may be null
+     */
+    public void setSavedQueue(SavedQueue savedQueue) {
+        mSavedQueue = savedQueue;
+    }
+
+    /**
+     * Put back the queue saved before the process last stopped, from what was saved with it
+     * and without going to the server. Nothing happens if a queue is set in the meantime.
+     * @param listener Told where in the current item to carry on from, if a queue was restored
+     */
+    public void restoreQueue(@NonNull final RestoreListener listener) {
+        if (mSavedQueue == null) {
+            return;
+        }
+        final int generation = mQueue.get().getGeneration();
+        mSavedQueue.load((saved) -> {
+            QueueSnapshot queue = mQueue.get();
+            if (saved == null || generation != queue.getGeneration() || ! queue.isEmpty()) {
+                return;
+            }
+            QueueSnapshot restored = queue.replace(saved.title, saved.queue)
+                    .withCurrentIndex(saved.currentIndex);
+            if (! mQueue.compareAndSet(queue, restored)) {
+                return;
+            }
+            mSavedQueue.setRestored(saved);
+            mMusicProvider.putRecentSongs(saved.songs);
+            mRandomQueue = mResources.getString(R.string.random_queue_title).equals(saved.title);
+            mExtendingRandomQueue = false;
+            publishQueue();
+            updateMetadata();
+            listener.onQueueRestored(getCurrentMusic(), saved.position);
+        });
+    }
+
+    /**
+     * @param position Position in the current item in ms, to carry on from after a restart
+     */
+    public void setCurrentPosition(int position) {
+        if (mSavedQueue != null) {
+            mSavedQueue.setPosition(position);
+        }
     }
 
     public boolean isSameBrowsingCategory(@NonNull String mediaId) {
@@ -96,43 +172,53 @@ public class QueueManager {
     }
 
     public void setCurrentQueueIndex(int index) {
-        if (index >= 0 && index < mPlayingQueue.size()) {
-            mCurrentIndex = index;
-            mListener.onCurrentQueueIndexUpdated(mCurrentIndex);
+        QueueSnapshot queue;
+        do {
+            queue = mQueue.get();
+            if (index < 0 || index >= queue.size()) {
+                return;
+            }
+        } while (! mQueue.compareAndSet(queue, queue.withCurrentIndex(index)));
+        if (mSavedQueue != null) {
+            mSavedQueue.setCurrentIndex(index);
         }
+        publishQueueIfLeavingWindow();
+        mListener.onCurrentQueueIndexUpdated(index);
+        extendRandomQueueIfNearEnd();
     }
 
     public boolean setCurrentQueueItem(long queueId) {
         // set the current index on queue from the queue Id:
-        int index = QueueHelper.getMusicIndexOnQueue(mPlayingQueue, queueId);
+        int index = mQueue.get().indexOf(queueId);
         setCurrentQueueIndex(index);
         return index >= 0;
     }
 
     public boolean setCurrentQueueItem(String mediaId) {
         // set the current index on queue from the music Id:
-        int index = QueueHelper.getMusicIndexOnQueue(mPlayingQueue, mediaId);
+        int index = mQueue.get().indexOf(mediaId);
         setCurrentQueueIndex(index);
         return index >= 0;
     }
 
     public boolean skipQueuePosition(int amount) {
-        int index = mCurrentIndex + amount;
+        QueueSnapshot queue = mQueue.get();
+        int index = queue.getCurrentIndex() + amount;
         if (index < 0) {
             // skip backwards before the first song will keep you on the first song
             index = 0;
         } else {
             // skip forwards when in last song will cycle back to start of the queue
-            if (mPlayingQueue.size() == 0) {
+            if (queue.size() == 0) {
                 LogHelper.e(TAG, "Cannot skip to position in empty queue ", amount,
-                        ". Current=", mCurrentIndex, " queue length=", mPlayingQueue.size());
+                        ". Current=", queue.getCurrentIndex(), " queue length=", queue.size());
                 return false;
             }
-            index %= mPlayingQueue.size();
+            index %= queue.size();
         }
-        if (!QueueHelper.isIndexPlayable(index, mPlayingQueue)) {
+        if (!QueueHelper.isIndexPlayable(index, queue.getItems())) {
             LogHelper.e(TAG, "Cannot increment queue index by ", amount,
-                    ". Current=", mCurrentIndex, " queue length=", mPlayingQueue.size());
+                    ". Current=", queue.getCurrentIndex(), " queue length=", queue.size());
             return false;
         }
         setCurrentQueueIndex(index);
@@ -147,15 +233,107 @@ public class QueueManager {
         });
     }
 
+    /**
+     * Start a random queue of a few songs; more are picked as it plays, so it doesn't need
+     * the whole library
+     */
     public void setRandomQueue(Runnable toContinue) {
         QueueHelper.getRandomQueue(mMusicProvider, (queue) -> {
             setCurrentQueue(mResources.getString(R.string.random_queue_title),
                     queue);
+            mRandomQueue = true;
             updateMetadata();
             toContinue.run();
         });
     }
 
+    /**
+     * Pick more songs for a random queue when it is near its end
+     */
+    private void extendRandomQueueIfNearEnd() {
+        QueueSnapshot queue = mQueue.get();
+        if (! mRandomQueue || mExtendingRandomQueue || queue.isEmpty()
+                || queue.size() - queue.getCurrentIndex() > RANDOM_QUEUE_MARGIN) {
+            return;
+        }
+        mExtendingRandomQueue = true;
+        final int generation = queue.getGeneration();
+        long nextQueueId = queue.get(queue.size() - 1).getQueueId() + 1;
+        QueueHelper.getRandomQueue(mMusicProvider, nextQueueId, (items) -> {
+            if (generation != mQueue.get().getGeneration()) {
+                return;
+            }
+            mExtendingRandomQueue = false;
+            if (! items.isEmpty()) {
+                addToRandomQueue(items);
+            }
+        });
+    }
+
+    /**
+     * Add songs to the end of a random queue, dropping songs played long ago so the queue
+     * stays the same size however long it plays
+     */
+    private void addToRandomQueue(List<MediaSessionCompat.QueueItem> items) {
+        QueueSnapshot queue;
+        do {
+            queue = mQueue.get();
+        } while (! mQueue.compareAndSet(queue, queue.append(items,
+                Math.max(0, queue.getCurrentIndex() - RANDOM_QUEUE_HISTORY))));
+        save();
+        publishQueue();
+        prefetch();
+    }
+
+    /**
+     * Start a queue of the whole library shuffled, so each song plays once. It starts playing
+     * with the first page; later pages are shuffled in among the songs not played yet as they
+     * arrive. Unlike a random queue, it grows to hold every song in the library.
+     */
+    public void setShuffleAllQueue(Runnable toContinue) {
+        final int[] generation = new int[1];
+        QueueHelper.getShuffledQueue(mMusicProvider, (queue) -> {
+            setCurrentQueue(mResources.getString(R.string.shuffle_all_queue_title),
+                    queue);
+            generation[0] = mQueue.get().getGeneration();
+            updateMetadata();
+            toContinue.run();
+        }, (queue, lastPage) -> addShuffledToQueue(generation[0], queue));
+    }
+
+    /**
+     * Add a page of items to a shuffled queue, shuffling them in among the items that
+     * have not been played yet. The few items about to play, which may have been prepared
+     * already, stay where they are.
+     * @param generation Generation of the queue the items belong to
+     * @param items Items to add
+     * @return false if the queue has been replaced, so no more items are wanted
+     */
+    private boolean addShuffledToQueue(int generation, List<MediaSessionCompat.QueueItem> items) {
+        QueueSnapshot queue;
+        QueueSnapshot grown;
+        do {
+            queue = mQueue.get();
+            if (generation != queue.getGeneration()) {
+                return false;
+            }
+            if (items.isEmpty()) {
+                return true;
+            }
+            int firstShuffled = Math.min(queue.getCurrentIndex() + 1 + QueuePrefetcher.DEFAULT_LOOK_AHEAD,
+                    queue.size());
+            ArrayList<MediaSessionCompat.QueueItem> shuffled = new ArrayList<>(queue.size() - firstShuffled + items.size());
+            shuffled.addAll(queue.getItems().subList(firstShuffled, queue.size()));
+            shuffled.addAll(items);
+            Collections.shuffle(shuffled);
+            grown = queue.replaceFrom(firstShuffled, shuffled);
+        } while (! mQueue.compareAndSet(queue, grown));
+        save();
+        publishQueue();
+        prefetch();
+        return true;
+    }
+
     public void setQueueFromMusic(final String mediaId, final Runnable toContinue) {
         LogHelper.d(TAG, "setQueueFromMusic", mediaId);
 
@@ -183,17 +361,18 @@ public class QueueManager {
     }
 
     public MediaSessionCompat.QueueItem getCurrentMusic() {
-        if (!QueueHelper.isIndexPlayable(mCurrentIndex, mPlayingQueue)) {
-            return null;
-        }
-        return mPlayingQueue.get(mCurrentIndex);
+        return mQueue.get().getCurrent();
+    }
+
+    /**
+     * @return Up to count items skipQueuePosition(1), (2) and so on would move to, in order
+     */
+    public List<MediaSessionCompat.QueueItem> getUpcomingMusic(int count) {
+        return mQueue.get().getUpcoming(count);
     }
 
     public int getCurrentQueueSize() {
-        if (mPlayingQueue == null) {
-            return 0;
-        }
-        return mPlayingQueue.size();
+        return mQueue.get().size();
     }
 
     protected void setCurrentQueue(String title, List<MediaSessionCompat.QueueItem> newQueue) {
@@ -202,15 +381,24 @@ public class QueueManager {
 
     protected void setCurrentQueue(String title, List<MediaSessionCompat.QueueItem> newQueue,
                                    String initialMediaId) {
-        mPlayingQueue = newQueue;
-        int index = 0;
-        if (initialMediaId != null) {
-            index = QueueHelper.getMusicIndexOnQueue(mPlayingQueue, initialMediaId);
+        mRandomQueue = false;
+        mExtendingRandomQueue = false;
+        if (mPrefetcher != null) {
+            mPrefetcher.cancel();
         }
-        mCurrentIndex = Math.max(index, 0);
-        mListener.onQueueUpdated(title, newQueue);
+        QueueSnapshot queue;
+        QueueSnapshot replaced;
+        do {
+            queue = mQueue.get();
+            replaced = queue.replace(title, newQueue);
+            if (initialMediaId != null) {
+                replaced = replaced.withCurrentIndex(Math.max(replaced.indexOf(initialMediaId), 0));
+            }
+        } while (! mQueue.compareAndSet(queue, replaced));
+        save();
+        publishQueue();
         if (initialMediaId != null && ! MediaIDHelper.isBrowseable(initialMediaId) && MediaIDHelper.isPlaylist(MediaIDHelper.getParentMediaID(initialMediaId))) {
-            setCurrentQueueIndex(mCurrentIndex);
+            setCurrentQueueIndex(replaced.getCurrentIndex());
         }
     }
 
@@ -222,9 +410,13 @@ public class QueueManager {
         }
         final String musicId = MediaIDHelper.extractMusicIDFromMediaID(
                 currentMusic.getDescription().getMediaId());
+        prefetch();
         mMusicProvider.getMusic(musicId, (metadata) -> {
             if (metadata == null) {
-                throw new IllegalArgumentException("Invalid musicId " + musicId);
+                // Neither the server nor a pin knows the song now
+                LogHelper.e(TAG, "No metadata for ", musicId);
+                mListener.onMetadataRetrieveError();
+                return;
             }
 
             mListener.onMetadataChanged(metadata);
@@ -257,10 +449,69 @@ public class QueueManager {
         });
     }
 
+    /**
+     * Give the listener the part of the queue around the current item
+     */
+    private void publishQueue() {
+        QueueSnapshot queue = mQueue.get();
+        int size = queue.size();
+        int windowSize = SESSION_WINDOW_BEHIND + 1 + SESSION_WINDOW_AHEAD;
+        if (size <= windowSize) {
+            mWindowStart = 0;
+            mWindowEnd = size;
+            mListener.onQueueUpdated(queue.getTitle(), queue.getItems());
+            return;
+        }
+        // Keep the window full at either end of the queue
+        int start = Math.max(0, queue.getCurrentIndex() - SESSION_WINDOW_BEHIND);
+        start = Math.min(start, size - windowSize);
+        mWindowStart = start;
+        mWindowEnd = start + windowSize;
+        mListener.onQueueUpdated(queue.getTitle(), new ArrayList<>(queue.getItems().subList(mWindowStart, mWindowEnd)));
+    }
+
+    /**
+     * Move the published window if the current item is close to its edge, and there is more
+     * of the queue beyond that edge
+     */
+    private void publishQueueIfLeavingWindow() {
+        QueueSnapshot queue = mQueue.get();
+        int index = queue.getCurrentIndex();
+        if ((index < mWindowStart + SESSION_WINDOW_MARGIN && mWindowStart > 0)
+                || (index >= mWindowEnd - SESSION_WINDOW_MARGIN && mWindowEnd < queue.size())) {
+            publishQueue();
+        }
+    }
+
+    private void save() {
+        if (mSavedQueue != null) {
+            QueueSnapshot queue = mQueue.get();
+            mSavedQueue.setQueue(queue.getTitle(), queue.getItems(), queue.getCurrentIndex());
+        }
+    }
+
+    private void prefetch() {
+        if (mPrefetcher != null) {
+            QueueSnapshot queue = mQueue.get();
+            mPrefetcher.prefetch(queue.getItems(), queue.getCurrentIndex());
+        }
+    }
+
+    public interface RestoreListener {
+        /**
+         * @param current The current item of the restored queue
+         * @param position Position in it in ms when it was saved
+         */
+        void onQueueRestored(MediaSessionCompat.QueueItem current, int position);
+    }
+
     public interface MetadataUpdateListener {
         void onMetadataChanged(MediaMetadataCompat metadata);
         void onMetadataRetrieveError();
         void onCurrentQueueIndexUpdated(int queueIndex);
+        /**
+         * @param newQueue The queue, or for a long queue the part of it around the current item
+         */
         void onQueueUpdated(String title, List<MediaSessionCompat.QueueItem> newQueue);
     }
 }
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.playback;
+
+import android.graphics.Bitmap;
+import android.support.v4.media.MediaMetadataCompat;
+import android.support.v4.media.session.MediaSessionCompat;
+
+import com.antlersoft.patchyamp.AsyncRunner;
+import com.antlersoft.patchyamp.cache.CachingProxy;
+import com.antlersoft.patchyamp.exec.Lane;
+import com.antlersoft.patchyamp.exec.TaskExecutor;
+import com.example.android.uamp.AlbumArtCache;
+import com.example.android.uamp.model.MusicProvider;
+import com.example.android.uamp.utils.LogHelper;
+import com.example.android.uamp.utils.MediaIDHelper;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gets the items coming up in the queue ready before they play: their metadata from the
+ * MusicProvider, their album art in the AlbumArtCache, and the start of their audio in the
+ * streaming cache. Then the notification, lock screen and player have what they need as
+ * soon as the track changes.
+ *
+ * Art is only fetched into the AlbumArtCache; the provider keeps art for the playing song
+ * alone, and QueueManager.updateMetadata gives it to the song when it starts.
+ *
+ * Work for items that fall out of the look-ahead window, or for a queue that has been
+ * replaced, is cancelled. Used on the UI thread.
+ */
+public class QueuePrefetcher {
+    private static final String TAG = LogHelper.makeLogTag(QueuePrefetcher.class);
+    public static final int DEFAULT_LOOK_AHEAD = 3;
+    // On a metered network, where audio warmed for songs that are skipped is paid for
+    public static final int METERED_LOOK_AHEAD = 1;
+    // Enough audio to start playing while the rest streams
+    private static final long STREAM_START_BYTES = 256 * 1024;
+
+    private final MusicProvider mMusicProvider;
+    private final CachingProxy mProxy;
+    private int mLookAhead = DEFAULT_LOOK_AHEAD;
+    // Work in progress or done for each music id in the window
+    private final HashMap<String, ArrayList<TaskExecutor.TaskHandle>> mWindow = new HashMap<>();
+    // Increases when the queue is replaced, so lookups for the old queue are ignored
+    private int mGeneration;
+
+    /**
+     * @param proxy Streaming cache to warm, or null to leave the audio alone
+     */
+    public QueuePrefetcher(MusicProvider musicProvider, CachingProxy proxy) {
+        mMusicProvider = musicProvider;
+        mProxy = proxy;
+    }
+
+    /**
+     * @param lookAhead How many items after the current one to prepare; 0 turns prefetch off
+     */
+    public void setLookAhead(int lookAhead) {
+        mLookAhead = Math.max(0, lookAhead);
+    }
+
+    /**
+     * Prepare the items following the current one, after the current item changes
+     */
+    public void prefetch(List<MediaSessionCompat.QueueItem> queue, int currentIndex) {
+        HashSet<String> upcoming = new HashSet<>();
+        ArrayList<String> toStart = new ArrayList<>();
+        int size = queue.size();
+        for (int i = 1; i <= mLookAhead && i < size; i++) {
+            String mediaId;
+            try {
+                mediaId = queue.get((currentIndex + i) % size).getDescription().getMediaId();
+            } catch (IndexOutOfBoundsException ioobe) {
+                break;
+            }
+            if (mediaId == null) {
+                continue;
+            }
+            String musicId = MediaIDHelper.extractMusicIDFromMediaID(mediaId);
+            if (musicId != null && upcoming.add(musicId) && ! mWindow.containsKey(musicId)) {
+                toStart.add(musicId);
+            }
+        }
+        for (Iterator<Map.Entry<String, ArrayList<TaskExecutor.TaskHandle>>> it = mWindow.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, ArrayList<TaskExecutor.TaskHandle>> entry = it.next();
+            if (! upcoming.contains(entry.getKey())) {
+                cancel(entry.getValue());
+                it.remove();
+            }
+        }
+        for (String musicId : toStart) {
+            start(musicId);
+        }
+    }
+
+    /**
+     * Cancel all prefetch work, when the queue is replaced
+     */
+    public void cancel() {
+        mGeneration++;
+        for (ArrayList<TaskExecutor.TaskHandle> handles : mWindow.values()) {
+            cancel(handles);
+        }
+        mWindow.clear();
+    }
+
+    private void start(final String musicId) {
+        final ArrayList<TaskExecutor.TaskHandle> handles = new ArrayList<>(2);
+        mWindow.put(musicId, handles);
+        final int generation = mGeneration;
+        mMusicProvider.getMusic(musicId, (metadata) -> {
+            if (metadata == null || generation != mGeneration || mWindow.get(musicId) != handles) {
+                return;
+            }
+            if (metadata.getDescription().getIconBitmap() == null &&
+                    metadata.getDescription().getIconUri() != null) {
+                TaskExecutor.TaskHandle art = AlbumArtCache.getInstance().fetch(
+                        metadata.getDescription().getIconUri().toString(), new AlbumArtCache.FetchListener() {
+                    @Override
+                    public void onFetched(String artUrl, Bitmap bitmap, Bitmap icon) {
+                        // Cached for when the song plays
+                    }
+                });
+                if (art != null) {
+                    handles.add(art);
+                }
+            }
+            warmStream(metadata, handles);
+        });
+    }
+
+    private void warmStream(MediaMetadataCompat metadata, ArrayList<TaskExecutor.TaskHandle> handles) {
+        if (mProxy == null) {
+            return;
+        }
+        String source = mMusicProvider.getLocalTrackSource(metadata);
+        if (source == null || source.startsWith("/")) {
+            // Nothing to fetch for a song pinned on the device
+            return;
+        }
+        final String songId = metadata.getString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID);
+        final String url = mProxy.chooseSource(songId, source.replaceAll(" ", "%20"));
+        handles.add(AsyncRunner.RunAsync(Lane.PREFETCH, TaskExecutor.PRIORITY_LOW,
+                () -> mProxy.warm(songId, url, STREAM_START_BYTES), null));
+        LogHelper.d(TAG, "Prefetching start of ", songId);
+    }
+
+    private static void cancel(List<TaskExecutor.TaskHandle> handles) {
+        for (TaskExecutor.TaskHandle handle : handles) {
+            handle.cancel();
+        }
+    }
+}
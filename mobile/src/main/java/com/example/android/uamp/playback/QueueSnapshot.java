@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2017 Michael A. MacDonald
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.uamp.playback;
+
+import android.support.v4.media.session.MediaSessionCompat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The playing queue as it was at one moment: its items, title and current item.
+ *
+ * A snapshot never changes once made. QueueManager makes a new one for each change and swaps
+ * it in, so anything holding one, like the session, the prefetcher or the saved queue, sees a
+ * consistent queue without locking, however the queue moves on meanwhile. Snapshots that
+ * differ only in the current item share the items and their indexes.
+ */
+public final class QueueSnapshot {
+    public static final QueueSnapshot EMPTY = new QueueSnapshot(null,
+            Collections.<MediaSessionCompat.QueueItem>emptyList(), 0, 0,
+            new HashMap<String, Integer>(), new HashMap<Long, Integer>());
+
+    private final String mTitle;
+    private final List<MediaSessionCompat.QueueItem> mItems;
+    private final int mCurrentIndex;
+    // Incremented each time the queue is replaced, so pages for an old queue can be dropped
+    private final int mGeneration;
+    // Position of the first item with each media id and queue id, so items are found
+    // without going through a long queue; never changed once the snapshot is made
+    private final HashMap<String, Integer> mMediaIdIndex;
+    private final HashMap<Long, Integer> mQueueIdIndex;
+
+    private QueueSnapshot(String title, List<MediaSessionCompat.QueueItem> items, int currentIndex,
+                          int generation, HashMap<String, Integer> mediaIdIndex,
+                          HashMap<Long, Integer> queueIdIndex) {
+        mTitle = title;
+        mItems = items;
+        mCurrentIndex = currentIndex;
+        mGeneration = generation;
+        mMediaIdIndex = mediaIdIndex;
+        mQueueIdIndex = queueIdIndex;
+    }
+
+    /**
+     * @return A new queue to replace this one, with its first item current
+     */
+    public QueueSnapshot replace(String title, List<MediaSessionCompat.QueueItem> items) {
+        List<MediaSessionCompat.QueueItem> copy = Collections.unmodifiableList(new ArrayList<>(items));
+        HashMap<String, Integer> mediaIdIndex = new HashMap<>(copy.size() * 4 / 3 + 1);
+        HashMap<Long, Integer> queueIdIndex = new HashMap<>(copy.size() * 4 / 3 + 1);
+        index(copy, 0, mediaIdIndex, queueIdIndex);
+        return new QueueSnapshot(title, copy, 0, mGeneration + 1, mediaIdIndex, queueIdIndex);
+    }
+
+    /**
+     * @return This queue with items added at the end, and the first drop items removed
+     */
+    public QueueSnapshot append(List<MediaSessionCompat.QueueItem> items, int drop) {
+        ArrayList<MediaSessionCompat.QueueItem> grown = new ArrayList<>(mItems.size() - drop + items.size());
+        grown.addAll(mItems.subList(drop, mItems.size()));
+        grown.addAll(items);
+        HashMap<String, Integer> mediaIdIndex;
+        HashMap<Long, Integer> queueIdIndex;
+        if (drop > 0) {
+            mediaIdIndex = new HashMap<>(grown.size() * 4 / 3 + 1);
+            queueIdIndex = new HashMap<>(grown.size() * 4 / 3 + 1);
+            index(grown, 0, mediaIdIndex, queueIdIndex);
+        } else {
+            // Items already here keep their positions
+            mediaIdIndex = new HashMap<>(mMediaIdIndex);
+            queueIdIndex = new HashMap<>(mQueueIdIndex);
+            index(grown, mItems.size(), mediaIdIndex, queueIdIndex);
+        }
+        return new QueueSnapshot(mTitle, Collections.unmodifiableList(grown),
+                Math.max(0, mCurrentIndex - drop), mGeneration, mediaIdIndex, queueIdIndex);
+    }
+
+    /**
+     * @return This queue with the items from position from on replaced by items; the
+     * current item stays the same if it is before from
+     */
+    public QueueSnapshot replaceFrom(int from, List<MediaSessionCompat.QueueItem> items) {
+        ArrayList<MediaSessionCompat.QueueItem> replaced = new ArrayList<>(from + items.size());
+        replaced.addAll(mItems.subList(0, from));
+        replaced.addAll(items);
+        // Items from on may have been the first with their ids, so index all again
+        HashMap<String, Integer> mediaIdIndex = new HashMap<>(replaced.size() * 4 / 3 + 1);
+        HashMap<Long, Integer> queueIdIndex = new HashMap<>(replaced.size() * 4 / 3 + 1);
+        index(replaced, 0, mediaIdIndex, queueIdIndex);
+        return new QueueSnapshot(mTitle, Collections.unmodifiableList(replaced), mCurrentIndex,
+                mGeneration, mediaIdIndex, queueIdIndex);
+    }
+
+    /**
+     * @return This queue with another item current
+     */
+    public QueueSnapshot withCurrentIndex(int index) {
+        if (index == mCurrentIndex) {
+            return this;
+        }
+        return new QueueSnapshot(mTitle, mItems, index, mGeneration, mMediaIdIndex, mQueueIdIndex);
+    }
+
+    private static void index(List<MediaSessionCompat.QueueItem> items, int start,
+                              HashMap<String, Integer> mediaIdIndex, HashMap<Long, Integer> queueIdIndex) {
+        int size = items.size();
+        for (int i = start; i < size; i++) {
+            MediaSessionCompat.QueueItem item = items.get(i);
+            String mediaId = item.getDescription().getMediaId();
+            // The first wins, as a search from the start of the queue would find
+            if (mediaId != null && ! mediaIdIndex.containsKey(mediaId)) {
+                mediaIdIndex.put(mediaId, i);
+            }
+            if (! queueIdIndex.containsKey(item.getQueueId())) {
+                queueIdIndex.put(item.getQueueId(), i);
+            }
+        }
+    }
+
+    public String getTitle() {
+        return mTitle;
+    }
+
+    /**
+     * @return The items, which can't be modified
+     */
+    public List<MediaSessionCompat.QueueItem> getItems() {
+        return mItems;
+    }
+
+    public int size() {
+        return mItems.size();
+    }
+
+    public boolean isEmpty() {
+        return mItems.isEmpty();
+    }
+
+    public int getCurrentIndex() {
+        return mCurrentIndex;
+    }
+
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    public MediaSessionCompat.QueueItem get(int index) {
+        return mItems.get(index);
+    }
+
+    /**
+     * @return The current item, or null if the queue is empty
+     */
+    public MediaSessionCompat.QueueItem getCurrent() {
+        if (mCurrentIndex < 0 || mCurrentIndex >= mItems.size()) {
+            return null;
+        }
+        return mItems.get(mCurrentIndex);
+    }
+
+    /**
+     * @return Up to count items after the current one, in the order they would play, wrapping
+     * to the start; never the current item itself
+     */
+    public List<MediaSessionCompat.QueueItem> getUpcoming(int count) {
+        int size = mItems.size();
+        if (getCurrent() == null) {
+            return Collections.emptyList();
+        }
+        int length = Math.min(count, size - 1);
+        ArrayList<MediaSessionCompat.QueueItem> upcoming = new ArrayList<>(length);
+        for (int i = 1; i <= length; i++) {
+            upcoming.add(mItems.get((mCurrentIndex + i) % size));
+        }
+        return upcoming;
+    }
+
+    /**
+     * @return Position of the first item in the queue with mediaId, or -1 if there isn't one
+     */
+    public int indexOf(String mediaId) {
+        Integer index = mMediaIdIndex.get(mediaId);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return Position of the first item in the queue with queueId, or -1 if there isn't one
+     */
+    public int indexOf(long queueId) {
+        Integer index = mQueueIdIndex.get(queueId);
+        return index == null ? -1 : index;
+    }
+}
@@ -40,6 +40,7 @@ import android.content.res.Configuration;
 import android.os.Bundle;
 import android.os.Handler;
 import android.support.design.widget.NavigationView;
+import android.support.v4.media.session.MediaControllerCompat;
 import android.support.v4.view.GravityCompat;
 import android.support.v4.widget.DrawerLayout;
 import android.support.v7.app.ActionBarDrawerToggle;
@@ -50,8 +51,10 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 
+import com.antlersoft.patchyamp.PlaybackMetricsDialog;
 import com.antlersoft.patchyamp.R;
 import com.example.android.uamp.model.MusicProvider;
+import com.example.android.uamp.playback.PlaybackManager;
 import com.example.android.uamp.utils.LogHelper;
 import com.google.android.gms.cast.framework.CastButtonFactory;
 import com.google.android.gms.cast.framework.CastContext;
@@ -123,6 +126,21 @@ public abstract class ActionBarCastActivity extends AppCompatActivity {
                         break;
                     case R.id.navigation_logcat:
                         activityClass = LogcatActivity.class;
+                        break;
+                    case R.id.navigation_metrics:
+                        // Shown over this activity, which stays
+                        new PlaybackMetricsDialog(ActionBarCastActivity.this).show();
+                        mItemToOpenWhenDrawerCloses = -1;
+                        break;
+                    case R.id.navigation_shuffle_all:
+                        // Plays in this activity, which stays
+                        MediaControllerCompat controller = MediaControllerCompat.getMediaController(ActionBarCastActivity.this);
+                        if (controller != null) {
+                            controller.getTransportControls().sendCustomAction(
+                                    PlaybackManager.CUSTOM_ACTION_SHUFFLE_ALL, null);
+                        }
+                        mItemToOpenWhenDrawerCloses = -1;
+                        break;
                 }
                 if (activityClass != null) {
                     startActivity(new Intent(ActionBarCastActivity.this, activityClass), extras);
@@ -294,7 +312,10 @@ public abstract class ActionBarCastActivity extends AppCompatActivity {
                 new NavigationView.OnNavigationItemSelectedListener() {
                     @Override
                     public boolean onNavigationItemSelected(MenuItem menuItem) {
-                        menuItem.setChecked(true);
+                        if (menuItem.getItemId() != R.id.navigation_metrics
+                                && menuItem.getItemId() != R.id.navigation_shuffle_all) {
+                            menuItem.setChecked(true);
+                        }
                         mItemToOpenWhenDrawerCloses = menuItem.getItemId();
                         mDrawerLayout.closeDrawers();
                         return true;
@@ -48,7 +48,10 @@ import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaControllerCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
+import android.view.ContextMenu;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
@@ -58,7 +61,9 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.antlersoft.patchyamp.R;
+import com.antlersoft.patchyamp.cache.PinnedDownloads;
 import com.example.android.uamp.model.MusicProvider;
+import com.example.android.uamp.playback.PlaybackManager;
 import com.example.android.uamp.utils.LogHelper;
 import com.example.android.uamp.utils.MediaIDHelper;
 import com.example.android.uamp.utils.NetworkHelper;
@@ -192,10 +197,37 @@ public class MediaBrowserFragment extends Fragment {
                 mMediaFragmentListener.onMediaItemSelected(item);
             }
         });
+        registerForContextMenu(listView);
 
         return rootView;
     }
 
+    @Override
+    public void onCreateContextMenu(ContextMenu menu, View v, ContextMenu.ContextMenuInfo menuInfo) {
+        super.onCreateContextMenu(menu, v, menuInfo);
+        MediaBrowserCompat.MediaItem item = mBrowserAdapter.getItem(((AdapterView.AdapterContextMenuInfo) menuInfo).position);
+        String mediaId = item == null ? null : item.getMediaId();
+        if (mediaId != null && PinnedDownloads.canPin(mediaId)) {
+            menu.add(Menu.NONE, R.string.pin_offline, Menu.NONE, R.string.pin_offline);
+            menu.add(Menu.NONE, R.string.unpin_offline, Menu.NONE, R.string.unpin_offline);
+        }
+    }
+
+    @Override
+    public boolean onContextItemSelected(MenuItem menuItem) {
+        int id = menuItem.getItemId();
+        MediaControllerCompat controller = MediaControllerCompat.getMediaController(getActivity());
+        if ((id != R.string.pin_offline && id != R.string.unpin_offline) || controller == null) {
+            return super.onContextItemSelected(menuItem);
+        }
+        MediaBrowserCompat.MediaItem item = mBrowserAdapter.getItem(((AdapterView.AdapterContextMenuInfo) menuItem.getMenuInfo()).position);
+        Bundle extras = new Bundle();
+        extras.putString(PlaybackManager.EXTRA_PIN_MEDIA_ID, item.getMediaId());
+        controller.getTransportControls().sendCustomAction(
+                id == R.string.pin_offline ? PlaybackManager.CUSTOM_ACTION_PIN : PlaybackManager.CUSTOM_ACTION_UNPIN, extras);
+        return true;
+    }
+
     @Override
     public void onStart() {
         super.onStart();
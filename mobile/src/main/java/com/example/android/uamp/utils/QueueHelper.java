@@ -45,6 +45,8 @@ import android.text.TextUtils;
 import com.example.android.uamp.VoiceSearchParams;
 import com.example.android.uamp.model.MusicProvider;
 import com.example.android.uamp.model.MusicProviderSource;
+import com.example.android.uamp.model.SongIterator;
+import com.example.android.uamp.model.SongRecord;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -64,6 +66,18 @@ public class QueueHelper {
         void SetResult(List<MediaSessionCompat.QueueItem> queueItems);
     }
 
+    /**
+     * Receives queue items after the first batch for queues that are built a page at a time
+     */
+    public interface QueryPageResult {
+        /**
+         * @param queueItems Items to add to the end of the queue
+         * @param lastPage true if no more pages will follow
+         * @return false if no more pages are wanted
+         */
+        boolean AddPage(List<MediaSessionCompat.QueueItem> queueItems, boolean lastPage);
+    }
+
     private static MusicProviderSource.MediaFetchResult FetchToQueryResult(QueryResult qr, String... categories) {
         return (title, items) -> {
             qr.SetResult(convertToQueue(items, categories));
@@ -72,7 +86,8 @@ public class QueueHelper {
 
     private static final String TAG = LogHelper.makeLogTag(QueueHelper.class);
 
-    private static final int RANDOM_QUEUE_SIZE = 10;
+    // Songs picked at a time for a random queue, which gets more as it nears its end
+    public static final int RANDOM_QUEUE_SIZE = 10;
 
     public static void getPlayingQueue(String mediaId,
             MusicProvider musicProvider, QueryResult result) {
@@ -178,8 +193,19 @@ public class QueueHelper {
 
     public static List<MediaSessionCompat.QueueItem> convertToQueue(
             Iterator<MediaMetadataCompat> tracks, String... categories) {
+        return convertToQueue(tracks, 0, categories);
+    }
+
+    /**
+     * @param firstQueueId queueId of the first item; the rest are numbered consecutively
+     */
+    public static List<MediaSessionCompat.QueueItem> convertToQueue(
+            Iterator<MediaMetadataCompat> tracks, long firstQueueId, String... categories) {
+        if (tracks instanceof SongIterator) {
+            return convertSongsToQueue((SongIterator) tracks, firstQueueId, categories);
+        }
         List<MediaSessionCompat.QueueItem> queue = new ArrayList<>();
-        int count = 0;
+        long count = firstQueueId;
         while (tracks.hasNext()) {
             MediaMetadataCompat track = tracks.next();
             // We create a hierarchy-aware mediaID, so we know what the queue is about by looking
@@ -191,8 +217,8 @@ public class QueueHelper {
                     .putString(MediaMetadataCompat.METADATA_KEY_MEDIA_ID, hierarchyAwareMediaID)
                     .build();
 
-            // We don't expect queues to change after created, so we use the item index as the
-            // queueId. Any other number unique in the queue would work.
+            // Queues only change by having pages added at the end, so we use the item's index
+            // when it was added as the queueId. Any other number unique in the queue would work.
             MediaSessionCompat.QueueItem item = new MediaSessionCompat.QueueItem(
                     trackCopy.getDescription(), count++);
             queue.add(item);
@@ -202,13 +228,68 @@ public class QueueHelper {
     }
 
     /**
-     * Create a random queue with at most {@link #RANDOM_QUEUE_SIZE} elements.
+     * Build the queue from the songs' records, making each item's description directly
+     * rather than copying the song's metadata to change its media id and taking the copy's
+     * description; that made two Bundles for every song.
+     */
+    private static List<MediaSessionCompat.QueueItem> convertSongsToQueue(
+            SongIterator songs, long firstQueueId, String... categories) {
+        // The hierarchy-aware media ids differ only in the music id at the end
+        String prefix = MediaIDHelper.createMediaID("", categories);
+        List<MediaSessionCompat.QueueItem> queue = new ArrayList<>();
+        long count = firstQueueId;
+        while (songs.hasNext()) {
+            SongRecord song = songs.nextSong();
+            queue.add(new MediaSessionCompat.QueueItem(song.toDescription(prefix + song.id), count++));
+        }
+        return queue;
+    }
+
+    /**
+     * Create a random queue of RANDOM_QUEUE_SIZE songs picked from all the music
      *
      * @param musicProvider the provider used for fetching music.
-     * @return list containing {@link MediaSessionCompat.QueueItem}'s
      */
     public static void getRandomQueue(MusicProvider musicProvider, QueryResult qr) {
-        musicProvider.getShuffledMusic(FetchToQueryResult(qr, MEDIA_ID_MUSICS_BY_SEARCH, "random"));
+        getRandomQueue(musicProvider, 0, qr);
+    }
+
+    /**
+     * Pick RANDOM_QUEUE_SIZE more songs from all the music, to start a random queue or to
+     * add to the end of one
+     *
+     * @param musicProvider the provider used for fetching music.
+     * @param firstQueueId queueId of the first item; the rest are numbered consecutively
+     */
+    public static void getRandomQueue(MusicProvider musicProvider, long firstQueueId, QueryResult qr) {
+        musicProvider.getRandomMusic(RANDOM_QUEUE_SIZE, (title, items) ->
+                qr.SetResult(convertToQueue(items, firstQueueId, MEDIA_ID_MUSICS_BY_SEARCH, "random")));
+    }
+
+    /**
+     * Create a queue of all the music, shuffled, so each song plays once. The first page of
+     * the queue is passed to qr as soon as it is available; following pages are passed to
+     * more as they arrive.
+     *
+     * @param musicProvider the provider used for fetching music.
+     */
+    public static void getShuffledQueue(MusicProvider musicProvider, QueryResult qr, QueryPageResult more) {
+        final long[] nextQueueId = new long[1];
+        musicProvider.getShuffledMusic(new MusicProviderSource.MediaPageResult() {
+            @Override
+            public void setResult(String title, Iterator<MediaMetadataCompat> items) {
+                List<MediaSessionCompat.QueueItem> queue = convertToQueue(items, MEDIA_ID_MUSICS_BY_SEARCH, "random");
+                nextQueueId[0] = queue.size();
+                qr.SetResult(queue);
+            }
+
+            @Override
+            public boolean addPage(Iterator<MediaMetadataCompat> items, boolean lastPage) {
+                List<MediaSessionCompat.QueueItem> queue = convertToQueue(items, nextQueueId[0], MEDIA_ID_MUSICS_BY_SEARCH, "random");
+                nextQueueId[0] += queue.size();
+                return more.AddPage(queue, lastPage);
+            }
+        });
     }
 
     public static boolean isIndexPlayable(int index, List<MediaSessionCompat.QueueItem> queue) {